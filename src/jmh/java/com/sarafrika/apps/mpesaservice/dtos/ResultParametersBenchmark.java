@@ -0,0 +1,72 @@
+package com.sarafrika.apps.mpesaservice.dtos;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a B2C result the way the callback path does: decode the parameter list, then call the
+ * getters the handlers and the outgoing payment service use. {@code streamScan} is the previous
+ * per-getter scan of the list; {@code indexed} includes building the index for every result.
+ * <p>
+ * Run with {@code gradle jmh -Pjmh.includes=ResultParametersBenchmark}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultParametersBenchmark {
+
+    private static final String[] READ = {
+            "TransactionReceipt", "TransactionAmount", "ReceiverPartyPublicName",
+            "TransactionCompletedDateTime", "B2CUtilityAccountAvailableFunds", "B2CWorkingAccountAvailableFunds"
+    };
+
+    private List<B2CResultParameter> parameters;
+
+    @Setup
+    public void setUp() {
+        parameters = List.of(
+                new B2CResultParameter("TransactionAmount", "10"),
+                new B2CResultParameter("TransactionReceipt", "NLJ41HAY6Q"),
+                new B2CResultParameter("B2CRecipientIsRegisteredCustomer", "Y"),
+                new B2CResultParameter("B2CChargesPaidAccountAvailableFunds", "-4510.00"),
+                new B2CResultParameter("ReceiverPartyPublicName", "254708374149 - John Doe"),
+                new B2CResultParameter("TransactionCompletedDateTime", "19.12.2019 11:45:50"),
+                new B2CResultParameter("B2CUtilityAccountAvailableFunds", "10116.00"),
+                new B2CResultParameter("B2CWorkingAccountAvailableFunds", "900000.00"));
+    }
+
+    @Benchmark
+    public void streamScan(Blackhole blackhole) {
+        for (String name : READ) {
+            blackhole.consume(parameters.stream()
+                    .filter(param -> name.equals(param.key()))
+                    .map(B2CResultParameter::value)
+                    .findFirst()
+                    .orElse(null));
+        }
+    }
+
+    @Benchmark
+    public void indexed(Blackhole blackhole) {
+        B2CResultParameters result = new B2CResultParameters(parameters);
+        for (String name : READ) {
+            blackhole.consume(result.getParameterValue(name));
+        }
+    }
+}
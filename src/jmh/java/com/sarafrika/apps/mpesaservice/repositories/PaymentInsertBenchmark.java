@@ -0,0 +1,154 @@
+package com.sarafrika.apps.mpesaservice.repositories;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing 10,000 payments in one transaction the two ways Hibernate can: {@code identity} is
+ * what an IDENTITY id forces, one {@code INSERT ... RETURNING id} round trip per row;
+ * {@code pooled} takes ids 50 at a time from the sequence and sends the inserts as JDBC batches
+ * of 50, with and without the driver rewriting each batch into one multi-row INSERT.
+ * <p>
+ * Needs a PostgreSQL database, taken from the same {@code SPRING_DATASOURCE_URL},
+ * {@code SPRING_DATASOURCE_USERNAME} and {@code SPRING_DATASOURCE_PASSWORD} as the service. Rows
+ * go into a temporary copy of the payment columns, so no real table is touched. Run with
+ * {@code gradle jmh -Pjmh.includes=PaymentInsertBenchmark}.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(1)
+public class PaymentInsertBenchmark {
+
+    private static final int ROWS = 10_000;
+    private static final int ALLOCATION_SIZE = 50;
+
+    private static final String INSERT_SQL = """
+            INSERT INTO bench_payments (id, uuid, shortcode_uuid, transaction_id, phone_number, amount, status)
+            VALUES (%s, ?, ?, ?, ?, ?, 'COMPLETED')
+            """;
+
+    @Param({"false", "true"})
+    public boolean reWriteBatchedInserts;
+
+    private Connection connection;
+    private UUID shortcodeUuid;
+
+    @Setup(Level.Trial)
+    public void connect() throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty("user", System.getenv().getOrDefault("SPRING_DATASOURCE_USERNAME", "postgres"));
+        properties.setProperty("password", System.getenv().getOrDefault("SPRING_DATASOURCE_PASSWORD", ""));
+        properties.setProperty("reWriteBatchedInserts", Boolean.toString(reWriteBatchedInserts));
+        connection = DriverManager.getConnection(System.getenv().getOrDefault("SPRING_DATASOURCE_URL",
+                "jdbc:postgresql://localhost:5432/mpesa"), properties);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TEMPORARY TABLE bench_payments
+                    (
+                        id             BIGSERIAL PRIMARY KEY,
+                        uuid           UUID           NOT NULL,
+                        shortcode_uuid UUID           NOT NULL,
+                        transaction_id VARCHAR(50)    NOT NULL,
+                        phone_number   VARCHAR(15)    NOT NULL,
+                        amount         DECIMAL(15, 2) NOT NULL,
+                        status         VARCHAR(20)    NOT NULL,
+                        created_at     TIMESTAMP      NOT NULL DEFAULT now()
+                    )
+                    """);
+            statement.execute("CREATE TEMPORARY SEQUENCE bench_payments_pooled_seq INCREMENT BY " + ALLOCATION_SIZE);
+        }
+        connection.setAutoCommit(false);
+        shortcodeUuid = UUID.randomUUID();
+    }
+
+    @Setup(Level.Invocation)
+    public void truncate() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("TRUNCATE bench_payments");
+        }
+        connection.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public long identity() throws SQLException {
+        long last = 0;
+        try (PreparedStatement insert = connection.prepareStatement(
+                INSERT_SQL.formatted("DEFAULT") + " RETURNING id")) {
+            for (int i = 0; i < ROWS; i++) {
+                bind(insert, i, 1);
+                try (ResultSet generated = insert.executeQuery()) {
+                    generated.next();
+                    last = generated.getLong(1);
+                }
+            }
+        }
+        connection.commit();
+        return last;
+    }
+
+    @Benchmark
+    public long pooled() throws SQLException {
+        long next = 0;
+        long ceiling = 0;
+        try (PreparedStatement sequence = connection.prepareStatement("SELECT nextval('bench_payments_pooled_seq')");
+             PreparedStatement insert = connection.prepareStatement(INSERT_SQL.formatted("?"))) {
+            for (int i = 0; i < ROWS; i++) {
+                if (next == ceiling) {
+                    try (ResultSet value = sequence.executeQuery()) {
+                        value.next();
+                        ceiling = value.getLong(1) + 1;
+                        next = ceiling - ALLOCATION_SIZE;
+                    }
+                }
+                insert.setLong(1, next++);
+                bind(insert, i, 2);
+                insert.addBatch();
+                if ((i + 1) % ALLOCATION_SIZE == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        connection.commit();
+        return next;
+    }
+
+    private void bind(PreparedStatement insert, int row, int first) throws SQLException {
+        insert.setObject(first, UUID.randomUUID());
+        insert.setObject(first + 1, shortcodeUuid);
+        insert.setString(first + 2, "BNCH%06d".formatted(row));
+        insert.setString(first + 3, "2547%08d".formatted(row));
+        insert.setBigDecimal(first + 4, BigDecimal.valueOf(100 + row % 900, 2));
+    }
+}
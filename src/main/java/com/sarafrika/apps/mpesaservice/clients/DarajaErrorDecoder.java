@@ -0,0 +1,135 @@
+package com.sarafrika.apps.mpesaservice.clients;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaErrorResponse;
+import com.sarafrika.apps.mpesaservice.exceptions.DarajaApiException;
+import com.sarafrika.apps.mpesaservice.exceptions.DarajaAuthenticationException;
+import com.sarafrika.apps.mpesaservice.exceptions.DarajaClientException;
+import com.sarafrika.apps.mpesaservice.exceptions.DarajaRateLimitException;
+import com.sarafrika.apps.mpesaservice.exceptions.DarajaServerException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Turns a Daraja error response into a typed {@link DarajaApiException}.
+ * <p>
+ * At most {@code maxBodyBytes} of the body are read, and they are scanned with a streaming
+ * parser for {@code requestId}, {@code errorCode} and {@code errorMessage}, or the
+ * {@code faultstring} and {@code errorcode} of a gateway fault, without building a tree.
+ * A truncated or non-JSON body keeps whatever was found before it broke off; a plain-text
+ * body becomes the message.
+ * </p>
+ */
+public class DarajaErrorDecoder {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    // Longest plain-text body kept as the message
+    private static final int MAX_TEXT_MESSAGE = 256;
+
+    private static final Set<String> AUTHENTICATION_CODES = Set.of(
+            MpesaErrorResponse.ErrorCodes.INVALID_ACCESS_TOKEN,
+            MpesaErrorResponse.ErrorCodes.INVALID_CREDENTIALS,
+            "404.001.03",
+            "keymanagement.service.InvalidAccessToken",
+            "oauth.v2.InvalidAccessToken");
+
+    private final int maxBodyBytes;
+
+    public DarajaErrorDecoder(int maxBodyBytes) {
+        if (maxBodyBytes <= 0) {
+            throw new IllegalArgumentException("Error body limit must be positive: " + maxBodyBytes);
+        }
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * Read an error body, up to the limit, and classify it. The stream is not closed.
+     */
+    public DarajaApiException decode(int httpStatus, InputStream body) throws IOException {
+        byte[] bytes = body != null ? body.readNBytes(maxBodyBytes) : new byte[0];
+        ErrorFields fields = scan(bytes);
+        return classify(httpStatus, fields.errorCode, fields.requestId, fields.errorMessage);
+    }
+
+    /**
+     * Pick the exception type for a status and Daraja error code
+     */
+    public static DarajaApiException classify(int httpStatus, String errorCode, String requestId,
+                                              String errorMessage) {
+        if (httpStatus == 429 || isRateLimitCode(errorCode)) {
+            return new DarajaRateLimitException(httpStatus, errorCode, requestId, errorMessage);
+        }
+        if (httpStatus == 401 || (errorCode != null && AUTHENTICATION_CODES.contains(errorCode))) {
+            return new DarajaAuthenticationException(httpStatus, errorCode, requestId, errorMessage);
+        }
+        if (httpStatus >= 500) {
+            return new DarajaServerException(httpStatus, errorCode, requestId, errorMessage);
+        }
+        return new DarajaClientException(httpStatus, errorCode, requestId, errorMessage);
+    }
+
+    private static boolean isRateLimitCode(String errorCode) {
+        return errorCode != null && (errorCode.startsWith("429.")
+                || errorCode.contains("SpikeArrest") || errorCode.contains("QuotaViolation"));
+    }
+
+    private static ErrorFields scan(byte[] bytes) {
+        ErrorFields fields = new ErrorFields();
+        if (bytes.length == 0) {
+            return fields;
+        }
+        boolean json = false;
+        try (JsonParser parser = JSON.createParser(bytes)) {
+            JsonToken token = parser.nextToken();
+            json = token == JsonToken.START_OBJECT;
+            while (json && token != null && !fields.complete()) {
+                if (token == JsonToken.FIELD_NAME) {
+                    String name = parser.currentName();
+                    token = parser.nextToken();
+                    if (token != null && token.isScalarValue()) {
+                        fields.accept(name, parser.getText());
+                    }
+                    continue;
+                }
+                token = parser.nextToken();
+            }
+        } catch (IOException e) {
+            // Truncated or malformed; keep what was read before the break
+        }
+        if (!json && fields.errorMessage == null) {
+            String text = new String(bytes, 0, Math.min(bytes.length, MAX_TEXT_MESSAGE), StandardCharsets.UTF_8)
+                    .strip();
+            fields.errorMessage = text.isEmpty() ? null : text;
+        }
+        return fields;
+    }
+
+    private static final class ErrorFields {
+        private String requestId;
+        private String errorCode;
+        private String errorMessage;
+
+        void accept(String name, String value) {
+            if (name == null || value == null) {
+                return;
+            }
+            switch (name) {
+                case "requestId" -> requestId = requestId != null ? requestId : value;
+                case "errorCode", "errorcode" -> errorCode = errorCode != null ? errorCode : value;
+                case "errorMessage", "faultstring" -> errorMessage = errorMessage != null ? errorMessage : value;
+                default -> {
+                }
+            }
+        }
+
+        boolean complete() {
+            return requestId != null && errorCode != null && errorMessage != null;
+        }
+    }
+}
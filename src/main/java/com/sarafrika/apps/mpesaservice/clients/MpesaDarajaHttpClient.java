@@ -79,6 +79,15 @@ public interface MpesaDarajaHttpClient {
             @RequestBody Map<String, Object> payload
     );
 
+    /**
+     * Send B2C payment through the v3 API, which takes the caller's OriginatorConversationID
+     */
+    @PostExchange("/mpesa/b2c/v3/paymentrequest")
+    B2CPaymentResponse sendB2CPaymentV3(
+            @RequestHeader("Authorization") String bearerToken,
+            @RequestBody Map<String, Object> payload
+    );
+
     // ==================== B2B ====================
 
     /**
@@ -1,12 +1,15 @@
 package com.sarafrika.apps.mpesaservice.config;
 
+import com.sarafrika.apps.mpesaservice.clients.DarajaErrorDecoder;
 import com.sarafrika.apps.mpesaservice.clients.MpesaDarajaHttpClient;
+import com.sarafrika.apps.mpesaservice.exceptions.DarajaApiException;
 import com.sarafrika.apps.mpesaservice.utils.enums.Environment;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpStatusCode;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.client.RestClient;
 import org.springframework.web.client.support.RestClientAdapter;
 import org.springframework.web.service.invoker.HttpServiceProxyFactory;
@@ -32,6 +35,17 @@ public class MpesaClientConfig {
     @Value("${mpesa.daraja.read-timeout:60s}")
     private Duration readTimeout;
 
+    @Value("${mpesa.daraja.max-error-body:16KB}")
+    private DataSize maxErrorBody;
+
+    /**
+     * Decoder for Daraja error bodies, reading at most max-error-body of each
+     */
+    @Bean
+    public DarajaErrorDecoder errorDecoder() {
+        return new DarajaErrorDecoder((int) Math.min(maxErrorBody.toBytes(), Integer.MAX_VALUE));
+    }
+
     /**
      * RestClient for Sandbox environment
      */
@@ -43,15 +57,13 @@ public class MpesaClientConfig {
                     log.debug("Sandbox API Request: {} {}", request.getMethod(), request.getURI());
                     return execution.execute(request, body);
                 })
-                .defaultStatusHandler(HttpStatusCode::is4xxClientError, (request, response) -> {
-                    log.error("Sandbox Client Error: {} - {}", response.getStatusCode(),
-                            new String(response.getBody().readAllBytes()));
-                    throw new RuntimeException("Client error: " + response.getStatusCode());
-                })
-                .defaultStatusHandler(HttpStatusCode::is5xxServerError, (request, response) -> {
-                    log.error("Sandbox Server Error: {} - {}", response.getStatusCode(),
-                            new String(response.getBody().readAllBytes()));
-                    throw new RuntimeException("Server error: " + response.getStatusCode());
+                .defaultStatusHandler(HttpStatusCode::isError, (request, response) -> {
+                    DarajaApiException error = errorDecoder().decode(response.getStatusCode().value(),
+                            response.getBody());
+                    log.error("Sandbox API Error: {} {} - {} {}: {} (requestId {})", request.getMethod(),
+                            request.getURI().getPath(), response.getStatusCode(), error.getErrorCode(),
+                            error.getErrorMessage(), error.getRequestId());
+                    throw error;
                 })
                 .build();
     }
@@ -67,15 +79,13 @@ public class MpesaClientConfig {
                     log.debug("Production API Request: {} {}", request.getMethod(), request.getURI());
                     return execution.execute(request, body);
                 })
-                .defaultStatusHandler(HttpStatusCode::is4xxClientError, (request, response) -> {
-                    log.error("Production Client Error: {} - {}", response.getStatusCode(),
-                            new String(response.getBody().readAllBytes()));
-                    throw new RuntimeException("Client error: " + response.getStatusCode());
-                })
-                .defaultStatusHandler(HttpStatusCode::is5xxServerError, (request, response) -> {
-                    log.error("Production Server Error: {} - {}", response.getStatusCode(),
-                            new String(response.getBody().readAllBytes()));
-                    throw new RuntimeException("Server error: " + response.getStatusCode());
+                .defaultStatusHandler(HttpStatusCode::isError, (request, response) -> {
+                    DarajaApiException error = errorDecoder().decode(response.getStatusCode().value(),
+                            response.getBody());
+                    log.error("Production API Error: {} {} - {} {}: {} (requestId {})", request.getMethod(),
+                            request.getURI().getPath(), response.getStatusCode(), error.getErrorCode(),
+                            error.getErrorMessage(), error.getRequestId());
+                    throw error;
                 })
                 .build();
     }
@@ -0,0 +1,39 @@
+package com.sarafrika.apps.mpesaservice.config;
+
+import org.hibernate.boot.model.naming.Identifier;
+import org.hibernate.boot.model.relational.QualifiedName;
+import org.hibernate.boot.model.relational.QualifiedSequenceName;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.id.enhanced.ImplicitDatabaseObjectNamingStrategy;
+import org.hibernate.id.enhanced.StandardNamingStrategy;
+import org.hibernate.service.ServiceRegistry;
+
+import java.util.Map;
+
+/**
+ * Names each entity's implicit id sequence the way PostgreSQL names a BIGSERIAL column's,
+ * {@code <table>_<column>_seq}, so the sequence-generated ids of {@code BaseEntity} draw from the
+ * sequences the tables already own and native inserts keep sharing them through the column
+ * default.
+ */
+public class SerialSequenceNamingStrategy implements ImplicitDatabaseObjectNamingStrategy {
+
+    private final StandardNamingStrategy standard = new StandardNamingStrategy();
+
+    @Override
+    public QualifiedName determineSequenceName(Identifier catalogName, Identifier schemaName, Map<?, ?> configValues,
+                                               ServiceRegistry serviceRegistry) {
+        String table = (String) configValues.get(PersistentIdentifierGenerator.TABLE);
+        String column = (String) configValues.get(PersistentIdentifierGenerator.PK);
+        if (table == null || column == null) {
+            return standard.determineSequenceName(catalogName, schemaName, configValues, serviceRegistry);
+        }
+        return new QualifiedSequenceName(catalogName, schemaName, Identifier.toIdentifier(table + "_" + column + "_seq"));
+    }
+
+    @Override
+    public QualifiedName determineTableName(Identifier catalogName, Identifier schemaName, Map<?, ?> configValues,
+                                            ServiceRegistry serviceRegistry) {
+        return standard.determineTableName(catalogName, schemaName, configValues, serviceRegistry);
+    }
+}
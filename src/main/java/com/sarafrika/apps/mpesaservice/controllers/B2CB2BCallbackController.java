@@ -1,6 +1,10 @@
 package com.sarafrika.apps.mpesaservice.controllers;
 
 import com.sarafrika.apps.mpesaservice.dtos.*;
+import com.sarafrika.apps.mpesaservice.services.MpesaOutgoingPaymentService;
+import com.sarafrika.apps.mpesaservice.services.MpesaReversalService;
+import com.sarafrika.apps.mpesaservice.services.support.DarajaResultCorrelator;
+import com.sarafrika.apps.mpesaservice.services.support.OutgoingStatusResolver;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -28,9 +32,10 @@ import org.springframework.web.bind.annotation.RestController;
 @Slf4j
 public class B2CB2BCallbackController {
 
-    // TODO: Inject services for processing callbacks
-    // private final TransactionProcessingService transactionProcessingService;
-    // private final NotificationService notificationService;
+    private final MpesaOutgoingPaymentService outgoingPaymentService;
+    private final MpesaReversalService reversalService;
+    private final DarajaResultCorrelator resultCorrelator;
+    private final OutgoingStatusResolver statusResolver;
 
     // ==================== B2C CALLBACKS ====================
 
@@ -48,6 +53,7 @@ public class B2CB2BCallbackController {
 
         try {
             B2CResult result = paymentResult.result();
+            resultCorrelator.publish(result.conversationId(), result.originatorConversationId(), false, result);
 
             if (result.isSuccessful()) {
                 handleSuccessfulB2CPayment(result);
@@ -76,10 +82,11 @@ public class B2CB2BCallbackController {
                 timeoutCallback.resultDesc());
 
         try {
-            // Handle timeout - mark transaction as failed
-            // TODO: Update transaction status to timeout
-            // TODO: Notify relevant parties
-            // TODO: Implement retry logic if applicable
+            resultCorrelator.publish(timeoutCallback.conversationId(),
+                    timeoutCallback.originatorConversationId(), true, timeoutCallback);
+
+            // The payout may still have gone through, so it is resolved with a status query
+            statusResolver.resolveTimedOut(timeoutCallback.originatorConversationId());
 
             log.info("Processed B2C timeout for ConversationID: {}", timeoutCallback.conversationId());
             return ResponseEntity.ok(CallbackAcknowledgment.success());
@@ -106,6 +113,7 @@ public class B2CB2BCallbackController {
 
         try {
             B2BResult result = transferResult.result();
+            resultCorrelator.publish(result.conversationId(), result.originatorConversationId(), false, result);
 
             if (result.isSuccessful()) {
                 handleSuccessfulB2BTransfer(result);
@@ -134,10 +142,11 @@ public class B2CB2BCallbackController {
                 timeoutCallback.resultDesc());
 
         try {
-            // Handle timeout - mark transfer as failed
-            // TODO: Update transfer status to timeout
-            // TODO: Notify relevant parties
-            // TODO: Implement retry or manual intervention logic
+            resultCorrelator.publish(timeoutCallback.conversationId(),
+                    timeoutCallback.originatorConversationId(), true, timeoutCallback);
+
+            // The transfer may still have gone through, so it is resolved with a status query
+            statusResolver.resolveTimedOut(timeoutCallback.originatorConversationId());
 
             log.info("Processed B2B timeout for ConversationID: {}", timeoutCallback.conversationId());
             return ResponseEntity.ok(CallbackAcknowledgment.success());
@@ -164,6 +173,7 @@ public class B2CB2BCallbackController {
 
         try {
             TransactionStatusResultData result = statusResult.result();
+            resultCorrelator.publish(result.conversationId(), result.originatorConversationId(), false, result);
 
             if (result.isSuccessful()) {
                 handleTransactionStatusSuccess(result);
@@ -197,6 +207,7 @@ public class B2CB2BCallbackController {
 
         try {
             AccountBalanceResultData result = balanceResult.result();
+            resultCorrelator.publish(result.conversationId(), result.originatorConversationId(), false, result);
 
             if (result.isSuccessful()) {
                 handleAccountBalanceSuccess(result);
@@ -228,6 +239,7 @@ public class B2CB2BCallbackController {
 
         try {
             TransactionReversalResultData result = reversalResult.result();
+            resultCorrelator.publish(result.conversationId(), result.originatorConversationId(), false, result);
 
             if (result.isSuccessful()) {
                 handleSuccessfulReversal(result);
@@ -260,9 +272,11 @@ public class B2CB2BCallbackController {
                 timeoutCallback.resultDesc());
 
         try {
-            // Handle reversal timeout
-            // TODO: Mark reversal as timed out
-            // TODO: Implement manual intervention process
+            resultCorrelator.publish(timeoutCallback.conversationId(),
+                    timeoutCallback.originatorConversationId(), true, timeoutCallback);
+
+            // Timed out in Daraja's queue, so it was never processed: free the receipt for a retry
+            reversalService.applyTimeout(timeoutCallback);
 
             log.info("Processed reversal timeout for ConversationID: {}", timeoutCallback.conversationId());
             return ResponseEntity.ok(CallbackAcknowledgment.success());
@@ -287,19 +301,15 @@ public class B2CB2BCallbackController {
 
             log.info("B2C Payment Details - Receipt: {}, Amount: {}, Receiver: {}",
                     transactionReceipt, transactionAmount, receiverName);
-
-            // TODO: Update transaction status to completed
-            // TODO: Send confirmation to recipient
-            // TODO: Update accounting records
         }
+
+        outgoingPaymentService.applyResult(result.originatorConversationId(), result);
     }
 
     private void handleFailedB2CPayment(B2CResult result) {
         log.warn("Processing failed B2C payment - ResultDesc: {}", result.resultDesc());
 
-        // TODO: Update transaction status to failed
-        // TODO: Notify sender of failure
-        // TODO: Implement retry logic if applicable
+        outgoingPaymentService.applyResult(result.originatorConversationId(), result);
     }
 
     private void handleSuccessfulB2BTransfer(B2BResult result) {
@@ -314,19 +324,15 @@ public class B2CB2BCallbackController {
 
             log.info("B2B Transfer Details - Amount: {}, Debit Balance: {}, Receiver: {}",
                     amount, debitBalance, receiverName);
-
-            // TODO: Update transfer status to completed
-            // TODO: Update account balances
-            // TODO: Send confirmations to both parties
         }
+
+        outgoingPaymentService.applyResult(result.originatorConversationId(), result);
     }
 
     private void handleFailedB2BTransfer(B2BResult result) {
         log.warn("Processing failed B2B transfer - ResultDesc: {}", result.resultDesc());
 
-        // TODO: Update transfer status to failed
-        // TODO: Notify sender of failure
-        // TODO: Implement retry logic if applicable
+        outgoingPaymentService.applyResult(result.originatorConversationId(), result);
     }
 
     private void handleTransactionStatusSuccess(TransactionStatusResultData result) {
@@ -341,41 +347,35 @@ public class B2CB2BCallbackController {
 
             log.info("Transaction Status Details - Receipt: {}, Amount: {}, Status: {}",
                     receiptNumber, transactionAmount, transactionStatus);
-
-            // TODO: Update local transaction records with latest status
-            // TODO: Notify requesting party of status
         }
+
+        outgoingPaymentService.applyStatusResult(result);
     }
 
     private void handleTransactionNotFound(TransactionStatusResultData result) {
         log.warn("Transaction not found - ResultDesc: {}", result.resultDesc());
 
-        // TODO: Mark local transaction as not found
-        // TODO: Notify requesting party
+        outgoingPaymentService.applyStatusResult(result);
     }
 
     private void handleTransactionStatusError(TransactionStatusResultData result) {
         log.error("Transaction status query error - ResultDesc: {}", result.resultDesc());
 
-        // TODO: Handle status query error
-        // TODO: Implement retry logic
+        // The payment stays outstanding; the resolver queries it again after its backoff
     }
 
     private void handleAccountBalanceSuccess(AccountBalanceResultData result) {
         log.info("Processing account balance success");
 
-        // Extract balance details
+        // The shortcode is only known to the node that queried; it records the balances when this
+        // result reaches its correlated listener, so here they are only logged
         AccountBalanceResultParameters params = result.resultParameters();
         if (params != null) {
-            String accountBalance = params.getAccountBalance();
-            String workingFunds = params.getWorkingAccountAvailableFunds();
-            String utilityFunds = params.getUtilityAccountAvailableFunds();
-
-            log.info("Account Balance Details - Balance: {}, Working: {}, Utility: {}",
-                    accountBalance, workingFunds, utilityFunds);
-
-            // TODO: Update local balance records
-            // TODO: Notify requesting party of balance
+            for (AccountBalanceEntry account : params.getAccountBalances()) {
+                log.info("Account Balance Details - {}: available {} {}, current {}",
+                        account.accountName(), account.currency(), account.availableBalance(),
+                        account.currentBalance());
+            }
         }
     }
 
@@ -399,32 +399,28 @@ public class B2CB2BCallbackController {
 
             log.info("Reversal Details - Amount: {}, Type: {}, Receiver: {}, Completed: {}",
                     amount, reversalType, receiverName, completedDateTime);
-
-            // TODO: Update original transaction status to reversed
-            // TODO: Update account balances
-            // TODO: Send reversal confirmation to affected parties
         }
+
+        reversalService.applyResult(result);
     }
 
     private void handleReversalTransactionNotFound(TransactionReversalResultData result) {
         log.warn("Reversal failed - Transaction not found: {}", result.resultDesc());
 
-        // TODO: Mark reversal as failed - transaction not found
-        // TODO: Notify requesting party
+        reversalService.applyResult(result);
     }
 
     private void handleReversalRejected(TransactionReversalResultData result) {
         log.warn("Reversal rejected - ResultDesc: {}", result.resultDesc());
 
-        // TODO: Mark reversal as rejected
-        // TODO: Notify requesting party with rejection reason
+        reversalService.applyResult(result);
     }
 
     private void handleReversalError(TransactionReversalResultData result) {
         log.error("Reversal error - ResultDesc: {}", result.resultDesc());
 
-        // TODO: Mark reversal as failed
-        // TODO: Implement retry logic or manual intervention
+        // A failed reversal frees the receipt, so it can be requested again
+        reversalService.applyResult(result);
     }
 
     // ==================== HELPER CLASSES ====================
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.sarafrika.apps.mpesaservice.dtos.C2BConfirmationCallback;
 import com.sarafrika.apps.mpesaservice.dtos.C2BValidationRequest;
 import com.sarafrika.apps.mpesaservice.dtos.C2BValidationResponse;
+import com.sarafrika.apps.mpesaservice.services.MpesaIncomingPaymentService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -30,9 +31,10 @@ import java.math.BigDecimal;
 @Slf4j
 public class C2BCallbackController {
 
+    private final MpesaIncomingPaymentService incomingPaymentService;
+
     // TODO: Inject business logic services
     // private final PaymentValidationService paymentValidationService;
-    // private final TransactionProcessingService transactionProcessingService;
 
     /**
      * Handle C2B validation callback
@@ -161,24 +163,15 @@ public class C2BCallbackController {
     }
 
     /**
-     * Process confirmed C2B payment
-     * Implement your business logic here
+     * Process confirmed C2B payment.
+     * Persists the confirmation, then hands off to downstream business logic.
      */
     private void processConfirmedPayment(C2BConfirmationCallback callback) {
         log.info("Processing confirmed C2B payment for TransID: {}", callback.transId());
 
         try {
-            // 1. Save transaction to database
-            // TODO: Save transaction record
-            // Transaction transaction = Transaction.builder()
-            //     .transactionId(callback.transId())
-            //     .amount(callback.transAmount())
-            //     .phoneNumber(callback.msisdn())
-            //     .accountReference(callback.billRefNumber())
-            //     .transactionTime(parseTransactionTime(callback.transTime()))
-            //     .status(TransactionStatus.COMPLETED)
-            //     .build();
-            // transactionRepository.save(transaction);
+            // 1. Persist the confirmation (idempotent upsert keyed on the M-Pesa receipt)
+            incomingPaymentService.processC2BCallback(callback.transId(), callback);
 
             // 2. Update customer account/balance
             // TODO: Credit customer account
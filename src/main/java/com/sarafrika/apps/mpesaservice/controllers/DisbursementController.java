@@ -0,0 +1,119 @@
+package com.sarafrika.apps.mpesaservice.controllers;
+
+import com.sarafrika.apps.mpesaservice.dtos.DisbursementBatchProgress;
+import com.sarafrika.apps.mpesaservice.dtos.DisbursementLine;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.services.MpesaDisbursementService;
+import com.sarafrika.apps.mpesaservice.services.support.DisbursementFileParser;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Bulk B2C disbursements: upload a payout file, then follow or control the batch.
+ * <p>
+ * The body is streamed straight from the request as CSV ({@code phone_number,amount[,remarks]}),
+ * a JSON array or NDJSON, so uploads of any size are staged without being buffered.
+ * </p>
+ */
+@RestController
+@RequestMapping("/api/v1/mpesa/disbursements")
+@RequiredArgsConstructor
+@Slf4j
+@Tag(name = "M-Pesa Disbursements", description = "Stage and track bulk B2C payouts")
+public class DisbursementController {
+
+    private final MpesaDisbursementService disbursementService;
+    private final DisbursementFileParser fileParser;
+
+    /**
+     * Upload a disbursement file. A file with no invalid lines starts paying immediately;
+     * otherwise the valid lines wait in STAGING until the batch is started.
+     */
+    @PostMapping
+    @Operation(summary = "Upload a bulk B2C disbursement file (CSV, JSON array or NDJSON)")
+    public ResponseEntity<MpesaApiResponse<DisbursementBatchProgress>> createBatch(
+            @RequestParam(name = "shortcode_uuid") UUID shortcodeUuid,
+            @RequestParam(name = "command_id", defaultValue = "SalaryPayment") String commandId,
+            @RequestParam(name = "reference", required = false) String reference,
+            @RequestHeader(name = HttpHeaders.CONTENT_TYPE, defaultValue = "text/csv") String contentType,
+            InputStream body) {
+
+        log.info("Received disbursement upload for shortcode: {}, command: {}, reference: {}",
+                shortcodeUuid, commandId, reference);
+
+        try {
+            Iterator<DisbursementLine> lines = contentType.contains("json")
+                    ? fileParser.parseJson(body)
+                    : fileParser.parseCsv(body);
+            DisbursementBatchProgress progress = disbursementService.createBatch(shortcodeUuid, commandId,
+                    reference, lines);
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .body(MpesaApiResponse.success(progress, HttpStatus.CREATED.value()));
+        } catch (UncheckedIOException e) {
+            return error("INVALID_FILE", "Unreadable disbursement file: " + e.getCause().getMessage(),
+                    HttpStatus.BAD_REQUEST);
+        } catch (IllegalArgumentException e) {
+            return error("INVALID_ARGUMENT", e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IllegalStateException e) {
+            return error("INVALID_STATE", e.getMessage(), HttpStatus.CONFLICT);
+        }
+    }
+
+    @GetMapping("/{batchUuid}")
+    @Operation(summary = "Progress and throughput of a disbursement batch")
+    public ResponseEntity<MpesaApiResponse<DisbursementBatchProgress>> getProgress(@PathVariable UUID batchUuid) {
+        return handle(() -> disbursementService.getProgress(batchUuid));
+    }
+
+    @PostMapping("/{batchUuid}/start")
+    @Operation(summary = "Start a staged batch or resume a paused one")
+    public ResponseEntity<MpesaApiResponse<DisbursementBatchProgress>> startBatch(@PathVariable UUID batchUuid) {
+        return handle(() -> disbursementService.startBatch(batchUuid));
+    }
+
+    @PostMapping("/{batchUuid}/pause")
+    @Operation(summary = "Stop sending further rows of a running batch")
+    public ResponseEntity<MpesaApiResponse<DisbursementBatchProgress>> pauseBatch(@PathVariable UUID batchUuid) {
+        return handle(() -> disbursementService.pauseBatch(batchUuid));
+    }
+
+    @PostMapping("/{batchUuid}/cancel")
+    @Operation(summary = "Cancel every row of a batch that has not been sent yet")
+    public ResponseEntity<MpesaApiResponse<DisbursementBatchProgress>> cancelBatch(@PathVariable UUID batchUuid) {
+        return handle(() -> disbursementService.cancelBatch(batchUuid));
+    }
+
+    private ResponseEntity<MpesaApiResponse<DisbursementBatchProgress>> handle(
+            Supplier<DisbursementBatchProgress> action) {
+        try {
+            return ResponseEntity.ok(MpesaApiResponse.success(action.get(), HttpStatus.OK.value()));
+        } catch (IllegalArgumentException e) {
+            return error("NOT_FOUND", e.getMessage(), HttpStatus.NOT_FOUND);
+        } catch (IllegalStateException e) {
+            return error("INVALID_STATE", e.getMessage(), HttpStatus.CONFLICT);
+        }
+    }
+
+    private static ResponseEntity<MpesaApiResponse<DisbursementBatchProgress>> error(String code, String message,
+                                                                                    HttpStatus status) {
+        return ResponseEntity.status(status).body(MpesaApiResponse.error(code, message, status.value()));
+    }
+}
@@ -1,27 +1,42 @@
 package com.sarafrika.apps.mpesaservice.controllers;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sarafrika.apps.mpesaservice.dtos.AccountBalanceResultData;
+import com.sarafrika.apps.mpesaservice.dtos.AccountBalanceSnapshot;
 import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
 import com.sarafrika.apps.mpesaservice.dtos.MpesaIncomingPaymentDto;
+import com.sarafrika.apps.mpesaservice.dtos.PaymentSummary;
+import com.sarafrika.apps.mpesaservice.dtos.StkPushInFlightStats;
 import com.sarafrika.apps.mpesaservice.dtos.StkPushRequest;
 import com.sarafrika.apps.mpesaservice.dtos.StkPushResponse;
 import com.sarafrika.apps.mpesaservice.models.MpesaIncomingPayment;
 import com.sarafrika.apps.mpesaservice.services.MpesaDarajaService;
 import com.sarafrika.apps.mpesaservice.services.MpesaIncomingPaymentService;
+import com.sarafrika.apps.mpesaservice.services.support.AccountBalanceBook;
+import com.sarafrika.apps.mpesaservice.services.support.PaymentDailyRollups;
+import com.sarafrika.apps.mpesaservice.services.support.StkPushIdempotencyGuard;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Supplier;
 
 /**
  * Generic, shortcode-driven M-Pesa payment API.
@@ -40,25 +55,124 @@ public class MpesaPaymentController {
 
     private final MpesaDarajaService mpesaDarajaService;
     private final MpesaIncomingPaymentService incomingPaymentService;
+    private final StkPushIdempotencyGuard idempotencyGuard;
+    private final AccountBalanceBook balanceBook;
+    private final PaymentDailyRollups rollups;
+
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
 
     /**
      * Initiate an STK Push against a configured shortcode.
+     * When an Idempotency-Key header is sent, retries with the same key and body return the
+     * first response instead of prompting the customer again.
      */
     @PostMapping("/stk-push")
     @Operation(summary = "Initiate an STK Push payment for a configured shortcode")
     public ResponseEntity<MpesaApiResponse<StkPushResponse>> initiateStkPush(
+            @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey,
             @RequestBody StkPushRequest request) {
 
         log.info("Received STK Push initiation request for shortcode: {}, phone: {}, amount: {}",
                 request.shortcodeUuid(), request.phoneNumber(), request.amount());
 
-        MpesaApiResponse<StkPushResponse> response = mpesaDarajaService.initiateSTKPush(
+        if (idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+            MpesaApiResponse<StkPushResponse> invalid = MpesaApiResponse.error("INVALID_IDEMPOTENCY_KEY",
+                    "Idempotency-Key must be 1-" + MAX_IDEMPOTENCY_KEY_LENGTH + " characters",
+                    HttpStatus.BAD_REQUEST.value());
+            return ResponseEntity.badRequest().body(invalid);
+        }
+
+        Supplier<MpesaApiResponse<StkPushResponse>> initiation = () -> mpesaDarajaService.initiateSTKPush(
                 request.shortcodeUuid(),
                 request.phoneNumber(),
                 request.amount(),
                 request.accountReference(),
                 request.transactionDesc());
 
+        MpesaApiResponse<StkPushResponse> response = idempotencyKey == null
+                ? initiation.get()
+                : idempotencyGuard.execute(idempotencyKey, request, initiation);
+
+        return ResponseEntity.status(response.httpStatus()).body(response);
+    }
+
+    /**
+     * Phones with an STK prompt currently open, plus admission and rejection counts.
+     */
+    @GetMapping("/stk-push/in-flight")
+    @Operation(summary = "Fetch STK Push in-flight registry statistics")
+    public ResponseEntity<MpesaApiResponse<StkPushInFlightStats>> getStkPushInFlightStats() {
+        return ResponseEntity.ok(MpesaApiResponse.success(
+                mpesaDarajaService.getStkPushInFlightStats(), HttpStatus.OK.value()));
+    }
+
+    /**
+     * Query a shortcode's account balance and return the result callback in the same call.
+     */
+    @GetMapping("/shortcodes/{shortcodeUuid}/balance")
+    @Operation(summary = "Query a shortcode's account balance and wait for the result")
+    public ResponseEntity<MpesaApiResponse<AccountBalanceResultData>> getAccountBalance(
+            @PathVariable UUID shortcodeUuid,
+            @RequestParam(name = "wait_seconds", defaultValue = "30") long waitSeconds) {
+
+        MpesaApiResponse<AccountBalanceResultData> response = mpesaDarajaService.queryAccountBalanceAndWait(
+                shortcodeUuid, "Account balance query", Duration.ofSeconds(Math.max(0, waitSeconds)));
+        return ResponseEntity.status(response.httpStatus()).body(response);
+    }
+
+    /**
+     * Latest known balances of a shortcode from the in-memory snapshot, without querying Daraja.
+     * {@code age_ms} tells how old the snapshot is.
+     */
+    @GetMapping("/shortcodes/{shortcodeUuid}/balance/latest")
+    @Operation(summary = "Read a shortcode's latest known balances from the cached snapshot")
+    public ResponseEntity<AccountBalanceSnapshot> getLatestBalance(@PathVariable UUID shortcodeUuid) {
+        return balanceBook.latest(shortcodeUuid)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Latest known balances of every shortcode, oldest snapshot first
+     */
+    @GetMapping("/balances/latest")
+    @Operation(summary = "Read the latest known balances of all shortcodes from the cached snapshots")
+    public ResponseEntity<List<AccountBalanceSnapshot>> getLatestBalances() {
+        return ResponseEntity.ok(balanceBook.latestAll());
+    }
+
+    /**
+     * Counts and totals of a shortcode's payments created from {@code from} through {@code to},
+     * by direction, type and status, read from the daily rollups rather than the payments
+     */
+    @GetMapping("/shortcodes/{shortcodeUuid}/summary")
+    @Operation(summary = "Summarise a shortcode's payment counts and totals over a date range")
+    public ResponseEntity<MpesaApiResponse<PaymentSummary>> getPaymentSummary(
+            @PathVariable UUID shortcodeUuid,
+            @RequestParam(name = "from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(name = "to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(name = "daily", defaultValue = "false") boolean daily) {
+
+        if (to.isBefore(from)) {
+            return ResponseEntity.badRequest().body(MpesaApiResponse.error("INVALID_ARGUMENT",
+                    "to must not be before from", HttpStatus.BAD_REQUEST.value()));
+        }
+        return ResponseEntity.ok(MpesaApiResponse.success(rollups.summarize(shortcodeUuid, from, to, daily),
+                HttpStatus.OK.value()));
+    }
+
+    /**
+     * Wait for the result of an asynchronous request (B2C, B2B, transaction status,
+     * account balance, reversal) by the ConversationID returned when it was initiated.
+     */
+    @GetMapping("/results/{conversationId}")
+    @Operation(summary = "Wait for the result callback of an asynchronous M-Pesa request")
+    public ResponseEntity<MpesaApiResponse<JsonNode>> awaitResult(
+            @PathVariable String conversationId,
+            @RequestParam(name = "wait_seconds", defaultValue = "30") long waitSeconds) {
+
+        MpesaApiResponse<JsonNode> response = mpesaDarajaService.awaitResult(
+                conversationId, Duration.ofSeconds(Math.max(0, waitSeconds)));
         return ResponseEntity.status(response.httpStatus()).body(response);
     }
 
@@ -0,0 +1,89 @@
+package com.sarafrika.apps.mpesaservice.controllers;
+
+import com.sarafrika.apps.mpesaservice.dtos.ArchivedPaymentLookup;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.services.support.PaymentArchive;
+import com.sarafrika.apps.mpesaservice.utils.enums.PaymentDirection;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.UncheckedIOException;
+import java.time.YearMonth;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Lookups of payments the retention job has moved out of the payment tables. Reads the archive
+ * files directly, so narrow the months searched where possible.
+ */
+@RestController
+@RequestMapping("/api/v1/mpesa/shortcodes/{shortcodeUuid}/archive")
+@RequiredArgsConstructor
+@Slf4j
+@Tag(name = "M-Pesa Payment Archive", description = "Look up archived payments")
+public class PaymentArchiveController {
+
+    private static final int MAX_LIMIT = 1000;
+
+    private final PaymentArchive archive;
+
+    /**
+     * Find archived payments by receipt, payment UUID or phone number, in the months from
+     * {@code from} through {@code to}
+     */
+    @GetMapping("/{direction}")
+    @Operation(summary = "Look up a shortcode's archived incoming or outgoing payments")
+    public ResponseEntity<MpesaApiResponse<ArchivedPaymentLookup>> lookup(
+            @PathVariable UUID shortcodeUuid,
+            @PathVariable PaymentDirection direction,
+            @RequestParam(name = "from", required = false) @DateTimeFormat(pattern = "yyyy-MM") YearMonth from,
+            @RequestParam(name = "to", required = false) @DateTimeFormat(pattern = "yyyy-MM") YearMonth to,
+            @RequestParam(name = "transaction_id", required = false) String transactionId,
+            @RequestParam(name = "uuid", required = false) UUID uuid,
+            @RequestParam(name = "phone_number", required = false) String phoneNumber,
+            @RequestParam(name = "limit", defaultValue = "100") int limit) {
+
+        if (from != null && to != null && to.isBefore(from)) {
+            return error("INVALID_ARGUMENT", "to must not be before from", HttpStatus.BAD_REQUEST);
+        }
+        if (limit < 1 || limit > MAX_LIMIT) {
+            return error("INVALID_ARGUMENT", "limit must be between 1 and " + MAX_LIMIT, HttpStatus.BAD_REQUEST);
+        }
+        Map<String, String> filters = new LinkedHashMap<>();
+        if (transactionId != null) {
+            filters.put("transaction_id", transactionId);
+        }
+        if (uuid != null) {
+            filters.put("uuid", uuid.toString());
+        }
+        if (phoneNumber != null) {
+            filters.put(direction.phoneColumn(), phoneNumber);
+        }
+        log.info("Archive lookup for shortcode: {}, direction: {}, months {} to {}, filters: {}", shortcodeUuid,
+                direction, from, to, filters.keySet());
+
+        try {
+            ArchivedPaymentLookup result = archive.lookup(direction, shortcodeUuid, from, to, filters, limit);
+            return ResponseEntity.ok(MpesaApiResponse.success(result, HttpStatus.OK.value()));
+        } catch (UncheckedIOException e) {
+            log.error("Unreadable payment archive for shortcode {}: {}", shortcodeUuid, e.getMessage(), e);
+            return error("ARCHIVE_UNREADABLE", "Payment archive could not be read", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private static ResponseEntity<MpesaApiResponse<ArchivedPaymentLookup>> error(String code, String message,
+                                                                                HttpStatus status) {
+        return ResponseEntity.status(status).body(MpesaApiResponse.error(code, message, status.value()));
+    }
+}
@@ -0,0 +1,122 @@
+package com.sarafrika.apps.mpesaservice.controllers;
+
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.dtos.ReconciliationReport;
+import com.sarafrika.apps.mpesaservice.dtos.StatementEntry;
+import com.sarafrika.apps.mpesaservice.services.support.PaymentReconciler;
+import com.sarafrika.apps.mpesaservice.services.support.StatementFileParser;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Reconcile Safaricom organisation statements against the payments recorded here.
+ * <p>
+ * Statements are the CSV downloaded from the M-Pesa org portal, streamed from the request and
+ * joined on the receipt number against the shortcode's successful incoming and outgoing
+ * payments for the period.
+ * </p>
+ */
+@RestController
+@RequestMapping("/api/v1/mpesa/reconciliation")
+@RequiredArgsConstructor
+@Slf4j
+@Tag(name = "M-Pesa Reconciliation", description = "Match org statements against local payments")
+public class ReconciliationController {
+
+    private final PaymentReconciler reconciler;
+    private final StatementFileParser statementParser;
+
+    /**
+     * Reconcile one shortcode's statement CSV, sent as the raw request body, for the days
+     * {@code from} through {@code to}
+     */
+    @PostMapping(consumes = {"text/csv", MediaType.TEXT_PLAIN_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    @Operation(summary = "Reconcile a shortcode's org statement CSV against local payments")
+    public ResponseEntity<MpesaApiResponse<ReconciliationReport>> reconcile(
+            @RequestParam(name = "shortcode_uuid") UUID shortcodeUuid,
+            @RequestParam(name = "from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(name = "to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            InputStream body) {
+
+        log.info("Received statement for reconciliation, shortcode: {}, {} to {}", shortcodeUuid, from, to);
+        return handle(from, to, () -> reconciler.reconcile(shortcodeUuid, from, to, statementParser.parseCsv(body)));
+    }
+
+    /**
+     * Reconcile several shortcodes at once. Each file part is one statement CSV and is named
+     * after the UUID of its shortcode; the statements are reconciled in parallel.
+     */
+    @PostMapping(path = "/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @Operation(summary = "Reconcile org statements for several shortcodes in parallel")
+    public ResponseEntity<MpesaApiResponse<List<ReconciliationReport>>> reconcileAll(
+            @RequestParam(name = "from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(name = "to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            MultipartHttpServletRequest request) {
+
+        Map<UUID, Supplier<Iterator<StatementEntry>>> statements = new LinkedHashMap<>();
+        for (Map.Entry<String, MultipartFile> part : request.getFileMap().entrySet()) {
+            UUID shortcodeUuid;
+            try {
+                shortcodeUuid = UUID.fromString(part.getKey());
+            } catch (IllegalArgumentException e) {
+                return error("INVALID_ARGUMENT", "Statement part name is not a shortcode UUID: " + part.getKey(),
+                        HttpStatus.BAD_REQUEST);
+            }
+            MultipartFile file = part.getValue();
+            statements.put(shortcodeUuid, () -> {
+                try {
+                    return statementParser.parseCsv(file.getInputStream());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        if (statements.isEmpty()) {
+            return error("INVALID_ARGUMENT", "No statement files in the request", HttpStatus.BAD_REQUEST);
+        }
+
+        log.info("Received {} statements for reconciliation, {} to {}", statements.size(), from, to);
+        return handle(from, to, () -> reconciler.reconcileAll(from, to, statements));
+    }
+
+    private static <T> ResponseEntity<MpesaApiResponse<T>> handle(LocalDate from, LocalDate to, Supplier<T> action) {
+        if (to.isBefore(from)) {
+            return error("INVALID_ARGUMENT", "to must not be before from", HttpStatus.BAD_REQUEST);
+        }
+        try {
+            return ResponseEntity.ok(MpesaApiResponse.success(action.get(), HttpStatus.OK.value()));
+        } catch (UncheckedIOException e) {
+            return error("INVALID_FILE", "Unreadable statement file: " + e.getCause().getMessage(),
+                    HttpStatus.BAD_REQUEST);
+        } catch (IllegalArgumentException e) {
+            return error("INVALID_ARGUMENT", e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    private static <T> ResponseEntity<MpesaApiResponse<T>> error(String code, String message, HttpStatus status) {
+        return ResponseEntity.status(status).body(MpesaApiResponse.error(code, message, status.value()));
+    }
+}
@@ -0,0 +1,88 @@
+package com.sarafrika.apps.mpesaservice.controllers;
+
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaReversalDto;
+import com.sarafrika.apps.mpesaservice.dtos.ReversalRequest;
+import com.sarafrika.apps.mpesaservice.services.MpesaReversalService;
+import com.sarafrika.apps.mpesaservice.utils.enums.ReversalStatus;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Transaction reversals, raised at most once per receipt.
+ * <p>
+ * Repeating a request for a receipt whose reversal is in flight or done returns that reversal
+ * with {@code coalesced = true} instead of calling Daraja again, so retries are always safe.
+ * </p>
+ */
+@RestController
+@RequestMapping("/api/v1/mpesa/reversals")
+@RequiredArgsConstructor
+@Slf4j
+@Tag(name = "M-Pesa Reversals", description = "Reverse transactions and track their outcome")
+public class ReversalController {
+
+    private final MpesaReversalService reversalService;
+
+    /**
+     * Reverse a transaction. Answers 202 while Daraja works on it, 200 when the request joined an
+     * existing reversal and 502 when Daraja refused it.
+     */
+    @PostMapping
+    @Operation(summary = "Reverse an M-Pesa transaction, once per receipt")
+    public ResponseEntity<MpesaApiResponse<MpesaReversalDto>> requestReversal(@RequestBody ReversalRequest request) {
+        log.info("Received reversal request for shortcode: {}, transaction: {}, amount: {}",
+                request.shortcodeUuid(), request.transactionId(), request.amount());
+
+        try {
+            MpesaReversalDto reversal = reversalService.requestReversal(request.shortcodeUuid(),
+                    request.transactionId(), request.amount(), request.remarks());
+            if (!reversal.coalesced() && reversal.status() == ReversalStatus.FAILED) {
+                return error("REVERSAL_FAILED", reversal.resultDesc(), HttpStatus.BAD_GATEWAY);
+            }
+            HttpStatus status = reversal.coalesced() ? HttpStatus.OK : HttpStatus.ACCEPTED;
+            return ResponseEntity.status(status).body(MpesaApiResponse.success(reversal, status.value()));
+        } catch (IllegalArgumentException e) {
+            return error("INVALID_ARGUMENT", e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IllegalStateException e) {
+            return error("INVALID_STATE", e.getMessage(), HttpStatus.CONFLICT);
+        }
+    }
+
+    @GetMapping("/{reversalUuid}")
+    @Operation(summary = "Status of a reversal")
+    public ResponseEntity<MpesaApiResponse<MpesaReversalDto>> getReversal(@PathVariable UUID reversalUuid) {
+        try {
+            return ResponseEntity.ok(MpesaApiResponse.success(reversalService.getByUuid(reversalUuid),
+                    HttpStatus.OK.value()));
+        } catch (IllegalArgumentException e) {
+            return error("NOT_FOUND", e.getMessage(), HttpStatus.NOT_FOUND);
+        }
+    }
+
+    @GetMapping
+    @Operation(summary = "Every reversal raised for a receipt, newest first")
+    public ResponseEntity<List<MpesaReversalDto>> findReversals(
+            @RequestParam(name = "transaction_id") String transactionId) {
+        return ResponseEntity.ok(reversalService.findByTransactionId(transactionId));
+    }
+
+    private static ResponseEntity<MpesaApiResponse<MpesaReversalDto>> error(String code, String message,
+                                                                           HttpStatus status) {
+        return ResponseEntity.status(status).body(MpesaApiResponse.error(code, message, status.value()));
+    }
+}
@@ -2,6 +2,8 @@ package com.sarafrika.apps.mpesaservice.controllers;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.sarafrika.apps.mpesaservice.services.MpesaIncomingPaymentService;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaApi;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaResultCode;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -150,14 +152,21 @@ public class STKCallbackController {
          * Check if transaction was cancelled by user
          */
         public boolean wasCancelled() {
-            return resultCode != null && resultCode == 1032;
+            return darajaResultCode() == DarajaResultCode.STK_CANCELLED_BY_USER;
         }
 
         /**
          * Check if user had insufficient funds
          */
         public boolean hasInsufficientFunds() {
-            return resultCode != null && resultCode == 1;
+            return darajaResultCode() == DarajaResultCode.STK_INSUFFICIENT_BALANCE;
+        }
+
+        /**
+         * Classify the result code against the STK Push result code registry
+         */
+        public DarajaResultCode darajaResultCode() {
+            return DarajaResultCode.of(DarajaApi.STK_PUSH, resultCode);
         }
     }
 
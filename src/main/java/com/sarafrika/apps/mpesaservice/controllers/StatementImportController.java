@@ -0,0 +1,64 @@
+package com.sarafrika.apps.mpesaservice.controllers;
+
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.dtos.StatementImportResult;
+import com.sarafrika.apps.mpesaservice.services.support.StatementFileParser;
+import com.sarafrika.apps.mpesaservice.services.support.StatementImporter;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.UUID;
+
+/**
+ * Backfill of historical incoming payments from Safaricom org statements, used when a
+ * shortcode is onboarded with months of transactions behind it.
+ */
+@RestController
+@RequestMapping("/api/v1/mpesa/statements")
+@RequiredArgsConstructor
+@Slf4j
+@Tag(name = "M-Pesa Statement Import", description = "Bulk-load historical payments from org statements")
+public class StatementImportController {
+
+    private final StatementImporter importer;
+    private final StatementFileParser statementParser;
+
+    /**
+     * Import the payments in of a statement CSV, sent as the raw request body. Receipts that
+     * are already recorded are left as they are, so a statement may be imported again safely.
+     */
+    @PostMapping(path = "/import",
+            consumes = {"text/csv", MediaType.TEXT_PLAIN_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    @Operation(summary = "Bulk-import a shortcode's historical incoming payments from an org statement CSV")
+    public ResponseEntity<MpesaApiResponse<StatementImportResult>> importStatement(
+            @RequestParam(name = "shortcode_uuid") UUID shortcodeUuid,
+            InputStream body) {
+
+        log.info("Received statement import for shortcode: {}", shortcodeUuid);
+        try {
+            StatementImportResult result = importer.importStatement(shortcodeUuid, statementParser.parseCsv(body));
+            return ResponseEntity.ok(MpesaApiResponse.success(result, HttpStatus.OK.value()));
+        } catch (UncheckedIOException e) {
+            return error("INVALID_FILE", "Unreadable statement file: " + e.getCause().getMessage(),
+                    HttpStatus.BAD_REQUEST);
+        } catch (IllegalArgumentException e) {
+            return error("INVALID_ARGUMENT", e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    private static ResponseEntity<MpesaApiResponse<StatementImportResult>> error(String code, String message,
+                                                                                HttpStatus status) {
+        return ResponseEntity.status(status).body(MpesaApiResponse.error(code, message, status.value()));
+    }
+}
@@ -0,0 +1,91 @@
+package com.sarafrika.apps.mpesaservice.dtos;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One account from an account balance result. Daraja reports all accounts in a single string,
+ * e.g. {@code Working Account|KES|700000.00|700000.00|0.00|0.00&Utility Account|KES|228037.00|...},
+ * with accounts separated by {@code &} and fields by {@code |}.
+ */
+@Schema(description = "Balance of a single M-Pesa account")
+public record AccountBalanceEntry(
+
+        @Schema(description = "Account name", example = "Utility Account")
+        @JsonProperty("account_name")
+        String accountName,
+
+        @Schema(description = "Currency", example = "KES")
+        @JsonProperty("currency")
+        String currency,
+
+        @Schema(description = "Current balance", example = "228037.00")
+        @JsonProperty("current_balance")
+        BigDecimal currentBalance,
+
+        @Schema(description = "Available balance", example = "228037.00")
+        @JsonProperty("available_balance")
+        BigDecimal availableBalance,
+
+        @Schema(description = "Reserved amount", example = "0.00")
+        @JsonProperty("reserved_amount")
+        BigDecimal reservedAmount,
+
+        @Schema(description = "Uncleared balance", example = "0.00")
+        @JsonProperty("uncleared_balance")
+        BigDecimal unclearedBalance
+) {
+
+    private static final int FIELDS = 6;
+
+    /**
+     * Parse an {@code AccountBalance} value in one pass. Accounts without a name are skipped and
+     * unreadable amounts are left null rather than failing the whole result.
+     */
+    public static List<AccountBalanceEntry> parse(String accountBalance) {
+        List<AccountBalanceEntry> entries = new ArrayList<>(FIELDS);
+        if (accountBalance == null || accountBalance.isEmpty()) {
+            return entries;
+        }
+        String[] fields = new String[FIELDS];
+        int field = 0;
+        int start = 0;
+        int length = accountBalance.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? accountBalance.charAt(i) : '&';
+            if (c != '|' && c != '&') {
+                continue;
+            }
+            if (field < FIELDS) {
+                fields[field] = accountBalance.substring(start, i).trim();
+            }
+            field++;
+            start = i + 1;
+            if (c == '&') {
+                if (fields[0] != null && !fields[0].isEmpty()) {
+                    entries.add(new AccountBalanceEntry(fields[0], fields[1], amount(fields[2]), amount(fields[3]),
+                            amount(fields[4]), amount(fields[5])));
+                }
+                Arrays.fill(fields, null);
+                field = 0;
+            }
+        }
+        return entries;
+    }
+
+    private static BigDecimal amount(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package com.sarafrika.apps.mpesaservice.dtos;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.swagger.v3.oas.annotations.media.Schema;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -13,18 +16,34 @@ public record AccountBalanceResultParameters(
 
         @Schema(description = "List of result parameter items")
         @JsonProperty("ResultParameter")
-        List<AccountBalanceResultParameter> resultParameters
+        List<AccountBalanceResultParameter> resultParameters,
+
+        @JsonIgnore
+        @Schema(hidden = true)
+        ResultParameterIndex index
 ) {
 
+    /**
+     * Decode the parameter list once; every getter reads the index
+     */
+    public AccountBalanceResultParameters {
+        if (index == null) {
+            index = ResultParameterIndex.of(resultParameters, AccountBalanceResultParameter::key,
+                    AccountBalanceResultParameter::value);
+        }
+    }
+
+    @JsonCreator
+    public AccountBalanceResultParameters(
+            @JsonProperty("ResultParameter") List<AccountBalanceResultParameter> resultParameters) {
+        this(resultParameters, null);
+    }
+
     /**
      * Get specific parameter value by name
      */
     public String getParameterValue(String name) {
-        return resultParameters.stream()
-                .filter(param -> name.equals(param.key()))
-                .map(AccountBalanceResultParameter::value)
-                .findFirst()
-                .orElse(null);
+        return index.get(name);
     }
 
     /**
@@ -34,6 +53,28 @@ public record AccountBalanceResultParameters(
         return getParameterValue("AccountBalance");
     }
 
+    /**
+     * Get the account balance string parsed into one entry per account
+     */
+    public List<AccountBalanceEntry> getAccountBalances() {
+        return AccountBalanceEntry.parse(getAccountBalance());
+    }
+
+    /**
+     * Get the completion time of the balance query (yyyyMMddHHmmss)
+     */
+    public String getCompletedTime() {
+        return getParameterValue("BOCompletedTime");
+    }
+
+    /**
+     * Get the completion time of the balance query as a timestamp
+     */
+    @JsonIgnore
+    public LocalDateTime getCompletedAt() {
+        return index.getTimestamp("BOCompletedTime");
+    }
+
     /**
      * Get booked funds
      */
@@ -0,0 +1,66 @@
+package com.sarafrika.apps.mpesaservice.dtos;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The latest known balances of a shortcode, as last reported by an account balance result.
+ */
+@Schema(description = "Latest known account balances of a shortcode")
+public record AccountBalanceSnapshot(
+
+        @Schema(description = "UUID of the shortcode")
+        @JsonProperty("shortcode_uuid")
+        UUID shortcodeUuid,
+
+        @Schema(description = "Balance of each account")
+        @JsonProperty("accounts")
+        List<AccountBalanceEntry> accounts,
+
+        @Schema(description = "When Safaricom completed the balance query")
+        @JsonProperty("completed_at")
+        LocalDateTime completedAt,
+
+        @Schema(description = "When the result was received")
+        @JsonProperty("received_at")
+        LocalDateTime receivedAt,
+
+        @Schema(description = "Milliseconds since the result was received, at the time of reading")
+        @JsonProperty("age_ms")
+        long ageMs
+) {
+
+    /**
+     * The named account, matched case-insensitively, if the result reported it
+     */
+    public AccountBalanceEntry account(String accountName) {
+        for (AccountBalanceEntry entry : accounts) {
+            if (entry.accountName().equalsIgnoreCase(accountName)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Available balance of the named account, or null if not reported
+     */
+    public BigDecimal availableBalance(String accountName) {
+        AccountBalanceEntry entry = account(accountName);
+        return entry != null ? entry.availableBalance() : null;
+    }
+
+    /**
+     * A copy with {@code age_ms} measured up to {@code now}
+     */
+    public AccountBalanceSnapshot agedAt(LocalDateTime now) {
+        return new AccountBalanceSnapshot(shortcodeUuid, accounts, completedAt, receivedAt,
+                Math.max(0, Duration.between(receivedAt, now).toMillis()));
+    }
+}
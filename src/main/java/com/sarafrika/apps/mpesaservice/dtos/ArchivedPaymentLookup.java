@@ -0,0 +1,41 @@
+package com.sarafrika.apps.mpesaservice.dtos;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.sarafrika.apps.mpesaservice.utils.enums.PaymentDirection;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Payments found in a shortcode's cold archive
+ */
+@Schema(description = "Archived payments matching a lookup")
+public record ArchivedPaymentLookup(
+
+        @Schema(description = "Whether incoming or outgoing payments were searched")
+        @JsonProperty("direction")
+        PaymentDirection direction,
+
+        @Schema(description = "UUID of the shortcode whose archive was searched")
+        @JsonProperty("shortcode_uuid")
+        UUID shortcodeUuid,
+
+        @Schema(description = "Archive files read")
+        @JsonProperty("files_read")
+        int filesRead,
+
+        @Schema(description = "Archived rows examined")
+        @JsonProperty("rows_scanned")
+        long rowsScanned,
+
+        @Schema(description = "True when more payments matched than were returned")
+        @JsonProperty("truncated")
+        boolean truncated,
+
+        @Schema(description = "Matching payments, oldest archive first, with every column as it was in the table "
+                + "(null columns are omitted)")
+        @JsonProperty("payments")
+        List<Map<String, String>> payments
+) {}
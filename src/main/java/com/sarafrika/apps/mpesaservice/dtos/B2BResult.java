@@ -1,6 +1,8 @@
 package com.sarafrika.apps.mpesaservice.dtos;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaApi;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaResultCode;
 import io.swagger.v3.oas.annotations.media.Schema;
 
 /**
@@ -44,4 +46,11 @@ public record B2BResult(
     public boolean isSuccessful() {
         return resultCode != null && resultCode == 0;
     }
+
+    /**
+     * Classify the result code against the B2B result code registry
+     */
+    public DarajaResultCode darajaResultCode() {
+        return DarajaResultCode.of(DarajaApi.B2B, resultCode);
+    }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.sarafrika.apps.mpesaservice.dtos;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.swagger.v3.oas.annotations.media.Schema;
 
@@ -13,18 +15,33 @@ public record B2BResultParameters(
 
         @Schema(description = "List of result parameter items")
         @JsonProperty("ResultParameter")
-        List<B2BResultParameter> resultParameters
+        List<B2BResultParameter> resultParameters,
+
+        @JsonIgnore
+        @Schema(hidden = true)
+        ResultParameterIndex index
 ) {
 
+    /**
+     * Decode the parameter list once; every getter reads the index
+     */
+    public B2BResultParameters {
+        if (index == null) {
+            index = ResultParameterIndex.of(resultParameters, B2BResultParameter::key,
+                    B2BResultParameter::value);
+        }
+    }
+
+    @JsonCreator
+    public B2BResultParameters(@JsonProperty("ResultParameter") List<B2BResultParameter> resultParameters) {
+        this(resultParameters, null);
+    }
+
     /**
      * Get specific parameter value by name
      */
     public String getParameterValue(String name) {
-        return resultParameters.stream()
-                .filter(param -> name.equals(param.key()))
-                .map(B2BResultParameter::value)
-                .findFirst()
-                .orElse(null);
+        return index.get(name);
     }
 
     /**
@@ -1,5 +1,6 @@
 package com.sarafrika.apps.mpesaservice.dtos;
 
+import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.swagger.v3.oas.annotations.media.Schema;
 
@@ -18,6 +19,7 @@ public record B2BTransferResponse(
 
         @Schema(description = "Originator conversation ID", example = "21605-295434-4")
         @JsonProperty("OriginatorCoversationID")
+        @JsonAlias("OriginatorConversationID")
         String originatorConversationId,
 
         @Schema(description = "Response description", example = "Accept the service request successfully.")
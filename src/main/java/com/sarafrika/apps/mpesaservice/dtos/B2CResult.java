@@ -2,6 +2,8 @@ package com.sarafrika.apps.mpesaservice.dtos;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.sarafrika.apps.mpesaservice.dtos.B2CResultParameters;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaApi;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaResultCode;
 import io.swagger.v3.oas.annotations.media.Schema;
 
 /**
@@ -45,4 +47,11 @@ public record B2CResult(
     public boolean isSuccessful() {
         return resultCode != null && resultCode == 0;
     }
+
+    /**
+     * Classify the result code against the B2C result code registry
+     */
+    public DarajaResultCode darajaResultCode() {
+        return DarajaResultCode.of(DarajaApi.B2C, resultCode);
+    }
 }
\ No newline at end of file
@@ -1,8 +1,11 @@
 package com.sarafrika.apps.mpesaservice.dtos;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.swagger.v3.oas.annotations.media.Schema;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -13,18 +16,33 @@ public record B2CResultParameters(
 
         @Schema(description = "List of result parameter items")
         @JsonProperty("ResultParameter")
-        List<B2CResultParameter> resultParameters
+        List<B2CResultParameter> resultParameters,
+
+        @JsonIgnore
+        @Schema(hidden = true)
+        ResultParameterIndex index
 ) {
 
+    /**
+     * Decode the parameter list once; every getter reads the index
+     */
+    public B2CResultParameters {
+        if (index == null) {
+            index = ResultParameterIndex.of(resultParameters, B2CResultParameter::key,
+                    B2CResultParameter::value);
+        }
+    }
+
+    @JsonCreator
+    public B2CResultParameters(@JsonProperty("ResultParameter") List<B2CResultParameter> resultParameters) {
+        this(resultParameters, null);
+    }
+
     /**
      * Get specific parameter value by name
      */
     public String getParameterValue(String name) {
-        return resultParameters.stream()
-                .filter(param -> name.equals(param.key()))
-                .map(B2CResultParameter::value)
-                .findFirst()
-                .orElse(null);
+        return index.get(name);
     }
 
     /**
@@ -62,6 +80,14 @@ public record B2CResultParameters(
         return getParameterValue("TransactionCompletedDateTime");
     }
 
+    /**
+     * Get transaction completed date time as a timestamp
+     */
+    @JsonIgnore
+    public LocalDateTime getTransactionCompletedAt() {
+        return index.getTimestamp("TransactionCompletedDateTime");
+    }
+
     /**
      * Get B2C utility account available funds
      */
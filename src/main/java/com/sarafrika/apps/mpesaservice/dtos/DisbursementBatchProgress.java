@@ -0,0 +1,99 @@
+package com.sarafrika.apps.mpesaservice.dtos;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.sarafrika.apps.mpesaservice.utils.enums.DisbursementBatchStatus;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Progress of a bulk disbursement batch, counted from its rows so it is the same on every node.
+ */
+@Schema(description = "Bulk disbursement batch progress")
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record DisbursementBatchProgress(
+
+        @Schema(description = "Batch UUID")
+        @JsonProperty("batch_uuid")
+        UUID batchUuid,
+
+        @Schema(description = "UUID of the paying shortcode")
+        @JsonProperty("shortcode_uuid")
+        UUID shortcodeUuid,
+
+        @Schema(description = "Daraja B2C command ID", example = "SalaryPayment")
+        @JsonProperty("command_id")
+        String commandId,
+
+        @Schema(description = "Client reference for the batch", example = "PAYROLL-2026-10")
+        @JsonProperty("reference")
+        String reference,
+
+        @Schema(description = "Batch status")
+        @JsonProperty("status")
+        DisbursementBatchStatus status,
+
+        @Schema(description = "Rows staged for payment")
+        @JsonProperty("total_count")
+        int totalCount,
+
+        @Schema(description = "Sum of all staged amounts")
+        @JsonProperty("total_amount")
+        BigDecimal totalAmount,
+
+        @Schema(description = "Rows waiting to be sent")
+        @JsonProperty("queued")
+        long queued,
+
+        @Schema(description = "Rows claimed for sending whose Daraja acceptance is not yet recorded")
+        @JsonProperty("dispatching")
+        long dispatching,
+
+        @Schema(description = "Rows accepted by Daraja and awaiting their result callback")
+        @JsonProperty("pending")
+        long pending,
+
+        @Schema(description = "Rows paid")
+        @JsonProperty("succeeded")
+        long succeeded,
+
+        @Schema(description = "Rows rejected by Daraja or failed in their result")
+        @JsonProperty("failed")
+        long failed,
+
+        @Schema(description = "Rows cancelled before they were sent")
+        @JsonProperty("cancelled")
+        long cancelled,
+
+        @Schema(description = "Sum of paid amounts")
+        @JsonProperty("succeeded_amount")
+        BigDecimal succeededAmount,
+
+        @Schema(description = "Uploaded lines rejected by validation and not staged")
+        @JsonProperty("rejected_lines")
+        int rejectedLines,
+
+        @Schema(description = "Validation errors for rejected lines (first few only, on upload)")
+        @JsonProperty("errors")
+        List<String> errors,
+
+        @Schema(description = "Average rows sent to Daraja per second since the batch started")
+        @JsonProperty("dispatched_per_second")
+        double dispatchedPerSecond,
+
+        @Schema(description = "Average rows settled (paid or failed) per second since the batch started")
+        @JsonProperty("settled_per_second")
+        double settledPerSecond,
+
+        @Schema(description = "When dispatching started")
+        @JsonProperty("started_at")
+        LocalDateTime startedAt,
+
+        @Schema(description = "When the last row settled")
+        @JsonProperty("completed_at")
+        LocalDateTime completedAt
+) {}
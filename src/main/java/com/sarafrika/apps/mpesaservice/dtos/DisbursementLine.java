@@ -0,0 +1,26 @@
+package com.sarafrika.apps.mpesaservice.dtos;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.math.BigDecimal;
+
+/**
+ * One recipient of a bulk B2C disbursement, as uploaded in a JSON array, NDJSON stream or CSV row
+ * ({@code phone_number,amount[,remarks]}).
+ */
+@Schema(description = "A single bulk disbursement line")
+public record DisbursementLine(
+
+        @Schema(description = "Recipient phone number", example = "254708374149", requiredMode = Schema.RequiredMode.REQUIRED)
+        @JsonProperty("phone_number")
+        String phoneNumber,
+
+        @Schema(description = "Amount to pay", example = "1500.00", requiredMode = Schema.RequiredMode.REQUIRED)
+        @JsonProperty("amount")
+        BigDecimal amount,
+
+        @Schema(description = "Remarks sent with the payment", example = "October salary")
+        @JsonProperty("remarks")
+        String remarks
+) {}
@@ -8,11 +8,24 @@ import java.time.LocalDateTime;
 /**
  * Error response structure from M-Pesa API
  * Represents various error conditions that can occur
+ * <p>
+ * {@code errorCode} is the stable code this service reports, e.g. {@code CLIENT_ERROR} or
+ * {@code RATE_LIMITED}; {@code darajaErrorCode} and {@code requestId} are what Daraja sent, when
+ * the error came from Daraja.
+ * </p>
+ * <p>
+ * Breaking change for clients matching on {@code errorCode}: it was documented as Safaricom's
+ * code (e.g. {@code 400.002.02}), but always carried this service's code, which now tells more
+ * Daraja failures apart. A Daraja 401 or refused token is {@code AUTH_FAILED} and a 429 or quota
+ * fault is {@code RATE_LIMITED}, where both were {@code CLIENT_ERROR}; a connect or read timeout
+ * is {@code NETWORK_ERROR} (HTTP 504), where it was {@code INTERNAL_ERROR} (500). Safaricom's own
+ * code is now in {@code darajaErrorCode}.
+ * </p>
  */
 @Schema(description = "M-Pesa API error response")
 public record MpesaErrorResponse(
 
-        @Schema(description = "Error code from Safaricom", example = "400.002.02")
+        @Schema(description = "Service error code", example = "CLIENT_ERROR")
         @JsonProperty("errorCode")
         String errorCode,
 
@@ -25,9 +38,24 @@ public record MpesaErrorResponse(
         String requestId,
 
         @Schema(description = "Timestamp when error occurred")
-        LocalDateTime timestamp
+        LocalDateTime timestamp,
+
+        @Schema(description = "Error code from Safaricom", example = "400.002.02")
+        @JsonProperty("darajaErrorCode")
+        String darajaErrorCode,
+
+        @Schema(description = "Whether the same request may succeed if sent again later")
+        @JsonProperty("retryable")
+        boolean retryable
 ) {
 
+    /**
+     * Error raised by this service, not reported by Daraja
+     */
+    public MpesaErrorResponse(String errorCode, String errorMessage, String requestId, LocalDateTime timestamp) {
+        this(errorCode, errorMessage, requestId, timestamp, null, false);
+    }
+
     /**
      * Common error types based on Daraja API documentation
      */
@@ -62,35 +90,38 @@ public record MpesaErrorResponse(
      * Check if error is due to authentication issues
      */
     public boolean isAuthenticationError() {
-        return ErrorCodes.INVALID_ACCESS_TOKEN.equals(errorCode) ||
-                ErrorCodes.INVALID_CREDENTIALS.equals(errorCode);
+        return "AUTH_FAILED".equals(errorCode)
+                || ErrorCodes.INVALID_ACCESS_TOKEN.equals(darajaErrorCode)
+                || ErrorCodes.INVALID_CREDENTIALS.equals(darajaErrorCode);
     }
 
     /**
      * Check if error is due to validation issues
      */
     public boolean isValidationError() {
-        return errorCode != null && errorCode.startsWith("400.002");
+        return "INVALID_ARGUMENT".equals(errorCode)
+                || (darajaErrorCode != null && darajaErrorCode.startsWith("400.002"));
     }
 
     /**
      * Check if error is due to business logic issues
      */
     public boolean isBusinessLogicError() {
-        return errorCode != null && errorCode.startsWith("400.008");
+        return darajaErrorCode != null && darajaErrorCode.startsWith("400.008");
     }
 
     /**
      * Check if error is a system/server error
      */
     public boolean isSystemError() {
-        return errorCode != null && (errorCode.startsWith("500") || errorCode.startsWith("503"));
+        return "SERVER_ERROR".equals(errorCode)
+                || (darajaErrorCode != null && (darajaErrorCode.startsWith("500") || darajaErrorCode.startsWith("503")));
     }
 
     /**
      * Check if error is due to rate limiting
      */
     public boolean isRateLimitError() {
-        return ErrorCodes.RATE_LIMIT_EXCEEDED.equals(errorCode);
+        return "RATE_LIMITED".equals(errorCode) || ErrorCodes.RATE_LIMIT_EXCEEDED.equals(darajaErrorCode);
     }
 }
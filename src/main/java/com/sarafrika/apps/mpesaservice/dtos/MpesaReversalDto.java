@@ -0,0 +1,87 @@
+package com.sarafrika.apps.mpesaservice.dtos;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.sarafrika.apps.mpesaservice.models.MpesaReversal;
+import com.sarafrika.apps.mpesaservice.utils.enums.ReversalStatus;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Read model for a transaction reversal.
+ */
+@Schema(description = "Transaction reversal status view")
+public record MpesaReversalDto(
+
+        @JsonProperty("uuid")
+        UUID uuid,
+
+        @JsonProperty("shortcode_uuid")
+        UUID shortcodeUuid,
+
+        @JsonProperty("original_transaction_id")
+        String originalTransactionId,
+
+        @JsonProperty("amount")
+        BigDecimal amount,
+
+        @JsonProperty("status")
+        ReversalStatus status,
+
+        @Schema(description = "Id of the reversed incoming payment, if it was received through this service")
+        @JsonProperty("incoming_payment_id")
+        Long incomingPaymentId,
+
+        @Schema(description = "Id of the reversed outgoing payment, if it was paid through this service")
+        @JsonProperty("outgoing_payment_id")
+        Long outgoingPaymentId,
+
+        @JsonProperty("conversation_id")
+        String conversationId,
+
+        @JsonProperty("reversal_transaction_id")
+        String reversalTransactionId,
+
+        @JsonProperty("result_code")
+        Integer resultCode,
+
+        @JsonProperty("result_desc")
+        String resultDesc,
+
+        @Schema(description = "Duplicate requests answered with this reversal instead of a new Daraja call")
+        @JsonProperty("coalesced_requests")
+        Integer coalescedRequests,
+
+        @Schema(description = "Whether this request joined an existing reversal rather than raising one")
+        @JsonProperty("coalesced")
+        boolean coalesced,
+
+        @JsonProperty("completed_at")
+        LocalDateTime completedAt,
+
+        @JsonProperty("created_at")
+        LocalDateTime createdAt
+) {
+
+    public static MpesaReversalDto from(MpesaReversal reversal, boolean coalesced) {
+        return new MpesaReversalDto(
+                reversal.getUuid(),
+                reversal.getShortcodeUuid(),
+                reversal.getOriginalTransactionId(),
+                reversal.getAmount(),
+                reversal.getStatus(),
+                reversal.getIncomingPaymentId(),
+                reversal.getOutgoingPaymentId(),
+                reversal.getConversationId(),
+                reversal.getReversalTransactionId(),
+                reversal.getResultCode(),
+                reversal.getResultDesc(),
+                reversal.getCoalescedRequests(),
+                coalesced,
+                reversal.getCompletedAt(),
+                reversal.getCreatedAt()
+        );
+    }
+}
@@ -0,0 +1,61 @@
+package com.sarafrika.apps.mpesaservice.dtos;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.sarafrika.apps.mpesaservice.utils.enums.PaymentDirection;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Counts and totals of a shortcode's payments over a period, read from the daily rollups.
+ * Soft-deleted payments are not counted; payments moved to the archive still are.
+ */
+@Schema(description = "Payment counts and totals of one shortcode over a period")
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record PaymentSummary(
+
+        @Schema(description = "UUID of the summarised shortcode")
+        @JsonProperty("shortcode_uuid")
+        UUID shortcodeUuid,
+
+        @Schema(description = "First day of the period")
+        @JsonProperty("from")
+        LocalDate from,
+
+        @Schema(description = "Last day of the period, inclusive")
+        @JsonProperty("to")
+        LocalDate to,
+
+        @Schema(description = "One line per direction, payment type and status (and day, when asked for daily lines)")
+        @JsonProperty("lines")
+        List<Line> lines
+) {
+
+    @Schema(description = "Payments of one direction, type and status")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Line(
+
+            @Schema(description = "Day the payments were created, present on daily lines only")
+            @JsonProperty("day")
+            LocalDate day,
+
+            @JsonProperty("direction")
+            PaymentDirection direction,
+
+            @JsonProperty("payment_type")
+            String paymentType,
+
+            @JsonProperty("status")
+            String status,
+
+            @JsonProperty("payment_count")
+            long paymentCount,
+
+            @JsonProperty("total_amount")
+            BigDecimal totalAmount
+    ) {}
+}
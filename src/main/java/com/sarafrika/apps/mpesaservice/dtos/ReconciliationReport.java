@@ -0,0 +1,108 @@
+package com.sarafrika.apps.mpesaservice.dtos;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Outcome of reconciling a shortcode's statement against the payments recorded here, joined
+ * on the M-Pesa receipt number. Counts and totals cover every row; the item lists stop at
+ * {@code mpesa.reconciliation.max-reported-items} each.
+ */
+@Schema(description = "Statement reconciliation report for one shortcode")
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ReconciliationReport(
+
+        @Schema(description = "UUID of the reconciled shortcode")
+        @JsonProperty("shortcode_uuid")
+        UUID shortcodeUuid,
+
+        @Schema(description = "First day of the reconciled period")
+        @JsonProperty("from")
+        LocalDate from,
+
+        @Schema(description = "Last day of the reconciled period, inclusive")
+        @JsonProperty("to")
+        LocalDate to,
+
+        @Schema(description = "Completed statement rows read, charges excluded")
+        @JsonProperty("statement_rows")
+        long statementRows,
+
+        @Schema(description = "Successful payments recorded here for the period")
+        @JsonProperty("local_rows")
+        long localRows,
+
+        @Schema(description = "Receipts present on both sides with the same amount and direction")
+        @JsonProperty("matched_count")
+        long matchedCount,
+
+        @Schema(description = "Sum of the matched amounts")
+        @JsonProperty("matched_amount")
+        BigDecimal matchedAmount,
+
+        @Schema(description = "Statement receipts with no successful payment recorded here")
+        @JsonProperty("missing_locally_count")
+        long missingLocallyCount,
+
+        @Schema(description = "Successful payments recorded here that are not on the statement")
+        @JsonProperty("missing_at_safaricom_count")
+        long missingAtSafaricomCount,
+
+        @Schema(description = "Receipts on both sides whose amount or direction differ")
+        @JsonProperty("amount_mismatch_count")
+        long amountMismatchCount,
+
+        @Schema(description = "Statement rows repeating a receipt already read; the first one is joined")
+        @JsonProperty("duplicate_statement_rows")
+        long duplicateStatementRows,
+
+        @Schema(description = "Sum of the transaction charges on the statement")
+        @JsonProperty("charges_total")
+        BigDecimal chargesTotal,
+
+        @JsonProperty("missing_locally")
+        List<Item> missingLocally,
+
+        @JsonProperty("missing_at_safaricom")
+        List<Item> missingAtSafaricom,
+
+        @JsonProperty("amount_mismatches")
+        List<Item> amountMismatches,
+
+        @Schema(description = "Time taken to reconcile in milliseconds")
+        @JsonProperty("processing_time_ms")
+        long processingTimeMs
+) {
+
+    /**
+     * One receipt that did not reconcile. Values from the side that lacks the receipt are null.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Item(
+
+            @JsonProperty("receipt_number")
+            String receiptNumber,
+
+            @JsonProperty("paid_in")
+            Boolean paidIn,
+
+            @JsonProperty("statement_amount")
+            BigDecimal statementAmount,
+
+            @JsonProperty("local_amount")
+            BigDecimal localAmount,
+
+            @JsonProperty("local_uuid")
+            UUID localUuid,
+
+            @JsonProperty("completed_at")
+            LocalDateTime completedAt
+    ) {}
+}
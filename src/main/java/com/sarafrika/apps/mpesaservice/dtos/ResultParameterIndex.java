@@ -0,0 +1,167 @@
+package com.sarafrika.apps.mpesaservice.dtos;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Key-indexed view of a Daraja {@code ResultParameter} array.
+ * <p>
+ * The array is decoded once, when its result parameters are read, into parallel key and value
+ * arrays behind a small open-addressing table, so every getter afterwards is a hash probe
+ * instead of a scan of the whole list. As with a scan, the first occurrence of a repeated key
+ * wins. Amounts and timestamps are parsed on access; a blank or malformed value reads as null.
+ * </p>
+ */
+public final class ResultParameterIndex {
+
+    private static final ResultParameterIndex EMPTY = new ResultParameterIndex(new String[0], new String[0]);
+
+    // B2C and reversal results report completion as dd.MM.yyyy HH:mm:ss, everything else as yyyyMMddHHmmss
+    private static final DateTimeFormatter DOTTED_FORMATTER = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss");
+    private static final DateTimeFormatter COMPACT_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private final String[] keys;
+    private final String[] values;
+    // Slot -> position in keys + 1, 0 when free; sized to at most half full
+    private final int[] slots;
+    private final int mask;
+
+    private ResultParameterIndex(String[] keys, String[] values) {
+        this.keys = keys;
+        this.values = values;
+        int capacity = Integer.highestOneBit(Math.max(keys.length, 1) * 2 - 1) << 1;
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < keys.length; i++) {
+            int slot = spread(keys[i].hashCode()) & mask;
+            boolean duplicate = false;
+            while (slots[slot] != 0) {
+                if (keys[slots[slot] - 1].equals(keys[i])) {
+                    duplicate = true;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (!duplicate) {
+                slots[slot] = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Index a result parameter list in one pass. Entries without a key are skipped.
+     */
+    public static <P> ResultParameterIndex of(List<P> parameters, Function<P, String> key, Function<P, String> value) {
+        if (parameters == null || parameters.isEmpty()) {
+            return EMPTY;
+        }
+        String[] keys = new String[parameters.size()];
+        String[] values = new String[parameters.size()];
+        int size = 0;
+        for (P parameter : parameters) {
+            String name = parameter != null ? key.apply(parameter) : null;
+            if (name == null) {
+                continue;
+            }
+            keys[size] = name;
+            values[size] = value.apply(parameter);
+            size++;
+        }
+        return size == 0 ? EMPTY
+                : new ResultParameterIndex(Arrays.copyOf(keys, size), Arrays.copyOf(values, size));
+    }
+
+    /**
+     * Get a parameter value as sent, or null when the parameter is absent
+     */
+    public String get(String name) {
+        if (name == null) {
+            return null;
+        }
+        int slot = spread(name.hashCode()) & mask;
+        while (slots[slot] != 0) {
+            int position = slots[slot] - 1;
+            if (keys[position].equals(name)) {
+                return values[position];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Get a parameter as an amount
+     */
+    public BigDecimal getAmount(String name) {
+        return parseAmount(get(name));
+    }
+
+    /**
+     * Get a parameter as a timestamp, in either of the formats Daraja uses
+     */
+    public LocalDateTime getTimestamp(String name) {
+        return parseTimestamp(get(name));
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Parse an amount as Daraja writes it, e.g. {@code 100.00}
+     */
+    public static BigDecimal parseAmount(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return new BigDecimal(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parse a Daraja timestamp, either {@code dd.MM.yyyy HH:mm:ss} or {@code yyyyMMddHHmmss}
+     */
+    public static LocalDateTime parseTimestamp(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        String raw = value.trim();
+        try {
+            return LocalDateTime.parse(raw, raw.indexOf('.') > 0 ? DOTTED_FORMATTER : COMPACT_FORMATTER);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ResultParameterIndex index
+                && Arrays.equals(keys, index.keys) && Arrays.equals(values, index.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(keys) + Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("{");
+        for (int i = 0; i < keys.length; i++) {
+            text.append(i == 0 ? "" : ", ").append(keys[i]).append('=').append(values[i]);
+        }
+        return text.append('}').toString();
+    }
+}
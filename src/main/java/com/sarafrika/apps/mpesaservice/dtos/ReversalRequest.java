@@ -0,0 +1,32 @@
+package com.sarafrika.apps.mpesaservice.dtos;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * Request to reverse an M-Pesa transaction received or paid by a configured shortcode.
+ */
+@Schema(description = "Request to reverse an M-Pesa transaction")
+public record ReversalRequest(
+
+        @Schema(description = "UUID of the shortcode the transaction belongs to",
+                requiredMode = Schema.RequiredMode.REQUIRED)
+        @JsonProperty("shortcode_uuid")
+        UUID shortcodeUuid,
+
+        @Schema(description = "M-Pesa receipt of the transaction to reverse", example = "NLJ41HAY6Q",
+                requiredMode = Schema.RequiredMode.REQUIRED)
+        @JsonProperty("transaction_id")
+        String transactionId,
+
+        @Schema(description = "Amount to reverse", example = "100.00", requiredMode = Schema.RequiredMode.REQUIRED)
+        @JsonProperty("amount")
+        BigDecimal amount,
+
+        @Schema(description = "Reversal remarks", example = "Duplicate payment")
+        @JsonProperty("remarks")
+        String remarks
+) {}
@@ -0,0 +1,23 @@
+package com.sarafrika.apps.mpesaservice.dtos;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * One completed row of a Safaricom organisation statement.
+ *
+ * @param receiptNumber M-Pesa receipt, e.g. {@code QDR123ABCD}
+ * @param completedAt   completion time, null when the statement's value could not be read
+ * @param amount        absolute amount, null when the row's amount could not be read
+ * @param paidIn        true for money into the shortcode, false for a withdrawal
+ * @param charge        true for a transaction charge, which shares its payment's receipt
+ * @param details       the statement's free-text description, e.g. {@code Pay Bill from 2547... - NAME Acc. REF}
+ */
+public record StatementEntry(
+        String receiptNumber,
+        LocalDateTime completedAt,
+        BigDecimal amount,
+        boolean paidIn,
+        boolean charge,
+        String details
+) {}
@@ -0,0 +1,45 @@
+package com.sarafrika.apps.mpesaservice.dtos;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.UUID;
+
+/**
+ * Outcome of backfilling a shortcode's incoming payments from an org statement
+ */
+@Schema(description = "Statement import summary for one shortcode")
+public record StatementImportResult(
+
+        @Schema(description = "UUID of the shortcode the payments were imported for")
+        @JsonProperty("shortcode_uuid")
+        UUID shortcodeUuid,
+
+        @Schema(description = "Completed statement rows read")
+        @JsonProperty("rows_read")
+        long rowsRead,
+
+        @Schema(description = "Rows skipped because they are not payments in (withdrawals, charges, no amount)")
+        @JsonProperty("rows_skipped")
+        long rowsSkipped,
+
+        @Schema(description = "Payments in copied to the staging table")
+        @JsonProperty("rows_staged")
+        long rowsStaged,
+
+        @Schema(description = "Staged rows repeating a receipt earlier in the file")
+        @JsonProperty("duplicate_rows")
+        long duplicateRows,
+
+        @Schema(description = "Receipts that were already recorded and were left untouched")
+        @JsonProperty("already_present")
+        long alreadyPresent,
+
+        @Schema(description = "Incoming payments created")
+        @JsonProperty("imported")
+        long imported,
+
+        @Schema(description = "Time taken to import in milliseconds")
+        @JsonProperty("processing_time_ms")
+        long processingTimeMs
+) {}
@@ -0,0 +1,32 @@
+package com.sarafrika.apps.mpesaservice.dtos;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Snapshot of the per-phone STK Push in-flight registry. Counters are cumulative
+ * since application start.
+ */
+@Schema(description = "STK Push in-flight registry statistics")
+public record StkPushInFlightStats(
+
+        @Schema(description = "Phone numbers with an STK prompt currently open")
+        @JsonProperty("in_flight")
+        int inFlight,
+
+        @Schema(description = "STK Push requests admitted to Daraja")
+        @JsonProperty("admitted")
+        long admitted,
+
+        @Schema(description = "STK Push requests rejected because the phone already had an open prompt")
+        @JsonProperty("rejected")
+        long rejected,
+
+        @Schema(description = "Prompts released by a callback or a failed initiation")
+        @JsonProperty("released")
+        long released,
+
+        @Schema(description = "Prompts that expired without a callback")
+        @JsonProperty("expired")
+        long expired
+) {}
@@ -1,6 +1,8 @@
 package com.sarafrika.apps.mpesaservice.dtos;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaApi;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaResultCode;
 import io.swagger.v3.oas.annotations.media.Schema;
 
 import java.math.BigDecimal;
@@ -56,13 +58,20 @@ public record StkStatusResponse(
      * Check if transaction was cancelled by user
      */
     public boolean wasCancelled() {
-        return resultCode != null && resultCode == 1032;
+        return darajaResultCode() == DarajaResultCode.STK_CANCELLED_BY_USER;
     }
 
     /**
      * Check if user had insufficient funds
      */
     public boolean hasInsufficientFunds() {
-        return resultCode != null && resultCode == 1;
+        return darajaResultCode() == DarajaResultCode.STK_INSUFFICIENT_BALANCE;
+    }
+
+    /**
+     * Classify the result code against the STK Push result code registry
+     */
+    public DarajaResultCode darajaResultCode() {
+        return DarajaResultCode.of(DarajaApi.STK_PUSH, resultCode);
     }
 }
\ No newline at end of file
@@ -2,6 +2,8 @@ package com.sarafrika.apps.mpesaservice.dtos;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.sarafrika.apps.mpesaservice.dtos.TransactionReversalResultParameters;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaApi;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaResultCode;
 import io.swagger.v3.oas.annotations.media.Schema;
 
 /**
@@ -50,13 +52,20 @@ public record TransactionReversalResultData(
      * Check if transaction was not found
      */
     public boolean isTransactionNotFound() {
-        return resultCode != null && resultCode == 1;
+        return darajaResultCode() == DarajaResultCode.REVERSAL_TRANSACTION_NOT_FOUND;
     }
 
     /**
      * Check if reversal was rejected
      */
     public boolean isRejected() {
-        return resultCode != null && resultCode == 1037;
+        return darajaResultCode() == DarajaResultCode.REVERSAL_REJECTED;
+    }
+
+    /**
+     * Classify the result code against the reversal result code registry
+     */
+    public DarajaResultCode darajaResultCode() {
+        return DarajaResultCode.of(DarajaApi.REVERSAL, resultCode);
     }
 }
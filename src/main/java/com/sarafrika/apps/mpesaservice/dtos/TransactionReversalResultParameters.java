@@ -1,8 +1,11 @@
 package com.sarafrika.apps.mpesaservice.dtos;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.swagger.v3.oas.annotations.media.Schema;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -13,18 +16,34 @@ public record TransactionReversalResultParameters(
 
         @Schema(description = "List of result parameter items")
         @JsonProperty("ResultParameter")
-        List<TransactionReversalResultParameter> resultParameters
+        List<TransactionReversalResultParameter> resultParameters,
+
+        @JsonIgnore
+        @Schema(hidden = true)
+        ResultParameterIndex index
 ) {
 
+    /**
+     * Decode the parameter list once; every getter reads the index
+     */
+    public TransactionReversalResultParameters {
+        if (index == null) {
+            index = ResultParameterIndex.of(resultParameters, TransactionReversalResultParameter::key,
+                    TransactionReversalResultParameter::value);
+        }
+    }
+
+    @JsonCreator
+    public TransactionReversalResultParameters(
+            @JsonProperty("ResultParameter") List<TransactionReversalResultParameter> resultParameters) {
+        this(resultParameters, null);
+    }
+
     /**
      * Get specific parameter value by name
      */
     public String getParameterValue(String name) {
-        return resultParameters.stream()
-                .filter(param -> name.equals(param.key()))
-                .map(TransactionReversalResultParameter::value)
-                .findFirst()
-                .orElse(null);
+        return index.get(name);
     }
 
     /**
@@ -76,6 +95,14 @@ public record TransactionReversalResultParameters(
         return getParameterValue("TransactionCompletedDateTime");
     }
 
+    /**
+     * Get transaction completed date time as a timestamp
+     */
+    @JsonIgnore
+    public LocalDateTime getTransactionCompletedAt() {
+        return index.getTimestamp("TransactionCompletedDateTime");
+    }
+
     /**
      * Get credit party charges
      */
@@ -1,8 +1,11 @@
 package com.sarafrika.apps.mpesaservice.dtos;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.swagger.v3.oas.annotations.media.Schema;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -13,18 +16,34 @@ public record TransactionStatusResultParameters(
 
         @Schema(description = "List of result parameter items")
         @JsonProperty("ResultParameter")
-        List<TransactionStatusResultParameter> resultParameters
+        List<TransactionStatusResultParameter> resultParameters,
+
+        @JsonIgnore
+        @Schema(hidden = true)
+        ResultParameterIndex index
 ) {
 
+    /**
+     * Decode the parameter list once; every getter reads the index
+     */
+    public TransactionStatusResultParameters {
+        if (index == null) {
+            index = ResultParameterIndex.of(resultParameters, TransactionStatusResultParameter::key,
+                    TransactionStatusResultParameter::value);
+        }
+    }
+
+    @JsonCreator
+    public TransactionStatusResultParameters(
+            @JsonProperty("ResultParameter") List<TransactionStatusResultParameter> resultParameters) {
+        this(resultParameters, null);
+    }
+
     /**
      * Get specific parameter value by name
      */
     public String getParameterValue(String name) {
-        return resultParameters.stream()
-                .filter(param -> name.equals(param.key()))
-                .map(TransactionStatusResultParameter::value)
-                .findFirst()
-                .orElse(null);
+        return index.get(name);
     }
 
     /**
@@ -117,4 +136,12 @@ public record TransactionStatusResultParameters(
     public String getCompletedTime() {
         return getParameterValue("CompletedTime");
     }
+
+    /**
+     * Get completed time as a timestamp
+     */
+    @JsonIgnore
+    public LocalDateTime getCompletedAt() {
+        return index.getTimestamp("CompletedTime");
+    }
 }
@@ -0,0 +1,48 @@
+package com.sarafrika.apps.mpesaservice.exceptions;
+
+import lombok.Getter;
+
+/**
+ * An HTTP error response from the Daraja API.
+ * <p>
+ * Carries the HTTP status together with the {@code errorCode}, {@code requestId} and
+ * {@code errorMessage} Daraja put in the body, so callers branch on the type and the
+ * {@link #isRetryable()} flag instead of on message text. {@link #getServiceErrorCode()} is the
+ * stable code this service reports for the error.
+ * </p>
+ */
+@Getter
+public abstract class DarajaApiException extends RuntimeException {
+
+    private final int httpStatus;
+    private final String errorCode;
+    private final String requestId;
+    private final String errorMessage;
+
+    protected DarajaApiException(int httpStatus, String errorCode, String requestId, String errorMessage) {
+        super("Daraja " + httpStatus + (errorCode != null ? " " + errorCode : "")
+                + (errorMessage != null ? ": " + errorMessage : ""));
+        this.httpStatus = httpStatus;
+        this.errorCode = errorCode;
+        this.requestId = requestId;
+        this.errorMessage = errorMessage;
+    }
+
+    /**
+     * Code this service reports for the error, e.g. {@code CLIENT_ERROR}
+     */
+    public abstract String getServiceErrorCode();
+
+    /**
+     * Whether the same request may succeed if sent again later
+     */
+    public abstract boolean isRetryable();
+
+    /**
+     * Whether Daraja may have acted on the request despite the error, e.g. a 5xx after a payout
+     * was taken on. False means Daraja provably refused it.
+     */
+    public boolean isOutcomeUnknown() {
+        return false;
+    }
+}
@@ -0,0 +1,22 @@
+package com.sarafrika.apps.mpesaservice.exceptions;
+
+/**
+ * Daraja refused the access token or credentials. The cached token is dropped, so a retry
+ * authenticates afresh.
+ */
+public class DarajaAuthenticationException extends DarajaApiException {
+
+    public DarajaAuthenticationException(int httpStatus, String errorCode, String requestId, String errorMessage) {
+        super(httpStatus, errorCode, requestId, errorMessage);
+    }
+
+    @Override
+    public String getServiceErrorCode() {
+        return "AUTH_FAILED";
+    }
+
+    @Override
+    public boolean isRetryable() {
+        return true;
+    }
+}
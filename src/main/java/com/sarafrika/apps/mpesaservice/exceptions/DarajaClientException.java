@@ -0,0 +1,21 @@
+package com.sarafrika.apps.mpesaservice.exceptions;
+
+/**
+ * Daraja rejected the request as invalid (4xx). Sending it again unchanged fails the same way.
+ */
+public class DarajaClientException extends DarajaApiException {
+
+    public DarajaClientException(int httpStatus, String errorCode, String requestId, String errorMessage) {
+        super(httpStatus, errorCode, requestId, errorMessage);
+    }
+
+    @Override
+    public String getServiceErrorCode() {
+        return "CLIENT_ERROR";
+    }
+
+    @Override
+    public boolean isRetryable() {
+        return false;
+    }
+}
@@ -0,0 +1,21 @@
+package com.sarafrika.apps.mpesaservice.exceptions;
+
+/**
+ * Daraja throttled the request (429, or a spike arrest or quota fault) before acting on it.
+ */
+public class DarajaRateLimitException extends DarajaApiException {
+
+    public DarajaRateLimitException(int httpStatus, String errorCode, String requestId, String errorMessage) {
+        super(httpStatus, errorCode, requestId, errorMessage);
+    }
+
+    @Override
+    public String getServiceErrorCode() {
+        return "RATE_LIMITED";
+    }
+
+    @Override
+    public boolean isRetryable() {
+        return true;
+    }
+}
@@ -0,0 +1,27 @@
+package com.sarafrika.apps.mpesaservice.exceptions;
+
+/**
+ * Daraja failed with a 5xx. The request may still have been acted on, so a payout is confirmed
+ * by its result or a status query rather than sent again blindly.
+ */
+public class DarajaServerException extends DarajaApiException {
+
+    public DarajaServerException(int httpStatus, String errorCode, String requestId, String errorMessage) {
+        super(httpStatus, errorCode, requestId, errorMessage);
+    }
+
+    @Override
+    public String getServiceErrorCode() {
+        return "SERVER_ERROR";
+    }
+
+    @Override
+    public boolean isRetryable() {
+        return true;
+    }
+
+    @Override
+    public boolean isOutcomeUnknown() {
+        return true;
+    }
+}
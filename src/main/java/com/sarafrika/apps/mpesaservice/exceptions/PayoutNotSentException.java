@@ -0,0 +1,18 @@
+package com.sarafrika.apps.mpesaservice.exceptions;
+
+import lombok.Getter;
+
+/**
+ * A payout request failed in a way that proves Daraja never took it on, e.g. a refused token, a
+ * 4xx or a failure before sending. Unlike a timeout or 5xx, it is safe to send again.
+ */
+@Getter
+public class PayoutNotSentException extends IllegalStateException {
+
+    private final String errorCode;
+
+    public PayoutNotSentException(String errorCode, String message) {
+        super(message);
+        this.errorCode = errorCode;
+    }
+}
@@ -0,0 +1,51 @@
+package com.sarafrika.apps.mpesaservice.models;
+
+import com.sarafrika.apps.mpesaservice.utils.converters.DisbursementBatchStatusConverter;
+import com.sarafrika.apps.mpesaservice.utils.enums.DisbursementBatchStatus;
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * A bulk B2C payout. Its rows live in {@code mpesa_outgoing_payments} under {@code batch_id}.
+ */
+@Entity
+@Table(name = "mpesa_disbursement_batches")
+@Getter
+@Setter
+@NoArgsConstructor
+public class MpesaDisbursementBatch extends BaseEntity {
+
+    @Column(name = "shortcode_uuid")
+    private UUID shortcodeUuid;
+
+    @Column(name = "command_id")
+    private String commandId;
+
+    @Column(name = "reference")
+    private String reference;
+
+    @Convert(converter = DisbursementBatchStatusConverter.class)
+    @Column(name = "status")
+    private DisbursementBatchStatus status = DisbursementBatchStatus.STAGING;
+
+    @Column(name = "total_count")
+    private Integer totalCount = 0;
+
+    @Column(name = "total_amount")
+    private BigDecimal totalAmount = BigDecimal.ZERO;
+
+    @Column(name = "rejected_count")
+    private Integer rejectedCount = 0;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+}
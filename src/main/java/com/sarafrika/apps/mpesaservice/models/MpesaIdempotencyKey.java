@@ -0,0 +1,44 @@
+package com.sarafrika.apps.mpesaservice.models;
+
+import com.sarafrika.apps.mpesaservice.utils.converters.IdempotencyKeyStatusConverter;
+import com.sarafrika.apps.mpesaservice.utils.enums.IdempotencyKeyStatus;
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * A client-supplied Idempotency-Key and the response first returned for it.
+ */
+@Entity
+@Table(name = "mpesa_idempotency_keys")
+@Getter
+@Setter
+@NoArgsConstructor
+public class MpesaIdempotencyKey extends BaseEntity {
+
+    @Column(name = "idempotency_key", unique = true)
+    private String idempotencyKey;
+
+    @Column(name = "request_hash")
+    private String requestHash;
+
+    @Convert(converter = IdempotencyKeyStatusConverter.class)
+    @Column(name = "status")
+    private IdempotencyKeyStatus status = IdempotencyKeyStatus.IN_PROGRESS;
+
+    @Column(name = "http_status")
+    private Integer httpStatus;
+
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "response_body")
+    private Map<String, Object> responseBody;
+
+    @Column(name = "expires_at")
+    private LocalDateTime expiresAt;
+}
@@ -8,12 +8,9 @@ import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
-import org.hibernate.annotations.JdbcTypeCode;
-import org.hibernate.type.SqlTypes;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.Map;
 import java.util.UUID;
 
 @Entity
@@ -77,10 +74,6 @@ public class MpesaIncomingPayment extends BaseEntity {
     @Column(name = "status")
     private IncomingPaymentStatus status = IncomingPaymentStatus.PENDING;
 
-    @JdbcTypeCode(SqlTypes.JSON)
-    @Column(name = "raw_callback_data")
-    private Map<String, Object> rawCallbackData;
-
     @Column(name = "processed_at")
     private LocalDateTime processedAt;
 }
\ No newline at end of file
@@ -8,12 +8,9 @@ import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
-import org.hibernate.annotations.JdbcTypeCode;
-import org.hibernate.type.SqlTypes;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.Map;
 import java.util.UUID;
 
 @Entity
@@ -83,10 +80,27 @@ public class MpesaOutgoingPayment extends BaseEntity {
     @Column(name = "status")
     private OutgoingPaymentStatus status = OutgoingPaymentStatus.PENDING;
 
-    @JdbcTypeCode(SqlTypes.JSON)
-    @Column(name = "raw_callback_data")
-    private Map<String, Object> rawCallbackData;
-
     @Column(name = "processed_at")
     private LocalDateTime processedAt;
+
+    @Column(name = "batch_id")
+    private Long batchId;
+
+    @Column(name = "batch_line")
+    private Integer batchLine;
+
+    @Column(name = "status_query_attempts")
+    private Integer statusQueryAttempts = 0;
+
+    @Column(name = "status_query_at")
+    private LocalDateTime statusQueryAt;
+
+    @Column(name = "status_query_conversation_id")
+    private String statusQueryConversationId;
+
+    @Column(name = "retry_attempt")
+    private Integer retryAttempt = 0;
+
+    @Column(name = "retried_at")
+    private LocalDateTime retriedAt;
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+package com.sarafrika.apps.mpesaservice.models;
+
+import com.sarafrika.apps.mpesaservice.utils.converters.ReversalStatusConverter;
+import com.sarafrika.apps.mpesaservice.utils.enums.ReversalStatus;
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A reversal of an M-Pesa transaction, keyed by the receipt being reversed and linked to the
+ * incoming or outgoing payment it undoes when that payment is known here.
+ */
+@Entity
+@Table(name = "mpesa_reversals")
+@Getter
+@Setter
+@NoArgsConstructor
+public class MpesaReversal extends BaseEntity {
+
+    @Column(name = "shortcode_uuid")
+    private UUID shortcodeUuid;
+
+    @Column(name = "original_transaction_id")
+    private String originalTransactionId;
+
+    @Column(name = "amount")
+    private BigDecimal amount;
+
+    @Column(name = "remarks")
+    private String remarks;
+
+    @Convert(converter = ReversalStatusConverter.class)
+    @Column(name = "status")
+    private ReversalStatus status = ReversalStatus.REQUESTED;
+
+    @Column(name = "incoming_payment_id")
+    private Long incomingPaymentId;
+
+    @Column(name = "outgoing_payment_id")
+    private Long outgoingPaymentId;
+
+    @Column(name = "conversation_id")
+    private String conversationId;
+
+    @Column(name = "originator_conversation_id")
+    private String originatorConversationId;
+
+    @Column(name = "reversal_transaction_id")
+    private String reversalTransactionId;
+
+    @Column(name = "result_code")
+    private Integer resultCode;
+
+    @Column(name = "result_desc")
+    private String resultDesc;
+
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "raw_callback_data")
+    private Map<String, Object> rawCallbackData;
+
+    @Column(name = "coalesced_requests")
+    private Integer coalescedRequests = 0;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+}
@@ -0,0 +1,74 @@
+package com.sarafrika.apps.mpesaservice.repositories;
+
+import com.sarafrika.apps.mpesaservice.models.MpesaDisbursementBatch;
+import com.sarafrika.apps.mpesaservice.utils.enums.DisbursementBatchStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface MpesaDisbursementBatchRepository extends JpaRepository<MpesaDisbursementBatch, Long> {
+
+    /**
+     * Find batch by UUID
+     */
+    Optional<MpesaDisbursementBatch> findByUuid(UUID uuid);
+
+    /**
+     * Batches in a given status, with just what the dispatcher needs
+     */
+    @Query("""
+            SELECT b.id AS id, b.shortcodeUuid AS shortcodeUuid, b.commandId AS commandId
+              FROM MpesaDisbursementBatch b
+             WHERE b.status = :status
+             ORDER BY b.id
+            """)
+    List<DispatchableBatch> findDispatchable(@Param("status") DisbursementBatchStatus status);
+
+    /**
+     * Move a batch to {@code targetStatus} only if it is currently in one of {@code sourceStatuses}.
+     * The first move to RUNNING stamps {@code started_at}.
+     */
+    @Transactional
+    @Query(value = """
+            UPDATE mpesa_disbursement_batches
+               SET status     = :targetStatus,
+                   started_at = CASE WHEN :targetStatus = 'RUNNING' THEN COALESCE(started_at, NOW()) ELSE started_at END,
+                   updated_at = NOW()
+             WHERE uuid = :uuid AND status IN (:sourceStatuses) AND deleted_at IS NULL
+            RETURNING *
+            """, nativeQuery = true)
+    Optional<MpesaDisbursementBatch> transitionStatus(@Param("uuid") UUID uuid,
+                                                      @Param("sourceStatuses") Collection<String> sourceStatuses,
+                                                      @Param("targetStatus") String targetStatus);
+
+    /**
+     * Complete every RUNNING batch with no row left to send or settle
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE mpesa_disbursement_batches b
+               SET status = 'COMPLETED', completed_at = NOW(), updated_at = NOW()
+             WHERE b.status = 'RUNNING'
+               AND NOT EXISTS (SELECT 1 FROM mpesa_outgoing_payments p
+                                WHERE p.batch_id = b.id AND p.status IN ('QUEUED', 'DISPATCHING', 'PENDING'))
+            """, nativeQuery = true)
+    int completeFinished();
+
+    interface DispatchableBatch {
+        Long getId();
+
+        UUID getShortcodeUuid();
+
+        String getCommandId();
+    }
+}
@@ -0,0 +1,97 @@
+package com.sarafrika.apps.mpesaservice.repositories;
+
+import com.sarafrika.apps.mpesaservice.models.MpesaIdempotencyKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Idempotency keys are claimed and settled in short standalone transactions so that no
+ * transaction is held open across the Daraja call they protect.
+ */
+@Repository
+public interface MpesaIdempotencyKeyRepository extends JpaRepository<MpesaIdempotencyKey, Long> {
+
+    /**
+     * Current state of a key, read as a projection so that polling always sees the latest
+     * committed row rather than an entity cached in the open persistence context.
+     */
+    @Query(value = """
+            SELECT status, request_hash AS "requestHash", CAST(response_body AS TEXT) AS "responseBody",
+                   expires_at AS "expiresAt"
+              FROM mpesa_idempotency_keys
+             WHERE idempotency_key = :idempotencyKey
+            """, nativeQuery = true)
+    Optional<KeyState> findStateByIdempotencyKey(@Param("idempotencyKey") String idempotencyKey);
+
+    interface KeyState {
+        String getStatus();
+
+        String getRequestHash();
+
+        String getResponseBody();
+
+        LocalDateTime getExpiresAt();
+    }
+
+    /**
+     * Claim a key for this attempt. Returns empty when another attempt already holds it.
+     * An expired key, or an IN_PROGRESS claim last touched before {@code staleBefore}
+     * (its node died mid-call), is taken over.
+     */
+    @Transactional
+    @Query(value = """
+            INSERT INTO mpesa_idempotency_keys (idempotency_key, request_hash, status, expires_at, created_at, updated_at)
+            VALUES (:idempotencyKey, :requestHash, 'IN_PROGRESS', CAST(:expiresAt AS TIMESTAMP), NOW(), NOW())
+            ON CONFLICT (idempotency_key) DO UPDATE SET
+                    request_hash  = EXCLUDED.request_hash,
+                    status        = 'IN_PROGRESS',
+                    http_status   = NULL,
+                    response_body = NULL,
+                    expires_at    = EXCLUDED.expires_at,
+                    updated_at    = NOW()
+              WHERE mpesa_idempotency_keys.expires_at < NOW()
+                 OR (mpesa_idempotency_keys.status = 'IN_PROGRESS'
+                     AND mpesa_idempotency_keys.updated_at < CAST(:staleBefore AS TIMESTAMP))
+            RETURNING *
+            """, nativeQuery = true)
+    Optional<MpesaIdempotencyKey> claim(@Param("idempotencyKey") String idempotencyKey,
+                                        @Param("requestHash") String requestHash,
+                                        @Param("expiresAt") LocalDateTime expiresAt,
+                                        @Param("staleBefore") LocalDateTime staleBefore);
+
+    /**
+     * Store the response for a claimed key
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE mpesa_idempotency_keys
+               SET status = 'COMPLETED', http_status = :httpStatus,
+                   response_body = CAST(:responseBody AS JSONB), updated_at = NOW()
+             WHERE idempotency_key = :idempotencyKey AND status = 'IN_PROGRESS'
+            """, nativeQuery = true)
+    int complete(@Param("idempotencyKey") String idempotencyKey,
+                 @Param("httpStatus") int httpStatus,
+                 @Param("responseBody") String responseBody);
+
+    /**
+     * Give up a claim whose attempt failed so that a retry with the same key can run again
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM mpesa_idempotency_keys WHERE idempotency_key = :idempotencyKey AND status = 'IN_PROGRESS'",
+            nativeQuery = true)
+    int release(@Param("idempotencyKey") String idempotencyKey);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM mpesa_idempotency_keys WHERE expires_at < NOW()", nativeQuery = true)
+    int deleteExpired();
+}
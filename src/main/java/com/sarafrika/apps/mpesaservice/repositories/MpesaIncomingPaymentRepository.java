@@ -3,34 +3,68 @@ package com.sarafrika.apps.mpesaservice.repositories;
 import com.sarafrika.apps.mpesaservice.models.MpesaIncomingPayment;
 import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentStatus;
 import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.HibernateHints.HINT_READ_ONLY;
 
 @Repository
 public interface MpesaIncomingPaymentRepository extends JpaRepository<MpesaIncomingPayment, Long> {
 
+    // ==================== LOOKUPS BY KEY ====================
+    //
+    // uuid, the receipt and the checkout request ID are unique in mpesa_incoming_payment_keys,
+    // which also holds each payment's (id, created_at). Reading that first lets the payment
+    // lookup prune to the one monthly partition holding the row instead of probing them all.
+
     /**
      * Find incoming payment by UUID
      */
-    Optional<MpesaIncomingPayment> findByUuid(UUID uuid);
+    @Query(value = """
+            SELECT p.* FROM mpesa_incoming_payments p
+             WHERE (p.id, p.created_at) = (SELECT k.payment_id, k.payment_created_at
+                                             FROM mpesa_incoming_payment_keys k WHERE k.uuid = :uuid)
+               AND p.deleted_at IS NULL
+            """, nativeQuery = true)
+    Optional<MpesaIncomingPayment> findByUuid(@Param("uuid") UUID uuid);
 
     /**
      * Find incoming payment by M-Pesa transaction ID (receipt)
      */
-    Optional<MpesaIncomingPayment> findByTransactionId(String transactionId);
+    @Query(value = """
+            SELECT p.* FROM mpesa_incoming_payments p
+             WHERE (p.id, p.created_at) = (SELECT k.payment_id, k.payment_created_at
+                                             FROM mpesa_incoming_payment_keys k WHERE k.transaction_id = :transactionId)
+               AND p.deleted_at IS NULL
+            """, nativeQuery = true)
+    Optional<MpesaIncomingPayment> findByTransactionId(@Param("transactionId") String transactionId);
 
     /**
      * Find incoming payment by STK Push checkout request ID
      */
-    Optional<MpesaIncomingPayment> findByCheckoutRequestId(String checkoutRequestId);
+    @Query(value = """
+            SELECT p.* FROM mpesa_incoming_payments p
+             WHERE (p.id, p.created_at) = (SELECT k.payment_id, k.payment_created_at
+                                             FROM mpesa_incoming_payment_keys k
+                                            WHERE k.checkout_request_id = :checkoutRequestId)
+               AND p.deleted_at IS NULL
+            """, nativeQuery = true)
+    Optional<MpesaIncomingPayment> findByCheckoutRequestId(@Param("checkoutRequestId") String checkoutRequestId);
 
     /**
      * Find all payments for a given shortcode
@@ -70,10 +104,18 @@ public interface MpesaIncomingPaymentRepository extends JpaRepository<MpesaIncom
     /**
      * Check whether a payment already exists for a transaction ID
      */
-    boolean existsByTransactionId(String transactionId);
+    @Query(value = """
+            SELECT EXISTS (SELECT 1 FROM mpesa_incoming_payments p
+                            WHERE (p.id, p.created_at) = (SELECT k.payment_id, k.payment_created_at
+                                                            FROM mpesa_incoming_payment_keys k
+                                                           WHERE k.transaction_id = :transactionId)
+                              AND p.deleted_at IS NULL)
+            """, nativeQuery = true)
+    boolean existsByTransactionId(@Param("transactionId") String transactionId);
 
     /**
-     * Sum the amount of all payments in a given status
+     * Sum the amount of all payments in a given status by scanning them. Reporting reads the
+     * daily rollups instead; this is the exact recount to check them against.
      */
     @Query("SELECT COALESCE(SUM(p.amount), 0) FROM MpesaIncomingPayment p WHERE p.status = :status")
     BigDecimal sumAmountByStatus(@Param("status") IncomingPaymentStatus status);
@@ -82,4 +124,260 @@ public interface MpesaIncomingPaymentRepository extends JpaRepository<MpesaIncom
      * Count payments in a given status
      */
     Long countByStatus(IncomingPaymentStatus status);
+
+    /**
+     * Insert a C2B confirmation, or return the existing row when Safaricom redelivers it, in a
+     * single round trip. The receipt is claimed in {@code mpesa_incoming_payment_keys} first:
+     * the first delivery inserts the key with a fresh id and the payment is created under it;
+     * a redelivery, or a parallel duplicate that waited on the key, gets back the existing
+     * payment's (id, created_at) and upserts that row instead. Values already on the row win over
+     * the redelivered ones; gaps (e.g. customer names) are filled. The raw confirmation goes to
+     * the callback side table in the same statement, and likewise only the first one delivered
+     * is kept. The caller resolves the confirmation's BusinessShortCode to {@code shortcodeUuid}
+     * beforehand.
+     */
+    @Query(value = """
+            WITH receipt AS (
+                INSERT INTO mpesa_incoming_payment_keys AS k (payment_id, payment_created_at, uuid, transaction_id)
+                VALUES (nextval('mpesa_incoming_payments_id_seq'), NOW(), gen_random_uuid(), :transactionId)
+                ON CONFLICT (transaction_id) DO UPDATE SET transaction_id = k.transaction_id
+                RETURNING payment_id, payment_created_at, uuid
+            ), payment AS (
+                INSERT INTO mpesa_incoming_payments (id, uuid, shortcode_uuid, payment_type, transaction_id, phone_number,
+                        amount, account_reference, first_name, middle_name, last_name, transaction_date, status,
+                        processed_at, created_at, updated_at)
+                SELECT r.payment_id, r.uuid, :shortcodeUuid, 'C2B', :transactionId, :phoneNumber, :amount, :accountReference, :firstName, :middleName,
+                       :lastName, CAST(:transactionDate AS TIMESTAMP), 'SUCCESS', NOW(), r.payment_created_at, NOW()
+                  FROM receipt r
+                ON CONFLICT (id, created_at) DO UPDATE SET
+                        account_reference = COALESCE(mpesa_incoming_payments.account_reference, EXCLUDED.account_reference),
+                        first_name        = COALESCE(mpesa_incoming_payments.first_name, EXCLUDED.first_name),
+                        middle_name       = COALESCE(mpesa_incoming_payments.middle_name, EXCLUDED.middle_name),
+                        last_name         = COALESCE(mpesa_incoming_payments.last_name, EXCLUDED.last_name),
+                        transaction_date  = COALESCE(mpesa_incoming_payments.transaction_date, EXCLUDED.transaction_date),
+                        processed_at      = COALESCE(mpesa_incoming_payments.processed_at, EXCLUDED.processed_at),
+                        updated_at        = NOW()
+                RETURNING *
+            ), callback AS (
+                INSERT INTO mpesa_incoming_payment_callbacks (payment_id, payment_created_at, raw_callback_data)
+                SELECT id, created_at, CAST(:rawCallbackData AS JSONB) FROM payment
+                 WHERE CAST(:rawCallbackData AS JSONB) IS NOT NULL
+                ON CONFLICT (payment_id, payment_created_at) DO NOTHING
+            )
+            SELECT * FROM payment
+            """, nativeQuery = true)
+    MpesaIncomingPayment upsertC2BConfirmation(@Param("transactionId") String transactionId,
+                                               @Param("shortcodeUuid") UUID shortcodeUuid,
+                                               @Param("phoneNumber") String phoneNumber,
+                                               @Param("amount") BigDecimal amount,
+                                               @Param("accountReference") String accountReference,
+                                               @Param("firstName") String firstName,
+                                               @Param("middleName") String middleName,
+                                               @Param("lastName") String lastName,
+                                               @Param("transactionDate") LocalDateTime transactionDate,
+                                               @Param("rawCallbackData") String rawCallbackData);
+
+    // ==================== COMPARE-AND-SET TRANSITIONS ====================
+
+    /**
+     * Move a payment to {@code targetStatus} only if it is currently in one of {@code sourceStatuses}.
+     * Returns the updated row, or empty when the guard did not match (wrong state or unknown uuid).
+     */
+    @Query(value = """
+            UPDATE mpesa_incoming_payments
+               SET status = :targetStatus, updated_at = NOW()
+             WHERE (id, created_at) = (SELECT k.payment_id, k.payment_created_at
+                                         FROM mpesa_incoming_payment_keys k WHERE k.uuid = :uuid)
+               AND status IN (:sourceStatuses) AND deleted_at IS NULL
+            RETURNING *
+            """, nativeQuery = true)
+    Optional<MpesaIncomingPayment> transitionStatus(@Param("uuid") UUID uuid,
+                                                    @Param("sourceStatuses") Collection<String> sourceStatuses,
+                                                    @Param("targetStatus") String targetStatus);
+
+    /**
+     * Stamp {@code processed_at} once. Returns empty if the payment is unknown or already processed.
+     */
+    @Query(value = """
+            UPDATE mpesa_incoming_payments
+               SET processed_at = NOW(), updated_at = NOW()
+             WHERE (id, created_at) = (SELECT k.payment_id, k.payment_created_at
+                                         FROM mpesa_incoming_payment_keys k WHERE k.uuid = :uuid)
+               AND processed_at IS NULL AND deleted_at IS NULL
+            RETURNING *
+            """, nativeQuery = true)
+    Optional<MpesaIncomingPayment> markProcessed(@Param("uuid") UUID uuid);
+
+    /**
+     * Apply an STK Push result to the PENDING payment for a checkout request. Only the first
+     * result wins; a redelivered or racing result finds no PENDING row and returns empty.
+     * Null metadata values leave the seeded columns untouched. The raw result is stored in the
+     * callback side table by the same statement. The receipt replaces the checkout request ID
+     * seeded as the placeholder transaction_id, so a receipt already recorded, e.g. by a C2B
+     * confirmation, fails the update on the unique receipt key.
+     */
+    @Query(value = """
+            WITH payment AS (
+                UPDATE mpesa_incoming_payments
+                   SET status           = :status,
+                       result_code      = CAST(:resultCode AS INTEGER),
+                       result_desc      = :resultDesc,
+                       transaction_id   = COALESCE(:receipt, transaction_id),
+                       amount           = COALESCE(CAST(:amount AS NUMERIC), amount),
+                       phone_number     = COALESCE(:phoneNumber, phone_number),
+                       transaction_date = COALESCE(CAST(:transactionDate AS TIMESTAMP), transaction_date),
+                       processed_at     = NOW(),
+                       updated_at       = NOW()
+                 WHERE (id, created_at) = (SELECT k.payment_id, k.payment_created_at
+                                             FROM mpesa_incoming_payment_keys k
+                                            WHERE k.checkout_request_id = :checkoutRequestId)
+                   AND status = 'PENDING' AND deleted_at IS NULL
+                RETURNING *
+            ), callback AS (
+                INSERT INTO mpesa_incoming_payment_callbacks (payment_id, payment_created_at, raw_callback_data)
+                SELECT id, created_at, CAST(:rawCallbackData AS JSONB) FROM payment
+                 WHERE CAST(:rawCallbackData AS JSONB) IS NOT NULL
+                ON CONFLICT (payment_id, payment_created_at) DO UPDATE
+                    SET raw_callback_data = EXCLUDED.raw_callback_data, received_at = EXCLUDED.received_at
+            )
+            SELECT * FROM payment
+            """, nativeQuery = true)
+    Optional<MpesaIncomingPayment> completeStkPush(@Param("checkoutRequestId") String checkoutRequestId,
+                                                   @Param("status") String status,
+                                                   @Param("resultCode") Integer resultCode,
+                                                   @Param("resultDesc") String resultDesc,
+                                                   @Param("receipt") String receipt,
+                                                   @Param("amount") BigDecimal amount,
+                                                   @Param("phoneNumber") String phoneNumber,
+                                                   @Param("transactionDate") LocalDateTime transactionDate,
+                                                   @Param("rawCallbackData") String rawCallbackData);
+
+    // ==================== KEYSET PAGES ====================
+    //
+    // Each page starts after the last id of the previous one, so a page costs the same at any
+    // depth, and a Slice fetches one row past the page size instead of counting the table.
+    // Pass an unsorted PageRequest.ofSize(n); the order is fixed by the query.
+
+    /**
+     * Payments with an id after {@code afterId}, in id order
+     */
+    Slice<MpesaIncomingPayment> findByIdGreaterThanOrderByIdAsc(Long afterId, Pageable pageable);
+
+    /**
+     * Payments for a shortcode with an id after {@code afterId}, in id order
+     */
+    Slice<MpesaIncomingPayment> findByShortcodeUuidAndIdGreaterThanOrderByIdAsc(UUID shortcodeUuid, Long afterId,
+                                                                                Pageable pageable);
+
+    /**
+     * Payments from a phone number with an id after {@code afterId}, in id order
+     */
+    Slice<MpesaIncomingPayment> findByPhoneNumberAndIdGreaterThanOrderByIdAsc(String phoneNumber, Long afterId,
+                                                                              Pageable pageable);
+
+    /**
+     * Payments in a status with an id after {@code afterId}, in id order
+     */
+    Slice<MpesaIncomingPayment> findByStatusAndIdGreaterThanOrderByIdAsc(IncomingPaymentStatus status, Long afterId,
+                                                                         Pageable pageable);
+
+    /**
+     * Payments whose amount falls within a range with an id after {@code afterId}, in id order
+     */
+    Slice<MpesaIncomingPayment> findByAmountBetweenAndIdGreaterThanOrderByIdAsc(BigDecimal minAmount,
+                                                                                BigDecimal maxAmount, Long afterId,
+                                                                                Pageable pageable);
+
+    /**
+     * Payments created within a date range after the {@code (createdAt, id)} of the previous
+     * page's last row, in that order, so the page walks the {@code created_at} index
+     */
+    @Query("""
+            SELECT p FROM MpesaIncomingPayment p
+             WHERE p.createdAt BETWEEN :startDate AND :endDate
+               AND (p.createdAt > :afterCreatedAt OR (p.createdAt = :afterCreatedAt AND p.id > :afterId))
+             ORDER BY p.createdAt, p.id
+            """)
+    Slice<MpesaIncomingPayment> findCreatedBetweenAfter(@Param("startDate") LocalDateTime startDate,
+                                                        @Param("endDate") LocalDateTime endDate,
+                                                        @Param("afterCreatedAt") LocalDateTime afterCreatedAt,
+                                                        @Param("afterId") Long afterId,
+                                                        Pageable pageable);
+
+    // ==================== STREAMS ====================
+    //
+    // Rows are fetched from an open cursor STREAM_FETCH_SIZE at a time. A stream must be read
+    // and closed inside the caller's transaction.
+
+    String STREAM_FETCH_SIZE = "500";
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    @Query("SELECT p FROM MpesaIncomingPayment p ORDER BY p.id")
+    Stream<MpesaIncomingPayment> streamAll();
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    Stream<MpesaIncomingPayment> streamByShortcodeUuidOrderByIdAsc(UUID shortcodeUuid);
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    Stream<MpesaIncomingPayment> streamByPhoneNumberOrderByIdAsc(String phoneNumber);
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    Stream<MpesaIncomingPayment> streamByStatusOrderByIdAsc(IncomingPaymentStatus status);
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    Stream<MpesaIncomingPayment> streamByCreatedAtBetweenOrderByCreatedAtAscIdAsc(LocalDateTime startDate,
+                                                                                 LocalDateTime endDate);
+
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+            @QueryHint(name = HINT_READ_ONLY, value = "true")})
+    Stream<MpesaIncomingPayment> streamByAmountBetweenOrderByIdAsc(BigDecimal minAmount, BigDecimal maxAmount);
+
+    // ==================== TIMEOUT RECOVERY ====================
+
+    /**
+     * Rows of the given type and status with an id after {@code afterId}, in id order, for keyset paging through
+     * the recovery scan without loading entities.
+     */
+    @Query("""
+            SELECT p.id AS id, p.checkoutRequestId AS checkoutRequestId, p.shortcodeUuid AS shortcodeUuid,
+                   p.createdAt AS createdAt
+              FROM MpesaIncomingPayment p
+             WHERE p.paymentType = :paymentType
+               AND p.status = :status
+               AND p.checkoutRequestId IS NOT NULL
+               AND p.id > :afterId
+             ORDER BY p.id
+            """)
+    List<OutstandingPayment> findOutstandingAfter(@Param("paymentType") IncomingPaymentType paymentType,
+                                              @Param("status") IncomingPaymentStatus status,
+                                              @Param("afterId") Long afterId,
+                                              Pageable pageable);
+
+    /**
+     * Whether an STK Push is still awaiting its result
+     */
+    @Query(value = """
+            SELECT EXISTS (SELECT 1 FROM mpesa_incoming_payments p
+                            WHERE (p.id, p.created_at) = (SELECT k.payment_id, k.payment_created_at
+                                                            FROM mpesa_incoming_payment_keys k
+                                                           WHERE k.checkout_request_id = :checkoutRequestId)
+                              AND p.status = :status AND p.deleted_at IS NULL)
+            """, nativeQuery = true)
+    boolean existsByCheckoutRequestIdAndStatus(@Param("checkoutRequestId") String checkoutRequestId,
+                                               @Param("status") String status);
+
+    interface OutstandingPayment {
+        Long getId();
+
+        String getCheckoutRequestId();
+
+        UUID getShortcodeUuid();
+
+        LocalDateTime getCreatedAt();
+    }
 }
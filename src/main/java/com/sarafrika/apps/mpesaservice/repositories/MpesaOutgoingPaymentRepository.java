@@ -1,9 +1,521 @@
 package com.sarafrika.apps.mpesaservice.repositories;
 
 import com.sarafrika.apps.mpesaservice.models.MpesaOutgoingPayment;
+import com.sarafrika.apps.mpesaservice.utils.enums.OutgoingPaymentStatus;
+import com.sarafrika.apps.mpesaservice.utils.enums.OutgoingPaymentType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
 
 @Repository
 public interface MpesaOutgoingPaymentRepository extends JpaRepository<MpesaOutgoingPayment, Long> {
-}
\ No newline at end of file
+
+    // ==================== LOOKUPS BY KEY ====================
+    //
+    // uuid, the receipt, the OriginatorConversationID and the bulk batch line are unique in
+    // mpesa_outgoing_payment_keys, which also holds each payment's (id, created_at). Reading that
+    // first lets the payment lookup prune to the one monthly partition holding the row instead
+    // of probing them all. Updates by id read the partition key from there the same way.
+
+    /**
+     * Find outgoing payment by UUID
+     */
+    @Query(value = """
+            SELECT p.* FROM mpesa_outgoing_payments p
+             WHERE (p.id, p.created_at) = (SELECT k.payment_id, k.payment_created_at
+                                             FROM mpesa_outgoing_payment_keys k WHERE k.uuid = :uuid)
+               AND p.deleted_at IS NULL
+            """, nativeQuery = true)
+    Optional<MpesaOutgoingPayment> findByUuid(@Param("uuid") UUID uuid);
+
+    /**
+     * Find outgoing payment by M-Pesa transaction ID (receipt)
+     */
+    @Query(value = """
+            SELECT p.* FROM mpesa_outgoing_payments p
+             WHERE (p.id, p.created_at) = (SELECT k.payment_id, k.payment_created_at
+                                             FROM mpesa_outgoing_payment_keys k WHERE k.transaction_id = :transactionId)
+               AND p.deleted_at IS NULL
+            """, nativeQuery = true)
+    Optional<MpesaOutgoingPayment> findByTransactionId(@Param("transactionId") String transactionId);
+
+    /**
+     * Find outgoing payment by the OriginatorConversationID Daraja returned on initiation
+     */
+    @Query(value = """
+            SELECT p.* FROM mpesa_outgoing_payments p
+             WHERE (p.id, p.created_at) = (SELECT k.payment_id, k.payment_created_at
+                                             FROM mpesa_outgoing_payment_keys k
+                                            WHERE k.originator_conversation_id = :originatorConversationId)
+               AND p.deleted_at IS NULL
+            """, nativeQuery = true)
+    Optional<MpesaOutgoingPayment> findByOriginatorConversationId(
+            @Param("originatorConversationId") String originatorConversationId);
+
+    /**
+     * Find all payments sent from a given shortcode
+     */
+    List<MpesaOutgoingPayment> findByShortcodeUuid(UUID shortcodeUuid);
+
+    /**
+     * Find all payments sent to a phone number (B2C) or receiving shortcode (B2B)
+     */
+    List<MpesaOutgoingPayment> findByRecipientPhoneNumber(String recipientPhoneNumber);
+
+    /**
+     * Find all payments with a given status
+     */
+    List<MpesaOutgoingPayment> findByStatus(OutgoingPaymentStatus status);
+
+    /**
+     * Find all payments of a given payment type
+     */
+    List<MpesaOutgoingPayment> findByPaymentType(OutgoingPaymentType paymentType);
+
+    /**
+     * Find payments created within a date range
+     */
+    List<MpesaOutgoingPayment> findByCreatedAtBetween(LocalDateTime startDate, LocalDateTime endDate);
+
+    /**
+     * Find payments whose amount falls within a range
+     */
+    List<MpesaOutgoingPayment> findByAmountBetween(BigDecimal minAmount, BigDecimal maxAmount);
+
+    /**
+     * Find payments by Daraja command ID (BusinessPayment, SalaryPayment, ...)
+     */
+    List<MpesaOutgoingPayment> findByCommandId(String commandId);
+
+    /**
+     * Find payments by initiator
+     */
+    List<MpesaOutgoingPayment> findByInitiatorName(String initiatorName);
+
+    /**
+     * Check whether a payment already exists for a transaction ID
+     */
+    @Query(value = """
+            SELECT EXISTS (SELECT 1 FROM mpesa_outgoing_payments p
+                            WHERE (p.id, p.created_at) = (SELECT k.payment_id, k.payment_created_at
+                                                            FROM mpesa_outgoing_payment_keys k
+                                                           WHERE k.transaction_id = :transactionId)
+                              AND p.deleted_at IS NULL)
+            """, nativeQuery = true)
+    boolean existsByTransactionId(@Param("transactionId") String transactionId);
+
+    /**
+     * Check whether a payment already exists for an OriginatorConversationID
+     */
+    @Query(value = """
+            SELECT EXISTS (SELECT 1 FROM mpesa_outgoing_payments p
+                            WHERE (p.id, p.created_at) = (SELECT k.payment_id, k.payment_created_at
+                                                            FROM mpesa_outgoing_payment_keys k
+                                                           WHERE k.originator_conversation_id = :originatorConversationId)
+                              AND p.deleted_at IS NULL)
+            """, nativeQuery = true)
+    boolean existsByOriginatorConversationId(@Param("originatorConversationId") String originatorConversationId);
+
+    /**
+     * Sum the amount of all payments in a given status by scanning them. Reporting reads the
+     * daily rollups instead; this is the exact recount to check them against.
+     */
+    @Query("SELECT COALESCE(SUM(p.amount), 0) FROM MpesaOutgoingPayment p WHERE p.status = :status")
+    BigDecimal sumAmountByStatus(@Param("status") OutgoingPaymentStatus status);
+
+    /**
+     * Count payments in a given status
+     */
+    Long countByStatus(OutgoingPaymentStatus status);
+
+    /**
+     * Sum, across shortcodes, of the utility account funds reported by each shortcode's most recent result
+     */
+    @Query(value = """
+            SELECT COALESCE(SUM(latest.funds), 0) FROM (
+                SELECT DISTINCT ON (shortcode_uuid) utility_account_available_funds AS funds
+                  FROM mpesa_outgoing_payments
+                 WHERE utility_account_available_funds IS NOT NULL AND deleted_at IS NULL
+                 ORDER BY shortcode_uuid, processed_at DESC
+            ) latest
+            """, nativeQuery = true)
+    BigDecimal sumLatestUtilityAccountFunds();
+
+    /**
+     * Sum, across shortcodes, of the working account funds reported by each shortcode's most recent result
+     */
+    @Query(value = """
+            SELECT COALESCE(SUM(latest.funds), 0) FROM (
+                SELECT DISTINCT ON (shortcode_uuid) working_account_available_funds AS funds
+                  FROM mpesa_outgoing_payments
+                 WHERE working_account_available_funds IS NOT NULL AND deleted_at IS NULL
+                 ORDER BY shortcode_uuid, processed_at DESC
+            ) latest
+            """, nativeQuery = true)
+    BigDecimal sumLatestWorkingAccountFunds();
+
+    // ==================== COMPARE-AND-SET TRANSITIONS ====================
+
+    /**
+     * Move a payment to {@code targetStatus} only if it is currently in one of {@code sourceStatuses}.
+     * Returns the updated row, or empty when the guard did not match (wrong state or unknown uuid).
+     */
+    @Query(value = """
+            UPDATE mpesa_outgoing_payments
+               SET status = :targetStatus, updated_at = NOW()
+             WHERE (id, created_at) = (SELECT k.payment_id, k.payment_created_at
+                                         FROM mpesa_outgoing_payment_keys k WHERE k.uuid = :uuid)
+               AND status IN (:sourceStatuses) AND deleted_at IS NULL
+            RETURNING *
+            """, nativeQuery = true)
+    Optional<MpesaOutgoingPayment> transitionStatus(@Param("uuid") UUID uuid,
+                                                    @Param("sourceStatuses") Collection<String> sourceStatuses,
+                                                    @Param("targetStatus") String targetStatus);
+
+    /**
+     * Stamp {@code processed_at} once. Returns empty if the payment is unknown or already processed.
+     */
+    @Query(value = """
+            UPDATE mpesa_outgoing_payments
+               SET processed_at = NOW(), updated_at = NOW()
+             WHERE (id, created_at) = (SELECT k.payment_id, k.payment_created_at
+                                         FROM mpesa_outgoing_payment_keys k WHERE k.uuid = :uuid)
+               AND processed_at IS NULL AND deleted_at IS NULL
+            RETURNING *
+            """, nativeQuery = true)
+    Optional<MpesaOutgoingPayment> markProcessed(@Param("uuid") UUID uuid);
+
+    /**
+     * Apply a B2C/B2B result to the outstanding payment for an OriginatorConversationID. This is
+     * the whole per-callback write: one UPDATE of the single row the OriginatorConversationID
+     * locates through the keys table, in its own partition; no entity is read or hydrated. Only the first result wins; a redelivered or racing result
+     * matches no outstanding row and returns empty. Null values leave the existing columns untouched.
+     * DISPATCHING rows are outstanding too: a bulk row's result can beat its acceptance update.
+     * Returns the paying shortcode's UUID so the result can feed the funds ledger without a read.
+     * The raw result is stored in the callback side table by the same statement.
+     */
+    @Transactional
+    @Query(value = """
+            WITH payment AS (
+                UPDATE mpesa_outgoing_payments
+                   SET status                          = :status,
+                       result_code                     = CAST(:resultCode AS INTEGER),
+                       result_desc                     = :resultDesc,
+                       transaction_id                  = COALESCE(:transactionId, transaction_id),
+                       conversation_id                 = COALESCE(conversation_id, :conversationId),
+                       recipient_name                  = COALESCE(:recipientName, recipient_name),
+                       utility_account_available_funds = COALESCE(CAST(:utilityFunds AS NUMERIC), utility_account_available_funds),
+                       working_account_available_funds = COALESCE(CAST(:workingFunds AS NUMERIC), working_account_available_funds),
+                       transaction_date                = COALESCE(CAST(:transactionDate AS TIMESTAMP), transaction_date),
+                       processed_at                    = NOW(),
+                       updated_at                      = NOW()
+                 WHERE (id, created_at) = (SELECT k.payment_id, k.payment_created_at
+                                             FROM mpesa_outgoing_payment_keys k
+                                            WHERE k.originator_conversation_id = :originatorConversationId)
+                   AND status IN ('DISPATCHING', 'PENDING') AND deleted_at IS NULL
+                RETURNING id, created_at, shortcode_uuid
+            ), callback AS (
+                INSERT INTO mpesa_outgoing_payment_callbacks (payment_id, payment_created_at, raw_callback_data)
+                SELECT id, created_at, CAST(:rawCallbackData AS JSONB) FROM payment
+                 WHERE CAST(:rawCallbackData AS JSONB) IS NOT NULL
+                ON CONFLICT (payment_id, payment_created_at) DO UPDATE
+                    SET raw_callback_data = EXCLUDED.raw_callback_data, received_at = EXCLUDED.received_at
+            )
+            SELECT shortcode_uuid FROM payment
+            """, nativeQuery = true)
+    Optional<UUID> completeByOriginatorConversationId(@Param("originatorConversationId") String originatorConversationId,
+                                                      @Param("status") String status,
+                                                      @Param("resultCode") Integer resultCode,
+                                                      @Param("resultDesc") String resultDesc,
+                                                      @Param("transactionId") String transactionId,
+                                                      @Param("conversationId") String conversationId,
+                                                      @Param("recipientName") String recipientName,
+                                                      @Param("utilityFunds") BigDecimal utilityFunds,
+                                                      @Param("workingFunds") BigDecimal workingFunds,
+                                                      @Param("transactionDate") LocalDateTime transactionDate,
+                                                      @Param("rawCallbackData") String rawCallbackData);
+
+    // ==================== BULK DISBURSEMENT ====================
+
+    /**
+     * Claim up to {@code limit} QUEUED rows of a RUNNING batch, in line order, by moving them to
+     * DISPATCHING. SKIP LOCKED lets every node claim from the same batch without overlap, and a
+     * paused or cancelled batch yields nothing.
+     */
+    @Transactional
+    @Query(value = """
+            UPDATE mpesa_outgoing_payments
+               SET status = 'DISPATCHING', updated_at = NOW()
+             WHERE id IN (SELECT q.id FROM mpesa_outgoing_payments q
+                           WHERE q.batch_id = :batchId AND q.status = 'QUEUED'
+                           ORDER BY q.batch_line
+                           LIMIT :limit
+                           FOR UPDATE SKIP LOCKED)
+               AND EXISTS (SELECT 1 FROM mpesa_disbursement_batches b WHERE b.id = :batchId AND b.status = 'RUNNING')
+            RETURNING id AS "id", originator_conversation_id AS "originatorConversationId",
+                      recipient_phone_number AS "recipientPhoneNumber", amount AS "amount", remarks AS "remarks",
+                      occasion AS "occasion"
+            """, nativeQuery = true)
+    List<ClaimedDisbursement> claimQueued(@Param("batchId") Long batchId, @Param("limit") int limit);
+
+    /**
+     * Record Daraja's acceptance of a dispatched row. A result callback that already settled it wins.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE mpesa_outgoing_payments
+               SET status = 'PENDING', conversation_id = COALESCE(conversation_id, :conversationId), updated_at = NOW()
+             WHERE id = :id AND created_at = (SELECT k.payment_created_at FROM mpesa_outgoing_payment_keys k
+                                               WHERE k.payment_id = :id)
+               AND status = 'DISPATCHING'
+            """, nativeQuery = true)
+    int markAccepted(@Param("id") Long id, @Param("conversationId") String conversationId);
+
+    /**
+     * Fail a dispatched row that Daraja definitively rejected
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE mpesa_outgoing_payments
+               SET status = 'FAILED', result_desc = :resultDesc, processed_at = NOW(), updated_at = NOW()
+             WHERE id = :id AND created_at = (SELECT k.payment_created_at FROM mpesa_outgoing_payment_keys k
+                                               WHERE k.payment_id = :id)
+               AND status = 'DISPATCHING'
+            """, nativeQuery = true)
+    int markRejected(@Param("id") Long id, @Param("resultDesc") String resultDesc);
+
+    /**
+     * Return a dispatched row that never reached Daraja to the queue
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE mpesa_outgoing_payments
+               SET status = 'QUEUED', updated_at = NOW()
+             WHERE id = :id AND created_at = (SELECT k.payment_created_at FROM mpesa_outgoing_payment_keys k
+                                               WHERE k.payment_id = :id)
+               AND status = 'DISPATCHING'
+            """, nativeQuery = true)
+    int requeue(@Param("id") Long id);
+
+    /**
+     * Cancel every row of a batch that has not been sent yet
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE mpesa_outgoing_payments
+               SET status = 'CANCELLED', updated_at = NOW()
+             WHERE batch_id = :batchId AND status = 'QUEUED'
+            """, nativeQuery = true)
+    int cancelQueued(@Param("batchId") Long batchId);
+
+    /**
+     * Row count and amount per status for a batch
+     */
+    @Query("""
+            SELECT p.status AS status, COUNT(p) AS count, COALESCE(SUM(p.amount), 0) AS amount
+              FROM MpesaOutgoingPayment p
+             WHERE p.batchId = :batchId
+             GROUP BY p.status
+            """)
+    List<BatchStatusCount> countByBatchGroupedByStatus(@Param("batchId") Long batchId);
+
+    // ==================== STATUS QUERY RESOLUTION ====================
+
+    /**
+     * Claim up to {@code limit} outstanding rows whose status has not changed since
+     * {@code staleBefore}, oldest first, for a transaction status query. Claiming stamps the
+     * attempt, so a row is queried again only after {@code retryBefore} and never past
+     * {@code maxAttempts}; SKIP LOCKED keeps nodes from claiming the same row. {@code updated_at}
+     * is left alone so it keeps measuring how long the row has been outstanding.
+     */
+    @Transactional
+    @Query(value = """
+            UPDATE mpesa_outgoing_payments
+               SET status_query_attempts = status_query_attempts + 1, status_query_at = NOW()
+             WHERE id IN (SELECT s.id FROM mpesa_outgoing_payments s
+                           WHERE s.status IN ('PENDING', 'DISPATCHING') AND s.deleted_at IS NULL
+                             AND s.updated_at < :staleBefore
+                             AND s.status_query_attempts < :maxAttempts
+                             AND (s.status_query_at IS NULL OR s.status_query_at < :retryBefore)
+                           ORDER BY s.updated_at
+                           LIMIT :limit
+                           FOR UPDATE SKIP LOCKED)
+            RETURNING id AS "id", shortcode_uuid AS "shortcodeUuid",
+                      originator_conversation_id AS "originatorConversationId", transaction_id AS "transactionId",
+                      status_query_attempts AS "statusQueryAttempts"
+            """, nativeQuery = true)
+    List<StatusQueryTarget> claimStaleForStatusQuery(@Param("staleBefore") LocalDateTime staleBefore,
+                                                     @Param("retryBefore") LocalDateTime retryBefore,
+                                                     @Param("maxAttempts") int maxAttempts,
+                                                     @Param("limit") int limit);
+
+    /**
+     * Claim one outstanding row for a transaction status query, e.g. after Daraja reported its
+     * request timed out. Empty when the payment is unknown or already settled.
+     */
+    @Transactional
+    @Query(value = """
+            UPDATE mpesa_outgoing_payments
+               SET status_query_attempts = status_query_attempts + 1, status_query_at = NOW()
+             WHERE (id, created_at) = (SELECT k.payment_id, k.payment_created_at
+                                         FROM mpesa_outgoing_payment_keys k
+                                        WHERE k.originator_conversation_id = :originatorConversationId)
+               AND status IN ('PENDING', 'DISPATCHING') AND deleted_at IS NULL
+            RETURNING id AS "id", shortcode_uuid AS "shortcodeUuid",
+                      originator_conversation_id AS "originatorConversationId", transaction_id AS "transactionId",
+                      status_query_attempts AS "statusQueryAttempts"
+            """, nativeQuery = true)
+    Optional<StatusQueryTarget> claimForStatusQuery(@Param("originatorConversationId") String originatorConversationId);
+
+    /**
+     * Remember which status query was raised for a row, so its result can be matched back
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE mpesa_outgoing_payments
+               SET status_query_conversation_id = :statusQueryConversationId
+             WHERE id = :id AND created_at = (SELECT k.payment_created_at FROM mpesa_outgoing_payment_keys k
+                                               WHERE k.payment_id = :id)
+            """, nativeQuery = true)
+    int recordStatusQuery(@Param("id") Long id, @Param("statusQueryConversationId") String statusQueryConversationId);
+
+    /**
+     * OriginatorConversationID of the payment a status query was raised for
+     */
+    @Query(value = """
+            SELECT originator_conversation_id FROM mpesa_outgoing_payments
+             WHERE status_query_conversation_id = :statusQueryConversationId AND deleted_at IS NULL
+            """, nativeQuery = true)
+    Optional<String> findOriginatorConversationIdByStatusQuery(
+            @Param("statusQueryConversationId") String statusQueryConversationId);
+
+    // ==================== AUTOMATIC RETRY ====================
+
+    /**
+     * Single payouts that failed with one of the given retryable result codes and have not been
+     * retried, oldest failure first. A row becomes due {@code backoffSeconds * 2^retry_attempt}
+     * after it failed, so each attempt of a chain waits twice as long as the one before.
+     */
+    @Query(value = """
+            SELECT uuid FROM mpesa_outgoing_payments
+             WHERE status = 'FAILED' AND retried_at IS NULL AND batch_id IS NULL AND deleted_at IS NULL
+               AND retry_attempt < :maxAttempts
+               AND ((payment_type = 'B2C' AND result_code IN (:b2cCodes))
+                 OR (payment_type = 'B2B' AND result_code IN (:b2bCodes)))
+               AND updated_at < NOW() - make_interval(secs => :backoffSeconds * POWER(2, retry_attempt))
+             ORDER BY updated_at
+             LIMIT :limit
+            """, nativeQuery = true)
+    List<UUID> findRetryCandidates(@Param("b2cCodes") List<Integer> b2cCodes,
+                                   @Param("b2bCodes") List<Integer> b2bCodes,
+                                   @Param("maxAttempts") int maxAttempts,
+                                   @Param("backoffSeconds") long backoffSeconds,
+                                   @Param("limit") int limit);
+
+    /**
+     * Mark a FAILED payout as retried. Only one caller, manual or automatic, on any node ever
+     * gets 1 back for a given failure.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE mpesa_outgoing_payments
+               SET retried_at = NOW()
+             WHERE id = :id AND created_at = (SELECT k.payment_created_at FROM mpesa_outgoing_payment_keys k
+                                               WHERE k.payment_id = :id)
+               AND status = 'FAILED' AND retried_at IS NULL AND deleted_at IS NULL
+            """, nativeQuery = true)
+    int claimForRetry(@Param("id") Long id);
+
+    /**
+     * Release a retry that Daraja refused before a new payout was created, counting the attempt
+     * and restarting the backoff
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE mpesa_outgoing_payments
+               SET retried_at = NULL, retry_attempt = retry_attempt + 1, updated_at = NOW()
+             WHERE id = :id AND created_at = (SELECT k.payment_created_at FROM mpesa_outgoing_payment_keys k
+                                               WHERE k.payment_id = :id)
+            """, nativeQuery = true)
+    int releaseRetry(@Param("id") Long id);
+
+    /**
+     * Count a retry whose resend may have been taken on. The claim is kept, so the failure is never
+     * resent automatically again.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE mpesa_outgoing_payments
+               SET retry_attempt = retry_attempt + 1, updated_at = NOW()
+             WHERE id = :id AND created_at = (SELECT k.payment_created_at FROM mpesa_outgoing_payment_keys k
+                                               WHERE k.payment_id = :id)
+            """, nativeQuery = true)
+    int countRetryAttempt(@Param("id") Long id);
+
+    /**
+     * Record where in its retry chain a resent payout stands
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE mpesa_outgoing_payments
+               SET retry_attempt = :retryAttempt
+             WHERE (id, created_at) = (SELECT k.payment_id, k.payment_created_at
+                                         FROM mpesa_outgoing_payment_keys k
+                                        WHERE k.originator_conversation_id = :originatorConversationId)
+            """, nativeQuery = true)
+    int recordRetryAttempt(@Param("originatorConversationId") String originatorConversationId,
+                           @Param("retryAttempt") int retryAttempt);
+
+    interface StatusQueryTarget {
+        Long getId();
+
+        UUID getShortcodeUuid();
+
+        String getOriginatorConversationId();
+
+        String getTransactionId();
+
+        Integer getStatusQueryAttempts();
+    }
+
+    interface ClaimedDisbursement {
+        Long getId();
+
+        String getOriginatorConversationId();
+
+        String getRecipientPhoneNumber();
+
+        BigDecimal getAmount();
+
+        String getRemarks();
+
+        String getOccasion();
+    }
+
+    interface BatchStatusCount {
+        OutgoingPaymentStatus getStatus();
+
+        Long getCount();
+
+        BigDecimal getAmount();
+    }
+}
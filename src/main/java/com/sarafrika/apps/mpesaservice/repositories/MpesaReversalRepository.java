@@ -0,0 +1,152 @@
+package com.sarafrika.apps.mpesaservice.repositories;
+
+import com.sarafrika.apps.mpesaservice.models.MpesaReversal;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Reversals are claimed and settled in short standalone transactions so that no transaction
+ * is held open across the Daraja call. The partial unique index on
+ * {@code original_transaction_id} allows one REQUESTED, PENDING or SUCCESS reversal per
+ * receipt, which is what stops parallel requests from reversing the same receipt twice.
+ */
+@Repository
+public interface MpesaReversalRepository extends JpaRepository<MpesaReversal, Long> {
+
+    Optional<MpesaReversal> findByUuid(UUID uuid);
+
+    /**
+     * Every reversal raised for a receipt, newest first
+     */
+    List<MpesaReversal> findByOriginalTransactionIdOrderByIdDesc(String originalTransactionId);
+
+    /**
+     * Check whether a reversal exists for either conversation id of a result
+     */
+    @Query(value = """
+            SELECT EXISTS (SELECT 1 FROM mpesa_reversals
+                            WHERE conversation_id = :conversationId OR originator_conversation_id = :originatorConversationId)
+            """, nativeQuery = true)
+    boolean existsByConversation(@Param("conversationId") String conversationId,
+                                 @Param("originatorConversationId") String originatorConversationId);
+
+    /**
+     * Claim a receipt for a new reversal, linking the incoming or outgoing payment it undoes.
+     * Returns empty when a reversal of the receipt is already in flight or has succeeded.
+     */
+    @Transactional
+    @Query(value = """
+            INSERT INTO mpesa_reversals (shortcode_uuid, original_transaction_id, amount, remarks, status,
+                                         incoming_payment_id, outgoing_payment_id, created_at, updated_at)
+            VALUES (:shortcodeUuid, :originalTransactionId, :amount, :remarks, 'REQUESTED',
+                    (SELECT i.id FROM mpesa_incoming_payments i
+                      WHERE (i.id, i.created_at) = (SELECT k.payment_id, k.payment_created_at
+                                                      FROM mpesa_incoming_payment_keys k
+                                                     WHERE k.transaction_id = :originalTransactionId)
+                        AND i.deleted_at IS NULL),
+                    (SELECT o.id FROM mpesa_outgoing_payments o
+                      WHERE (o.id, o.created_at) = (SELECT k.payment_id, k.payment_created_at
+                                                      FROM mpesa_outgoing_payment_keys k
+                                                     WHERE k.transaction_id = :originalTransactionId)
+                        AND o.deleted_at IS NULL),
+                    NOW(), NOW())
+            ON CONFLICT (original_transaction_id) WHERE status IN ('REQUESTED', 'PENDING', 'SUCCESS') DO NOTHING
+            RETURNING *
+            """, nativeQuery = true)
+    Optional<MpesaReversal> claim(@Param("shortcodeUuid") UUID shortcodeUuid,
+                                  @Param("originalTransactionId") String originalTransactionId,
+                                  @Param("amount") BigDecimal amount,
+                                  @Param("remarks") String remarks);
+
+    /**
+     * Take over a REQUESTED reversal whose node died or lost track of the Daraja call before
+     * {@code staleBefore}. Daraja refuses to reverse a receipt twice, so resending is safe.
+     */
+    @Transactional
+    @Query(value = """
+            UPDATE mpesa_reversals
+               SET updated_at = NOW()
+             WHERE original_transaction_id = :originalTransactionId AND status = 'REQUESTED'
+               AND updated_at < :staleBefore AND deleted_at IS NULL
+            RETURNING *
+            """, nativeQuery = true)
+    Optional<MpesaReversal> takeOverStale(@Param("originalTransactionId") String originalTransactionId,
+                                          @Param("staleBefore") LocalDateTime staleBefore);
+
+    /**
+     * Count a duplicate request against the reversal already in flight or done for a receipt
+     */
+    @Transactional
+    @Query(value = """
+            UPDATE mpesa_reversals
+               SET coalesced_requests = coalesced_requests + 1
+             WHERE original_transaction_id = :originalTransactionId
+               AND status IN ('REQUESTED', 'PENDING', 'SUCCESS') AND deleted_at IS NULL
+            RETURNING *
+            """, nativeQuery = true)
+    Optional<MpesaReversal> joinLive(@Param("originalTransactionId") String originalTransactionId);
+
+    /**
+     * Record Daraja's acceptance of a claimed reversal. A result that already settled it wins.
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query(value = """
+            UPDATE mpesa_reversals
+               SET status = 'PENDING', conversation_id = :conversationId,
+                   originator_conversation_id = :originatorConversationId, updated_at = NOW()
+             WHERE id = :id AND status = 'REQUESTED'
+            """, nativeQuery = true)
+    int markAccepted(@Param("id") Long id,
+                     @Param("conversationId") String conversationId,
+                     @Param("originatorConversationId") String originatorConversationId);
+
+    /**
+     * Fail a claimed reversal that Daraja refused outright, freeing the receipt for a retry
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query(value = """
+            UPDATE mpesa_reversals
+               SET status = 'FAILED', result_desc = :resultDesc, completed_at = NOW(), updated_at = NOW()
+             WHERE id = :id AND status = 'REQUESTED'
+            """, nativeQuery = true)
+    int markRejected(@Param("id") Long id, @Param("resultDesc") String resultDesc);
+
+    /**
+     * Apply a reversal result or timeout to the outstanding reversal it belongs to. Only the
+     * first one wins; a redelivery matches nothing and returns empty.
+     */
+    @Transactional
+    @Query(value = """
+            UPDATE mpesa_reversals
+               SET status                  = :status,
+                   result_code             = :resultCode,
+                   result_desc             = :resultDesc,
+                   reversal_transaction_id = COALESCE(:reversalTransactionId, reversal_transaction_id),
+                   conversation_id         = COALESCE(conversation_id, :conversationId),
+                   raw_callback_data       = CAST(:rawCallbackData AS JSONB),
+                   completed_at            = NOW(),
+                   updated_at              = NOW()
+             WHERE (conversation_id = :conversationId OR originator_conversation_id = :originatorConversationId)
+               AND status IN ('REQUESTED', 'PENDING') AND deleted_at IS NULL
+            RETURNING *
+            """, nativeQuery = true)
+    Optional<MpesaReversal> complete(@Param("conversationId") String conversationId,
+                                     @Param("originatorConversationId") String originatorConversationId,
+                                     @Param("status") String status,
+                                     @Param("resultCode") Integer resultCode,
+                                     @Param("resultDesc") String resultDesc,
+                                     @Param("reversalTransactionId") String reversalTransactionId,
+                                     @Param("rawCallbackData") String rawCallbackData);
+}
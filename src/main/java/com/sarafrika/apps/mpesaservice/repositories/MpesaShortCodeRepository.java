@@ -3,6 +3,7 @@ package com.sarafrika.apps.mpesaservice.repositories;
 import com.sarafrika.apps.mpesaservice.models.MpesaShortCode;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
@@ -27,6 +28,16 @@ public interface MpesaShortCodeRepository extends JpaRepository<MpesaShortCode,
      */
     Page<MpesaShortCode> findByIsActiveTrue(Pageable pageable);
 
+    /**
+     * Find all shortcode configurations, one slice at a time without a count query
+     */
+    Slice<MpesaShortCode> findSliceBy(Pageable pageable);
+
+    /**
+     * Find active shortcode configurations, one slice at a time without a count query
+     */
+    Slice<MpesaShortCode> findSliceByIsActiveTrue(Pageable pageable);
+
     /**
      * Check if shortcode exists
      */
@@ -1,9 +1,11 @@
 package com.sarafrika.apps.mpesaservice.services;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.sarafrika.apps.mpesaservice.dtos.*;
 import com.sarafrika.apps.mpesaservice.utils.enums.QRTransactionType;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.UUID;
 
 /**
@@ -48,6 +50,11 @@ public interface MpesaDarajaService {
      */
     MpesaApiResponse<StkStatusResponse> queryStkPushStatus(UUID shortcodeUuid, String checkoutRequestId);
 
+    /**
+     * Snapshot of phones with an open STK prompt and how many requests were admitted or rejected
+     */
+    StkPushInFlightStats getStkPushInFlightStats();
+
     // ==================== 2. CUSTOMER TO BUSINESS (C2B) ====================
 
     /**
@@ -84,8 +91,47 @@ public interface MpesaDarajaService {
      * @param occasion Transaction occasion
      * @return B2C payment response
      */
+    default MpesaApiResponse<B2CPaymentResponse> sendB2CPayment(UUID shortcodeUuid, String phoneNumber, BigDecimal amount,
+                                                                String remarks, String occasion) {
+        return sendB2CPayment(shortcodeUuid, phoneNumber, amount, "BusinessPayment", remarks, occasion);
+    }
+
+    /**
+     * Send money from business to customer with an explicit command (BusinessPayment,
+     * SalaryPayment or PromotionPayment). On acceptance a PENDING outgoing payment is recorded
+     * under the returned OriginatorConversationID and resolved by the result callback. A failure
+     * before the request is sent is reported as {@code NOT_SENT}, or {@code INVALID_ARGUMENT}.
+     *
+     * @param shortcodeUuid UUID of the configured shortcode
+     * @param phoneNumber Recipient phone number
+     * @param amount Amount to send
+     * @param commandId Daraja B2C command ID
+     * @param remarks Transaction remarks
+     * @param occasion Transaction occasion
+     * @return B2C payment response
+     */
     MpesaApiResponse<B2CPaymentResponse> sendB2CPayment(UUID shortcodeUuid, String phoneNumber, BigDecimal amount,
-                                                        String remarks, String occasion);
+                                                        String commandId, String remarks, String occasion);
+
+    /**
+     * Send one bulk disbursement row through the B2C v3 API under the caller's
+     * OriginatorConversationID. Nothing is persisted here: the row was staged beforehand and the
+     * result callback resolves it by that id. A failure before the request is sent releases the
+     * row's funds reservation and is reported as {@code NOT_SENT}, or {@code INVALID_ARGUMENT}
+     * when the row itself cannot be sent.
+     *
+     * @param shortcodeUuid UUID of the configured shortcode
+     * @param originatorConversationId Caller-generated unique id echoed back in the result
+     * @param phoneNumber Recipient phone number
+     * @param amount Amount to send
+     * @param commandId Daraja B2C command ID
+     * @param remarks Transaction remarks
+     * @param occasion Transaction occasion
+     * @return B2C payment response
+     */
+    MpesaApiResponse<B2CPaymentResponse> dispatchB2CPayment(UUID shortcodeUuid, String originatorConversationId,
+                                                            String phoneNumber, BigDecimal amount, String commandId,
+                                                            String remarks, String occasion);
 
     // ==================== 4. BUSINESS TO BUSINESS (B2B) ====================
 
@@ -99,8 +145,29 @@ public interface MpesaDarajaService {
      * @param accountReference Account reference
      * @return B2B transfer response
      */
+    default MpesaApiResponse<B2BTransferResponse> transferB2B(UUID senderShortcodeUuid, String receiverShortcode,
+                                                              BigDecimal amount, String remarks, String accountReference) {
+        return transferB2B(senderShortcodeUuid, receiverShortcode, amount, "BusinessToBusinessTransfer",
+                remarks, accountReference);
+    }
+
+    /**
+     * Transfer funds between business accounts with an explicit command (e.g.
+     * BusinessToBusinessTransfer, BusinessPayBill, BusinessBuyGoods). On acceptance a PENDING
+     * outgoing payment is recorded under the returned OriginatorConversationID and resolved by
+     * the result callback.
+     *
+     * @param senderShortcodeUuid UUID of sender's configured shortcode
+     * @param receiverShortcode Receiver's shortcode number
+     * @param amount Amount to transfer
+     * @param commandId Daraja B2B command ID
+     * @param remarks Transaction remarks
+     * @param accountReference Account reference
+     * @return B2B transfer response
+     */
     MpesaApiResponse<B2BTransferResponse> transferB2B(UUID senderShortcodeUuid, String receiverShortcode,
-                                                      BigDecimal amount, String remarks, String accountReference);
+                                                      BigDecimal amount, String commandId, String remarks,
+                                                      String accountReference);
 
     // ==================== 5. TRANSACTION STATUS QUERY ====================
 
@@ -114,6 +181,19 @@ public interface MpesaDarajaService {
      */
     MpesaApiResponse<TransactionStatusResponse> queryTransactionStatus(UUID shortcodeUuid, String transactionId, String remarks);
 
+    /**
+     * Query transaction status by M-Pesa transaction ID or, when no receipt is known (e.g. the
+     * request timed out), by the OriginatorConversationID the request was accepted under
+     *
+     * @param shortcodeUuid UUID of the configured shortcode
+     * @param transactionId M-Pesa transaction ID to query, or null
+     * @param originalConversationId OriginatorConversationID of the original request, or null
+     * @param remarks Query remarks
+     * @return Transaction status response
+     */
+    MpesaApiResponse<TransactionStatusResponse> queryTransactionStatus(UUID shortcodeUuid, String transactionId,
+                                                                       String originalConversationId, String remarks);
+
     // ==================== 6. ACCOUNT BALANCE QUERY ====================
 
     /**
@@ -125,6 +205,29 @@ public interface MpesaDarajaService {
      */
     MpesaApiResponse<AccountBalanceResponse> queryAccountBalance(UUID shortcodeUuid, String remarks);
 
+    /**
+     * Query M-Pesa account balance and wait for the result callback
+     *
+     * @param shortcodeUuid UUID of the configured shortcode
+     * @param remarks Query remarks
+     * @param timeout How long to wait for the result callback
+     * @return Account balance result, or RESULT_PENDING (202) if it did not arrive in time
+     */
+    MpesaApiResponse<AccountBalanceResultData> queryAccountBalanceAndWait(UUID shortcodeUuid, String remarks,
+                                                                          Duration timeout);
+
+    // ==================== ASYNC RESULT CORRELATION ====================
+
+    /**
+     * Wait for the result or timeout callback of any asynchronous request (B2C, B2B,
+     * transaction status, account balance, reversal)
+     *
+     * @param conversationId ConversationID or OriginatorConversationID from the initiation response
+     * @param timeout How long to wait
+     * @return Raw result body, or RESULT_PENDING (202) if it did not arrive in time
+     */
+    MpesaApiResponse<JsonNode> awaitResult(String conversationId, Duration timeout);
+
     // ==================== 7. TRANSACTION REVERSAL ====================
 
     /**
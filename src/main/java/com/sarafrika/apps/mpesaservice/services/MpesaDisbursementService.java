@@ -0,0 +1,44 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.sarafrika.apps.mpesaservice.dtos.DisbursementBatchProgress;
+import com.sarafrika.apps.mpesaservice.dtos.DisbursementLine;
+
+import java.util.Iterator;
+import java.util.UUID;
+
+public interface MpesaDisbursementService {
+
+    /**
+     * Validate and stage a bulk B2C payout. Valid lines are queued under a new batch; invalid lines
+     * are counted and reported but never staged. A batch with no rejected lines starts dispatching
+     * immediately, otherwise it waits in STAGING for {@link #startBatch(UUID)}.
+     *
+     * @param shortcodeUuid UUID of the paying shortcode
+     * @param commandId B2C command (BusinessPayment, SalaryPayment or PromotionPayment)
+     * @param reference client reference for the batch
+     * @param lines uploaded lines, consumed once
+     * @return progress of the new batch, including validation errors
+     */
+    DisbursementBatchProgress createBatch(UUID shortcodeUuid, String commandId, String reference,
+                                          Iterator<DisbursementLine> lines);
+
+    /**
+     * Current progress of a batch
+     */
+    DisbursementBatchProgress getProgress(UUID batchUuid);
+
+    /**
+     * Start a staged batch or resume a paused one
+     */
+    DisbursementBatchProgress startBatch(UUID batchUuid);
+
+    /**
+     * Stop claiming new rows for a running batch. Rows already sent still settle.
+     */
+    DisbursementBatchProgress pauseBatch(UUID batchUuid);
+
+    /**
+     * Cancel every row of a batch that has not been sent yet
+     */
+    DisbursementBatchProgress cancelBatch(UUID batchUuid);
+}
@@ -3,12 +3,14 @@ package com.sarafrika.apps.mpesaservice.services;
 import com.sarafrika.apps.mpesaservice.models.MpesaIncomingPayment;
 import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentStatus;
 import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentType;
+import org.springframework.data.domain.Slice;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 public interface MpesaIncomingPaymentService {
 
@@ -97,6 +99,90 @@ public interface MpesaIncomingPaymentService {
      */
     List<MpesaIncomingPayment> findFailedPayments();
 
+    // ==================== KEYSET PAGES ====================
+    //
+    // Pass a null cursor for the first page, then the id (and for date ranges the createdAt)
+    // of the last payment of the previous page. size is capped at MAX_PAGE_SIZE.
+
+    int MAX_PAGE_SIZE = 1000;
+
+    /**
+     * Page of all payments after a cursor, in id order
+     */
+    Slice<MpesaIncomingPayment> findAll(Long afterId, int size);
+
+    /**
+     * Page of payments for a shortcode after a cursor, in id order
+     */
+    Slice<MpesaIncomingPayment> findByShortcodeUuid(UUID shortcodeUuid, Long afterId, int size);
+
+    /**
+     * Page of payments from a phone number after a cursor, in id order
+     */
+    Slice<MpesaIncomingPayment> findByPhoneNumber(String phoneNumber, Long afterId, int size);
+
+    /**
+     * Page of payments in a status after a cursor, in id order
+     */
+    Slice<MpesaIncomingPayment> findByStatus(IncomingPaymentStatus status, Long afterId, int size);
+
+    /**
+     * Page of payments created within a date range after a cursor, in (createdAt, id) order
+     */
+    Slice<MpesaIncomingPayment> findByDateRange(LocalDateTime startDate, LocalDateTime endDate,
+                                                LocalDateTime afterCreatedAt, Long afterId, int size);
+
+    /**
+     * Page of payments within an amount range after a cursor, in id order
+     */
+    Slice<MpesaIncomingPayment> findByAmountRange(BigDecimal minAmount, BigDecimal maxAmount, Long afterId, int size);
+
+    /**
+     * Page of pending payments after a cursor, in id order
+     */
+    Slice<MpesaIncomingPayment> findPendingPayments(Long afterId, int size);
+
+    // ==================== STREAMS ====================
+    //
+    // Each stream reads from an open database cursor and detaches every payment once it is
+    // handed out, so memory stays flat however many rows match. Call within a read-only
+    // transaction and close the stream (try-with-resources) before it ends.
+
+    /**
+     * Stream all payments in id order
+     */
+    Stream<MpesaIncomingPayment> streamAll();
+
+    /**
+     * Stream payments for a shortcode in id order
+     */
+    Stream<MpesaIncomingPayment> streamByShortcodeUuid(UUID shortcodeUuid);
+
+    /**
+     * Stream payments from a phone number in id order
+     */
+    Stream<MpesaIncomingPayment> streamByPhoneNumber(String phoneNumber);
+
+    /**
+     * Stream payments in a status in id order
+     */
+    Stream<MpesaIncomingPayment> streamByStatus(IncomingPaymentStatus status);
+
+    /**
+     * Stream payments created within a date range in creation order
+     */
+    Stream<MpesaIncomingPayment> streamByDateRange(LocalDateTime startDate, LocalDateTime endDate);
+
+    /**
+     * Stream payments within an amount range in id order
+     */
+    Stream<MpesaIncomingPayment> streamByAmountRange(BigDecimal minAmount, BigDecimal maxAmount);
+
+    /**
+     * Stream pending payments in id order
+     */
+    Stream<MpesaIncomingPayment> streamPendingPayments();
+
     /**
      * Update payment status
      */
@@ -108,7 +194,9 @@ public interface MpesaIncomingPaymentService {
     MpesaIncomingPayment markAsProcessed(UUID uuid);
 
     /**
-     * Process STK Push callback
+     * Process STK Push callback.
+     * Returns null when the PENDING row does not exist yet and the callback was parked
+     * until initiateSTKPush persists it.
      */
     MpesaIncomingPayment processStkPushCallback(String checkoutRequestId, Object callbackData);
 
@@ -1,5 +1,6 @@
 package com.sarafrika.apps.mpesaservice.services;
 
+import com.sarafrika.apps.mpesaservice.dtos.TransactionStatusResultData;
 import com.sarafrika.apps.mpesaservice.models.MpesaOutgoingPayment;
 import com.sarafrika.apps.mpesaservice.utils.enums.OutgoingPaymentStatus;
 import com.sarafrika.apps.mpesaservice.utils.enums.OutgoingPaymentType;
@@ -125,12 +126,29 @@ public interface MpesaOutgoingPaymentService {
                                            BigDecimal amount, String commandId, String remarks);
 
     /**
-     * Process payment callback
+     * Process payment callback and return the payment as it now stands, or {@code null} when
+     * the result arrived before its PENDING row and was parked for later application
      */
     MpesaOutgoingPayment processCallback(String originatorConversationId, Object callbackData);
 
     /**
-     * Retry failed payment
+     * Apply a B2C/B2B result callback without loading the payment. Returns true when this
+     * callback resolved a PENDING payment, false for a duplicate or a result that was parked
+     * because its PENDING row is not committed yet.
+     */
+    boolean applyResult(String originatorConversationId, Object callbackData);
+
+    /**
+     * Settle the payment a transaction status query was raised for. A completed or failed
+     * transaction settles it like a result callback would; a transaction that is still
+     * processing, or a status result for a query this service never raised, changes nothing.
+     * Returns true when the payment was settled.
+     */
+    boolean applyStatusResult(TransactionStatusResultData statusResult);
+
+    /**
+     * Retry a failed payment as a new payout. Refused for payments whose result code marks a
+     * permanent failure, and for a failure that was already retried.
      */
     MpesaOutgoingPayment retryPayment(UUID uuid);
 
@@ -0,0 +1,46 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.sarafrika.apps.mpesaservice.dtos.MpesaReversalDto;
+import com.sarafrika.apps.mpesaservice.dtos.TransactionReversalResultData;
+import com.sarafrika.apps.mpesaservice.dtos.TransactionReversalTimeoutCallback;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+public interface MpesaReversalService {
+
+    /**
+     * Reverse a transaction, at most once per receipt. A request for a receipt whose reversal
+     * is already in flight or has succeeded, here or on another node, is answered with that
+     * reversal ({@code coalesced = true}) and never reaches Daraja.
+     *
+     * @param shortcodeUuid UUID of the shortcode the transaction belongs to
+     * @param transactionId M-Pesa receipt to reverse
+     * @param amount amount to reverse
+     * @param remarks reversal remarks
+     * @return the reversal as it stands after this request
+     */
+    MpesaReversalDto requestReversal(UUID shortcodeUuid, String transactionId, BigDecimal amount, String remarks);
+
+    /**
+     * Find a reversal by UUID
+     */
+    MpesaReversalDto getByUuid(UUID uuid);
+
+    /**
+     * Every reversal raised for a receipt, newest first
+     */
+    List<MpesaReversalDto> findByTransactionId(String transactionId);
+
+    /**
+     * Settle the outstanding reversal a result belongs to. Returns true when this result
+     * settled it, false for a duplicate or a result parked until its acceptance is recorded.
+     */
+    boolean applyResult(TransactionReversalResultData result);
+
+    /**
+     * Fail the outstanding reversal Daraja timed out in its queue, so that it can be raised again
+     */
+    boolean applyTimeout(TransactionReversalTimeoutCallback timeout);
+}
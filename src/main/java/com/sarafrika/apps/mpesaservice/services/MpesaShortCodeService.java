@@ -3,6 +3,7 @@ package com.sarafrika.apps.mpesaservice.services;
 import com.sarafrika.apps.mpesaservice.dtos.MpesaShortCodeDto;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 
 import java.util.List;
 import java.util.Optional;
@@ -53,6 +54,20 @@ public interface MpesaShortCodeService {
      */
     Page<MpesaShortCodeDto> findAllActive(Pageable pageable);
 
+    /**
+     * Find all shortcode configurations a slice at a time, without counting the table
+     * @param pageable pagination information
+     * @return slice of shortcode configurations
+     */
+    Slice<MpesaShortCodeDto> findAllSlice(Pageable pageable);
+
+    /**
+     * Find active shortcode configurations a slice at a time, without counting the table
+     * @param pageable pagination information
+     * @return slice of active shortcode configurations
+     */
+    Slice<MpesaShortCodeDto> findAllActiveSlice(Pageable pageable);
+
     /**
      * Soft delete a shortcode configuration by UUID
      * @param uuid the UUID of the shortcode to delete
@@ -1,23 +1,41 @@
 package com.sarafrika.apps.mpesaservice.services.impl;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.sarafrika.apps.mpesaservice.clients.MpesaDarajaHttpClient;
 import com.sarafrika.apps.mpesaservice.dtos.*;
+import com.sarafrika.apps.mpesaservice.exceptions.DarajaApiException;
+import com.sarafrika.apps.mpesaservice.exceptions.DarajaAuthenticationException;
+import com.sarafrika.apps.mpesaservice.exceptions.DarajaRateLimitException;
+import com.sarafrika.apps.mpesaservice.exceptions.DarajaServerException;
 import com.sarafrika.apps.mpesaservice.models.MpesaIncomingPayment;
+import com.sarafrika.apps.mpesaservice.models.MpesaOutgoingPayment;
 import com.sarafrika.apps.mpesaservice.models.MpesaShortCode;
 import com.sarafrika.apps.mpesaservice.repositories.MpesaShortCodeRepository;
 import com.sarafrika.apps.mpesaservice.services.MpesaDarajaService;
 import com.sarafrika.apps.mpesaservice.services.MpesaIncomingPaymentService;
+import com.sarafrika.apps.mpesaservice.services.MpesaOutgoingPaymentService;
+import com.sarafrika.apps.mpesaservice.services.support.AccountBalanceBook;
+import com.sarafrika.apps.mpesaservice.services.support.B2CFundsLedger;
+import com.sarafrika.apps.mpesaservice.services.support.DarajaResultCorrelator;
+import com.sarafrika.apps.mpesaservice.services.support.OutgoingResultParkingLot;
+import com.sarafrika.apps.mpesaservice.services.support.StkCallbackParkingLot;
+import com.sarafrika.apps.mpesaservice.services.support.StkPushInFlightRegistry;
+import com.sarafrika.apps.mpesaservice.services.support.StkPushTimeoutResolver;
 import com.sarafrika.apps.mpesaservice.utils.enums.Environment;
 import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentStatus;
 import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentType;
+import com.sarafrika.apps.mpesaservice.utils.enums.OutgoingPaymentStatus;
+import com.sarafrika.apps.mpesaservice.utils.enums.OutgoingPaymentType;
 import com.sarafrika.apps.mpesaservice.utils.enums.QRTransactionType;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.ResourceAccessException;
 
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Base64;
@@ -32,6 +50,14 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
 
     private final MpesaShortCodeRepository shortCodeRepository;
     private final MpesaIncomingPaymentService incomingPaymentService;
+    private final MpesaOutgoingPaymentService outgoingPaymentService;
+    private final OutgoingResultParkingLot outgoingResultParkingLot;
+    private final StkCallbackParkingLot stkCallbackParkingLot;
+    private final StkPushInFlightRegistry stkPushInFlightRegistry;
+    private final StkPushTimeoutResolver stkPushTimeoutResolver;
+    private final DarajaResultCorrelator resultCorrelator;
+    private final B2CFundsLedger fundsLedger;
+    private final AccountBalanceBook balanceBook;
     private final MpesaDarajaHttpClient sandboxHttpClient;
     private final MpesaDarajaHttpClient productionHttpClient;
 
@@ -40,6 +66,7 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
 
     private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
     private static final long TOKEN_CACHE_DURATION_MINUTES = 55; // M-Pesa tokens expire in 1 hour
+    static final String INITIATOR_NAME = "testapi";
 
     /**
      * Constructor with proper @Qualifier annotations
@@ -47,11 +74,27 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
     public MpesaDarajaServiceImpl(
             MpesaShortCodeRepository shortCodeRepository,
             MpesaIncomingPaymentService incomingPaymentService,
+            MpesaOutgoingPaymentService outgoingPaymentService,
+            OutgoingResultParkingLot outgoingResultParkingLot,
+            StkCallbackParkingLot stkCallbackParkingLot,
+            StkPushInFlightRegistry stkPushInFlightRegistry,
+            StkPushTimeoutResolver stkPushTimeoutResolver,
+            DarajaResultCorrelator resultCorrelator,
+            B2CFundsLedger fundsLedger,
+            AccountBalanceBook balanceBook,
             @Qualifier("sandboxHttpClient") MpesaDarajaHttpClient sandboxHttpClient,
             @Qualifier("productionHttpClient") MpesaDarajaHttpClient productionHttpClient) {
 
         this.shortCodeRepository = shortCodeRepository;
         this.incomingPaymentService = incomingPaymentService;
+        this.outgoingPaymentService = outgoingPaymentService;
+        this.outgoingResultParkingLot = outgoingResultParkingLot;
+        this.stkCallbackParkingLot = stkCallbackParkingLot;
+        this.stkPushInFlightRegistry = stkPushInFlightRegistry;
+        this.stkPushTimeoutResolver = stkPushTimeoutResolver;
+        this.resultCorrelator = resultCorrelator;
+        this.fundsLedger = fundsLedger;
+        this.balanceBook = balanceBook;
         this.sandboxHttpClient = sandboxHttpClient;
         this.productionHttpClient = productionHttpClient;
     }
@@ -75,6 +118,16 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
 
         long startTime = System.currentTimeMillis();
 
+        // Safaricom rejects a second prompt to a handset that still shows one; fail fast locally.
+        if (!stkPushInFlightRegistry.tryAcquire(phoneNumber)) {
+            log.info("Rejecting STK Push for phone: {}, a prompt is already in flight", phoneNumber);
+            return MpesaApiResponse.error("STK_PUSH_IN_PROGRESS",
+                    "An STK Push prompt is already open for this phone number",
+                    HttpStatus.CONFLICT.value(), System.currentTimeMillis() - startTime);
+        }
+        boolean requested = false;
+        boolean prompted = false;
+
         try {
             // Get shortcode configuration
             MpesaShortCode shortcode = getShortcodeOrThrow(shortcodeUuid);
@@ -98,7 +151,12 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
 
             // Make API call using HTTP Interface
             MpesaDarajaHttpClient httpClient = getHttpClient(shortcode.getEnvironment());
+            requested = true;
             StkPushResponse response = httpClient.initiateSTKPush("Bearer " + accessToken, payload);
+            if (response != null && response.checkoutRequestId() != null) {
+                stkPushInFlightRegistry.attach(phoneNumber, response.checkoutRequestId());
+                prompted = true;
+            }
 
             // Persist a PENDING record so the callback can later reconcile it and
             // consuming systems can poll payment status by checkout request id.
@@ -111,10 +169,27 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
             return MpesaApiResponse.success(response, HttpStatus.OK.value(), processingTime);
 
         } catch (Exception e) {
-            return handleException(e, startTime, "STK Push initiation");
+            MpesaApiResponse<StkPushResponse> failure = handleException(e, startTime, "STK Push initiation",
+                    shortcodeUuid);
+            if (!requested) {
+                return e instanceof IllegalArgumentException ? failure : notSent(failure, startTime);
+            }
+            // A timeout or 5xx may still have prompted the handset, so the phone stays held for the prompt lifetime
+            prompted = prompted || !(e instanceof IllegalArgumentException
+                    || (e instanceof DarajaApiException darajaError && !darajaError.isOutcomeUnknown()));
+            return failure;
+        } finally {
+            if (!prompted) {
+                stkPushInFlightRegistry.release(phoneNumber);
+            }
         }
     }
 
+    @Override
+    public StkPushInFlightStats getStkPushInFlightStats() {
+        return stkPushInFlightRegistry.stats();
+    }
+
     @Override
     public MpesaApiResponse<StkStatusResponse> queryStkPushStatus(UUID shortcodeUuid, String checkoutRequestId) {
         log.info("Querying STK Push status for shortcode: {}, checkoutRequestId: {}", shortcodeUuid, checkoutRequestId);
@@ -139,7 +214,7 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
             return MpesaApiResponse.success(response, HttpStatus.OK.value(), processingTime);
 
         } catch (Exception e) {
-            return handleException(e, startTime, "STK Push status query");
+            return handleException(e, startTime, "STK Push status query", shortcodeUuid);
         }
     }
 
@@ -170,7 +245,7 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
             return MpesaApiResponse.success(response, HttpStatus.OK.value(), processingTime);
 
         } catch (Exception e) {
-            return handleException(e, startTime, "C2B URL registration");
+            return handleException(e, startTime, "C2B URL registration", shortcodeUuid);
         }
     }
 
@@ -205,7 +280,7 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
             return MpesaApiResponse.success(response, HttpStatus.OK.value(), processingTime);
 
         } catch (Exception e) {
-            return handleException(e, startTime, "C2B payment simulation");
+            return handleException(e, startTime, "C2B payment simulation", shortcodeUuid);
         }
     }
 
@@ -213,38 +288,141 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
 
     @Override
     public MpesaApiResponse<B2CPaymentResponse> sendB2CPayment(UUID shortcodeUuid, String phoneNumber,
-                                                               BigDecimal amount, String remarks, String occasion) {
+                                                               BigDecimal amount, String commandId,
+                                                               String remarks, String occasion) {
         log.info("Sending B2C payment for shortcode: {}, phone: {}, amount: {}", shortcodeUuid, phoneNumber, amount);
 
         long startTime = System.currentTimeMillis();
 
+        // Daraja assigns the OriginatorConversationID, so reserve under a provisional key until it does
+        String reservationKey = UUID.randomUUID().toString();
+        if (!fundsLedger.tryReserve(shortcodeUuid, reservationKey, amount)) {
+            return insufficientFunds(shortcodeUuid, amount, startTime);
+        }
+
+        String accessToken;
+        Map<String, Object> payload;
+        MpesaDarajaHttpClient httpClient;
         try {
             MpesaShortCode shortcode = getShortcodeOrThrow(shortcodeUuid);
-            String accessToken = getAccessToken(shortcode);
+            accessToken = getAccessToken(shortcode);
 
             if (accessToken == null) {
+                fundsLedger.release(reservationKey);
                 return MpesaApiResponse.error("AUTH_FAILED",
                         "Failed to obtain access token", HttpStatus.UNAUTHORIZED.value());
             }
 
-            Map<String, Object> payload = buildB2CPaymentPayload(shortcode, phoneNumber, amount, remarks, occasion);
+            payload = buildB2CPaymentPayload(shortcode, phoneNumber, amount, commandId, remarks, occasion);
+            httpClient = getHttpClient(shortcode.getEnvironment());
+        } catch (Exception e) {
+            // Nothing reached Daraja, so nothing can be paid out under the reservation
+            fundsLedger.release(reservationKey);
+            MpesaApiResponse<B2CPaymentResponse> failure = handleException(e, startTime, "B2C payment", shortcodeUuid);
+            return e instanceof IllegalArgumentException ? failure : notSent(failure, startTime);
+        }
 
-            MpesaDarajaHttpClient httpClient = getHttpClient(shortcode.getEnvironment());
+        try {
             B2CPaymentResponse response = httpClient.sendB2CPayment("Bearer " + accessToken, payload);
 
+            if (response != null) {
+                // Rekey before persisting: persisting may apply a parked result, which settles the reservation
+                fundsLedger.rekey(reservationKey, response.originatorConversationId());
+                persistPendingOutgoing(shortcodeUuid, OutgoingPaymentType.B2C, phoneNumber, amount, commandId,
+                        remarks, occasion, response.conversationId(), response.originatorConversationId());
+            } else {
+                fundsLedger.release(reservationKey);
+            }
+
+            long processingTime = System.currentTimeMillis() - startTime;
+            return MpesaApiResponse.success(response, HttpStatus.OK.value(), processingTime);
+
+        } catch (Exception e) {
+            MpesaApiResponse<B2CPaymentResponse> failure = handleException(e, startTime, "B2C payment", shortcodeUuid);
+            // A timeout or 5xx may still pay out. Its OriginatorConversationID was never returned, so no
+            // result can settle the reservation; it is held until the ledger's reservation TTL expires it.
+            if (e instanceof IllegalArgumentException
+                    || (e instanceof DarajaApiException darajaError && !darajaError.isOutcomeUnknown())) {
+                fundsLedger.release(reservationKey);
+            }
+            return failure;
+        }
+    }
+
+    @Override
+    public MpesaApiResponse<B2CPaymentResponse> dispatchB2CPayment(UUID shortcodeUuid, String originatorConversationId,
+                                                                   String phoneNumber, BigDecimal amount,
+                                                                   String commandId, String remarks, String occasion) {
+        log.debug("Dispatching bulk B2C payment {} for shortcode: {}, amount: {}",
+                originatorConversationId, shortcodeUuid, amount);
+
+        long startTime = System.currentTimeMillis();
+
+        if (!fundsLedger.tryReserve(shortcodeUuid, originatorConversationId, amount)) {
+            return insufficientFunds(shortcodeUuid, amount, startTime);
+        }
+
+        String accessToken;
+        Map<String, Object> payload;
+        MpesaDarajaHttpClient httpClient;
+        try {
+            MpesaShortCode shortcode = getShortcodeOrThrow(shortcodeUuid);
+            accessToken = getAccessToken(shortcode);
+
+            if (accessToken == null) {
+                fundsLedger.release(originatorConversationId);
+                return MpesaApiResponse.error("AUTH_FAILED",
+                        "Failed to obtain access token", HttpStatus.UNAUTHORIZED.value());
+            }
+
+            payload = buildB2CPaymentPayload(shortcode, phoneNumber, amount, commandId, remarks, occasion);
+            payload.put("OriginatorConversationID", originatorConversationId);
+            httpClient = getHttpClient(shortcode.getEnvironment());
+        } catch (Exception e) {
+            // Nothing reached Daraja, so nothing can be paid out under the reservation
+            fundsLedger.release(originatorConversationId);
+            MpesaApiResponse<B2CPaymentResponse> failure = handleException(e, startTime, "bulk B2C dispatch", shortcodeUuid);
+            return e instanceof IllegalArgumentException ? failure : notSent(failure, startTime);
+        }
+
+        try {
+            B2CPaymentResponse response = httpClient.sendB2CPaymentV3("Bearer " + accessToken, payload);
+
             long processingTime = System.currentTimeMillis() - startTime;
             return MpesaApiResponse.success(response, HttpStatus.OK.value(), processingTime);
 
         } catch (Exception e) {
-            return handleException(e, startTime, "B2C payment");
+            MpesaApiResponse<B2CPaymentResponse> failure = handleException(e, startTime, "bulk B2C dispatch", shortcodeUuid);
+            // A timeout or 5xx may still pay out, so its reservation stays until the result arrives
+            if (e instanceof IllegalArgumentException
+                    || (e instanceof DarajaApiException darajaError && !darajaError.isOutcomeUnknown())) {
+                fundsLedger.release(originatorConversationId);
+            }
+            return failure;
         }
     }
 
+    /**
+     * Report a failure that happened before the request was sent, so callers know it is safe to send again
+     */
+    private static <T> MpesaApiResponse<T> notSent(MpesaApiResponse<T> failure, long startTime) {
+        return MpesaApiResponse.error("NOT_SENT", failure.error().errorMessage(), failure.httpStatus(),
+                System.currentTimeMillis() - startTime);
+    }
+
+    private <T> MpesaApiResponse<T> insufficientFunds(UUID shortcodeUuid, BigDecimal amount, long startTime) {
+        log.info("Holding B2C payment of {} for shortcode: {}, known funds cannot cover it", amount, shortcodeUuid);
+        return MpesaApiResponse.error("INSUFFICIENT_FUNDS",
+                "The shortcode's available B2C funds cannot cover this payment",
+                HttpStatus.CONFLICT.value(), System.currentTimeMillis() - startTime);
+    }
+
     // ==================== 4. B2B IMPLEMENTATION ====================
 
     @Override
     public MpesaApiResponse<B2BTransferResponse> transferB2B(UUID senderShortcodeUuid, String receiverShortcode,
-                                                             BigDecimal amount, String remarks, String accountReference) {
+                                                             BigDecimal amount, String commandId, String remarks,
+                                                             String accountReference) {
         log.info("Transferring B2B for sender: {}, receiver: {}, amount: {}",
                 senderShortcodeUuid, receiverShortcode, amount);
 
@@ -260,16 +438,22 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
             }
 
             Map<String, Object> payload = buildB2BTransferPayload(shortcode, receiverShortcode,
-                    amount, remarks, accountReference);
+                    amount, commandId, remarks, accountReference);
 
             MpesaDarajaHttpClient httpClient = getHttpClient(shortcode.getEnvironment());
             B2BTransferResponse response = httpClient.transferB2B("Bearer " + accessToken, payload);
 
+            if (response != null) {
+                persistPendingOutgoing(senderShortcodeUuid, OutgoingPaymentType.B2B, receiverShortcode, amount,
+                        commandId, remarks, accountReference, response.conversationId(),
+                        response.originatorConversationId());
+            }
+
             long processingTime = System.currentTimeMillis() - startTime;
             return MpesaApiResponse.success(response, HttpStatus.OK.value(), processingTime);
 
         } catch (Exception e) {
-            return handleException(e, startTime, "B2B transfer");
+            return handleException(e, startTime, "B2B transfer", senderShortcodeUuid);
         }
     }
 
@@ -278,7 +462,15 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
     @Override
     public MpesaApiResponse<TransactionStatusResponse> queryTransactionStatus(UUID shortcodeUuid,
                                                                               String transactionId, String remarks) {
-        log.info("Querying transaction status for shortcode: {}, transactionId: {}", shortcodeUuid, transactionId);
+        return queryTransactionStatus(shortcodeUuid, transactionId, null, remarks);
+    }
+
+    @Override
+    public MpesaApiResponse<TransactionStatusResponse> queryTransactionStatus(UUID shortcodeUuid, String transactionId,
+                                                                              String originalConversationId,
+                                                                              String remarks) {
+        log.info("Querying transaction status for shortcode: {}, transactionId: {}, originalConversationId: {}",
+                shortcodeUuid, transactionId, originalConversationId);
 
         long startTime = System.currentTimeMillis();
 
@@ -291,7 +483,8 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
                         "Failed to obtain access token", HttpStatus.UNAUTHORIZED.value());
             }
 
-            Map<String, Object> payload = buildTransactionStatusPayload(shortcode, transactionId, remarks);
+            Map<String, Object> payload = buildTransactionStatusPayload(shortcode, transactionId,
+                    originalConversationId, remarks);
 
             MpesaDarajaHttpClient httpClient = getHttpClient(shortcode.getEnvironment());
             TransactionStatusResponse response = httpClient.queryTransactionStatus("Bearer " + accessToken, payload);
@@ -300,7 +493,7 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
             return MpesaApiResponse.success(response, HttpStatus.OK.value(), processingTime);
 
         } catch (Exception e) {
-            return handleException(e, startTime, "Transaction status query");
+            return handleException(e, startTime, "Transaction status query", shortcodeUuid);
         }
     }
 
@@ -330,8 +523,30 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
             return MpesaApiResponse.success(response, HttpStatus.OK.value(), processingTime);
 
         } catch (Exception e) {
-            return handleException(e, startTime, "Account balance query");
+            return handleException(e, startTime, "Account balance query", shortcodeUuid);
+        }
+    }
+
+    @Override
+    public MpesaApiResponse<AccountBalanceResultData> queryAccountBalanceAndWait(UUID shortcodeUuid, String remarks,
+                                                                                 Duration timeout) {
+        MpesaApiResponse<AccountBalanceResponse> initiated = queryAccountBalance(shortcodeUuid, remarks);
+        if (!initiated.success() || initiated.data() == null) {
+            return MpesaApiResponse.error(initiated.error(), initiated.httpStatus());
+        }
+        MpesaApiResponse<AccountBalanceResultData> result = resultCorrelator.await(initiated.data().conversationId(),
+                initiated.data().originatorConversationId(), AccountBalanceResultData.class, timeout);
+        if (result.success() && result.data() != null && result.data().isSuccessful()) {
+            balanceBook.record(shortcodeUuid, result.data());
         }
+        return result;
+    }
+
+    // ==================== ASYNC RESULT CORRELATION ====================
+
+    @Override
+    public MpesaApiResponse<JsonNode> awaitResult(String conversationId, Duration timeout) {
+        return resultCorrelator.await(conversationId, null, JsonNode.class, timeout);
     }
 
     // ==================== 7. TRANSACTION REVERSAL IMPLEMENTATION ====================
@@ -362,7 +577,7 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
             return MpesaApiResponse.success(response, HttpStatus.OK.value(), processingTime);
 
         } catch (Exception e) {
-            return handleException(e, startTime, "Transaction reversal");
+            return handleException(e, startTime, "Transaction reversal", shortcodeUuid);
         }
     }
 
@@ -396,7 +611,7 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
             return MpesaApiResponse.success(response, HttpStatus.OK.value(), processingTime);
 
         } catch (Exception e) {
-            return handleException(e, startTime, "QR code generation");
+            return handleException(e, startTime, "QR code generation", shortcodeUuid);
         }
     }
 
@@ -429,6 +644,14 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
             payment.setStatus(IncomingPaymentStatus.PENDING);
             incomingPaymentService.create(payment);
             log.debug("Persisted PENDING STK Push payment for checkoutRequestId: {}", response.checkoutRequestId());
+
+            // The customer may already have answered the prompt; apply a result that beat the insert.
+            stkCallbackParkingLot.take(response.checkoutRequestId())
+                    .ifPresent(parked -> incomingPaymentService.processStkPushCallback(
+                            parked.key(), parked.callbackData()));
+
+            // Some callbacks never arrive; resolve via status query shortly after the prompt expires.
+            stkPushTimeoutResolver.arm(shortcodeUuid, response.checkoutRequestId());
         } catch (Exception e) {
             // Never fail the STK Push response because of a persistence issue; log for reconciliation.
             log.error("Failed to persist PENDING STK Push payment for shortcode {}: {}",
@@ -436,6 +659,44 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
         }
     }
 
+    /**
+     * Persist a PENDING outgoing payment for an accepted B2C/B2B request, keyed on the
+     * OriginatorConversationID Daraja returned, so the result callback can resolve it with a
+     * single conditional UPDATE. A result that already arrived and was parked is applied here.
+     */
+    private void persistPendingOutgoing(UUID shortcodeUuid, OutgoingPaymentType paymentType, String recipient,
+                                        BigDecimal amount, String commandId, String remarks, String occasion,
+                                        String conversationId, String originatorConversationId) {
+        if (originatorConversationId == null) {
+            log.warn("Skipping {} persistence for shortcode {}: missing originator conversation id",
+                    paymentType, shortcodeUuid);
+            return;
+        }
+        try {
+            MpesaOutgoingPayment payment = new MpesaOutgoingPayment();
+            payment.setShortcodeUuid(shortcodeUuid);
+            payment.setPaymentType(paymentType);
+            payment.setRecipientPhoneNumber(recipient);
+            payment.setAmount(amount);
+            payment.setCommandId(commandId);
+            payment.setInitiatorName(INITIATOR_NAME);
+            payment.setRemarks(remarks);
+            payment.setOccasion(occasion);
+            payment.setConversationId(conversationId);
+            payment.setOriginatorConversationId(originatorConversationId);
+            payment.setStatus(OutgoingPaymentStatus.PENDING);
+            outgoingPaymentService.create(payment);
+            log.debug("Persisted PENDING {} payment for originatorConversationId: {}", paymentType, originatorConversationId);
+
+            outgoingResultParkingLot.take(originatorConversationId)
+                    .ifPresent(parked -> outgoingPaymentService.applyResult(parked.key(), parked.callbackData()));
+        } catch (Exception e) {
+            // Never fail the payout response because of a persistence issue; log for reconciliation.
+            log.error("Failed to persist PENDING {} payment for shortcode {}: {}",
+                    paymentType, shortcodeUuid, e.getMessage(), e);
+        }
+    }
+
     private MpesaShortCode getShortcodeOrThrow(UUID shortcodeUuid) {
         return shortCodeRepository.findByUuid(shortcodeUuid)
                 .orElseThrow(() -> new IllegalArgumentException("Shortcode not found: " + shortcodeUuid));
@@ -495,35 +756,51 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
         return Base64.getEncoder().encodeToString(password.getBytes(StandardCharsets.UTF_8));
     }
 
-    private <T> MpesaApiResponse<T> handleException(Exception e, long startTime, String operation) {
+    private <T> MpesaApiResponse<T> handleException(Exception e, long startTime, String operation,
+                                                    UUID shortcodeUuid) {
         long processingTime = System.currentTimeMillis() - startTime;
 
-        log.error("Error during {}: {}", operation, e.getMessage(), e);
-
-        // Extract meaningful error messages from different exception types
-        String errorMessage = e.getMessage();
-        String errorCode = "INTERNAL_ERROR";
-        int httpStatus = HttpStatus.INTERNAL_SERVER_ERROR.value();
-
         // Handle specific exception types
         switch (e) {
-            case IllegalArgumentException illegalArgumentException -> {
-                errorCode = "INVALID_ARGUMENT";
-                httpStatus = HttpStatus.BAD_REQUEST.value();
+            case DarajaApiException darajaError -> {
+                // Body and requestId were logged where the response was decoded
+                log.error("Error during {}: {}", operation, darajaError.getMessage());
+                if (darajaError instanceof DarajaAuthenticationException && shortcodeUuid != null) {
+                    // The cached token was refused; the next call fetches a fresh one
+                    tokenCache.remove(shortcodeUuid.toString());
+                }
+                MpesaErrorResponse error = new MpesaErrorResponse(darajaError.getServiceErrorCode(),
+                        darajaError.getMessage(), darajaError.getRequestId(), LocalDateTime.now(),
+                        darajaError.getErrorCode(), darajaError.isRetryable());
+                return MpesaApiResponse.error(error, responseStatus(darajaError), processingTime);
             }
-            case RuntimeException runtimeException when e.getMessage().contains("Client error") -> {
-                errorCode = "CLIENT_ERROR";
-                httpStatus = HttpStatus.BAD_REQUEST.value();
+            case IllegalArgumentException illegalArgumentException -> {
+                log.error("Error during {}: {}", operation, e.getMessage(), e);
+                return MpesaApiResponse.error("INVALID_ARGUMENT", e.getMessage(),
+                        HttpStatus.BAD_REQUEST.value(), processingTime);
             }
-            case RuntimeException runtimeException when e.getMessage().contains("Server error") -> {
-                errorCode = "SERVER_ERROR";
-                httpStatus = HttpStatus.BAD_GATEWAY.value();
+            case ResourceAccessException resourceAccessException -> {
+                // Connect or read timeout; a request that was written may still be acted on
+                log.error("Error during {}: {}", operation, e.getMessage());
+                MpesaErrorResponse error = new MpesaErrorResponse("NETWORK_ERROR", e.getMessage(), null,
+                        LocalDateTime.now(), null, true);
+                return MpesaApiResponse.error(error, HttpStatus.GATEWAY_TIMEOUT.value(), processingTime);
             }
             default -> {
+                log.error("Error during {}: {}", operation, e.getMessage(), e);
+                return MpesaApiResponse.error("INTERNAL_ERROR", e.getMessage(),
+                        HttpStatus.INTERNAL_SERVER_ERROR.value(), processingTime);
             }
         }
+    }
 
-        return MpesaApiResponse.error(errorCode, errorMessage, httpStatus, processingTime);
+    private static int responseStatus(DarajaApiException error) {
+        return switch (error) {
+            case DarajaRateLimitException rateLimited -> HttpStatus.TOO_MANY_REQUESTS.value();
+            case DarajaAuthenticationException unauthorized -> HttpStatus.UNAUTHORIZED.value();
+            case DarajaServerException serverError -> HttpStatus.BAD_GATEWAY.value();
+            default -> HttpStatus.BAD_REQUEST.value();
+        };
     }
 
     /**
@@ -589,11 +866,12 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
     }
 
     private Map<String, Object> buildB2CPaymentPayload(MpesaShortCode shortcode, String phoneNumber,
-                                                       BigDecimal amount, String remarks, String occasion) {
+                                                       BigDecimal amount, String commandId,
+                                                       String remarks, String occasion) {
         Map<String, Object> payload = new HashMap<>();
-        payload.put("InitiatorName", "testapi");
+        payload.put("InitiatorName", INITIATOR_NAME);
         payload.put("SecurityCredential", generateSecurityCredential(shortcode));
-        payload.put("CommandID", "BusinessPayment");
+        payload.put("CommandID", commandId);
         payload.put("Amount", amount);
         payload.put("PartyA", shortcode.getShortcode());
         payload.put("PartyB", phoneNumber);
@@ -605,11 +883,12 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
     }
 
     private Map<String, Object> buildB2BTransferPayload(MpesaShortCode shortcode, String receiverShortcode,
-                                                        BigDecimal amount, String remarks, String accountReference) {
+                                                        BigDecimal amount, String commandId,
+                                                        String remarks, String accountReference) {
         Map<String, Object> payload = new HashMap<>();
-        payload.put("Initiator", "testapi");
+        payload.put("Initiator", INITIATOR_NAME);
         payload.put("SecurityCredential", generateSecurityCredential(shortcode));
-        payload.put("CommandID", "BusinessToBusinessTransfer");
+        payload.put("CommandID", commandId);
         payload.put("SenderIdentifierType", "4");
         payload.put("RecieverIdentifierType", "4");
         payload.put("Amount", amount);
@@ -622,13 +901,16 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
         return payload;
     }
 
-    private Map<String, Object> buildTransactionStatusPayload(MpesaShortCode shortcode,
-                                                              String transactionId, String remarks) {
+    private Map<String, Object> buildTransactionStatusPayload(MpesaShortCode shortcode, String transactionId,
+                                                              String originalConversationId, String remarks) {
         Map<String, Object> payload = new HashMap<>();
-        payload.put("Initiator", "testapi");
+        payload.put("Initiator", INITIATOR_NAME);
         payload.put("SecurityCredential", generateSecurityCredential(shortcode));
         payload.put("CommandID", "TransactionStatusQuery");
         payload.put("TransactionID", transactionId);
+        if (originalConversationId != null) {
+            payload.put("OriginalConversationID", originalConversationId);
+        }
         payload.put("PartyA", shortcode.getShortcode());
         payload.put("IdentifierType", "4");
         payload.put("ResultURL", shortcode.getCallbackUrl());
@@ -640,7 +922,7 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
 
     private Map<String, Object> buildAccountBalancePayload(MpesaShortCode shortcode, String remarks) {
         Map<String, Object> payload = new HashMap<>();
-        payload.put("Initiator", "testapi");
+        payload.put("Initiator", INITIATOR_NAME);
         payload.put("SecurityCredential", generateSecurityCredential(shortcode));
         payload.put("CommandID", "AccountBalance");
         payload.put("PartyA", shortcode.getShortcode());
@@ -654,7 +936,7 @@ public class MpesaDarajaServiceImpl implements MpesaDarajaService {
     private Map<String, Object> buildTransactionReversalPayload(MpesaShortCode shortcode, String transactionId,
                                                                 BigDecimal amount, String remarks) {
         Map<String, Object> payload = new HashMap<>();
-        payload.put("Initiator", "testapi");
+        payload.put("Initiator", INITIATOR_NAME);
         payload.put("SecurityCredential", generateSecurityCredential(shortcode));
         payload.put("CommandID", "TransactionReversal");
         payload.put("TransactionID", transactionId);
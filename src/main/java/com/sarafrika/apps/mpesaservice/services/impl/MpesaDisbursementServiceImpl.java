@@ -0,0 +1,273 @@
+package com.sarafrika.apps.mpesaservice.services.impl;
+
+import com.sarafrika.apps.mpesaservice.dtos.DisbursementBatchProgress;
+import com.sarafrika.apps.mpesaservice.dtos.DisbursementLine;
+import com.sarafrika.apps.mpesaservice.models.MpesaDisbursementBatch;
+import com.sarafrika.apps.mpesaservice.models.MpesaShortCode;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaDisbursementBatchRepository;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaOutgoingPaymentRepository;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaOutgoingPaymentRepository.BatchStatusCount;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaShortCodeRepository;
+import com.sarafrika.apps.mpesaservice.services.MpesaDisbursementService;
+import com.sarafrika.apps.mpesaservice.utils.enums.DisbursementBatchStatus;
+import com.sarafrika.apps.mpesaservice.utils.enums.OutgoingPaymentStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Default implementation of {@link MpesaDisbursementService}.
+ * <p>
+ * Uploads are streamed: each valid line becomes a QUEUED outgoing payment carrying its own
+ * client-generated OriginatorConversationID, written in JDBC batches so a 100k-line payroll
+ * never sits in memory or the persistence context. Sending is left to the
+ * {@link com.sarafrika.apps.mpesaservice.services.support.DisbursementDispatcher}.
+ * </p>
+ */
+@Service
+@Slf4j
+@Transactional
+public class MpesaDisbursementServiceImpl implements MpesaDisbursementService {
+
+    static final Set<String> B2C_COMMANDS = Set.of("BusinessPayment", "SalaryPayment", "PromotionPayment");
+
+    // Claims the line's keys row first, so staging a line that is already staged inserts nothing
+    private static final String STAGE_SQL = """
+            WITH line AS (
+                INSERT INTO mpesa_outgoing_payment_keys
+                       (payment_id, payment_created_at, uuid, originator_conversation_id, batch_id, batch_line)
+                VALUES (nextval('mpesa_outgoing_payments_id_seq'), NOW(), ?, ?, ?, ?)
+                ON CONFLICT (batch_id, batch_line) DO NOTHING
+                RETURNING payment_id, payment_created_at, uuid, originator_conversation_id, batch_id, batch_line
+            )
+            INSERT INTO mpesa_outgoing_payments
+                   (id, uuid, shortcode_uuid, payment_type, originator_conversation_id, recipient_phone_number, amount,
+                    command_id, initiator_name, remarks, status, batch_id, batch_line, created_at, updated_at)
+            SELECT l.payment_id, l.uuid, ?, 'B2C', l.originator_conversation_id, ?, ?, ?, ?, ?, 'QUEUED',
+                   l.batch_id, l.batch_line, l.payment_created_at, l.payment_created_at
+              FROM line l
+            """;
+
+    private final MpesaDisbursementBatchRepository batchRepository;
+    private final MpesaOutgoingPaymentRepository paymentRepository;
+    private final MpesaShortCodeRepository shortCodeRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final int stageChunkSize;
+    private final int maxReportedErrors;
+
+    public MpesaDisbursementServiceImpl(
+            MpesaDisbursementBatchRepository batchRepository,
+            MpesaOutgoingPaymentRepository paymentRepository,
+            MpesaShortCodeRepository shortCodeRepository,
+            JdbcTemplate jdbcTemplate,
+            @Value("${mpesa.disbursement.stage-chunk-size:1000}") int stageChunkSize,
+            @Value("${mpesa.disbursement.max-reported-errors:100}") int maxReportedErrors) {
+        this.batchRepository = batchRepository;
+        this.paymentRepository = paymentRepository;
+        this.shortCodeRepository = shortCodeRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.stageChunkSize = stageChunkSize;
+        this.maxReportedErrors = maxReportedErrors;
+    }
+
+    @Override
+    public DisbursementBatchProgress createBatch(UUID shortcodeUuid, String commandId, String reference,
+                                                 Iterator<DisbursementLine> lines) {
+        if (!B2C_COMMANDS.contains(commandId)) {
+            throw new IllegalArgumentException("Unsupported B2C command: " + commandId);
+        }
+        MpesaShortCode shortcode = shortCodeRepository.findByUuid(shortcodeUuid)
+                .orElseThrow(() -> new IllegalArgumentException("Shortcode not found: " + shortcodeUuid));
+        if (!Boolean.TRUE.equals(shortcode.getIsActive())) {
+            throw new IllegalStateException("Shortcode is inactive: " + shortcodeUuid);
+        }
+
+        MpesaDisbursementBatch batch = new MpesaDisbursementBatch();
+        batch.setShortcodeUuid(shortcodeUuid);
+        batch.setCommandId(commandId);
+        batch.setReference(reference);
+        // The staged lines reference the batch row over plain JDBC, so it must be inserted first
+        batch = batchRepository.saveAndFlush(batch);
+
+        List<Object[]> chunk = new ArrayList<>(stageChunkSize);
+        List<String> errors = new ArrayList<>();
+        int lineNumber = 0;
+        int staged = 0;
+        int rejected = 0;
+        BigDecimal totalAmount = BigDecimal.ZERO;
+
+        while (lines.hasNext()) {
+            DisbursementLine line = lines.next();
+            lineNumber++;
+            String phone = normalizePhoneNumber(line.phoneNumber());
+            String error = validate(line, phone, shortcode);
+            if (error != null) {
+                rejected++;
+                if (errors.size() < maxReportedErrors) {
+                    errors.add("Line " + lineNumber + ": " + error);
+                }
+                continue;
+            }
+            chunk.add(new Object[]{UUID.randomUUID(), UUID.randomUUID().toString(), batch.getId(), lineNumber,
+                    shortcodeUuid, phone, line.amount(), commandId, MpesaDarajaServiceImpl.INITIATOR_NAME,
+                    line.remarks()});
+            staged++;
+            totalAmount = totalAmount.add(line.amount());
+            if (chunk.size() >= stageChunkSize) {
+                jdbcTemplate.batchUpdate(STAGE_SQL, chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            jdbcTemplate.batchUpdate(STAGE_SQL, chunk);
+        }
+
+        batch.setTotalCount(staged);
+        batch.setTotalAmount(totalAmount);
+        batch.setRejectedCount(rejected);
+        if (rejected == 0 && staged > 0) {
+            batch.setStatus(DisbursementBatchStatus.RUNNING);
+            batch.setStartedAt(LocalDateTime.now());
+        }
+        batch = batchRepository.save(batch);
+
+        log.info("Staged disbursement batch {} for shortcode {}: {} lines, {} rejected, total {}",
+                batch.getUuid(), shortcodeUuid, staged, rejected, totalAmount);
+        return toProgress(batch, errors);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public DisbursementBatchProgress getProgress(UUID batchUuid) {
+        return toProgress(findBatch(batchUuid), null);
+    }
+
+    @Override
+    public DisbursementBatchProgress startBatch(UUID batchUuid) {
+        return toProgress(transition(batchUuid, DisbursementBatchStatus.RUNNING), null);
+    }
+
+    @Override
+    public DisbursementBatchProgress pauseBatch(UUID batchUuid) {
+        return toProgress(transition(batchUuid, DisbursementBatchStatus.PAUSED), null);
+    }
+
+    @Override
+    public DisbursementBatchProgress cancelBatch(UUID batchUuid) {
+        MpesaDisbursementBatch batch = transition(batchUuid, DisbursementBatchStatus.CANCELLED);
+        int cancelled = paymentRepository.cancelQueued(batch.getId());
+        log.info("Cancelled disbursement batch {}: {} unsent rows cancelled", batchUuid, cancelled);
+        return toProgress(batch, null);
+    }
+
+    private MpesaDisbursementBatch transition(UUID batchUuid, DisbursementBatchStatus target) {
+        return batchRepository.transitionStatus(batchUuid, DisbursementBatchStatus.sourcesOf(target), target.name())
+                .orElseThrow(() -> {
+                    MpesaDisbursementBatch current = findBatch(batchUuid);
+                    return new IllegalStateException("Cannot move disbursement batch from "
+                            + current.getStatus() + " to " + target);
+                });
+    }
+
+    private MpesaDisbursementBatch findBatch(UUID batchUuid) {
+        return batchRepository.findByUuid(batchUuid)
+                .orElseThrow(() -> new IllegalArgumentException("Disbursement batch not found: " + batchUuid));
+    }
+
+    private static String validate(DisbursementLine line, String phone, MpesaShortCode shortcode) {
+        if (phone == null) {
+            return "invalid phone number '" + line.phoneNumber() + "'";
+        }
+        if (line.amount() == null) {
+            return "missing or malformed amount";
+        }
+        if (line.amount().compareTo(shortcode.getMinAmount()) < 0
+                || line.amount().compareTo(shortcode.getMaxAmount()) > 0) {
+            return "amount " + line.amount() + " outside " + shortcode.getMinAmount() + " - "
+                    + shortcode.getMaxAmount();
+        }
+        if (line.remarks() != null && line.remarks().length() > 100) {
+            return "remarks longer than 100 characters";
+        }
+        return null;
+    }
+
+    /**
+     * Normalize a Kenyan mobile number to 2547XXXXXXXX / 2541XXXXXXXX, or null if it is not one
+     */
+    static String normalizePhoneNumber(String phoneNumber) {
+        if (phoneNumber == null) {
+            return null;
+        }
+        String digits = phoneNumber.replaceAll("[\\s+\\-]", "");
+        if (digits.startsWith("0")) {
+            digits = "254" + digits.substring(1);
+        } else if (digits.length() == 9 && (digits.startsWith("7") || digits.startsWith("1"))) {
+            digits = "254" + digits;
+        }
+        return digits.matches("254[17]\\d{8}") ? digits : null;
+    }
+
+    private DisbursementBatchProgress toProgress(MpesaDisbursementBatch batch, List<String> errors) {
+        Map<OutgoingPaymentStatus, BatchStatusCount> counts = new EnumMap<>(OutgoingPaymentStatus.class);
+        for (BatchStatusCount count : paymentRepository.countByBatchGroupedByStatus(batch.getId())) {
+            counts.put(count.getStatus(), count);
+        }
+        long queued = count(counts, OutgoingPaymentStatus.QUEUED);
+        long dispatching = count(counts, OutgoingPaymentStatus.DISPATCHING);
+        long pending = count(counts, OutgoingPaymentStatus.PENDING);
+        long succeeded = count(counts, OutgoingPaymentStatus.SUCCESS);
+        long failed = count(counts, OutgoingPaymentStatus.FAILED);
+        long cancelled = count(counts, OutgoingPaymentStatus.CANCELLED);
+        BigDecimal succeededAmount = counts.containsKey(OutgoingPaymentStatus.SUCCESS)
+                ? counts.get(OutgoingPaymentStatus.SUCCESS).getAmount() : BigDecimal.ZERO;
+
+        double elapsedSeconds = 0;
+        if (batch.getStartedAt() != null) {
+            LocalDateTime end = batch.getCompletedAt() != null ? batch.getCompletedAt() : LocalDateTime.now();
+            elapsedSeconds = Duration.between(batch.getStartedAt(), end).toMillis() / 1000.0;
+        }
+        long dispatched = dispatching + pending + succeeded + failed;
+        long settled = succeeded + failed;
+
+        return new DisbursementBatchProgress(
+                batch.getUuid(),
+                batch.getShortcodeUuid(),
+                batch.getCommandId(),
+                batch.getReference(),
+                batch.getStatus(),
+                batch.getTotalCount(),
+                batch.getTotalAmount(),
+                queued,
+                dispatching,
+                pending,
+                succeeded,
+                failed,
+                cancelled,
+                succeededAmount,
+                batch.getRejectedCount(),
+                errors,
+                elapsedSeconds > 0 ? dispatched / elapsedSeconds : 0,
+                elapsedSeconds > 0 ? settled / elapsedSeconds : 0,
+                batch.getStartedAt(),
+                batch.getCompletedAt());
+    }
+
+    private static long count(Map<OutgoingPaymentStatus, BatchStatusCount> counts, OutgoingPaymentStatus status) {
+        BatchStatusCount count = counts.get(status);
+        return count == null ? 0 : count.getCount();
+    }
+}
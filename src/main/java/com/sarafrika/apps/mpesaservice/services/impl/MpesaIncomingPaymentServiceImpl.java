@@ -1,15 +1,30 @@
 package com.sarafrika.apps.mpesaservice.services.impl;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sarafrika.apps.mpesaservice.models.MpesaIncomingPayment;
+import com.sarafrika.apps.mpesaservice.models.MpesaShortCode;
 import com.sarafrika.apps.mpesaservice.repositories.MpesaIncomingPaymentRepository;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaShortCodeRepository;
 import com.sarafrika.apps.mpesaservice.services.MpesaIncomingPaymentService;
+import com.sarafrika.apps.mpesaservice.services.support.PaymentDailyRollups;
+import com.sarafrika.apps.mpesaservice.services.support.StkCallbackParkingLot;
+import com.sarafrika.apps.mpesaservice.services.support.StkPushInFlightRegistry;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaApi;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaResultCode;
 import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentStatus;
 import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentType;
+import com.sarafrika.apps.mpesaservice.utils.enums.PaymentDirection;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
@@ -21,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 /**
  * Default implementation of {@link MpesaIncomingPaymentService}.
@@ -38,7 +54,14 @@ import java.util.UUID;
 public class MpesaIncomingPaymentServiceImpl implements MpesaIncomingPaymentService {
 
     private final MpesaIncomingPaymentRepository repository;
+    private final MpesaShortCodeRepository shortCodeRepository;
     private final ObjectMapper objectMapper;
+    private final StkCallbackParkingLot parkingLot;
+    private final StkPushInFlightRegistry inFlightRegistry;
+    private final PaymentDailyRollups rollups;
+
+    @PersistenceContext
+    private EntityManager entityManager;
 
     private static final DateTimeFormatter MPESA_TIMESTAMP_FORMATTER =
             DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
@@ -148,64 +171,192 @@ public class MpesaIncomingPaymentServiceImpl implements MpesaIncomingPaymentServ
         return repository.findByStatus(IncomingPaymentStatus.FAILED);
     }
 
+    // ==================== KEYSET PAGES ====================
+
+    @Override
+    @Transactional(readOnly = true)
+    public Slice<MpesaIncomingPayment> findAll(Long afterId, int size) {
+        return repository.findByIdGreaterThanOrderByIdAsc(cursor(afterId), pageOf(size));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Slice<MpesaIncomingPayment> findByShortcodeUuid(UUID shortcodeUuid, Long afterId, int size) {
+        return repository.findByShortcodeUuidAndIdGreaterThanOrderByIdAsc(shortcodeUuid, cursor(afterId), pageOf(size));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Slice<MpesaIncomingPayment> findByPhoneNumber(String phoneNumber, Long afterId, int size) {
+        return repository.findByPhoneNumberAndIdGreaterThanOrderByIdAsc(phoneNumber, cursor(afterId), pageOf(size));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Slice<MpesaIncomingPayment> findByStatus(IncomingPaymentStatus status, Long afterId, int size) {
+        return repository.findByStatusAndIdGreaterThanOrderByIdAsc(status, cursor(afterId), pageOf(size));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Slice<MpesaIncomingPayment> findByDateRange(LocalDateTime startDate, LocalDateTime endDate,
+                                                       LocalDateTime afterCreatedAt, Long afterId, int size) {
+        // The first page starts at startDate itself, where every id qualifies
+        return afterCreatedAt == null
+                ? repository.findCreatedBetweenAfter(startDate, endDate, startDate, 0L, pageOf(size))
+                : repository.findCreatedBetweenAfter(startDate, endDate, afterCreatedAt, cursor(afterId), pageOf(size));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Slice<MpesaIncomingPayment> findByAmountRange(BigDecimal minAmount, BigDecimal maxAmount, Long afterId,
+                                                         int size) {
+        return repository.findByAmountBetweenAndIdGreaterThanOrderByIdAsc(minAmount, maxAmount, cursor(afterId),
+                pageOf(size));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Slice<MpesaIncomingPayment> findPendingPayments(Long afterId, int size) {
+        return findByStatus(IncomingPaymentStatus.PENDING, afterId, size);
+    }
+
+    // ==================== STREAMS ====================
+    //
+    // MANDATORY: the cursor lives as long as the caller's transaction, not this method's.
+
+    @Override
+    @Transactional(readOnly = true, propagation = Propagation.MANDATORY)
+    public Stream<MpesaIncomingPayment> streamAll() {
+        return detaching(repository.streamAll());
+    }
+
+    @Override
+    @Transactional(readOnly = true, propagation = Propagation.MANDATORY)
+    public Stream<MpesaIncomingPayment> streamByShortcodeUuid(UUID shortcodeUuid) {
+        return detaching(repository.streamByShortcodeUuidOrderByIdAsc(shortcodeUuid));
+    }
+
+    @Override
+    @Transactional(readOnly = true, propagation = Propagation.MANDATORY)
+    public Stream<MpesaIncomingPayment> streamByPhoneNumber(String phoneNumber) {
+        return detaching(repository.streamByPhoneNumberOrderByIdAsc(phoneNumber));
+    }
+
+    @Override
+    @Transactional(readOnly = true, propagation = Propagation.MANDATORY)
+    public Stream<MpesaIncomingPayment> streamByStatus(IncomingPaymentStatus status) {
+        return detaching(repository.streamByStatusOrderByIdAsc(status));
+    }
+
+    @Override
+    @Transactional(readOnly = true, propagation = Propagation.MANDATORY)
+    public Stream<MpesaIncomingPayment> streamByDateRange(LocalDateTime startDate, LocalDateTime endDate) {
+        return detaching(repository.streamByCreatedAtBetweenOrderByCreatedAtAscIdAsc(startDate, endDate));
+    }
+
+    @Override
+    @Transactional(readOnly = true, propagation = Propagation.MANDATORY)
+    public Stream<MpesaIncomingPayment> streamByAmountRange(BigDecimal minAmount, BigDecimal maxAmount) {
+        return detaching(repository.streamByAmountBetweenOrderByIdAsc(minAmount, maxAmount));
+    }
+
+    @Override
+    @Transactional(readOnly = true, propagation = Propagation.MANDATORY)
+    public Stream<MpesaIncomingPayment> streamPendingPayments() {
+        return streamByStatus(IncomingPaymentStatus.PENDING);
+    }
+
     // ==================== STATUS TRANSITIONS ====================
+    //
+    // Every transition is a single conditional UPDATE guarded on the current status, so
+    // concurrent writers (callback vs. status poller) cannot overwrite each other and no
+    // entity is loaded or dirty-checked on the happy path.
 
     @Override
     public MpesaIncomingPayment updateStatus(UUID uuid, IncomingPaymentStatus status) {
-        MpesaIncomingPayment payment = getByUuidOrThrow(uuid);
-        payment.setStatus(status);
-        return repository.save(payment);
+        List<String> sources = IncomingPaymentStatus.sourcesOf(status);
+        if (!sources.isEmpty()) {
+            Optional<MpesaIncomingPayment> updated = repository.transitionStatus(uuid, sources, status.name());
+            if (updated.isPresent()) {
+                return updated.get();
+            }
+        }
+
+        MpesaIncomingPayment current = getByUuidOrThrow(uuid);
+        if (current.getStatus() == status) {
+            return current;
+        }
+        throw new IllegalStateException("Illegal incoming payment transition " + current.getStatus()
+                + " -> " + status + " for payment: " + uuid);
     }
 
     @Override
     public MpesaIncomingPayment markAsProcessed(UUID uuid) {
-        MpesaIncomingPayment payment = getByUuidOrThrow(uuid);
-        payment.setProcessedAt(LocalDateTime.now());
-        return repository.save(payment);
+        return repository.markProcessed(uuid)
+                .orElseGet(() -> getByUuidOrThrow(uuid));
     }
 
     @Override
     public MpesaIncomingPayment processStkPushCallback(String checkoutRequestId, Object callbackData) {
         log.info("Processing STK Push callback for checkoutRequestId: {}", checkoutRequestId);
 
-        MpesaIncomingPayment payment = repository.findByCheckoutRequestId(checkoutRequestId)
-                .orElseThrow(() -> new IllegalArgumentException(
-                        "No incoming payment found for checkoutRequestId: " + checkoutRequestId));
+        // Any result means the handset prompt is closed and the phone can be prompted again.
+        inFlightRegistry.releaseByCheckoutRequestId(checkoutRequestId);
 
         Map<String, Object> raw = toMap(callbackData);
-        payment.setRawCallbackData(raw);
-
         Integer resultCode = readInteger(raw.get("ResultCode"));
-        payment.setResultCode(resultCode);
-        payment.setResultDesc(readString(raw.get("ResultDesc")));
 
+        String receipt = null;
+        BigDecimal amount = null;
+        String phone = null;
+        LocalDateTime txnDate = null;
         Map<String, Object> metadata = extractStkMetadata(raw);
         if (metadata != null) {
-            String receipt = readString(metadata.get("MpesaReceiptNumber"));
-            if (receipt != null) {
-                payment.setTransactionId(receipt);
-            }
-            BigDecimal amount = readBigDecimal(metadata.get("Amount"));
-            if (amount != null) {
-                payment.setAmount(amount);
-            }
-            String phone = readString(metadata.get("PhoneNumber"));
-            if (phone != null) {
-                payment.setPhoneNumber(phone);
-            }
-            LocalDateTime txnDate = parseMpesaTimestamp(metadata.get("TransactionDate"));
-            if (txnDate != null) {
-                payment.setTransactionDate(txnDate);
-            }
+            receipt = readString(metadata.get("MpesaReceiptNumber"));
+            amount = readBigDecimal(metadata.get("Amount"));
+            phone = readString(metadata.get("PhoneNumber"));
+            txnDate = parseMpesaTimestamp(metadata.get("TransactionDate"));
+        }
+
+        Optional<MpesaIncomingPayment> completed = repository.completeStkPush(checkoutRequestId,
+                resolveStatus(resultCode).name(), resultCode, readString(raw.get("ResultDesc")),
+                receipt, amount, phone, txnDate, toJson(raw));
+
+        if (completed.isPresent()) {
+            log.info("STK Push callback processed for checkoutRequestId: {} -> status: {}",
+                    checkoutRequestId, completed.get().getStatus());
+            return completed.get();
         }
 
-        payment.setStatus(resolveStatus(resultCode));
-        payment.setProcessedAt(LocalDateTime.now());
+        // The guard did not match: either another writer already moved the row out of PENDING
+        // (a duplicate result is a no-op, never an overwrite) or the row is not committed yet.
+        Optional<MpesaIncomingPayment> current = repository.findByCheckoutRequestId(checkoutRequestId);
+        if (current.isPresent() && current.get().getStatus() != IncomingPaymentStatus.PENDING) {
+            log.info("STK Push callback for checkoutRequestId: {} ignored, payment already {}",
+                    checkoutRequestId, current.get().getStatus());
+            return current.get();
+        }
 
-        MpesaIncomingPayment saved = repository.save(payment);
-        log.info("STK Push callback processed for checkoutRequestId: {} -> status: {}",
-                checkoutRequestId, saved.getStatus());
-        return saved;
+        // The callback beat initiateSTKPush's insert, which may have committed since. Park it for
+        // persistPendingStkPush, then re-check once in case the insert already missed the lot.
+        parkingLot.park(checkoutRequestId, callbackData);
+        Optional<MpesaIncomingPayment> raced = repository.completeStkPush(checkoutRequestId,
+                resolveStatus(resultCode).name(), resultCode, readString(raw.get("ResultDesc")),
+                receipt, amount, phone, txnDate, toJson(raw));
+        if (raced.isPresent()) {
+            parkingLot.take(checkoutRequestId);
+            // The release above may have run before initiateSTKPush attached the CheckoutRequestID;
+            // it attaches before inserting the row, so releasing now finds the phone.
+            inFlightRegistry.releaseByCheckoutRequestId(checkoutRequestId);
+            return raced.get();
+        }
+        if (current.isPresent()) {
+            // Another writer settled the row in between, after the lot was drained
+            parkingLot.take(checkoutRequestId);
+            return repository.findByCheckoutRequestId(checkoutRequestId).orElse(null);
+        }
+        return null;
     }
 
     @Override
@@ -214,28 +365,35 @@ public class MpesaIncomingPaymentServiceImpl implements MpesaIncomingPaymentServ
 
         Map<String, Object> raw = toMap(callbackData);
 
-        MpesaIncomingPayment payment = repository.findByTransactionId(transactionId)
-                .orElseGet(MpesaIncomingPayment::new);
-
-        payment.setPaymentType(IncomingPaymentType.C2B);
-        payment.setTransactionId(transactionId);
-        payment.setRawCallbackData(raw);
-
-        applyIfPresent(readBigDecimal(raw.get("TransAmount")), payment::setAmount);
-        applyIfPresent(readString(raw.get("MSISDN")), payment::setPhoneNumber);
-        applyIfPresent(readString(raw.get("BillRefNumber")), payment::setAccountReference);
-        applyIfPresent(readString(raw.get("FirstName")), payment::setFirstName);
-        applyIfPresent(readString(raw.get("MiddleName")), payment::setMiddleName);
-        applyIfPresent(readString(raw.get("LastName")), payment::setLastName);
-        LocalDateTime txnDate = parseMpesaTimestamp(raw.get("TransTime"));
-        if (txnDate != null) {
-            payment.setTransactionDate(txnDate);
-        }
-
-        payment.setStatus(IncomingPaymentStatus.SUCCESS);
-        payment.setProcessedAt(LocalDateTime.now());
-
-        return repository.save(payment);
+        // Resolve the shortcode up front: the payment row needs its uuid, and an unknown or deleted
+        // shortcode would otherwise surface as a NOT NULL violation deep inside the upsert.
+        String businessShortCode = readString(raw.get("BusinessShortCode"));
+        UUID shortcodeUuid = Optional.ofNullable(businessShortCode)
+                .flatMap(shortCodeRepository::findByShortcode)
+                .map(MpesaShortCode::getUuid)
+                .orElseThrow(() -> {
+                    log.error("Rejecting C2B confirmation {} for unknown BusinessShortCode {}: {}",
+                            transactionId, businessShortCode, toJson(raw));
+                    return new IllegalArgumentException(
+                            "Unknown BusinessShortCode " + businessShortCode + " on C2B confirmation " + transactionId);
+                });
+
+        // One INSERT ... ON CONFLICT round trip: idempotent across Safaricom redeliveries and
+        // safe when duplicates race each other, unlike a find-then-save.
+        MpesaIncomingPayment payment = repository.upsertC2BConfirmation(
+                transactionId,
+                shortcodeUuid,
+                readString(raw.get("MSISDN")),
+                readBigDecimal(raw.get("TransAmount")),
+                readString(raw.get("BillRefNumber")),
+                readString(raw.get("FirstName")),
+                readString(raw.get("MiddleName")),
+                readString(raw.get("LastName")),
+                parseMpesaTimestamp(raw.get("TransTime")),
+                toJson(raw));
+
+        log.info("C2B callback persisted for transactionId: {} -> payment: {}", transactionId, payment.getUuid());
+        return payment;
     }
 
     @Override
@@ -255,14 +413,13 @@ public class MpesaIncomingPaymentServiceImpl implements MpesaIncomingPaymentServ
     @Override
     @Transactional(readOnly = true)
     public BigDecimal getTotalAmountByStatus(IncomingPaymentStatus status) {
-        BigDecimal total = repository.sumAmountByStatus(status);
-        return total != null ? total : BigDecimal.ZERO;
+        return rollups.totalAmount(PaymentDirection.INCOMING, status.name());
     }
 
     @Override
     @Transactional(readOnly = true)
     public Long getCountByStatus(IncomingPaymentStatus status) {
-        return repository.countByStatus(status);
+        return rollups.count(PaymentDirection.INCOMING, status.name());
     }
 
     @Override
@@ -276,20 +433,33 @@ public class MpesaIncomingPaymentServiceImpl implements MpesaIncomingPaymentServ
 
     // ==================== HELPERS ====================
 
+    private static long cursor(Long afterId) {
+        return afterId != null ? afterId : 0L;
+    }
+
+    private static Pageable pageOf(int size) {
+        return PageRequest.ofSize(Math.max(1, Math.min(size, MAX_PAGE_SIZE)));
+    }
+
+    /**
+     * Drop each payment from the persistence context as it is handed out, so a long stream does
+     * not accumulate every row it has read
+     */
+    private Stream<MpesaIncomingPayment> detaching(Stream<MpesaIncomingPayment> payments) {
+        return payments.peek(entityManager::detach);
+    }
+
     private MpesaIncomingPayment getByUuidOrThrow(UUID uuid) {
         return repository.findByUuid(uuid)
                 .orElseThrow(() -> new IllegalArgumentException("Incoming payment not found: " + uuid));
     }
 
     private IncomingPaymentStatus resolveStatus(Integer resultCode) {
-        if (resultCode == null) {
-            return IncomingPaymentStatus.FAILED;
-        }
-        if (resultCode == 0) {
+        DarajaResultCode result = DarajaResultCode.of(DarajaApi.STK_PUSH, resultCode);
+        if (result.isSuccess()) {
             return IncomingPaymentStatus.SUCCESS;
         }
-        // 1032 is the M-Pesa result code for a request cancelled by the user
-        if (resultCode == 1032) {
+        if (result == DarajaResultCode.STK_CANCELLED_BY_USER) {
             return IncomingPaymentStatus.CANCELLED;
         }
         return IncomingPaymentStatus.FAILED;
@@ -333,9 +503,11 @@ public class MpesaIncomingPaymentServiceImpl implements MpesaIncomingPaymentServ
         return flattened;
     }
 
-    private <T> void applyIfPresent(T value, java.util.function.Consumer<T> setter) {
-        if (value != null) {
-            setter.accept(value);
+    private String toJson(Map<String, Object> raw) {
+        try {
+            return objectMapper.writeValueAsString(raw);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Unable to serialise callback payload", e);
         }
     }
 
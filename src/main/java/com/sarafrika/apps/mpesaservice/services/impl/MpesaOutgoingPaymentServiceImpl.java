@@ -0,0 +1,553 @@
+package com.sarafrika.apps.mpesaservice.services.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sarafrika.apps.mpesaservice.dtos.B2BTransferResponse;
+import com.sarafrika.apps.mpesaservice.dtos.B2CPaymentResponse;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.dtos.ResultParameterIndex;
+import com.sarafrika.apps.mpesaservice.dtos.TransactionStatusResultData;
+import com.sarafrika.apps.mpesaservice.dtos.TransactionStatusResultParameters;
+import com.sarafrika.apps.mpesaservice.exceptions.PayoutNotSentException;
+import com.sarafrika.apps.mpesaservice.models.MpesaOutgoingPayment;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaOutgoingPaymentRepository;
+import com.sarafrika.apps.mpesaservice.services.MpesaDarajaService;
+import com.sarafrika.apps.mpesaservice.services.MpesaOutgoingPaymentService;
+import com.sarafrika.apps.mpesaservice.services.support.B2CFundsLedger;
+import com.sarafrika.apps.mpesaservice.services.support.OutgoingResultParkingLot;
+import com.sarafrika.apps.mpesaservice.services.support.PaymentDailyRollups;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaApi;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaResultCode;
+import com.sarafrika.apps.mpesaservice.utils.enums.OutgoingPaymentStatus;
+import com.sarafrika.apps.mpesaservice.utils.enums.OutgoingPaymentType;
+import com.sarafrika.apps.mpesaservice.utils.enums.PaymentDirection;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Default implementation of {@link MpesaOutgoingPaymentService}.
+ * <p>
+ * Tracks B2C and B2B payouts from the PENDING row written when Daraja accepts the request
+ * to the result callback that settles it. Callbacks are resolved by OriginatorConversationID,
+ * unique in the outgoing keys table, with a single conditional UPDATE of the one row it locates,
+ * so tracking large payouts costs one indexed write per result and never loads or dirty-checks
+ * an entity.
+ * </p>
+ */
+@Service
+@Slf4j
+@Transactional
+public class MpesaOutgoingPaymentServiceImpl implements MpesaOutgoingPaymentService {
+
+    private final MpesaOutgoingPaymentRepository repository;
+    private final ObjectMapper objectMapper;
+    private final OutgoingResultParkingLot parkingLot;
+    private final B2CFundsLedger fundsLedger;
+    private final ObjectProvider<MpesaDarajaService> darajaService;
+    private final PaymentDailyRollups rollups;
+
+    // TransactionStatus values of a transaction status result
+    private static final String COMPLETED = "Completed";
+    private static final Set<String> STILL_PROCESSING = Set.of("pending", "processing", "authorized");
+
+    /**
+     * Error codes that prove Daraja never took a payout request on
+     */
+    private static final Set<String> NOT_SENT = Set.of(
+            "AUTH_FAILED", "CLIENT_ERROR", "RATE_LIMITED", "INVALID_ARGUMENT", "INSUFFICIENT_FUNDS", "NOT_SENT");
+
+    public MpesaOutgoingPaymentServiceImpl(MpesaOutgoingPaymentRepository repository,
+                                           ObjectMapper objectMapper,
+                                           OutgoingResultParkingLot parkingLot,
+                                           B2CFundsLedger fundsLedger,
+                                           ObjectProvider<MpesaDarajaService> darajaService,
+                                           PaymentDailyRollups rollups) {
+        this.repository = repository;
+        this.objectMapper = objectMapper;
+        this.parkingLot = parkingLot;
+        this.fundsLedger = fundsLedger;
+        this.darajaService = darajaService;
+        this.rollups = rollups;
+    }
+
+    // ==================== CRUD ====================
+
+    @Override
+    public MpesaOutgoingPayment create(MpesaOutgoingPayment payment) {
+        log.info("Creating outgoing {} payment for shortcode: {}, originatorConversationId: {}",
+                payment.getPaymentType(), payment.getShortcodeUuid(), payment.getOriginatorConversationId());
+        return repository.save(payment);
+    }
+
+    @Override
+    public MpesaOutgoingPayment update(MpesaOutgoingPayment payment) {
+        log.debug("Updating outgoing payment: {}", payment.getUuid());
+        return repository.save(payment);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<MpesaOutgoingPayment> findById(Long id) {
+        return repository.findById(id);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<MpesaOutgoingPayment> findByUuid(UUID uuid) {
+        return repository.findByUuid(uuid);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<MpesaOutgoingPayment> findByTransactionId(String transactionId) {
+        return repository.findByTransactionId(transactionId);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<MpesaOutgoingPayment> findByOriginatorConversationId(String originatorConversationId) {
+        return repository.findByOriginatorConversationId(originatorConversationId);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MpesaOutgoingPayment> findAll() {
+        return repository.findAll();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MpesaOutgoingPayment> findByShortcodeUuid(UUID shortcodeUuid) {
+        return repository.findByShortcodeUuid(shortcodeUuid);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MpesaOutgoingPayment> findByRecipientPhoneNumber(String recipientPhoneNumber) {
+        return repository.findByRecipientPhoneNumber(recipientPhoneNumber);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MpesaOutgoingPayment> findByStatus(OutgoingPaymentStatus status) {
+        return repository.findByStatus(status);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MpesaOutgoingPayment> findByPaymentType(OutgoingPaymentType paymentType) {
+        return repository.findByPaymentType(paymentType);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MpesaOutgoingPayment> findByDateRange(LocalDateTime startDate, LocalDateTime endDate) {
+        return repository.findByCreatedAtBetween(startDate, endDate);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MpesaOutgoingPayment> findByAmountRange(BigDecimal minAmount, BigDecimal maxAmount) {
+        return repository.findByAmountBetween(minAmount, maxAmount);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MpesaOutgoingPayment> findByCommandId(String commandId) {
+        return repository.findByCommandId(commandId);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MpesaOutgoingPayment> findByInitiatorName(String initiatorName) {
+        return repository.findByInitiatorName(initiatorName);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MpesaOutgoingPayment> findPendingPayments() {
+        return repository.findByStatus(OutgoingPaymentStatus.PENDING);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MpesaOutgoingPayment> findSuccessfulPayments() {
+        return repository.findByStatus(OutgoingPaymentStatus.SUCCESS);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MpesaOutgoingPayment> findFailedPayments() {
+        return repository.findByStatus(OutgoingPaymentStatus.FAILED);
+    }
+
+    // ==================== STATUS TRANSITIONS ====================
+    //
+    // As for incoming payments, every transition is a conditional UPDATE guarded on the
+    // current status, so a late callback can never overwrite a settled payout.
+
+    @Override
+    public MpesaOutgoingPayment updateStatus(UUID uuid, OutgoingPaymentStatus status) {
+        List<String> sources = OutgoingPaymentStatus.sourcesOf(status);
+        if (!sources.isEmpty()) {
+            Optional<MpesaOutgoingPayment> updated = repository.transitionStatus(uuid, sources, status.name());
+            if (updated.isPresent()) {
+                return updated.get();
+            }
+        }
+
+        MpesaOutgoingPayment current = getByUuidOrThrow(uuid);
+        if (current.getStatus() == status) {
+            return current;
+        }
+        throw new IllegalStateException("Illegal outgoing payment transition " + current.getStatus()
+                + " -> " + status + " for payment: " + uuid);
+    }
+
+    @Override
+    public MpesaOutgoingPayment markAsProcessed(UUID uuid) {
+        return repository.markProcessed(uuid)
+                .orElseGet(() -> getByUuidOrThrow(uuid));
+    }
+
+    // ==================== PAYOUTS ====================
+
+    @Override
+    public MpesaOutgoingPayment processB2CPayment(UUID shortcodeUuid, String recipientPhone,
+                                                  BigDecimal amount, String commandId, String remarks) {
+        MpesaApiResponse<B2CPaymentResponse> response = darajaService.getObject()
+                .sendB2CPayment(shortcodeUuid, recipientPhone, amount, commandId, remarks, null);
+        if (!response.success() || response.data() == null) {
+            throw rejected("B2C payment", response);
+        }
+        return getByOriginatorConversationIdOrThrow(response.data().originatorConversationId());
+    }
+
+    @Override
+    public MpesaOutgoingPayment processB2BPayment(UUID shortcodeUuid, String recipientPhone,
+                                                  BigDecimal amount, String commandId, String remarks) {
+        MpesaApiResponse<B2BTransferResponse> response = darajaService.getObject()
+                .transferB2B(shortcodeUuid, recipientPhone, amount, commandId, remarks, null);
+        if (!response.success() || response.data() == null) {
+            throw rejected("B2B transfer", response);
+        }
+        return getByOriginatorConversationIdOrThrow(response.data().originatorConversationId());
+    }
+
+    @Override
+    public MpesaOutgoingPayment processCallback(String originatorConversationId, Object callbackData) {
+        applyResult(originatorConversationId, callbackData);
+        return repository.findByOriginatorConversationId(originatorConversationId).orElse(null);
+    }
+
+    @Override
+    public boolean applyResult(String originatorConversationId, Object callbackData) {
+        Map<String, Object> raw = toMap(callbackData);
+        Integer resultCode = readInteger(raw.get("ResultCode"));
+        boolean successful = resultCode != null && resultCode == 0;
+        ResultParameterIndex parameters = resultParameters(raw);
+
+        String json = toJson(raw);
+        String status = (successful ? OutgoingPaymentStatus.SUCCESS : OutgoingPaymentStatus.FAILED).name();
+        // Failed results carry placeholder TransactionIDs; only a real receipt may claim the unique receipt key
+        String transactionId = successful ? readString(raw.get("TransactionID")) : null;
+        String resultDesc = readString(raw.get("ResultDesc"));
+        String conversationId = readString(raw.get("ConversationID"));
+        String recipientName = parameters.get("ReceiverPartyPublicName");
+        BigDecimal utilityFunds = parameters.getAmount("B2CUtilityAccountAvailableFunds");
+        BigDecimal workingFunds = parameters.getAmount("B2CWorkingAccountAvailableFunds");
+        String completedTime = parameters.get("TransactionCompletedDateTime");
+        LocalDateTime completedAt = parseCompletedTime(completedTime != null
+                ? completedTime : parameters.get("TransCompletedTime"));
+
+        Optional<UUID> shortcodeUuid = repository.completeByOriginatorConversationId(originatorConversationId,
+                status, resultCode, resultDesc, transactionId, conversationId, recipientName, utilityFunds,
+                workingFunds, completedAt, json);
+        if (shortcodeUuid.isPresent()) {
+            log.info("Outgoing payment {} resolved -> {}", originatorConversationId, status);
+            fundsLedger.settle(shortcodeUuid.get(), originatorConversationId, utilityFunds, completedAt);
+            return true;
+        }
+
+        // Nothing PENDING matched: a redelivery of a settled payout is a no-op, never an overwrite
+        if (repository.existsByOriginatorConversationId(originatorConversationId)) {
+            log.info("Result for outgoing payment {} ignored, payment already settled", originatorConversationId);
+            fundsLedger.release(originatorConversationId);
+            return false;
+        }
+
+        // The result beat the PENDING insert. Park it for persistPendingOutgoing, then re-check
+        // once in case the insert committed in between and already missed the lot.
+        parkingLot.park(originatorConversationId, callbackData);
+        shortcodeUuid = repository.completeByOriginatorConversationId(originatorConversationId, status, resultCode,
+                resultDesc, transactionId, conversationId, recipientName, utilityFunds, workingFunds, completedAt, json);
+        if (shortcodeUuid.isPresent()) {
+            parkingLot.take(originatorConversationId);
+            fundsLedger.settle(shortcodeUuid.get(), originatorConversationId, utilityFunds, completedAt);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean applyStatusResult(TransactionStatusResultData statusResult) {
+        Optional<String> originatorConversationId = statusResult.originatorConversationId() != null
+                ? repository.findOriginatorConversationIdByStatusQuery(statusResult.originatorConversationId())
+                : Optional.empty();
+        if (originatorConversationId.isEmpty()) {
+            return false;
+        }
+
+        TransactionStatusResultParameters parameters = statusResult.resultParameters();
+        String transactionStatus = parameters != null ? parameters.getTransactionStatus() : null;
+        boolean completed;
+        if (statusResult.isNotFound()) {
+            // Daraja has no record of it: the request never executed
+            completed = false;
+        } else if (statusResult.isSuccessful() && transactionStatus != null
+                && !STILL_PROCESSING.contains(transactionStatus.toLowerCase())) {
+            completed = COMPLETED.equalsIgnoreCase(transactionStatus);
+        } else {
+            log.info("Status query for outgoing payment {} left it outstanding: {} {}",
+                    originatorConversationId.get(), statusResult.resultDesc(), transactionStatus);
+            return false;
+        }
+
+        // Reshape the status result as the B2C/B2B result it stands in for
+        Map<String, Object> resolved = new HashMap<>();
+        resolved.put("ResultCode", completed ? 0 : failureCode(statusResult.resultCode()));
+        resolved.put("ResultDesc", transactionStatus != null
+                ? "Transaction status query: " + transactionStatus : statusResult.resultDesc());
+        resolved.put("TransactionID", parameters != null && parameters.getReceiptNumber() != null
+                ? parameters.getReceiptNumber() : statusResult.transactionId());
+        if (parameters != null && parameters.getCompletedTime() != null) {
+            resolved.put("ResultParameters", Map.of("ResultParameter",
+                    List.of(Map.of("Key", "TransCompletedTime", "Value", parameters.getCompletedTime()))));
+        }
+        resolved.put("TransactionStatusResult", objectMapper.convertValue(statusResult,
+                new TypeReference<Map<String, Object>>() {}));
+
+        log.info("Outgoing payment {} resolved by transaction status query: {}",
+                originatorConversationId.get(), transactionStatus != null ? transactionStatus : "not found");
+        return applyResult(originatorConversationId.get(), resolved);
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public MpesaOutgoingPayment retryPayment(UUID uuid) {
+        MpesaOutgoingPayment failed = getByUuidOrThrow(uuid);
+        if (failed.getStatus() != OutgoingPaymentStatus.FAILED) {
+            throw new IllegalStateException("Only FAILED payments can be retried, payment " + uuid
+                    + " is " + failed.getStatus());
+        }
+        DarajaResultCode result = DarajaResultCode.of(failed.getPaymentType() == OutgoingPaymentType.B2B
+                ? DarajaApi.B2B : DarajaApi.B2C, failed.getResultCode());
+        if (result.isTerminal() && result != DarajaResultCode.UNKNOWN) {
+            throw new IllegalStateException("Payment " + uuid + " failed permanently and cannot be retried: "
+                    + result.description());
+        }
+        if (repository.claimForRetry(failed.getId()) == 0) {
+            throw new IllegalStateException("Payment " + uuid + " has already been retried");
+        }
+        int attempt = failed.getRetryAttempt() + 1;
+        log.info("Retrying failed {} payment {} (attempt {}, ResultCode {}: {})", failed.getPaymentType(), uuid,
+                attempt, failed.getResultCode(), result.category());
+
+        // Daraja issues a fresh OriginatorConversationID per request, so a retry is a new payment row
+        MpesaOutgoingPayment retry;
+        try {
+            retry = failed.getPaymentType() == OutgoingPaymentType.B2B
+                    ? processB2BPayment(failed.getShortcodeUuid(), failed.getRecipientPhoneNumber(),
+                    failed.getAmount(), failed.getCommandId(), failed.getRemarks())
+                    : processB2CPayment(failed.getShortcodeUuid(), failed.getRecipientPhoneNumber(),
+                    failed.getAmount(), failed.getCommandId(), failed.getRemarks());
+        } catch (PayoutNotSentException | IllegalArgumentException e) {
+            // Refused before a new payout existed: count the attempt and let the backoff run again
+            repository.releaseRetry(failed.getId());
+            throw e;
+        } catch (RuntimeException e) {
+            // A timeout, a 5xx or a failure after acceptance may still pay out: keep the claim so the
+            // payout is never resent blindly, and leave it to its result or the status-query resolver
+            log.error("Retry of payment {} (attempt {}) outcome unknown, not resent again: {}", uuid, attempt,
+                    e.getMessage());
+            repository.countRetryAttempt(failed.getId());
+            throw e;
+        }
+        repository.recordRetryAttempt(retry.getOriginatorConversationId(), attempt);
+        retry.setRetryAttempt(attempt);
+        return retry;
+    }
+
+    @Override
+    public MpesaOutgoingPayment cancelPayment(UUID uuid) {
+        // Daraja has no cancel; this only stops a PENDING payout from being tracked as outstanding
+        return updateStatus(uuid, OutgoingPaymentStatus.CANCELLED);
+    }
+
+    @Override
+    public void delete(UUID uuid) {
+        MpesaOutgoingPayment payment = getByUuidOrThrow(uuid);
+        repository.delete(payment); // soft delete via @SQLDelete on BaseEntity
+    }
+
+    // ==================== REPORTING / RECONCILIATION ====================
+
+    @Override
+    @Transactional(readOnly = true)
+    public boolean existsByTransactionId(String transactionId) {
+        return repository.existsByTransactionId(transactionId);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public boolean existsByOriginatorConversationId(String originatorConversationId) {
+        return repository.existsByOriginatorConversationId(originatorConversationId);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public BigDecimal getTotalAmountByStatus(OutgoingPaymentStatus status) {
+        return rollups.totalAmount(PaymentDirection.OUTGOING, status.name());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Long getCountByStatus(OutgoingPaymentStatus status) {
+        return rollups.count(PaymentDirection.OUTGOING, status.name());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MpesaOutgoingPayment> getPaymentsForReconciliation(LocalDateTime date) {
+        LocalDate day = date.toLocalDate();
+        LocalDateTime start = day.atStartOfDay();
+        LocalDateTime end = day.atTime(LocalTime.MAX);
+        return repository.findByCreatedAtBetween(start, end);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public BigDecimal getTotalUtilityAccountFunds() {
+        BigDecimal total = repository.sumLatestUtilityAccountFunds();
+        return total != null ? total : BigDecimal.ZERO;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public BigDecimal getTotalWorkingAccountFunds() {
+        BigDecimal total = repository.sumLatestWorkingAccountFunds();
+        return total != null ? total : BigDecimal.ZERO;
+    }
+
+    // ==================== HELPERS ====================
+
+    private MpesaOutgoingPayment getByUuidOrThrow(UUID uuid) {
+        return repository.findByUuid(uuid)
+                .orElseThrow(() -> new IllegalArgumentException("Outgoing payment not found: " + uuid));
+    }
+
+    private MpesaOutgoingPayment getByOriginatorConversationIdOrThrow(String originatorConversationId) {
+        return repository.findByOriginatorConversationId(originatorConversationId)
+                .orElseThrow(() -> new IllegalArgumentException(
+                        "Outgoing payment not found for originatorConversationId: " + originatorConversationId));
+    }
+
+    private static int failureCode(Integer statusResultCode) {
+        return statusResultCode != null && statusResultCode != 0 ? statusResultCode : 1;
+    }
+
+    /**
+     * The exception for a payout Daraja did not accept, telling a request it provably never took on
+     * from one whose outcome is unknown
+     */
+    private IllegalStateException rejected(String payout, MpesaApiResponse<?> response) {
+        String message = payout + " rejected: " + describeError(response);
+        String code = response.error() != null ? response.error().errorCode() : null;
+        return code != null && NOT_SENT.contains(code)
+                ? new PayoutNotSentException(code, message)
+                : new IllegalStateException(message);
+    }
+
+    private String describeError(MpesaApiResponse<?> response) {
+        return response.error() != null
+                ? response.error().errorCode() + " " + response.error().errorMessage()
+                : "HTTP " + response.httpStatus();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> toMap(Object callbackData) {
+        if (callbackData == null) {
+            return Map.of();
+        }
+        if (callbackData instanceof Map<?, ?> map) {
+            return (Map<String, Object>) map;
+        }
+        return objectMapper.convertValue(callbackData, new TypeReference<Map<String, Object>>() {});
+    }
+
+    /**
+     * Index the result parameters of a raw result map, shaped
+     * {@code ResultParameters: { ResultParameter: [ { Key, Value }, ... ] }}
+     */
+    private ResultParameterIndex resultParameters(Map<String, Object> raw) {
+        List<?> items = raw.get("ResultParameters") instanceof Map<?, ?> parameters
+                && parameters.get("ResultParameter") instanceof List<?> list ? list : List.of();
+        return ResultParameterIndex.of(items, item -> itemField(item, "Key"), item -> itemField(item, "Value"));
+    }
+
+    private static String itemField(Object item, String field) {
+        return item instanceof Map<?, ?> map && map.get(field) != null ? map.get(field).toString() : null;
+    }
+
+    private String toJson(Map<String, Object> raw) {
+        try {
+            return objectMapper.writeValueAsString(raw);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Unable to serialise callback payload", e);
+        }
+    }
+
+    private Integer readInteger(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Number number) {
+            return number.intValue();
+        }
+        try {
+            return Integer.valueOf(value.toString().trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String readString(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private LocalDateTime parseCompletedTime(String value) {
+        if (value == null) {
+            return null;
+        }
+        LocalDateTime completedAt = ResultParameterIndex.parseTimestamp(value);
+        if (completedAt == null && !value.isBlank()) {
+            log.debug("Unable to parse M-Pesa completion time: {}", value);
+        }
+        return completedAt;
+    }
+}
@@ -0,0 +1,243 @@
+package com.sarafrika.apps.mpesaservice.services.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaReversalDto;
+import com.sarafrika.apps.mpesaservice.dtos.TransactionReversalResponse;
+import com.sarafrika.apps.mpesaservice.dtos.TransactionReversalResultData;
+import com.sarafrika.apps.mpesaservice.dtos.TransactionReversalTimeoutCallback;
+import com.sarafrika.apps.mpesaservice.models.MpesaReversal;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaReversalRepository;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaShortCodeRepository;
+import com.sarafrika.apps.mpesaservice.services.MpesaDarajaService;
+import com.sarafrika.apps.mpesaservice.services.MpesaReversalService;
+import com.sarafrika.apps.mpesaservice.services.support.ReversalResultParkingLot;
+import com.sarafrika.apps.mpesaservice.utils.enums.ReversalStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Default implementation of {@link MpesaReversalService}.
+ * <p>
+ * Duplicate reversal requests are coalesced at two levels. On one node, concurrent requests
+ * for the same receipt share the first request's outcome without touching the database. Across
+ * nodes, the partial unique index on the receipt lets exactly one request claim it; the others
+ * join the reversal already in flight. Either way only one Daraja call is made per receipt
+ * until that reversal fails. Nothing here holds a transaction open across the Daraja call.
+ * </p>
+ */
+@Service
+@Slf4j
+public class MpesaReversalServiceImpl implements MpesaReversalService {
+
+    // Refusals that prove Daraja never took the reversal on
+    private static final Set<String> REFUSED = Set.of(
+            "AUTH_FAILED", "CLIENT_ERROR", "RATE_LIMITED", "INVALID_ARGUMENT");
+
+    private final MpesaReversalRepository repository;
+    private final MpesaShortCodeRepository shortCodeRepository;
+    private final MpesaDarajaService darajaService;
+    private final ReversalResultParkingLot parkingLot;
+    private final ObjectMapper objectMapper;
+    private final Duration staleAfter;
+
+    private final Map<String, CompletableFuture<MpesaReversalDto>> inFlight = new ConcurrentHashMap<>();
+
+    public MpesaReversalServiceImpl(MpesaReversalRepository repository,
+                                    MpesaShortCodeRepository shortCodeRepository,
+                                    MpesaDarajaService darajaService,
+                                    ReversalResultParkingLot parkingLot,
+                                    ObjectMapper objectMapper,
+                                    @Value("${mpesa.reversal.stale-after:PT10M}") Duration staleAfter) {
+        this.repository = repository;
+        this.shortCodeRepository = shortCodeRepository;
+        this.darajaService = darajaService;
+        this.parkingLot = parkingLot;
+        this.objectMapper = objectMapper;
+        this.staleAfter = staleAfter;
+    }
+
+    @Override
+    public MpesaReversalDto requestReversal(UUID shortcodeUuid, String transactionId, BigDecimal amount,
+                                            String remarks) {
+        if (transactionId == null || transactionId.isBlank()) {
+            throw new IllegalArgumentException("transaction_id is required");
+        }
+        if (amount == null || amount.signum() <= 0) {
+            throw new IllegalArgumentException("amount must be greater than zero");
+        }
+        if (shortCodeRepository.findByUuid(shortcodeUuid).isEmpty()) {
+            throw new IllegalArgumentException("Shortcode not found: " + shortcodeUuid);
+        }
+        String receipt = transactionId.trim();
+
+        CompletableFuture<MpesaReversalDto> mine = new CompletableFuture<>();
+        CompletableFuture<MpesaReversalDto> running = inFlight.putIfAbsent(receipt, mine);
+        if (running != null) {
+            log.info("Reversal of {} already in flight on this node, joining it", receipt);
+            try {
+                return withCoalesced(running.join());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        try {
+            MpesaReversalDto outcome = claimAndSend(shortcodeUuid, receipt, amount, remarks);
+            mine.complete(outcome);
+            return outcome;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(receipt, mine);
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public MpesaReversalDto getByUuid(UUID uuid) {
+        return repository.findByUuid(uuid)
+                .map(reversal -> MpesaReversalDto.from(reversal, false))
+                .orElseThrow(() -> new IllegalArgumentException("Reversal not found: " + uuid));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<MpesaReversalDto> findByTransactionId(String transactionId) {
+        return repository.findByOriginalTransactionIdOrderByIdDesc(transactionId).stream()
+                .map(reversal -> MpesaReversalDto.from(reversal, false))
+                .toList();
+    }
+
+    @Override
+    public boolean applyResult(TransactionReversalResultData result) {
+        ReversalStatus status = result.isSuccessful() ? ReversalStatus.SUCCESS : ReversalStatus.FAILED;
+        String raw = toJson(result);
+        Optional<MpesaReversal> settled = repository.complete(result.conversationId(),
+                result.originatorConversationId(), status.name(), result.resultCode(), result.resultDesc(),
+                result.isSuccessful() ? result.transactionId() : null, raw);
+        if (settled.isPresent()) {
+            logSettled(settled.get());
+            return true;
+        }
+        if (repository.existsByConversation(result.conversationId(), result.originatorConversationId())) {
+            log.info("Reversal result for {} ignored, reversal already settled", result.conversationId());
+            return false;
+        }
+        // The result beat the acceptance update; applied as soon as the acceptance is recorded
+        if (result.conversationId() != null) {
+            parkingLot.park(result.conversationId(), result);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean applyTimeout(TransactionReversalTimeoutCallback timeout) {
+        // Daraja calls the queue timeout URL when the request expired before it was processed,
+        // so the receipt was not reversed and a new reversal may be raised
+        Optional<MpesaReversal> settled = repository.complete(timeout.conversationId(),
+                timeout.originatorConversationId(), ReversalStatus.FAILED.name(), timeout.resultCode(),
+                "Timed out in Daraja queue: " + timeout.resultDesc(), null, toJson(timeout));
+        settled.ifPresent(this::logSettled);
+        return settled.isPresent();
+    }
+
+    // ==================== HELPERS ====================
+
+    private MpesaReversalDto claimAndSend(UUID shortcodeUuid, String receipt, BigDecimal amount, String remarks) {
+        Optional<MpesaReversal> claimed = repository.claim(shortcodeUuid, receipt, amount, remarks)
+                .or(() -> repository.takeOverStale(receipt, LocalDateTime.now().minus(staleAfter)));
+        if (claimed.isEmpty()) {
+            Optional<MpesaReversal> live = repository.joinLive(receipt);
+            if (live.isPresent()) {
+                log.info("Reversal of {} already {}, request coalesced", receipt, live.get().getStatus());
+                return MpesaReversalDto.from(live.get(), true);
+            }
+            // The live reversal failed between our claim and join; the receipt is free again
+            claimed = repository.claim(shortcodeUuid, receipt, amount, remarks);
+            if (claimed.isEmpty()) {
+                throw new IllegalStateException("Reversal of " + receipt + " is contended, retry shortly");
+            }
+        }
+
+        MpesaReversal reversal = claimed.get();
+        if (reversal.getIncomingPaymentId() == null && reversal.getOutgoingPaymentId() == null) {
+            log.info("Reversing {}, which was not received or paid through this service", receipt);
+        }
+
+        MpesaApiResponse<TransactionReversalResponse> response;
+        try {
+            response = darajaService.reverseTransaction(shortcodeUuid, receipt, amount, remarks);
+        } catch (RuntimeException e) {
+            log.error("Reversal of {} outcome unknown, left REQUESTED: {}", receipt, e.getMessage(), e);
+            return reload(reversal.getId(), false);
+        }
+
+        if (response.success() && response.data() != null) {
+            TransactionReversalResponse accepted = response.data();
+            repository.markAccepted(reversal.getId(), accepted.conversationId(), accepted.originatorConversationId());
+            if (accepted.conversationId() != null) {
+                parkingLot.take(accepted.conversationId())
+                        .ifPresent(parked -> applyResult((TransactionReversalResultData) parked.callbackData()));
+            }
+        } else {
+            String code = response.error() != null ? response.error().errorCode() : null;
+            String message = response.error() != null ? response.error().errorMessage() : "HTTP " + response.httpStatus();
+            if (REFUSED.contains(code)) {
+                repository.markRejected(reversal.getId(), code + ": " + message);
+            } else {
+                // Timeout or 5xx: it may have been taken on, so the receipt stays held until
+                // its result arrives or the claim goes stale
+                log.warn("Reversal of {} outcome unknown ({}: {}), left REQUESTED", receipt, code, message);
+            }
+        }
+        return reload(reversal.getId(), false);
+    }
+
+    private MpesaReversalDto reload(Long id, boolean coalesced) {
+        return repository.findById(id)
+                .map(reversal -> MpesaReversalDto.from(reversal, coalesced))
+                .orElseThrow(() -> new IllegalStateException("Reversal disappeared: " + id));
+    }
+
+    private static MpesaReversalDto withCoalesced(MpesaReversalDto dto) {
+        return new MpesaReversalDto(dto.uuid(), dto.shortcodeUuid(), dto.originalTransactionId(), dto.amount(),
+                dto.status(), dto.incomingPaymentId(), dto.outgoingPaymentId(), dto.conversationId(),
+                dto.reversalTransactionId(), dto.resultCode(), dto.resultDesc(), dto.coalescedRequests(), true,
+                dto.completedAt(), dto.createdAt());
+    }
+
+    private void logSettled(MpesaReversal reversal) {
+        String original = reversal.getIncomingPaymentId() != null
+                ? "incoming payment " + reversal.getIncomingPaymentId()
+                : reversal.getOutgoingPaymentId() != null
+                ? "outgoing payment " + reversal.getOutgoingPaymentId()
+                : "an untracked transaction";
+        log.info("Reversal {} of {} ({}) -> {}", reversal.getUuid(), reversal.getOriginalTransactionId(), original,
+                reversal.getStatus());
+    }
+
+    private String toJson(Object callback) {
+        try {
+            return objectMapper.writeValueAsString(callback);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Unable to serialise reversal callback", e);
+        }
+    }
+}
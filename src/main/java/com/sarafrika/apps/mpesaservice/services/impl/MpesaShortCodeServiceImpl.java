@@ -8,6 +8,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -96,6 +97,22 @@ public class MpesaShortCodeServiceImpl implements MpesaShortCodeService {
                 .map(this::convertToDto);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public Slice<MpesaShortCodeDto> findAllSlice(Pageable pageable) {
+        log.debug("Finding M-Pesa shortcode slice: {}", pageable);
+        return shortCodeRepository.findSliceBy(pageable)
+                .map(this::convertToDto);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Slice<MpesaShortCodeDto> findAllActiveSlice(Pageable pageable) {
+        log.debug("Finding active M-Pesa shortcode slice: {}", pageable);
+        return shortCodeRepository.findSliceByIsActiveTrue(pageable)
+                .map(this::convertToDto);
+    }
+
     @Override
     public void deleteByUuid(UUID uuid) {
         log.info("Soft deleting M-Pesa shortcode with UUID: {}", uuid);
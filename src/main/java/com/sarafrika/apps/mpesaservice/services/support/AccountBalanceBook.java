@@ -0,0 +1,225 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sarafrika.apps.mpesaservice.dtos.AccountBalanceEntry;
+import com.sarafrika.apps.mpesaservice.dtos.AccountBalanceResponse;
+import com.sarafrika.apps.mpesaservice.dtos.AccountBalanceResultData;
+import com.sarafrika.apps.mpesaservice.dtos.AccountBalanceSnapshot;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.models.MpesaShortCode;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaShortCodeRepository;
+import com.sarafrika.apps.mpesaservice.services.MpesaDarajaService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory read model of each shortcode's latest account balances.
+ * <p>
+ * Balance results only name their conversation, so the shortcode is known from the query that
+ * was listened for: the scheduled refresh and the synchronous balance endpoint both record here.
+ * Each recorded snapshot is broadcast over PostgreSQL NOTIFY so every node serves the same
+ * balances, and a node skips refreshing any shortcode whose snapshot is already fresh, so in
+ * steady state one node's refresh feeds the whole cluster. The utility account's available
+ * balance also feeds the {@link B2CFundsLedger}.
+ * </p>
+ */
+@Component
+@Slf4j
+public class AccountBalanceBook {
+
+    static final String CHANNEL = "mpesa_account_balances";
+    static final String UTILITY_ACCOUNT = "Utility Account";
+
+    private static final int PAGE_SIZE = 100;
+
+    private final ObjectMapper objectMapper;
+    private final PostgresNotificationChannel channel;
+    private final DarajaResultCorrelator resultCorrelator;
+    private final B2CFundsLedger fundsLedger;
+    private final MpesaShortCodeRepository shortCodeRepository;
+    private final ObjectProvider<MpesaDarajaService> darajaService;
+    private final boolean refreshEnabled;
+    private final Duration refreshInterval;
+    private final Duration resultTimeout;
+    private final ExecutorService refreshers;
+
+    private final Map<UUID, AccountBalanceSnapshot> latest = new ConcurrentHashMap<>();
+
+    public AccountBalanceBook(
+            ObjectMapper objectMapper,
+            PostgresNotificationChannel channel,
+            DarajaResultCorrelator resultCorrelator,
+            B2CFundsLedger fundsLedger,
+            MpesaShortCodeRepository shortCodeRepository,
+            ObjectProvider<MpesaDarajaService> darajaService,
+            @Value("${mpesa.balance.refresh.enabled:true}") boolean refreshEnabled,
+            @Value("${mpesa.balance.refresh.interval:PT5M}") Duration refreshInterval,
+            @Value("${mpesa.balance.refresh.result-timeout:PT60S}") Duration resultTimeout,
+            @Value("${mpesa.balance.refresh.threads:4}") int threads) {
+        this.objectMapper = objectMapper;
+        this.channel = channel;
+        this.resultCorrelator = resultCorrelator;
+        this.fundsLedger = fundsLedger;
+        this.shortCodeRepository = shortCodeRepository;
+        this.darajaService = darajaService;
+        this.refreshEnabled = refreshEnabled;
+        this.refreshInterval = refreshInterval;
+        this.resultTimeout = resultTimeout;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.refreshers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "balance-refresh-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        channel.subscribe(CHANNEL, this::onNotification);
+    }
+
+    @PreDestroy
+    public void stop() {
+        refreshers.shutdownNow();
+    }
+
+    /**
+     * Latest balances of a shortcode, with their age measured now
+     */
+    public Optional<AccountBalanceSnapshot> latest(UUID shortcodeUuid) {
+        AccountBalanceSnapshot snapshot = latest.get(shortcodeUuid);
+        return snapshot == null ? Optional.empty() : Optional.of(snapshot.agedAt(LocalDateTime.now()));
+    }
+
+    /**
+     * Latest balances of every shortcode seen, oldest first
+     */
+    public List<AccountBalanceSnapshot> latestAll() {
+        LocalDateTime now = LocalDateTime.now();
+        return latest.values().stream()
+                .map(snapshot -> snapshot.agedAt(now))
+                .sorted(Comparator.comparingLong(AccountBalanceSnapshot::ageMs).reversed())
+                .toList();
+    }
+
+    /**
+     * Record a successful balance result for a shortcode, here and on every other node
+     */
+    public AccountBalanceSnapshot record(UUID shortcodeUuid, AccountBalanceResultData result) {
+        List<AccountBalanceEntry> accounts = result.resultParameters() != null
+                ? result.resultParameters().getAccountBalances() : List.of();
+        LocalDateTime completedAt = result.resultParameters() != null
+                ? result.resultParameters().getCompletedAt() : null;
+        AccountBalanceSnapshot snapshot = new AccountBalanceSnapshot(shortcodeUuid, accounts, completedAt,
+                LocalDateTime.now(), 0);
+        apply(snapshot);
+        try {
+            channel.publish(CHANNEL, objectMapper.writeValueAsString(snapshot));
+        } catch (JsonProcessingException e) {
+            log.warn("Could not broadcast balance snapshot for {}: {}", shortcodeUuid, e.getMessage());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Query a shortcode's balance and record the result when it arrives
+     */
+    public CompletableFuture<AccountBalanceSnapshot> refresh(UUID shortcodeUuid) {
+        MpesaApiResponse<AccountBalanceResponse> initiated = darajaService.getObject()
+                .queryAccountBalance(shortcodeUuid, "Scheduled balance refresh");
+        if (!initiated.success() || initiated.data() == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Balance query not accepted: "
+                    + (initiated.error() != null ? initiated.error().errorMessage() : "no response")));
+        }
+        return resultCorrelator.listen(initiated.data().conversationId(),
+                        initiated.data().originatorConversationId(), resultTimeout)
+                .thenApply(correlated -> {
+                    AccountBalanceResultData result;
+                    try {
+                        result = objectMapper.treeToValue(correlated.body(), AccountBalanceResultData.class);
+                    } catch (JsonProcessingException e) {
+                        throw new IllegalStateException("Unreadable balance result", e);
+                    }
+                    if (correlated.timedOut() || !result.isSuccessful()) {
+                        throw new IllegalStateException("Balance query failed: " + result.resultDesc());
+                    }
+                    return record(shortcodeUuid, result);
+                });
+    }
+
+    /**
+     * Refresh, in parallel, every active shortcode whose snapshot is older than half the interval.
+     * The half-interval skip lets a snapshot broadcast by another node stand in for our own query.
+     */
+    @Scheduled(fixedDelayString = "${mpesa.balance.refresh.interval:PT5M}",
+            initialDelayString = "${mpesa.balance.refresh.initial-delay:PT30S}")
+    public void refreshAll() {
+        if (!refreshEnabled) {
+            return;
+        }
+        LocalDateTime staleBefore = LocalDateTime.now().minus(refreshInterval.dividedBy(2));
+        int page = 0;
+        Slice<MpesaShortCode> shortcodes;
+        do {
+            shortcodes = shortCodeRepository.findSliceByIsActiveTrue(PageRequest.of(page++, PAGE_SIZE, Sort.by("id")));
+            for (MpesaShortCode shortcode : shortcodes) {
+                AccountBalanceSnapshot current = latest.get(shortcode.getUuid());
+                if (current != null && current.receivedAt().isAfter(staleBefore)) {
+                    continue;
+                }
+                CompletableFuture.supplyAsync(() -> refresh(shortcode.getUuid()), refreshers)
+                        .thenCompose(future -> future)
+                        .whenComplete((snapshot, error) -> {
+                            if (error != null) {
+                                log.warn("Balance refresh for shortcode {} failed: {}", shortcode.getUuid(),
+                                        error.getMessage());
+                            }
+                        });
+            }
+        } while (shortcodes.hasNext());
+    }
+
+    private void apply(AccountBalanceSnapshot snapshot) {
+        AccountBalanceSnapshot kept = latest.merge(snapshot.shortcodeUuid(), snapshot,
+                (existing, incoming) -> isNewer(incoming, existing) ? incoming : existing);
+        if (kept == snapshot) {
+            BigDecimal utility = snapshot.availableBalance(UTILITY_ACCOUNT);
+            if (utility != null) {
+                fundsLedger.recordFunds(snapshot.shortcodeUuid(), utility, snapshot.completedAt());
+            }
+        }
+    }
+
+    private static boolean isNewer(AccountBalanceSnapshot incoming, AccountBalanceSnapshot existing) {
+        if (incoming.completedAt() != null && existing.completedAt() != null) {
+            return !incoming.completedAt().isBefore(existing.completedAt());
+        }
+        return !incoming.receivedAt().isBefore(existing.receivedAt());
+    }
+
+    private void onNotification(String payload) {
+        try {
+            apply(objectMapper.readValue(payload, AccountBalanceSnapshot.class));
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring unreadable balance notification: {}", e.getMessage());
+        }
+    }
+}
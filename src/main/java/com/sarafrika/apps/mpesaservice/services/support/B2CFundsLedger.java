@@ -0,0 +1,158 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-shortcode view of B2C utility account funds, used to refuse payouts that would overdraw.
+ * <p>
+ * The balance comes from the {@code B2CUtilityAccountAvailableFunds} of each result callback (and
+ * balance queries), and every admitted payout is reserved against it until its own result
+ * arrives. A reservation whose payment already completed is still subtracted until its callback
+ * lands, so the estimate only ever errs low. Snapshots expire after {@code snapshot-ttl}; a
+ * shortcode with no fresh snapshot is not limited, so a top-up can never be locked out by a stale
+ * low balance.
+ * </p>
+ * <p>
+ * The ledger is per node: other nodes' in-flight payouts are not reserved here, only reflected in
+ * the balance once their results come back.
+ * </p>
+ */
+@Component
+@Slf4j
+public class B2CFundsLedger {
+
+    private final Duration snapshotTtl;
+    private final Duration reservationTtl;
+
+    private final Map<UUID, Account> accounts = new ConcurrentHashMap<>();
+    private final Map<String, Reservation> reservations = new ConcurrentHashMap<>();
+
+    public B2CFundsLedger(@Value("${mpesa.funds.snapshot-ttl:PT15M}") Duration snapshotTtl,
+                          @Value("${mpesa.funds.reservation-ttl:PT30M}") Duration reservationTtl) {
+        this.snapshotTtl = snapshotTtl;
+        this.reservationTtl = reservationTtl;
+    }
+
+    /**
+     * Reserve {@code amount} for a payout about to be sent under {@code key}. Returns false, reserving
+     * nothing, if the shortcode's known funds cannot cover it after the payouts already in flight.
+     */
+    public boolean tryReserve(UUID shortcodeUuid, String key, BigDecimal amount) {
+        Account account = accounts.computeIfAbsent(shortcodeUuid, k -> new Account());
+        synchronized (account) {
+            if (account.isFresh(snapshotTtl)
+                    && account.funds.subtract(account.reserved).compareTo(amount) < 0) {
+                return false;
+            }
+            account.reserved = account.reserved.add(amount);
+        }
+        reservations.put(key, new Reservation(shortcodeUuid, amount, Instant.now()));
+        return true;
+    }
+
+    /**
+     * Move a reservation made under a provisional key to the OriginatorConversationID Daraja assigned
+     */
+    public void rekey(String provisionalKey, String key) {
+        Reservation reservation = reservations.remove(provisionalKey);
+        if (reservation != null) {
+            reservations.put(key, reservation);
+        }
+    }
+
+    /**
+     * Drop the reservation for a payout that will not be paid (rejected before or on submission)
+     */
+    public void release(String key) {
+        Reservation reservation = reservations.remove(key);
+        if (reservation != null) {
+            Account account = accounts.get(reservation.shortcodeUuid());
+            if (account != null) {
+                synchronized (account) {
+                    account.reserved = account.reserved.subtract(reservation.amount()).max(BigDecimal.ZERO);
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply a payout's result: release its reservation and take the funds it reports, if any,
+     * as the shortcode's new balance. Results older than the current snapshot do not replace it.
+     */
+    public void settle(UUID shortcodeUuid, String key, BigDecimal utilityFunds, LocalDateTime reportedAt) {
+        release(key);
+        if (shortcodeUuid != null && utilityFunds != null) {
+            recordFunds(shortcodeUuid, utilityFunds, reportedAt);
+        }
+    }
+
+    /**
+     * Take a reported utility account balance as the shortcode's funds
+     */
+    public void recordFunds(UUID shortcodeUuid, BigDecimal utilityFunds, LocalDateTime reportedAt) {
+        LocalDateTime asOf = reportedAt != null ? reportedAt : LocalDateTime.now();
+        Account account = accounts.computeIfAbsent(shortcodeUuid, k -> new Account());
+        synchronized (account) {
+            if (account.reportedAt != null && asOf.isBefore(account.reportedAt)) {
+                return;
+            }
+            account.funds = utilityFunds;
+            account.reportedAt = asOf;
+            account.receivedAt = Instant.now();
+        }
+    }
+
+    /**
+     * Funds this node believes are free for new payouts, or empty when no fresh snapshot exists
+     */
+    public Optional<BigDecimal> available(UUID shortcodeUuid) {
+        Account account = accounts.get(shortcodeUuid);
+        if (account == null) {
+            return Optional.empty();
+        }
+        synchronized (account) {
+            return account.isFresh(snapshotTtl)
+                    ? Optional.of(account.funds.subtract(account.reserved))
+                    : Optional.empty();
+        }
+    }
+
+    /**
+     * Release reservations whose result never arrived, so a lost callback cannot hold funds forever
+     */
+    @Scheduled(fixedDelayString = "${mpesa.funds.sweep-interval-ms:60000}")
+    public void sweep() {
+        Instant cutoff = Instant.now().minus(reservationTtl);
+        reservations.forEach((key, reservation) -> {
+            if (reservation.reservedAt().isBefore(cutoff)) {
+                log.debug("Releasing expired funds reservation {}", key);
+                release(key);
+            }
+        });
+    }
+
+    private static final class Account {
+        private BigDecimal funds = BigDecimal.ZERO;
+        private BigDecimal reserved = BigDecimal.ZERO;
+        private LocalDateTime reportedAt;
+        private Instant receivedAt;
+
+        private boolean isFresh(Duration ttl) {
+            return receivedAt != null && receivedAt.plus(ttl).isAfter(Instant.now());
+        }
+    }
+
+    private record Reservation(UUID shortcodeUuid, BigDecimal amount, Instant reservedAt) {}
+}
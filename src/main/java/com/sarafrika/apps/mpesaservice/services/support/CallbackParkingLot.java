@@ -0,0 +1,89 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Holds callbacks that arrived before the row they resolve was committed.
+ * <p>
+ * Daraja only hands out the correlation id (CheckoutRequestID, OriginatorConversationID) in
+ * its response, and the PENDING row is written after that response, so a fast result can
+ * land first. Such callbacks are parked here under that id and applied as soon as the row is
+ * written. The store is bounded and insertion-ordered; since every entry has the same TTL,
+ * insertion order is also expiry order and the sweeper only ever inspects the head.
+ * </p>
+ */
+@Slf4j
+public class CallbackParkingLot {
+
+    private final String name;
+    private final int maxEntries;
+    private final Duration ttl;
+
+    private final LinkedHashMap<String, ParkedCallback> parked = new LinkedHashMap<>();
+
+    public CallbackParkingLot(String name, int maxEntries, Duration ttl) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Parked callback payload with the time it arrived
+     */
+    public record ParkedCallback(String key, Object callbackData, Instant parkedAt) {}
+
+    /**
+     * Park a callback. A redelivery for the same key keeps the first result.
+     */
+    public synchronized void park(String key, Object callbackData) {
+        if (parked.containsKey(key)) {
+            return;
+        }
+        if (parked.size() >= maxEntries) {
+            Iterator<ParkedCallback> oldest = parked.values().iterator();
+            ParkedCallback evicted = oldest.next();
+            oldest.remove();
+            log.error("{} parking lot full ({} entries); evicted unmatched callback for {}, payload: {}",
+                    name, maxEntries, evicted.key(), evicted.callbackData());
+        }
+        parked.put(key, new ParkedCallback(key, callbackData, Instant.now()));
+        log.info("Parked early {} callback for {}", name, key);
+    }
+
+    /**
+     * Remove and return the parked callback for a key, if any.
+     * Removal is atomic, so exactly one caller gets to apply a parked result.
+     */
+    public synchronized Optional<ParkedCallback> take(String key) {
+        return Optional.ofNullable(parked.remove(key));
+    }
+
+    public synchronized int size() {
+        return parked.size();
+    }
+
+    /**
+     * Expire callbacks whose PENDING row never appeared. These are logged in full so the
+     * result can still be reconciled by hand or against a status query.
+     */
+    public synchronized void sweep() {
+        Instant cutoff = Instant.now().minus(ttl);
+        Iterator<Map.Entry<String, ParkedCallback>> it = parked.entrySet().iterator();
+        while (it.hasNext()) {
+            ParkedCallback entry = it.next().getValue();
+            if (entry.parkedAt().isAfter(cutoff)) {
+                break;
+            }
+            it.remove();
+            log.error("Expired unmatched {} callback for {} parked at {}, payload: {}",
+                    name, entry.key(), entry.parkedAt(), entry.callbackData());
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Lets a caller wait synchronously on an asynchronous Daraja result.
+ * <p>
+ * B2C, B2B, transaction status, account balance and reversal requests are only acknowledged
+ * with a ConversationID; the outcome arrives later on a result or timeout callback, possibly
+ * on another node. Waiters register a future under both the ConversationID and the
+ * OriginatorConversationID. Callbacks complete local waiters directly and are fanned out to
+ * other nodes over PostgreSQL NOTIFY. Results that arrive before anyone waits (the callback
+ * can beat the initiation response) are kept briefly so a late waiter still receives them.
+ * </p>
+ */
+@Component
+@Slf4j
+public class DarajaResultCorrelator {
+
+    static final String CHANNEL = "mpesa_daraja_results";
+
+    private final ObjectMapper objectMapper;
+    private final PostgresNotificationChannel channel;
+    private final Duration maxWait;
+    private final Duration retention;
+    private final int maxRetained;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Map<String, CompletableFuture<CorrelatedResult>> waiters = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Retained> unclaimed = new LinkedHashMap<>();
+
+    public DarajaResultCorrelator(
+            ObjectMapper objectMapper,
+            PostgresNotificationChannel channel,
+            @Value("${mpesa.correlation.max-wait:PT60S}") Duration maxWait,
+            @Value("${mpesa.correlation.retention:PT2M}") Duration retention,
+            @Value("${mpesa.correlation.max-retained:10000}") int maxRetained) {
+        this.objectMapper = objectMapper;
+        this.channel = channel;
+        this.maxWait = maxWait;
+        this.retention = retention;
+        this.maxRetained = maxRetained;
+        channel.subscribe(CHANNEL, this::onNotification);
+    }
+
+    /**
+     * A result or timeout callback body, keyed by its conversation ids
+     */
+    public record CorrelatedResult(String conversationId, String originatorConversationId,
+                                   boolean timedOut, JsonNode body) {}
+
+    private record Retained(CorrelatedResult result, Instant receivedAt) {}
+
+    /**
+     * Block until the result for the given conversation arrives, or {@code timeout} passes
+     * (capped at the configured maximum). A Daraja timeout callback becomes a 504 error and an
+     * expired wait a 202 RESULT_PENDING, after which the result can still be awaited again by
+     * ConversationID for a short while.
+     */
+    public <T> MpesaApiResponse<T> await(String conversationId, String originatorConversationId,
+                                         Class<T> type, Duration timeout) {
+        long startTime = System.currentTimeMillis();
+        String label = conversationId != null ? conversationId : originatorConversationId;
+        CompletableFuture<CorrelatedResult> future = expect(conversationId, originatorConversationId);
+        try {
+            Duration wait = timeout.compareTo(maxWait) > 0 ? maxWait : timeout;
+            CorrelatedResult result = future.get(wait.toMillis(), TimeUnit.MILLISECONDS);
+            long processingTime = System.currentTimeMillis() - startTime;
+            if (result.timedOut()) {
+                return MpesaApiResponse.error("DARAJA_TIMEOUT", result.body().path("ResultDesc").asText(
+                        "Daraja reported a timeout"), HttpStatus.GATEWAY_TIMEOUT.value(), processingTime);
+            }
+            return MpesaApiResponse.success(objectMapper.treeToValue(result.body(), type),
+                    HttpStatus.OK.value(), processingTime);
+        } catch (TimeoutException e) {
+            return MpesaApiResponse.error("RESULT_PENDING", "No result yet for conversation: " + label,
+                    HttpStatus.ACCEPTED.value(), System.currentTimeMillis() - startTime);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return MpesaApiResponse.error("RESULT_PENDING", "Interrupted waiting for conversation: " + label,
+                    HttpStatus.ACCEPTED.value(), System.currentTimeMillis() - startTime);
+        } catch (ExecutionException | JsonProcessingException e) {
+            log.warn("Unreadable result for conversation {}: {}", label, e.getMessage());
+            return MpesaApiResponse.error("INVALID_RESULT", "Unreadable result for conversation: " + label,
+                    HttpStatus.BAD_GATEWAY.value(), System.currentTimeMillis() - startTime);
+        } finally {
+            forget(future, conversationId, originatorConversationId);
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #await}: the returned future completes with the result, or
+     * exceptionally with a {@link TimeoutException} once {@code timeout} (capped at the configured
+     * maximum) passes.
+     */
+    public CompletableFuture<CorrelatedResult> listen(String conversationId, String originatorConversationId,
+                                                      Duration timeout) {
+        CompletableFuture<CorrelatedResult> future = expect(conversationId, originatorConversationId);
+        Duration wait = timeout.compareTo(maxWait) > 0 ? maxWait : timeout;
+        return future.orTimeout(wait.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((result, error) -> forget(future, conversationId, originatorConversationId));
+    }
+
+    /**
+     * Hand a callback body to whoever is waiting for it, here or on another node.
+     */
+    public void publish(String conversationId, String originatorConversationId, boolean timedOut, Object body) {
+        CorrelatedResult result = new CorrelatedResult(conversationId, originatorConversationId, timedOut,
+                objectMapper.valueToTree(body));
+        if (completeLocalOrRetain(result)) {
+            return;
+        }
+
+        ObjectNode message = objectMapper.createObjectNode();
+        message.put("node", nodeId);
+        message.set("result", objectMapper.valueToTree(result));
+        channel.publish(CHANNEL, message.toString());
+    }
+
+    public int waitingCount() {
+        return waiters.size();
+    }
+
+    /**
+     * Registration and delivery share this lock so a result can never slip between a waiter
+     * registering and checking for an early arrival.
+     */
+    private synchronized CompletableFuture<CorrelatedResult> expect(String... ids) {
+        CompletableFuture<CorrelatedResult> future = new CompletableFuture<>();
+        for (String id : ids) {
+            if (id != null) {
+                waiters.put(id, future);
+            }
+        }
+        // A result may have landed before we registered
+        for (String id : ids) {
+            CorrelatedResult early = takeRetained(id);
+            if (early != null) {
+                future.complete(early);
+                break;
+            }
+        }
+        return future;
+    }
+
+    private void forget(CompletableFuture<CorrelatedResult> future, String... ids) {
+        for (String id : ids) {
+            if (id != null) {
+                waiters.remove(id, future);
+            }
+        }
+    }
+
+    private synchronized boolean completeLocalOrRetain(CorrelatedResult result) {
+        if (completeLocal(result)) {
+            return true;
+        }
+        retain(result);
+        return false;
+    }
+
+    private boolean completeLocal(CorrelatedResult result) {
+        boolean completed = false;
+        for (String id : new String[]{result.conversationId(), result.originatorConversationId()}) {
+            if (id == null) {
+                continue;
+            }
+            CompletableFuture<CorrelatedResult> waiter = waiters.get(id);
+            if (waiter != null) {
+                waiter.complete(result);
+                completed = true;
+            }
+        }
+        return completed;
+    }
+
+    private void onNotification(String payload) {
+        try {
+            JsonNode message = objectMapper.readTree(payload);
+            if (nodeId.equals(message.path("node").asText())) {
+                return;
+            }
+            CorrelatedResult result = objectMapper.treeToValue(message.get("result"), CorrelatedResult.class);
+            completeLocalOrRetain(result);
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring unreadable correlation notification: {}", e.getMessage());
+        }
+    }
+
+    private synchronized void retain(CorrelatedResult result) {
+        Retained retained = new Retained(result, Instant.now());
+        for (String id : new String[]{result.conversationId(), result.originatorConversationId()}) {
+            if (id != null) {
+                unclaimed.put(id, retained);
+            }
+        }
+        while (unclaimed.size() > maxRetained) {
+            Iterator<Retained> oldest = unclaimed.values().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    private synchronized CorrelatedResult takeRetained(String id) {
+        Retained retained = unclaimed.remove(id);
+        if (retained == null) {
+            return null;
+        }
+        CorrelatedResult result = retained.result();
+        for (String sibling : new String[]{result.conversationId(), result.originatorConversationId()}) {
+            if (sibling != null) {
+                unclaimed.remove(sibling, retained);
+            }
+        }
+        return result;
+    }
+
+    @Scheduled(fixedDelayString = "${mpesa.correlation.sweep-interval-ms:30000}")
+    public synchronized void sweep() {
+        Instant cutoff = Instant.now().minus(retention);
+        Iterator<Retained> it = unclaimed.values().iterator();
+        while (it.hasNext() && it.next().receivedAt().isBefore(cutoff)) {
+            it.remove();
+        }
+    }
+}
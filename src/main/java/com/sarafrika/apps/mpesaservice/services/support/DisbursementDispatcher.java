@@ -0,0 +1,232 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.sarafrika.apps.mpesaservice.dtos.B2CPaymentResponse;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaDisbursementBatchRepository;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaDisbursementBatchRepository.DispatchableBatch;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaOutgoingPaymentRepository;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaOutgoingPaymentRepository.ClaimedDisbursement;
+import com.sarafrika.apps.mpesaservice.services.MpesaDarajaService;
+import com.sarafrika.apps.mpesaservice.utils.enums.DisbursementBatchStatus;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the QUEUED rows of RUNNING disbursement batches to Daraja.
+ * <p>
+ * One loop thread claims rows with {@code FOR UPDATE SKIP LOCKED}, never more than there are
+ * free sender slots, so every node can work the same batch and at most {@code concurrency}
+ * rows per node are ever DISPATCHING without having been sent. Each send is paced by a
+ * per-shortcode token bucket; the configured rate is per node.
+ * </p>
+ * <p>
+ * Every row carries the OriginatorConversationID it was staged with, so Daraja's answer is
+ * settled by row id and its result callback by that id. A row whose send may have reached
+ * Daraja (timeout, 5xx) stays DISPATCHING and is never sent again: its result callback or a
+ * status query settles it. Only requests that provably never left (no token, HTTP 429, or held
+ * by the {@link B2CFundsLedger}) are returned to the queue, and their shortcode rests for
+ * {@code requeue-backoff} before the next claim.
+ * </p>
+ */
+@Component
+@Slf4j
+public class DisbursementDispatcher {
+
+    private final MpesaDarajaService darajaService;
+    private final MpesaOutgoingPaymentRepository paymentRepository;
+    private final MpesaDisbursementBatchRepository batchRepository;
+    private final boolean enabled;
+    private final int claimSize;
+    private final long pollIntervalMs;
+    private final double ratePerSecond;
+    private final int burst;
+    private final long requeueBackoffMs;
+
+    private final Semaphore slots;
+    private final ExecutorService senders;
+    private final Map<UUID, TokenBucketRateLimiter> limiters = new ConcurrentHashMap<>();
+    // Shortcodes whose last send never left (no token, throttled, short of funds) rest until this time
+    private final Map<UUID, Long> backoffUntil = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+    private Thread loop;
+
+    public DisbursementDispatcher(
+            MpesaDarajaService darajaService,
+            MpesaOutgoingPaymentRepository paymentRepository,
+            MpesaDisbursementBatchRepository batchRepository,
+            @Value("${mpesa.disbursement.enabled:true}") boolean enabled,
+            @Value("${mpesa.disbursement.concurrency:16}") int concurrency,
+            @Value("${mpesa.disbursement.rate-per-second:20}") double ratePerSecond,
+            @Value("${mpesa.disbursement.burst:20}") int burst,
+            @Value("${mpesa.disbursement.claim-size:50}") int claimSize,
+            @Value("${mpesa.disbursement.poll-interval-ms:1000}") long pollIntervalMs,
+            @Value("${mpesa.disbursement.requeue-backoff:PT5S}") Duration requeueBackoff) {
+        this.darajaService = darajaService;
+        this.paymentRepository = paymentRepository;
+        this.batchRepository = batchRepository;
+        this.enabled = enabled;
+        this.claimSize = claimSize;
+        this.pollIntervalMs = pollIntervalMs;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.requeueBackoffMs = requeueBackoff.toMillis();
+        this.slots = new Semaphore(concurrency);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread thread = new Thread(r, "disbursement-sender-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        loop = new Thread(this::dispatchLoop, "disbursement-dispatcher");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (loop != null) {
+            loop.interrupt();
+        }
+        senders.shutdownNow();
+        senders.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            int claimed = 0;
+            try {
+                for (DispatchableBatch batch : batchRepository.findDispatchable(DisbursementBatchStatus.RUNNING)) {
+                    if (!running) {
+                        return;
+                    }
+                    if (backoffUntil.getOrDefault(batch.getShortcodeUuid(), 0L) > System.currentTimeMillis()) {
+                        continue;
+                    }
+                    claimed += dispatchBatch(batch);
+                }
+                batchRepository.completeFinished();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                log.error("Disbursement dispatch round failed: {}", e.getMessage(), e);
+            }
+            if (claimed == 0) {
+                try {
+                    Thread.sleep(pollIntervalMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Claim as many rows of one batch as there are free sender slots and hand them to the senders
+     */
+    int dispatchBatch(DispatchableBatch batch) throws InterruptedException {
+        slots.acquire();
+        int free = 1 + slots.drainPermits();
+        int wanted = Math.min(claimSize, free);
+        slots.release(free - wanted);
+        List<ClaimedDisbursement> rows;
+        try {
+            rows = paymentRepository.claimQueued(batch.getId(), wanted);
+        } catch (RuntimeException e) {
+            slots.release(wanted);
+            throw e;
+        }
+        slots.release(wanted - rows.size());
+        for (ClaimedDisbursement row : rows) {
+            senders.execute(() -> {
+                try {
+                    send(batch, row);
+                } finally {
+                    slots.release();
+                }
+            });
+        }
+        return rows.size();
+    }
+
+    void send(DispatchableBatch batch, ClaimedDisbursement row) {
+        try {
+            limiters.computeIfAbsent(batch.getShortcodeUuid(), k -> new TokenBucketRateLimiter(ratePerSecond, burst))
+                    .acquire();
+        } catch (InterruptedException e) {
+            paymentRepository.requeue(row.getId());
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        MpesaApiResponse<B2CPaymentResponse> response;
+        try {
+            response = darajaService.dispatchB2CPayment(batch.getShortcodeUuid(), row.getOriginatorConversationId(),
+                    row.getRecipientPhoneNumber(), row.getAmount(), batch.getCommandId(), row.getRemarks(),
+                    row.getOccasion());
+        } catch (RuntimeException e) {
+            // Send failures come back as a response, so this was thrown before anything reached Daraja
+            log.error("Bulk B2C {} not sent, requeued: {}", row.getOriginatorConversationId(), e.getMessage(), e);
+            backoffUntil.put(batch.getShortcodeUuid(), System.currentTimeMillis() + requeueBackoffMs);
+            paymentRepository.requeue(row.getId());
+            return;
+        }
+
+        if (response.success()) {
+            paymentRepository.markAccepted(row.getId(),
+                    response.data() != null ? response.data().conversationId() : null);
+            return;
+        }
+
+        String code = response.error() != null ? response.error().errorCode() : null;
+        String message = response.error() != null ? response.error().errorMessage() : null;
+        if (neverSent(code)) {
+            if ("INSUFFICIENT_FUNDS".equals(code)) {
+                log.info("Bulk B2C {} held until the shortcode's funds cover it", row.getOriginatorConversationId());
+            } else {
+                log.warn("Bulk B2C {} not sent ({}), requeued", row.getOriginatorConversationId(), code);
+            }
+            backoffUntil.put(batch.getShortcodeUuid(), System.currentTimeMillis() + requeueBackoffMs);
+            paymentRepository.requeue(row.getId());
+        } else if ("CLIENT_ERROR".equals(code) || "INVALID_ARGUMENT".equals(code)) {
+            paymentRepository.markRejected(row.getId(), message);
+        } else {
+            log.warn("Bulk B2C {} outcome unknown ({}: {}), left DISPATCHING for its result or a status query",
+                    row.getOriginatorConversationId(), code, message);
+        }
+    }
+
+    /**
+     * Whether a failed dispatch provably never reached Daraja and is safe to send again
+     */
+    static boolean neverSent(String errorCode) {
+        return "AUTH_FAILED".equals(errorCode)
+                || "NOT_SENT".equals(errorCode)
+                || "INSUFFICIENT_FUNDS".equals(errorCode)
+                || "RATE_LIMITED".equals(errorCode);
+    }
+}
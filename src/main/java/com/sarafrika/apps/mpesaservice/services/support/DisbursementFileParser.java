@@ -0,0 +1,154 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sarafrika.apps.mpesaservice.dtos.DisbursementLine;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams disbursement lines out of an upload without buffering the whole file.
+ * <p>
+ * JSON uploads may be a single array or newline-delimited objects; both are read one value at a
+ * time. CSV uploads are {@code phone_number,amount[,remarks]} with an optional header row and
+ * double-quoted fields. Malformed lines are returned with a null amount so the caller can reject
+ * them individually rather than failing the whole upload.
+ * </p>
+ */
+@Component
+public class DisbursementFileParser {
+
+    private final ObjectMapper objectMapper;
+
+    public DisbursementFileParser(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public Iterator<DisbursementLine> parseJson(InputStream body) {
+        try {
+            MappingIterator<DisbursementLine> values = objectMapper.readerFor(DisbursementLine.class).readValues(body);
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    try {
+                        return values.hasNextValue();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public DisbursementLine next() {
+                    try {
+                        return values.nextValue();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Iterator<DisbursementLine> parseCsv(InputStream body) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        return new Iterator<>() {
+            private DisbursementLine nextLine;
+            private boolean first = true;
+
+            @Override
+            public boolean hasNext() {
+                if (nextLine != null) {
+                    return true;
+                }
+                try {
+                    String raw;
+                    while ((raw = reader.readLine()) != null) {
+                        if (raw.isBlank()) {
+                            continue;
+                        }
+                        List<String> fields = splitCsv(raw);
+                        boolean header = first && fields.size() > 1 && !looksNumeric(fields.get(1));
+                        first = false;
+                        if (header) {
+                            continue;
+                        }
+                        nextLine = new DisbursementLine(
+                                field(fields, 0),
+                                looksNumeric(field(fields, 1)) ? new BigDecimal(field(fields, 1)) : null,
+                                field(fields, 2));
+                        return true;
+                    }
+                    return false;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public DisbursementLine next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                DisbursementLine line = nextLine;
+                nextLine = null;
+                return line;
+            }
+        };
+    }
+
+    private static String field(List<String> fields, int index) {
+        if (index >= fields.size()) {
+            return null;
+        }
+        String value = fields.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static boolean looksNumeric(String value) {
+        return value != null && value.trim().matches("\\d+(\\.\\d+)?");
+    }
+
+    /**
+     * Split one CSV record, honouring double quotes and doubled quotes inside them
+     */
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        fields.add(current.toString());
+        return fields;
+    }
+}
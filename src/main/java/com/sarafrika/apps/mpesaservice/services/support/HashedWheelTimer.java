@@ -0,0 +1,157 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal hashed-wheel timer for large numbers of coarse, mostly-cancelled timeouts.
+ * <p>
+ * Scheduling and cancelling are O(1): new timeouts go onto a lock-free queue and a single
+ * worker thread moves them into wheel slots on each tick. Only the current slot is inspected
+ * per tick, so cost is independent of how many timeouts are outstanding. Expired tasks are
+ * handed to {@code executor} so slow work never delays the tick.
+ * </p>
+ */
+@Slf4j
+public class HashedWheelTimer implements AutoCloseable {
+
+    private final long tickNanos;
+    private final int mask;
+    private final ArrayDeque<Timeout>[] wheel;
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Executor executor;
+    private final Thread worker;
+    private final long startNanos;
+
+    private volatile boolean running = true;
+
+    public HashedWheelTimer(String name, Duration tick, int ticksPerWheel, Executor executor) {
+        if (Integer.bitCount(ticksPerWheel) != 1) {
+            throw new IllegalArgumentException("ticksPerWheel must be a power of two: " + ticksPerWheel);
+        }
+        this.tickNanos = tick.toNanos();
+        this.mask = ticksPerWheel - 1;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayDeque<Timeout>[] slots = new ArrayDeque[ticksPerWheel];
+        this.wheel = slots;
+        for (int i = 0; i < ticksPerWheel; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.executor = executor;
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Handle to a scheduled task
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadlineNanos;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    public Timeout schedule(Runnable task, Duration delay) {
+        if (!running) {
+            throw new IllegalStateException("Timer is stopped");
+        }
+        long deadline = System.nanoTime() - startNanos + Math.max(0, delay.toNanos());
+        Timeout timeout = new Timeout(task, deadline);
+        incoming.add(timeout);
+        pending.incrementAndGet();
+        return timeout;
+    }
+
+    /**
+     * Timeouts scheduled but not yet fired or swept after cancellation
+     */
+    public int pendingCount() {
+        return pending.get();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        long tick = 0;
+        while (running) {
+            long tickDeadline = tickNanos * (tick + 1);
+            long sleepNanos = tickDeadline - (System.nanoTime() - startNanos);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            transferIncoming(tick);
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transferIncoming(long currentTick) {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            if (timeout.cancelled) {
+                pending.decrementAndGet();
+                continue;
+            }
+            long targetTick = Math.max(currentTick, timeout.deadlineNanos / tickNanos);
+            timeout.remainingRounds = (targetTick - currentTick) / wheel.length;
+            wheel[(int) (targetTick & mask)].add(timeout);
+        }
+    }
+
+    private void expire(ArrayDeque<Timeout> bucket) {
+        Iterator<Timeout> it = bucket.iterator();
+        while (it.hasNext()) {
+            Timeout timeout = it.next();
+            if (timeout.cancelled) {
+                it.remove();
+                pending.decrementAndGet();
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else {
+                it.remove();
+                pending.decrementAndGet();
+                try {
+                    executor.execute(timeout.task);
+                } catch (RuntimeException e) {
+                    log.error("Failed to dispatch expired timeout: {}", e.getMessage(), e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sarafrika.apps.mpesaservice.utils.enums.ExportFormat;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+
+/**
+ * Writes a shortcode's incoming payments for a period straight from a database cursor to an
+ * output stream, as NDJSON or CSV.
+ * <p>
+ * Rows are read {@code fetch-size} at a time inside a read-only transaction, which is what
+ * makes the PostgreSQL driver use a server-side cursor, and each row is written from the
+ * result set as it arrives. No entity is built and the raw callback JSON is never read, so
+ * heap use does not grow with the export. Field names match {@code MpesaIncomingPaymentDto}.
+ * </p>
+ */
+@Component
+@Slf4j
+public class IncomingPaymentExporter {
+
+    private static final String EXPORT_SQL = """
+            SELECT uuid, shortcode_uuid, payment_type, transaction_id, checkout_request_id, merchant_request_id,
+                   phone_number, amount, account_reference, transaction_desc, result_code, result_desc, status,
+                   transaction_date, processed_at, created_at
+              FROM mpesa_incoming_payments
+             WHERE shortcode_uuid = ? AND created_at >= ? AND created_at < ? AND deleted_at IS NULL
+             ORDER BY created_at, id
+            """;
+
+    static final String[] COLUMNS = {
+            "uuid", "shortcode_uuid", "payment_type", "transaction_id", "checkout_request_id",
+            "merchant_request_id", "phone_number", "amount", "account_reference", "transaction_desc",
+            "result_code", "result_desc", "status", "transaction_date", "processed_at", "created_at"
+    };
+
+    private static final int AMOUNT = 8;
+    private static final int RESULT_CODE = 11;
+    private static final int FIRST_TIMESTAMP = 14;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnly;
+    private final JsonFactory jsonFactory;
+
+    public IncomingPaymentExporter(
+            DataSource dataSource,
+            PlatformTransactionManager transactionManager,
+            ObjectMapper objectMapper,
+            @Value("${mpesa.export.fetch-size:1000}") int fetchSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * Write the payments created in {@code [from, to)}, oldest first. The stream is flushed
+     * but not closed.
+     *
+     * @return the number of payments written
+     */
+    public long export(UUID shortcodeUuid, LocalDateTime from, LocalDateTime to, ExportFormat format,
+                       OutputStream out) throws IOException {
+        long started = System.currentTimeMillis();
+        RowWriter writer = format == ExportFormat.CSV ? new CsvRowWriter(out) : new NdjsonRowWriter(jsonFactory, out);
+        long[] written = {0};
+        try {
+            readOnly.executeWithoutResult(status -> jdbcTemplate.query(EXPORT_SQL, rs -> {
+                try {
+                    writer.write(rs);
+                    written[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, shortcodeUuid, Timestamp.valueOf(from), Timestamp.valueOf(to)));
+        } catch (UncheckedIOException e) {
+            // Usually the client went away; the cursor and transaction are already closed
+            throw e.getCause();
+        }
+        writer.finish();
+        log.info("Exported {} incoming payments for shortcode {} ({} to {}) as {} in {}ms", written[0],
+                shortcodeUuid, from, to, format, System.currentTimeMillis() - started);
+        return written[0];
+    }
+
+    private static String text(ResultSet rs, int column) throws SQLException {
+        if (column >= FIRST_TIMESTAMP) {
+            Timestamp timestamp = rs.getTimestamp(column);
+            return timestamp != null ? DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(timestamp.toLocalDateTime()) : null;
+        }
+        return rs.getString(column);
+    }
+
+    private interface RowWriter {
+        void write(ResultSet rs) throws IOException, SQLException;
+
+        void finish() throws IOException;
+    }
+
+    private static final class NdjsonRowWriter implements RowWriter {
+        private final JsonGenerator json;
+
+        NdjsonRowWriter(JsonFactory factory, OutputStream out) throws IOException {
+            this.json = factory.createGenerator(out);
+            this.json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // Rows end in a newline instead of the default space between root values
+            this.json.setRootValueSeparator(null);
+        }
+
+        @Override
+        public void write(ResultSet rs) throws IOException, SQLException {
+            json.writeStartObject();
+            for (int column = 1; column <= COLUMNS.length; column++) {
+                json.writeFieldName(COLUMNS[column - 1]);
+                if (column == AMOUNT) {
+                    BigDecimal amount = rs.getBigDecimal(column);
+                    if (amount != null) {
+                        json.writeNumber(amount);
+                    } else {
+                        json.writeNull();
+                    }
+                } else if (column == RESULT_CODE) {
+                    int resultCode = rs.getInt(column);
+                    if (rs.wasNull()) {
+                        json.writeNull();
+                    } else {
+                        json.writeNumber(resultCode);
+                    }
+                } else {
+                    json.writeString(text(rs, column));
+                }
+            }
+            json.writeEndObject();
+            json.writeRaw('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            json.flush();
+        }
+    }
+
+    private static final class CsvRowWriter implements RowWriter {
+        private final Writer csv;
+
+        CsvRowWriter(OutputStream out) throws IOException {
+            this.csv = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+            csv.write(String.join(",", COLUMNS));
+            csv.write("\r\n");
+        }
+
+        @Override
+        public void write(ResultSet rs) throws IOException, SQLException {
+            for (int column = 1; column <= COLUMNS.length; column++) {
+                if (column > 1) {
+                    csv.write(',');
+                }
+                String value = column == AMOUNT ? plain(rs.getBigDecimal(column)) : text(rs, column);
+                if (value != null) {
+                    writeField(value);
+                }
+            }
+            csv.write("\r\n");
+        }
+
+        private void writeField(String value) throws IOException {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+            }
+            if (!quote) {
+                csv.write(value);
+                return;
+            }
+            csv.write('"');
+            csv.write(value.replace("\"", "\"\""));
+            csv.write('"');
+        }
+
+        private static String plain(BigDecimal amount) {
+            return amount != null ? amount.toPlainString() : null;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            csv.flush();
+        }
+    }
+}
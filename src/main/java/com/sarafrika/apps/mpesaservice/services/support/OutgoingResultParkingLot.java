@@ -0,0 +1,28 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Holds B2C/B2B result callbacks that arrived before their PENDING row was committed, keyed
+ * by OriginatorConversationID. Daraja only returns that id in the initiation response, so
+ * the row cannot be written any earlier.
+ */
+@Component
+public class OutgoingResultParkingLot extends CallbackParkingLot {
+
+    public OutgoingResultParkingLot(
+            @Value("${mpesa.outgoing.parking.max-entries:10000}") int maxEntries,
+            @Value("${mpesa.outgoing.parking.ttl:PT10M}") Duration ttl) {
+        super("B2C/B2B result", maxEntries, ttl);
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${mpesa.outgoing.parking.sweep-interval-ms:30000}")
+    public void sweep() {
+        super.sweep();
+    }
+}
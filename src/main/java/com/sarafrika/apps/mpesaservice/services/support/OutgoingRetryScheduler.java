@@ -0,0 +1,85 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.sarafrika.apps.mpesaservice.repositories.MpesaOutgoingPaymentRepository;
+import com.sarafrika.apps.mpesaservice.services.MpesaOutgoingPaymentService;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaApi;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaResultCode;
+import com.sarafrika.apps.mpesaservice.utils.enums.ResultCodeCategory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Resends single B2C/B2B payouts that failed with a result code the {@link DarajaResultCode}
+ * registry marks RETRYABLE, such as a busy system or an internal failure.
+ * <p>
+ * Terminal and user-caused failures are never resent. A failure becomes due
+ * {@code backoff * 2^attempt} after it happened and a payout is resent at most
+ * {@code max-attempts} times. Each resend goes through
+ * {@link MpesaOutgoingPaymentService#retryPayment}, whose claim on the failed row lets exactly
+ * one node, or a person retrying by hand, resend it. A resend whose outcome is unknown keeps
+ * that claim and is never sent again from here. Bulk disbursement rows are left to their batch.
+ * </p>
+ */
+@Component
+@Slf4j
+public class OutgoingRetryScheduler {
+
+    private final MpesaOutgoingPaymentRepository repository;
+    private final MpesaOutgoingPaymentService outgoingPaymentService;
+    private final boolean enabled;
+    private final Duration backoff;
+    private final int maxAttempts;
+    private final int scanSize;
+
+    private final List<Integer> b2cCodes = DarajaResultCode.codes(DarajaApi.B2C, ResultCodeCategory.RETRYABLE);
+    private final List<Integer> b2bCodes = DarajaResultCode.codes(DarajaApi.B2B, ResultCodeCategory.RETRYABLE);
+
+    public OutgoingRetryScheduler(
+            MpesaOutgoingPaymentRepository repository,
+            MpesaOutgoingPaymentService outgoingPaymentService,
+            @Value("${mpesa.outgoing.retry.enabled:true}") boolean enabled,
+            @Value("${mpesa.outgoing.retry.backoff:PT1M}") Duration backoff,
+            @Value("${mpesa.outgoing.retry.max-attempts:3}") int maxAttempts,
+            @Value("${mpesa.outgoing.retry.scan-size:100}") int scanSize) {
+        this.repository = repository;
+        this.outgoingPaymentService = outgoingPaymentService;
+        this.enabled = enabled;
+        this.backoff = backoff;
+        this.maxAttempts = maxAttempts;
+        this.scanSize = scanSize;
+    }
+
+    /**
+     * Resend every payout whose retryable failure has waited out its backoff
+     */
+    @Scheduled(fixedDelayString = "${mpesa.outgoing.retry.scan-interval:PT1M}",
+            initialDelayString = "${mpesa.outgoing.retry.initial-delay:PT1M}")
+    public void retryDue() {
+        if (!enabled) {
+            return;
+        }
+        List<UUID> due = repository.findRetryCandidates(b2cCodes, b2bCodes, maxAttempts, backoff.toSeconds(),
+                scanSize);
+        int resent = 0;
+        for (UUID uuid : due) {
+            try {
+                outgoingPaymentService.retryPayment(uuid);
+                resent++;
+            } catch (IllegalStateException e) {
+                // Retried by another node or by hand, or the resend failed; the attempt is counted
+                log.info("Automatic retry of outgoing payment {} not sent: {}", uuid, e.getMessage());
+            } catch (RuntimeException e) {
+                log.error("Automatic retry of outgoing payment {} failed: {}", uuid, e.getMessage(), e);
+            }
+        }
+        if (!due.isEmpty()) {
+            log.info("Automatic retry resent {} of {} failed payouts", resent, due.size());
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.dtos.TransactionStatusResponse;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaOutgoingPaymentRepository;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaOutgoingPaymentRepository.StatusQueryTarget;
+import com.sarafrika.apps.mpesaservice.services.MpesaDarajaService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves B2C/B2B payouts whose result never arrives with transaction status queries.
+ * <p>
+ * Two sources feed it: Daraja's timeout callbacks, which are queried first, and a periodic
+ * scan that claims PENDING or DISPATCHING rows whose status has not changed for
+ * {@code stale-after}. Claiming stamps the attempt in the row, so nodes never query the same
+ * row at once and a row is retried only after {@code retry-backoff}, at most
+ * {@code max-attempts} times; anything left after that needs a person.
+ * </p>
+ * <p>
+ * Queries are queued per shortcode and drained in batches of {@code batch-size}, so one
+ * shortcode's backlog cannot starve another's, and each query is paced by a per-shortcode
+ * token bucket. The query's OriginatorConversationID is recorded on the row; the status
+ * result callback is matched back through it and settles the row with the same guarded update
+ * a B2C/B2B result uses.
+ * </p>
+ */
+@Component
+@Slf4j
+public class OutgoingStatusResolver {
+
+    /**
+     * Why a payout is being queried; earlier constants are queried first
+     */
+    enum Reason { TIMEOUT, STALE }
+
+    record Pending(Reason reason, long sequence, StatusQueryTarget target) {}
+
+    private static final Comparator<Pending> ORDER = Comparator.comparing(Pending::reason)
+            .thenComparingLong(Pending::sequence);
+
+    private final ObjectProvider<MpesaDarajaService> darajaService;
+    private final MpesaOutgoingPaymentRepository repository;
+    private final boolean enabled;
+    private final Duration staleAfter;
+    private final Duration retryBackoff;
+    private final int maxAttempts;
+    private final int scanSize;
+    private final int batchSize;
+    private final int maxQueued;
+    private final double ratePerSecond;
+    private final int burst;
+    private final ExecutorService resolvers;
+
+    private final Map<UUID, PriorityBlockingQueue<Pending>> queues = new ConcurrentHashMap<>();
+    private final Set<UUID> draining = ConcurrentHashMap.newKeySet();
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private final Map<UUID, TokenBucketRateLimiter> limiters = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public OutgoingStatusResolver(
+            ObjectProvider<MpesaDarajaService> darajaService,
+            MpesaOutgoingPaymentRepository repository,
+            @Value("${mpesa.outgoing.resolution.enabled:true}") boolean enabled,
+            @Value("${mpesa.outgoing.resolution.stale-after:PT10M}") Duration staleAfter,
+            @Value("${mpesa.outgoing.resolution.retry-backoff:PT5M}") Duration retryBackoff,
+            @Value("${mpesa.outgoing.resolution.max-attempts:5}") int maxAttempts,
+            @Value("${mpesa.outgoing.resolution.scan-size:500}") int scanSize,
+            @Value("${mpesa.outgoing.resolution.batch-size:50}") int batchSize,
+            @Value("${mpesa.outgoing.resolution.max-queued:5000}") int maxQueued,
+            @Value("${mpesa.outgoing.resolution.rate-per-second:5}") double ratePerSecond,
+            @Value("${mpesa.outgoing.resolution.burst:5}") int burst,
+            @Value("${mpesa.outgoing.resolution.threads:4}") int threads) {
+        this.darajaService = darajaService;
+        this.repository = repository;
+        this.enabled = enabled;
+        this.staleAfter = staleAfter;
+        this.retryBackoff = retryBackoff;
+        this.maxAttempts = maxAttempts;
+        this.scanSize = scanSize;
+        this.batchSize = batchSize;
+        this.maxQueued = maxQueued;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.resolvers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "outgoing-status-resolver-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        resolvers.shutdownNow();
+    }
+
+    /**
+     * Queue a status query, ahead of any stale rows, for a payout Daraja reported as timed out.
+     * Returns false when the payout is unknown or already settled.
+     */
+    public boolean resolveTimedOut(String originatorConversationId) {
+        if (!enabled || originatorConversationId == null) {
+            return false;
+        }
+        return repository.claimForStatusQuery(originatorConversationId)
+                .map(target -> enqueue(Reason.TIMEOUT, target))
+                .orElse(false);
+    }
+
+    /**
+     * Claim outstanding rows that have gone quiet and queue a status query for each
+     */
+    @Scheduled(fixedDelayString = "${mpesa.outgoing.resolution.scan-interval:PT1M}",
+            initialDelayString = "${mpesa.outgoing.resolution.initial-delay:PT1M}")
+    public void scanStale() {
+        if (!enabled) {
+            return;
+        }
+        int room = Math.min(scanSize, maxQueued - queued.size());
+        if (room <= 0) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<StatusQueryTarget> claimed = repository.claimStaleForStatusQuery(now.minus(staleAfter),
+                now.minus(retryBackoff), maxAttempts, room);
+        for (StatusQueryTarget target : claimed) {
+            if (target.getStatusQueryAttempts() >= maxAttempts) {
+                log.warn("Last automatic status query for outgoing payment {}, resolve by hand if it stays open",
+                        target.getOriginatorConversationId());
+            }
+            enqueue(Reason.STALE, target);
+        }
+        if (!claimed.isEmpty()) {
+            log.info("Queued {} outstanding payouts for status queries ({} queued)", claimed.size(), queued.size());
+        }
+    }
+
+    public int queuedCount() {
+        return queued.size();
+    }
+
+    boolean enqueue(Reason reason, StatusQueryTarget target) {
+        if (!queued.add(target.getOriginatorConversationId())) {
+            return false;
+        }
+        UUID shortcodeUuid = target.getShortcodeUuid();
+        queues.computeIfAbsent(shortcodeUuid, k -> new PriorityBlockingQueue<>(64, ORDER))
+                .add(new Pending(reason, sequence.incrementAndGet(), target));
+        scheduleDrain(shortcodeUuid);
+        return true;
+    }
+
+    private void scheduleDrain(UUID shortcodeUuid) {
+        if (draining.add(shortcodeUuid)) {
+            resolvers.execute(() -> drain(shortcodeUuid));
+        }
+    }
+
+    /**
+     * Query up to one batch for a shortcode, then yield the thread to other shortcodes
+     */
+    private void drain(UUID shortcodeUuid) {
+        PriorityBlockingQueue<Pending> queue = queues.get(shortcodeUuid);
+        try {
+            for (int i = 0; i < batchSize && !Thread.currentThread().isInterrupted(); i++) {
+                Pending next = queue.poll();
+                if (next == null) {
+                    break;
+                }
+                try {
+                    query(next);
+                } finally {
+                    queued.remove(next.target().getOriginatorConversationId());
+                }
+            }
+        } finally {
+            draining.remove(shortcodeUuid);
+        }
+        if (!queue.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            scheduleDrain(shortcodeUuid);
+        }
+    }
+
+    void query(Pending pending) {
+        StatusQueryTarget target = pending.target();
+        try {
+            limiters.computeIfAbsent(target.getShortcodeUuid(), k -> new TokenBucketRateLimiter(ratePerSecond, burst))
+                    .acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        // Without a receipt Daraja finds the payout by the conversation it was accepted under
+        String transactionId = target.getTransactionId();
+        MpesaApiResponse<TransactionStatusResponse> response;
+        try {
+            response = darajaService.getObject().queryTransactionStatus(target.getShortcodeUuid(), transactionId,
+                    transactionId == null ? target.getOriginatorConversationId() : null,
+                    "Resolve outstanding payout");
+        } catch (RuntimeException e) {
+            log.warn("Status query for outgoing payment {} failed: {}", target.getOriginatorConversationId(),
+                    e.getMessage());
+            return;
+        }
+
+        if (response.success() && response.data() != null && response.data().originatorConversationId() != null) {
+            repository.recordStatusQuery(target.getId(), response.data().originatorConversationId());
+            log.debug("Status query {} raised for outgoing payment {} ({})",
+                    response.data().originatorConversationId(), target.getOriginatorConversationId(),
+                    pending.reason());
+        } else {
+            log.warn("Status query for outgoing payment {} not accepted ({}), retrying after {}",
+                    target.getOriginatorConversationId(),
+                    response.error() != null ? response.error().errorCode() : "no response", retryBackoff);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.sarafrika.apps.mpesaservice.dtos.ArchivedPaymentLookup;
+import com.sarafrika.apps.mpesaservice.utils.enums.PaymentDirection;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold storage for payments purged from the hot tables.
+ * <p>
+ * Archived rows are gzipped CSV with a header row, exactly as PostgreSQL's
+ * {@code COPY ... (FORMAT csv, HEADER)} writes them, laid out one directory per shortcode and
+ * month: {@code <archive-dir>/incoming/shortcode=<uuid>/month=2025-03/part-<millis>-<n>.csv.gz}.
+ * Each purge batch adds a part and no part is ever rewritten. The {@code key=value} directory
+ * names let DuckDB, Spark or ClickHouse read the tree as one partitioned table, or convert it to
+ * Parquet, with no extra metadata.
+ * </p>
+ * <p>
+ * A part is written to a hidden temporary file, synced and then renamed into place before the
+ * rows it holds are deleted, so a crash can leave a row both archived and in the table but never
+ * in neither. Lookups therefore keep only the first copy of each payment {@code uuid}.
+ * </p>
+ */
+@Component
+@Slf4j
+public class PaymentArchive {
+
+    static final String PART_SUFFIX = ".csv.gz";
+    private static final String SHORTCODE_PREFIX = "shortcode=";
+    private static final String MONTH_PREFIX = "month=";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path root;
+
+    public PaymentArchive(@Value("${mpesa.retention.archive-dir:archive}") String root) {
+        this.root = Path.of(root);
+    }
+
+    /**
+     * Directory holding one shortcode's archived payments for one month
+     */
+    public Path monthDirectory(PaymentDirection direction, UUID shortcodeUuid, YearMonth month) {
+        return shortcodeDirectory(direction, shortcodeUuid).resolve(MONTH_PREFIX + month);
+    }
+
+    /**
+     * Start a new part for a shortcode and month. Nothing is visible to lookups until the part
+     * is published; closing an unpublished part discards it.
+     */
+    public Part newPart(PaymentDirection direction, UUID shortcodeUuid, YearMonth month) throws IOException {
+        Path directory = Files.createDirectories(monthDirectory(direction, shortcodeUuid, month));
+        String name = "part-%013d-%04d%s".formatted(System.currentTimeMillis(),
+                ThreadLocalRandom.current().nextInt(10_000), PART_SUFFIX);
+        return new Part(directory.resolve("." + name + ".tmp"), directory.resolve(name));
+    }
+
+    /**
+     * Find archived payments of a shortcode whose columns equal every value in {@code filters}.
+     * Months outside {@code [from, to]} are not read; either bound may be null.
+     */
+    public ArchivedPaymentLookup lookup(PaymentDirection direction, UUID shortcodeUuid, YearMonth from, YearMonth to,
+                                       Map<String, String> filters, int limit) {
+        Map<String, Map<String, String>> found = new LinkedHashMap<>();
+        int filesRead = 0;
+        long scanned = 0;
+        boolean truncated = false;
+        try {
+            for (Path part : parts(direction, shortcodeUuid, from, to)) {
+                filesRead++;
+                try (Reader reader = new BufferedReader(new InputStreamReader(
+                        new GZIPInputStream(Files.newInputStream(part), BUFFER_SIZE), StandardCharsets.UTF_8),
+                        BUFFER_SIZE)) {
+                    List<String> header = readRecord(reader);
+                    List<String> record;
+                    while (header != null && (record = readRecord(reader)) != null) {
+                        scanned++;
+                        Map<String, String> row = row(header, record);
+                        if (!matches(row, filters) || found.containsKey(row.get("uuid"))) {
+                            continue;
+                        }
+                        if (found.size() == limit) {
+                            truncated = true;
+                            break;
+                        }
+                        found.put(row.get("uuid"), row);
+                    }
+                }
+                if (truncated) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.debug("Archive lookup for shortcode {} read {} files, {} rows, found {}", shortcodeUuid, filesRead,
+                scanned, found.size());
+        return new ArchivedPaymentLookup(direction, shortcodeUuid, filesRead, scanned, truncated,
+                new ArrayList<>(found.values()));
+    }
+
+    private Path shortcodeDirectory(PaymentDirection direction, UUID shortcodeUuid) {
+        return root.resolve(direction.name().toLowerCase(Locale.ROOT)).resolve(SHORTCODE_PREFIX + shortcodeUuid);
+    }
+
+    /**
+     * Published parts in the month range, oldest month first and in the order they were written
+     */
+    private List<Path> parts(PaymentDirection direction, UUID shortcodeUuid, YearMonth from, YearMonth to)
+            throws IOException {
+        Path shortcodeDirectory = shortcodeDirectory(direction, shortcodeUuid);
+        if (!Files.isDirectory(shortcodeDirectory)) {
+            return List.of();
+        }
+        List<Path> months;
+        try (Stream<Path> listed = Files.list(shortcodeDirectory)) {
+            months = listed.filter(directory -> inRange(directory, from, to)).sorted().toList();
+        }
+        List<Path> parts = new ArrayList<>();
+        for (Path month : months) {
+            try (Stream<Path> listed = Files.list(month)) {
+                listed.filter(file -> {
+                    String name = file.getFileName().toString();
+                    return name.startsWith("part-") && name.endsWith(PART_SUFFIX);
+                }).sorted().forEach(parts::add);
+            }
+        }
+        return parts;
+    }
+
+    private static boolean inRange(Path directory, YearMonth from, YearMonth to) {
+        String name = directory.getFileName().toString();
+        if (!name.startsWith(MONTH_PREFIX)) {
+            return false;
+        }
+        try {
+            YearMonth month = YearMonth.parse(name.substring(MONTH_PREFIX.length()));
+            return (from == null || !month.isBefore(from)) && (to == null || !month.isAfter(to));
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static Map<String, String> row(List<String> header, List<String> record) {
+        Map<String, String> row = new LinkedHashMap<>();
+        for (int i = 0; i < header.size() && i < record.size(); i++) {
+            if (record.get(i) != null) {
+                row.put(header.get(i), record.get(i));
+            }
+        }
+        return row;
+    }
+
+    private static boolean matches(Map<String, String> row, Map<String, String> filters) {
+        for (Map.Entry<String, String> filter : filters.entrySet()) {
+            if (!filter.getValue().equals(row.get(filter.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read one record of PostgreSQL CSV, or null at the end of the input. Quoted fields may
+     * span lines; an unquoted empty field is NULL and comes back as null, while a quoted
+     * empty field is the empty string.
+     */
+    static List<String> readRecord(Reader reader) throws IOException {
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Archive ends inside a quoted field");
+                }
+                if (c == '"') {
+                    int next = reader.read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        c = next;
+                        continue;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+                wasQuoted = true;
+            } else if (c == ',' || c == '\n' || c == -1) {
+                fields.add(field.isEmpty() && !wasQuoted ? null : field.toString());
+                if (c != ',') {
+                    return fields;
+                }
+                field.setLength(0);
+                wasQuoted = false;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+    }
+
+    /**
+     * An archive part being written
+     */
+    public static final class Part implements Closeable {
+        private final Path temporary;
+        private final Path target;
+        private final FileOutputStream file;
+        private final GZIPOutputStream out;
+        private boolean published;
+
+        private Part(Path temporary, Path target) throws IOException {
+            this.temporary = temporary;
+            this.target = target;
+            this.file = new FileOutputStream(temporary.toFile());
+            this.out = new GZIPOutputStream(file, BUFFER_SIZE);
+        }
+
+        public OutputStream out() {
+            return out;
+        }
+
+        public Path target() {
+            return target;
+        }
+
+        /**
+         * Finish the part, sync it to disk and move it into place
+         */
+        public void publish() throws IOException {
+            out.finish();
+            file.getChannel().force(true);
+            out.close();
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            published = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!published) {
+                out.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.sarafrika.apps.mpesaservice.dtos.PaymentSummary;
+import com.sarafrika.apps.mpesaservice.utils.enums.PaymentDirection;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reads payment counts and totals from {@code mpesa_payment_daily_rollups}.
+ * <p>
+ * The rollups are maintained by database triggers in the same transaction as every payment
+ * insert, status transition, soft delete and delete, whichever code path writes the row, so
+ * they are as current as the payment tables themselves. A read sums one row per shortcode,
+ * day, type, status and slot; its cost grows with the days covered, not with payment volume.
+ * </p>
+ */
+@Component
+@RequiredArgsConstructor
+public class PaymentDailyRollups {
+
+    private static final String TOTALS_BY_STATUS_SQL = """
+            SELECT COALESCE(SUM(payment_count), 0) AS payment_count, COALESCE(SUM(total_amount), 0) AS total_amount
+              FROM mpesa_payment_daily_rollups
+             WHERE direction = ? AND status = ?
+            """;
+
+    private static final String SUMMARY_SQL = """
+            SELECT %1$s direction, payment_type, status, SUM(payment_count) AS payment_count,
+                   SUM(total_amount) AS total_amount
+              FROM mpesa_payment_daily_rollups
+             WHERE shortcode_uuid = ? AND day >= ? AND day <= ?
+             GROUP BY %1$s direction, payment_type, status
+            HAVING SUM(payment_count) <> 0
+             ORDER BY %1$s direction, payment_type, status
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Total amount of every payment of a direction in a status
+     */
+    public BigDecimal totalAmount(PaymentDirection direction, String status) {
+        return jdbcTemplate.queryForObject(TOTALS_BY_STATUS_SQL, (rs, row) -> rs.getBigDecimal("total_amount"),
+                direction.name(), status);
+    }
+
+    /**
+     * Number of payments of a direction in a status
+     */
+    public long count(PaymentDirection direction, String status) {
+        Long count = jdbcTemplate.queryForObject(TOTALS_BY_STATUS_SQL, (rs, row) -> rs.getLong("payment_count"),
+                direction.name(), status);
+        return count != null ? count : 0L;
+    }
+
+    /**
+     * Counts and totals of a shortcode's payments created from {@code from} through {@code to},
+     * one line per direction, type and status, or per day as well when {@code daily}
+     */
+    public PaymentSummary summarize(UUID shortcodeUuid, LocalDate from, LocalDate to, boolean daily) {
+        List<PaymentSummary.Line> lines = jdbcTemplate.query(SUMMARY_SQL.formatted(daily ? "day," : ""),
+                (rs, row) -> new PaymentSummary.Line(
+                        daily ? rs.getDate("day").toLocalDate() : null,
+                        PaymentDirection.valueOf(rs.getString("direction")),
+                        rs.getString("payment_type"),
+                        rs.getString("status"),
+                        rs.getLong("payment_count"),
+                        rs.getBigDecimal("total_amount")),
+                shortcodeUuid, Date.valueOf(from), Date.valueOf(to));
+        return new PaymentSummary(shortcodeUuid, from, to, lines);
+    }
+}
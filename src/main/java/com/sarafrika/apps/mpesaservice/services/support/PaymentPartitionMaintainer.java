@@ -0,0 +1,61 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Keeps monthly partitions of the payment tables created ahead of time.
+ * <p>
+ * Both payment tables are range-partitioned on {@code created_at}, one partition per month.
+ * Shortly after start-up and then every {@code check-interval}, the current month and the next
+ * {@code months-ahead} months are created if missing, so inserts never fall through to the
+ * DEFAULT partition. Rows that did land there for a month are moved into its partition when it
+ * is created. Creation is idempotent and safe to run from every node at once.
+ * </p>
+ */
+@Component
+@Slf4j
+public class PaymentPartitionMaintainer {
+
+    static final List<String> PARTITIONED_TABLES = List.of("mpesa_incoming_payments", "mpesa_outgoing_payments");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final int monthsAhead;
+
+    public PaymentPartitionMaintainer(
+            JdbcTemplate jdbcTemplate,
+            @Value("${mpesa.partitioning.enabled:true}") boolean enabled,
+            @Value("${mpesa.partitioning.months-ahead:3}") int monthsAhead) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.monthsAhead = monthsAhead;
+    }
+
+    /**
+     * Create any missing partition from the current month through {@code months-ahead} months out
+     */
+    @Scheduled(fixedDelayString = "${mpesa.partitioning.check-interval:PT12H}",
+            initialDelayString = "${mpesa.partitioning.initial-delay:PT10S}")
+    public void ensurePartitions() {
+        if (!enabled) {
+            return;
+        }
+        for (String table : PARTITIONED_TABLES) {
+            try {
+                Integer created = jdbcTemplate.queryForObject("SELECT mpesa_ensure_monthly_partitions(?, ?)",
+                        Integer.class, table, monthsAhead);
+                if (created != null && created > 0) {
+                    log.info("Created {} monthly partitions of {}", created, table);
+                }
+            } catch (RuntimeException e) {
+                log.error("Could not create monthly partitions of {}: {}", table, e.getMessage(), e);
+            }
+        }
+    }
+}
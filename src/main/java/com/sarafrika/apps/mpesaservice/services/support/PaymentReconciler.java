@@ -0,0 +1,166 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.sarafrika.apps.mpesaservice.dtos.ReconciliationReport;
+import com.sarafrika.apps.mpesaservice.dtos.StatementEntry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Reconciles Safaricom organisation statements against the successful incoming and outgoing
+ * payments recorded here.
+ * <p>
+ * Each shortcode is one task on a dedicated fork-join pool: its statement is streamed into a
+ * {@link ReconciliationJoin}, then its local payments for the period are read through a
+ * server-side cursor and probed against it, so neither side is ever loaded as entities and the
+ * database is read exactly once per shortcode. Several statements submitted together run in
+ * parallel, up to {@code mpesa.reconciliation.parallelism} at a time.
+ * </p>
+ * <p>
+ * A local payment belongs to the period by its M-Pesa completion time, or its creation time
+ * when the callback carried none. Statement rows completed outside the period are ignored.
+ * </p>
+ */
+@Component
+@Slf4j
+public class PaymentReconciler {
+
+    // created_at is bounded a day either side so the (shortcode_uuid, created_at) index narrows
+    // the scan; the completion time then decides which rows are in the period
+    private static final String LOCAL_PAYMENTS_SQL = """
+            SELECT TRUE AS paid_in, uuid, transaction_id, amount, COALESCE(transaction_date, created_at) AS completed_at
+              FROM mpesa_incoming_payments
+             WHERE shortcode_uuid = ? AND status = 'SUCCESS' AND deleted_at IS NULL
+               AND created_at >= ? AND created_at < ?
+               AND COALESCE(transaction_date, created_at) >= ? AND COALESCE(transaction_date, created_at) < ?
+            UNION ALL
+            SELECT FALSE, uuid, transaction_id, amount, COALESCE(transaction_date, created_at)
+              FROM mpesa_outgoing_payments
+             WHERE shortcode_uuid = ? AND status = 'SUCCESS' AND deleted_at IS NULL
+               AND created_at >= ? AND created_at < ?
+               AND COALESCE(transaction_date, created_at) >= ? AND COALESCE(transaction_date, created_at) < ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnly;
+    private final ForkJoinPool pool;
+    private final int expectedRows;
+    private final int maxReportedItems;
+
+    public PaymentReconciler(
+            DataSource dataSource,
+            PlatformTransactionManager transactionManager,
+            @Value("${mpesa.reconciliation.parallelism:4}") int parallelism,
+            @Value("${mpesa.reconciliation.fetch-size:1000}") int fetchSize,
+            @Value("${mpesa.reconciliation.expected-rows:100000}") int expectedRows,
+            @Value("${mpesa.reconciliation.max-reported-items:100}") int maxReportedItems) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("reconciler-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+        this.expectedRows = expectedRows;
+        this.maxReportedItems = maxReportedItems;
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        pool.shutdownNow();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Reconcile one shortcode's statement for the days {@code from} through {@code to}
+     */
+    public ReconciliationReport reconcile(UUID shortcodeUuid, LocalDate from, LocalDate to,
+                                          Iterator<StatementEntry> statement) {
+        return reconcileAll(from, to, Map.of(shortcodeUuid, () -> statement)).get(0);
+    }
+
+    /**
+     * Reconcile several shortcodes' statements for the same period in parallel. Each supplier
+     * is opened on the task that consumes it. Reports come back in the map's iteration order.
+     */
+    public List<ReconciliationReport> reconcileAll(LocalDate from, LocalDate to,
+                                                   Map<UUID, Supplier<Iterator<StatementEntry>>> statements) {
+        List<Callable<ReconciliationReport>> tasks = new ArrayList<>(statements.size());
+        statements.forEach((shortcodeUuid, statement) ->
+                tasks.add(() -> join(shortcodeUuid, from, to, statement.get())));
+
+        List<ReconciliationReport> reports = new ArrayList<>(tasks.size());
+        try {
+            for (Future<ReconciliationReport> report : pool.invokeAll(tasks)) {
+                reports.add(report.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reconciling", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Reconciliation failed", e.getCause());
+        }
+        return reports;
+    }
+
+    private ReconciliationReport join(UUID shortcodeUuid, LocalDate from, LocalDate to,
+                                      Iterator<StatementEntry> statement) {
+        long started = System.currentTimeMillis();
+        LocalDateTime start = from.atStartOfDay();
+        LocalDateTime end = to.plusDays(1).atStartOfDay();
+
+        ReconciliationJoin join = new ReconciliationJoin(expectedRows, maxReportedItems);
+        while (statement.hasNext()) {
+            StatementEntry entry = statement.next();
+            if (entry.completedAt() == null
+                    || (!entry.completedAt().isBefore(start) && entry.completedAt().isBefore(end))) {
+                join.build(entry);
+            }
+        }
+
+        Timestamp periodStart = Timestamp.valueOf(start);
+        Timestamp periodEnd = Timestamp.valueOf(end);
+        Timestamp scanStart = Timestamp.valueOf(start.minusDays(1));
+        Timestamp scanEnd = Timestamp.valueOf(end.plusDays(1));
+        readOnly.executeWithoutResult(status -> jdbcTemplate.query(LOCAL_PAYMENTS_SQL, rs -> {
+            Timestamp completedAt = rs.getTimestamp(5);
+            join.probe(rs.getBoolean(1), rs.getObject(2, UUID.class), rs.getString(3), rs.getBigDecimal(4),
+                    completedAt != null ? completedAt.toLocalDateTime() : null);
+        }, shortcodeUuid, scanStart, scanEnd, periodStart, periodEnd,
+                shortcodeUuid, scanStart, scanEnd, periodStart, periodEnd));
+
+        ReconciliationReport report = join.finish(shortcodeUuid, from, to, System.currentTimeMillis() - started);
+        log.info("Reconciled shortcode {} ({} to {}): {} statement rows, {} local, {} matched, {} missing locally, "
+                        + "{} missing at Safaricom, {} amount mismatches in {}ms",
+                shortcodeUuid, from, to, report.statementRows(), report.localRows(), report.matchedCount(),
+                report.missingLocallyCount(), report.missingAtSafaricomCount(), report.amountMismatchCount(),
+                report.processingTimeMs());
+        return report;
+    }
+}
@@ -0,0 +1,203 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.sarafrika.apps.mpesaservice.utils.enums.PaymentDirection;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Moves payments out of the hot tables into the {@link PaymentArchive}.
+ * <p>
+ * Soft deletes only stamp {@code deleted_at}, so without this every payment ever recorded stays
+ * in the tables and their indexes. Payments created more than {@code hot-period} ago, and those
+ * soft-deleted more than {@code soft-delete-grace} ago, are archived and hard-deleted in one
+ * statement per batch: {@code COPY (DELETE ... RETURNING *) TO STDOUT} streams the deleted rows,
+ * with their raw callbacks joined back on, straight into a gzipped archive part. The part is
+ * published before the transaction commits, so a failed batch leaves its rows in the table and,
+ * at worst, a copy in the archive too. Archived payments stay counted in the daily rollups.
+ * </p>
+ * <p>
+ * Each batch deletes at most {@code batch-size} rows of one shortcode and month, taken with
+ * {@code SKIP LOCKED}, and the purger pauses {@code batch-pause} between batches. Row locks are
+ * held for one short transaction at a time, so payments being written are never waited on and
+ * several nodes may purge at once.
+ * </p>
+ */
+@Component
+@Slf4j
+public class PaymentRetentionPurger {
+
+    private static final String GROUPS_SQL = """
+            SELECT shortcode_uuid, date_trunc('month', created_at) AS month
+              FROM %s
+             WHERE created_at < ? OR deleted_at < ?
+             GROUP BY 1, 2
+             ORDER BY 2, 1
+            """;
+
+    // COPY takes no bind parameters; every value formatted in is a UUID, timestamp or number.
+    // The side tables hold no foreign keys into the partitioned payment tables (so old months can
+    // be detached), which makes deleting a payment's raw callback and keys row part of the same
+    // statement. Each archived row carries its raw_callback_data column from the deleted callback.
+    private static final String PURGE_BATCH_SQL = """
+            COPY (WITH purged AS (
+                      DELETE FROM %1$s t
+                       WHERE (t.id, t.created_at) IN (
+                             SELECT id, created_at
+                               FROM %1$s
+                              WHERE shortcode_uuid = '%4$s' AND created_at >= '%5$s' AND created_at < '%6$s'
+                                AND (created_at < '%7$s' OR deleted_at < '%8$s')
+                              ORDER BY created_at, id
+                              LIMIT %9$d
+                                FOR UPDATE SKIP LOCKED)
+                      RETURNING t.*),
+                  callbacks AS (
+                      DELETE FROM %2$s c
+                       USING purged
+                       WHERE c.payment_id = purged.id AND c.payment_created_at = purged.created_at
+                      RETURNING c.payment_id, c.payment_created_at, c.raw_callback_data),
+                  purged_keys AS (
+                      DELETE FROM %3$s k
+                       USING purged
+                       WHERE k.payment_id = purged.id AND k.payment_created_at = purged.created_at)
+                  SELECT purged.*, c.raw_callback_data
+                    FROM purged
+                         LEFT JOIN callbacks c ON c.payment_id = purged.id AND c.payment_created_at = purged.created_at
+                 ) TO STDOUT WITH (FORMAT csv, HEADER)
+            """;
+
+    // Archived payments still happened, so the delete trigger leaves the daily rollups alone
+    private static final String KEEP_ROLLUPS_SQL = "SET LOCAL mpesa.keep_rollups = 'on'";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final PaymentArchive archive;
+    private final boolean enabled;
+    private final Duration hotPeriod;
+    private final Duration softDeleteGrace;
+    private final int batchSize;
+    private final Duration batchPause;
+
+    public PaymentRetentionPurger(
+            DataSource dataSource,
+            PlatformTransactionManager transactionManager,
+            PaymentArchive archive,
+            @Value("${mpesa.retention.enabled:true}") boolean enabled,
+            @Value("${mpesa.retention.hot-period:P400D}") Duration hotPeriod,
+            @Value("${mpesa.retention.soft-delete-grace:P30D}") Duration softDeleteGrace,
+            @Value("${mpesa.retention.batch-size:500}") int batchSize,
+            @Value("${mpesa.retention.batch-pause:PT0.2S}") Duration batchPause) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.archive = archive;
+        this.enabled = enabled;
+        this.hotPeriod = hotPeriod;
+        this.softDeleteGrace = softDeleteGrace;
+        this.batchSize = batchSize;
+        this.batchPause = batchPause;
+    }
+
+    /**
+     * Archive and delete every payment past its retention in both tables
+     */
+    @Scheduled(fixedDelayString = "${mpesa.retention.run-interval:PT6H}",
+            initialDelayString = "${mpesa.retention.initial-delay:PT5M}")
+    public void purgeExpired() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        for (PaymentDirection direction : PaymentDirection.values()) {
+            try {
+                purge(direction, now.minus(hotPeriod), now.minus(softDeleteGrace));
+            } catch (RuntimeException e) {
+                log.error("Retention purge of {} payments failed: {}", direction, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Archive and delete payments created before {@code createdBefore} or soft-deleted before
+     * {@code deletedBefore}
+     *
+     * @return the number of payments moved to the archive
+     */
+    public long purge(PaymentDirection direction, LocalDateTime createdBefore, LocalDateTime deletedBefore) {
+        long started = System.currentTimeMillis();
+        long purged = 0;
+        int batches = 0;
+        List<Map<String, Object>> groups = jdbcTemplate.queryForList(GROUPS_SQL.formatted(direction.table()),
+                Timestamp.valueOf(createdBefore), Timestamp.valueOf(deletedBefore));
+        for (Map<String, Object> group : groups) {
+            UUID shortcodeUuid = (UUID) group.get("shortcode_uuid");
+            YearMonth month = YearMonth.from(((Timestamp) group.get("month")).toLocalDateTime());
+            long moved;
+            do {
+                moved = purgeBatch(direction, shortcodeUuid, month, createdBefore, deletedBefore);
+                purged += moved;
+                batches++;
+                if (moved == batchSize && !pause()) {
+                    return purged;
+                }
+            } while (moved == batchSize);
+        }
+        if (purged > 0) {
+            log.info("Archived and deleted {} {} payments in {} batches over {} shortcode-months in {}ms", purged,
+                    direction, batches, groups.size(), System.currentTimeMillis() - started);
+        }
+        return purged;
+    }
+
+    private long purgeBatch(PaymentDirection direction, UUID shortcodeUuid, YearMonth month,
+                            LocalDateTime createdBefore, LocalDateTime deletedBefore) {
+        String sql = PURGE_BATCH_SQL.formatted(direction.table(), direction.callbackTable(), direction.keysTable(),
+                shortcodeUuid, month.atDay(1).atStartOfDay(), month.plusMonths(1).atDay(1).atStartOfDay(),
+                createdBefore, deletedBefore, batchSize);
+        try (PaymentArchive.Part part = archive.newPart(direction, shortcodeUuid, month)) {
+            Long moved = transactionTemplate.execute(status -> jdbcTemplate.execute(
+                    (ConnectionCallback<Long>) connection -> {
+                        try (Statement keepRollups = connection.createStatement()) {
+                            keepRollups.execute(KEEP_ROLLUPS_SQL);
+                            long rows = connection.unwrap(PGConnection.class).getCopyAPI().copyOut(sql, part.out());
+                            if (rows > 0) {
+                                part.publish();
+                            }
+                            return rows;
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+            return moved != null ? moved : 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean pause() {
+        try {
+            Thread.sleep(batchPause);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
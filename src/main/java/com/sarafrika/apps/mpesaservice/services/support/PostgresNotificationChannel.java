@@ -0,0 +1,160 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Cross-node fan-out over PostgreSQL LISTEN/NOTIFY.
+ * <p>
+ * Publishing uses {@code pg_notify} on the regular pool. Listening holds one dedicated
+ * connection outside the pool (a pooled connection would be recycled under the listener),
+ * polled by a single daemon thread that reconnects with backoff. On any other database the
+ * channel is inert and each node only sees its own messages.
+ * </p>
+ */
+@Component
+@Slf4j
+public class PostgresNotificationChannel {
+
+    // NOTIFY payloads are capped at 8000 bytes by PostgreSQL
+    public static final int MAX_PAYLOAD_BYTES = 7900;
+
+    private static final long POLL_TIMEOUT_MS = 1000;
+    private static final long MAX_RECONNECT_BACKOFF_MS = 30_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String url;
+    private final String username;
+    private final String password;
+    private final boolean enabled;
+
+    private final Map<String, List<Consumer<String>>> subscribers = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+    private Thread listener;
+
+    public PostgresNotificationChannel(
+            JdbcTemplate jdbcTemplate,
+            @Value("${spring.datasource.url:}") String url,
+            @Value("${spring.datasource.username:}") String username,
+            @Value("${spring.datasource.password:}") String password,
+            @Value("${mpesa.notify.enabled:true}") boolean enabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.enabled = enabled && url.startsWith("jdbc:postgresql:");
+    }
+
+    /**
+     * Register a handler for a channel. Must be called before the application is ready.
+     */
+    public void subscribe(String channel, Consumer<String> handler) {
+        subscribers.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(handler);
+    }
+
+    /**
+     * Publish to every node listening on {@code channel}, including this one.
+     * Returns false when the channel is inert or the payload is too large.
+     */
+    public boolean publish(String channel, String payload) {
+        if (!enabled) {
+            return false;
+        }
+        if (payload.getBytes(StandardCharsets.UTF_8).length > MAX_PAYLOAD_BYTES) {
+            log.warn("Skipping NOTIFY on {}: payload exceeds {} bytes", channel, MAX_PAYLOAD_BYTES);
+            return false;
+        }
+        try {
+            jdbcTemplate.queryForObject("SELECT pg_notify(?, ?)", Object.class, channel, payload);
+            return true;
+        } catch (RuntimeException e) {
+            log.error("Failed to NOTIFY on {}: {}", channel, e.getMessage());
+            return false;
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled || subscribers.isEmpty()) {
+            return;
+        }
+        running = true;
+        listener = new Thread(this::listenLoop, "pg-notify-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (listener != null) {
+            listener.interrupt();
+        }
+    }
+
+    private void listenLoop() {
+        long backoffMs = 500;
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(url, username, password)) {
+                try (Statement statement = connection.createStatement()) {
+                    for (String channel : subscribers.keySet()) {
+                        statement.execute("LISTEN \"" + channel + "\"");
+                    }
+                }
+                log.info("Listening for notifications on {}", subscribers.keySet());
+                backoffMs = 500;
+
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications((int) POLL_TIMEOUT_MS);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        dispatch(notification.getName(), notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Notification listener connection lost ({}), reconnecting in {}ms", e.getMessage(), backoffMs);
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                backoffMs = Math.min(backoffMs * 2, MAX_RECONNECT_BACKOFF_MS);
+            }
+        }
+    }
+
+    private void dispatch(String channel, String payload) {
+        for (Consumer<String> handler : subscribers.getOrDefault(channel, List.of())) {
+            try {
+                handler.accept(payload);
+            } catch (RuntimeException e) {
+                log.error("Notification handler on {} failed: {}", channel, e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.sarafrika.apps.mpesaservice.dtos.ReconciliationReport;
+import com.sarafrika.apps.mpesaservice.dtos.StatementEntry;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * In-memory hash join of one shortcode's statement against its local payments on the receipt
+ * number.
+ * <p>
+ * The statement is the build side: every completed, non-charge row goes into a hash table
+ * keyed by receipt. Local payments are then probed one at a time as they come off the database
+ * cursor, and each hit is removed from the table, so whatever is left once the cursor is done
+ * is the set of receipts Safaricom has that we do not. Each probe and each build is O(1), so a
+ * month of statement rows reconciles in a single pass over both sides.
+ * </p>
+ * Not thread-safe; one instance serves one shortcode on one thread.
+ */
+public final class ReconciliationJoin {
+
+    private final Map<String, StatementEntry> statement;
+    private final int maxItems;
+
+    private long statementRows;
+    private long duplicateStatementRows;
+    private BigDecimal chargesTotal = BigDecimal.ZERO;
+
+    private long localRows;
+    private long matchedCount;
+    private BigDecimal matchedAmount = BigDecimal.ZERO;
+    private long missingAtSafaricomCount;
+    private long amountMismatchCount;
+
+    private final List<ReconciliationReport.Item> missingAtSafaricom = new ArrayList<>();
+    private final List<ReconciliationReport.Item> amountMismatches = new ArrayList<>();
+
+    public ReconciliationJoin(int expectedRows, int maxItems) {
+        this.statement = HashMap.newHashMap(Math.max(expectedRows, 16));
+        this.maxItems = maxItems;
+    }
+
+    /**
+     * Add a statement row to the build side. Charges are totalled but not joined, and a
+     * receipt seen twice keeps its first row.
+     */
+    public void build(StatementEntry entry) {
+        if (entry.charge()) {
+            if (entry.amount() != null) {
+                chargesTotal = chargesTotal.add(entry.amount());
+            }
+            return;
+        }
+        if (statement.putIfAbsent(entry.receiptNumber(), entry) != null) {
+            duplicateStatementRows++;
+            return;
+        }
+        statementRows++;
+    }
+
+    /**
+     * Join one successful local payment against the statement
+     */
+    public void probe(boolean paidIn, UUID localUuid, String receiptNumber, BigDecimal amount,
+                      LocalDateTime completedAt) {
+        localRows++;
+        StatementEntry entry = receiptNumber != null ? statement.remove(receiptNumber) : null;
+        if (entry == null) {
+            missingAtSafaricomCount++;
+            report(missingAtSafaricom, new ReconciliationReport.Item(
+                    receiptNumber, paidIn, null, amount, localUuid, completedAt));
+            return;
+        }
+        if (entry.paidIn() == paidIn && amount != null && entry.amount() != null
+                && entry.amount().compareTo(amount) == 0) {
+            matchedCount++;
+            matchedAmount = matchedAmount.add(amount);
+            return;
+        }
+        amountMismatchCount++;
+        report(amountMismatches, new ReconciliationReport.Item(
+                receiptNumber, entry.paidIn(), entry.amount(), amount, localUuid, entry.completedAt()));
+    }
+
+    /**
+     * Close the join. Statement rows that no local payment claimed are reported as missing
+     * locally.
+     */
+    public ReconciliationReport finish(UUID shortcodeUuid, LocalDate from, LocalDate to, long processingTimeMs) {
+        List<ReconciliationReport.Item> missingLocally = new ArrayList<>();
+        for (StatementEntry entry : statement.values()) {
+            report(missingLocally, new ReconciliationReport.Item(
+                    entry.receiptNumber(), entry.paidIn(), entry.amount(), null, null, entry.completedAt()));
+        }
+        return new ReconciliationReport(
+                shortcodeUuid,
+                from,
+                to,
+                statementRows,
+                localRows,
+                matchedCount,
+                matchedAmount,
+                statement.size(),
+                missingAtSafaricomCount,
+                amountMismatchCount,
+                duplicateStatementRows,
+                chargesTotal,
+                missingLocally,
+                missingAtSafaricom,
+                amountMismatches,
+                processingTimeMs
+        );
+    }
+
+    private void report(List<ReconciliationReport.Item> items, ReconciliationReport.Item item) {
+        if (items.size() < maxItems) {
+            items.add(item);
+        }
+    }
+}
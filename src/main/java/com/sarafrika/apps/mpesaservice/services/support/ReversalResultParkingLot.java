@@ -0,0 +1,27 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Holds reversal results that arrived before their reversal recorded Daraja's acceptance,
+ * keyed by ConversationID, which Daraja only returns in the initiation response.
+ */
+@Component
+public class ReversalResultParkingLot extends CallbackParkingLot {
+
+    public ReversalResultParkingLot(
+            @Value("${mpesa.reversal.parking.max-entries:1000}") int maxEntries,
+            @Value("${mpesa.reversal.parking.ttl:PT10M}") Duration ttl) {
+        super("Reversal result", maxEntries, ttl);
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${mpesa.reversal.parking.sweep-interval-ms:30000}")
+    public void sweep() {
+        super.sweep();
+    }
+}
@@ -0,0 +1,161 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.sarafrika.apps.mpesaservice.dtos.ResultParameterIndex;
+import com.sarafrika.apps.mpesaservice.dtos.StatementEntry;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams the completed rows out of a Safaricom organisation statement CSV without buffering
+ * the file.
+ * <p>
+ * Columns are found by their header ({@code Receipt No.}, {@code Completion Time},
+ * {@code Transaction Status}, {@code Paid In}, {@code Withdrawn}, {@code Reason Type},
+ * {@code Details}), so the account summary lines the portal writes above the header are
+ * skipped and column order does not matter. Rows whose status is anything but Completed are
+ * dropped. Transaction charges are returned flagged as such, since they repeat the receipt of
+ * the payment they belong to.
+ * </p>
+ */
+@Component
+public class StatementFileParser {
+
+    private static final DateTimeFormatter COMPLETION_FORMATTER =
+            DateTimeFormatter.ofPattern("[yyyy-MM-dd HH:mm[:ss]][dd-MM-yyyy HH:mm[:ss]][dd/MM/yyyy HH:mm[:ss]]");
+
+    public Iterator<StatementEntry> parseCsv(InputStream body) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8), 64 * 1024);
+        return new Iterator<>() {
+            private Map<String, Integer> columns;
+            private StatementEntry nextEntry;
+
+            @Override
+            public boolean hasNext() {
+                if (nextEntry != null) {
+                    return true;
+                }
+                try {
+                    String raw;
+                    while ((raw = reader.readLine()) != null) {
+                        if (raw.isBlank()) {
+                            continue;
+                        }
+                        List<String> fields = DisbursementFileParser.splitCsv(raw);
+                        if (columns == null) {
+                            columns = header(fields);
+                            continue;
+                        }
+                        nextEntry = entry(columns, fields);
+                        if (nextEntry != null) {
+                            return true;
+                        }
+                    }
+                    if (columns == null) {
+                        throw new IllegalArgumentException("Statement has no header row with a Receipt No. column");
+                    }
+                    return false;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public StatementEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                StatementEntry entry = nextEntry;
+                nextEntry = null;
+                return entry;
+            }
+        };
+    }
+
+    /**
+     * Column positions by normalised name when the record is the header row, otherwise null
+     */
+    private static Map<String, Integer> header(List<String> fields) {
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < fields.size(); i++) {
+            positions.putIfAbsent(normalise(fields.get(i)), i);
+        }
+        return positions.containsKey("receiptno") ? positions : null;
+    }
+
+    private static StatementEntry entry(Map<String, Integer> columns, List<String> fields) {
+        String receipt = field(columns, fields, "receiptno");
+        if (receipt == null) {
+            return null;
+        }
+        String status = field(columns, fields, "transactionstatus");
+        if (status != null && !status.equalsIgnoreCase("Completed")) {
+            return null;
+        }
+        BigDecimal paidIn = amount(field(columns, fields, "paidin"));
+        BigDecimal withdrawn = amount(field(columns, fields, "withdrawn"));
+        boolean in = paidIn != null && paidIn.signum() != 0;
+        BigDecimal value = in ? paidIn : withdrawn;
+
+        String reason = field(columns, fields, "reasontype");
+        String details = field(columns, fields, "details");
+        boolean charge = containsCharge(reason) || containsCharge(details);
+
+        return new StatementEntry(receipt, completedAt(field(columns, fields, "completiontime")),
+                value != null ? value.abs() : null, in, charge, details);
+    }
+
+    private static String field(Map<String, Integer> columns, List<String> fields, String name) {
+        Integer index = columns.get(name);
+        if (index == null || index >= fields.size()) {
+            return null;
+        }
+        String value = fields.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static BigDecimal amount(String value) {
+        return value == null ? null : ResultParameterIndex.parseAmount(value.replace(",", ""));
+    }
+
+    private static LocalDateTime completedAt(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(value, COMPLETION_FORMATTER);
+        } catch (DateTimeParseException e) {
+            return ResultParameterIndex.parseTimestamp(value);
+        }
+    }
+
+    private static boolean containsCharge(String value) {
+        return value != null && value.toLowerCase(Locale.ROOT).contains("charge");
+    }
+
+    private static String normalise(String name) {
+        StringBuilder letters = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetter(c)) {
+                letters.append(Character.toLowerCase(c));
+            }
+        }
+        return letters.toString();
+    }
+}
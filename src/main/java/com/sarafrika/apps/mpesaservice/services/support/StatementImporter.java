@@ -0,0 +1,251 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.sarafrika.apps.mpesaservice.dtos.StatementEntry;
+import com.sarafrika.apps.mpesaservice.dtos.StatementImportResult;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaShortCodeRepository;
+import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentType;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Backfills a shortcode's incoming payments from a Safaricom org statement.
+ * <p>
+ * The statement is streamed from the parser straight into a PostgreSQL {@code COPY} into a
+ * temporary staging table, so no row is ever built as an entity or inserted on its own. One
+ * set-based {@code INSERT ... SELECT} then merges the staged payments into
+ * {@code mpesa_incoming_payments}, skipping receipts that are already recorded and keeping the
+ * first of any receipt the file repeats. Each receipt is claimed in
+ * {@code mpesa_incoming_payment_keys} before its payment is inserted, so a receipt already
+ * recorded in any month, or claimed by a C2B confirmation racing the import, is skipped. The
+ * whole import is one transaction; the staging table is dropped when it commits.
+ * </p>
+ * <p>
+ * Only money paid in is imported. Imported rows are SUCCESS, carry their completion time as
+ * both transaction and creation time so they sort with the payments they sat alongside, and are
+ * marked {@code created_by = 'statement-import'}. The payer, name and account reference come
+ * from the statement's details text ({@code Pay Bill from 2547... - JANE DOE Acc. INV-1}).
+ * </p>
+ */
+@Component
+@Slf4j
+public class StatementImporter {
+
+    public static final String CREATED_BY = "statement-import";
+
+    private static final String CREATE_STAGING_SQL = """
+            CREATE TEMPORARY TABLE mpesa_statement_staging
+            (
+                transaction_id    VARCHAR(50),
+                payment_type      VARCHAR(20),
+                phone_number      VARCHAR(15),
+                amount            DECIMAL(10, 2),
+                account_reference VARCHAR(100),
+                transaction_desc  VARCHAR(255),
+                first_name        VARCHAR(100),
+                middle_name       VARCHAR(100),
+                last_name         VARCHAR(100),
+                transaction_date  TIMESTAMP
+            ) ON COMMIT DROP
+            """;
+
+    private static final String COPY_SQL = "COPY mpesa_statement_staging FROM STDIN";
+
+    private static final String MERGE_SQL = """
+            WITH staged AS (
+                SELECT DISTINCT ON (transaction_id) *
+                  FROM mpesa_statement_staging
+                 ORDER BY transaction_id
+            ), receipt AS (
+                INSERT INTO mpesa_incoming_payment_keys (payment_id, payment_created_at, uuid, transaction_id)
+                SELECT nextval('mpesa_incoming_payments_id_seq'), COALESCE(s.transaction_date, now()), gen_random_uuid(),
+                       s.transaction_id
+                  FROM staged s
+                 ORDER BY s.transaction_id
+                ON CONFLICT (transaction_id) DO NOTHING
+                RETURNING payment_id, payment_created_at, uuid, transaction_id
+            )
+            INSERT INTO mpesa_incoming_payments (id, uuid, shortcode_uuid, payment_type, transaction_id, phone_number,
+                                                 amount, account_reference, transaction_desc, first_name, middle_name,
+                                                 last_name, result_code, result_desc, transaction_date, status,
+                                                 processed_at, created_at, updated_at, created_by)
+            SELECT r.payment_id, r.uuid, ?, s.payment_type, s.transaction_id, s.phone_number, s.amount,
+                   s.account_reference, s.transaction_desc, s.first_name, s.middle_name, s.last_name, 0,
+                   'Imported from org statement', s.transaction_date, 'SUCCESS', r.payment_created_at,
+                   r.payment_created_at, now(), ?
+              FROM receipt r
+              JOIN staged s ON s.transaction_id = r.transaction_id
+            """;
+
+    private static final Pattern DETAILS =
+            Pattern.compile("^(.*?) from (\\S+)(?: - (.*?))?(?: Acc\\. ?(.*))?$", Pattern.CASE_INSENSITIVE);
+    private static final String UNKNOWN_PARTY = "UNKNOWN";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final MpesaShortCodeRepository shortCodeRepository;
+    private final int bufferSize;
+
+    public StatementImporter(
+            DataSource dataSource,
+            PlatformTransactionManager transactionManager,
+            MpesaShortCodeRepository shortCodeRepository,
+            @Value("${mpesa.statement-import.copy-buffer-size:65536}") int bufferSize) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.shortCodeRepository = shortCodeRepository;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Import the payments in of a statement for the shortcode
+     */
+    public StatementImportResult importStatement(UUID shortcodeUuid, Iterator<StatementEntry> statement) {
+        if (shortCodeRepository.findByUuid(shortcodeUuid).isEmpty()) {
+            throw new IllegalArgumentException("Shortcode not found: " + shortcodeUuid);
+        }
+        long started = System.currentTimeMillis();
+        StatementImportResult result = transactionTemplate.execute(status -> jdbcTemplate.execute(
+                (ConnectionCallback<StatementImportResult>) connection -> load(connection, shortcodeUuid, statement,
+                        started)));
+        log.info("Imported statement for shortcode {}: {} rows read, {} staged, {} duplicates, {} already present, "
+                        + "{} imported in {}ms", shortcodeUuid, result.rowsRead(), result.rowsStaged(),
+                result.duplicateRows(), result.alreadyPresent(), result.imported(), result.processingTimeMs());
+        return result;
+    }
+
+    private StatementImportResult load(Connection connection, UUID shortcodeUuid, Iterator<StatementEntry> statement,
+                                       long started) throws SQLException {
+        try (Statement ddl = connection.createStatement()) {
+            ddl.execute(CREATE_STAGING_SQL);
+        }
+
+        long read = 0;
+        long staged = 0;
+        PGCopyOutputStream copy = new PGCopyOutputStream(connection.unwrap(PGConnection.class), COPY_SQL, bufferSize);
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(copy, StandardCharsets.UTF_8), bufferSize);
+            while (statement.hasNext()) {
+                read++;
+                String row = copyRow(statement.next());
+                if (row != null) {
+                    writer.write(row);
+                    staged++;
+                }
+            }
+            writer.flush();
+            copy.endCopy();
+        } catch (IOException e) {
+            throw new SQLException("COPY into statement staging failed", e);
+        } finally {
+            if (copy.isActive()) {
+                copy.cancelCopy();
+            }
+        }
+
+        long distinct;
+        long imported;
+        try (Statement analyze = connection.createStatement()) {
+            analyze.execute("ANALYZE mpesa_statement_staging");
+            ResultSet counted = analyze.executeQuery("SELECT count(DISTINCT transaction_id) FROM mpesa_statement_staging");
+            counted.next();
+            distinct = counted.getLong(1);
+        }
+        try (PreparedStatement merge = connection.prepareStatement(MERGE_SQL)) {
+            merge.setObject(1, shortcodeUuid);
+            merge.setString(2, CREATED_BY);
+            imported = merge.executeUpdate();
+        }
+
+        return new StatementImportResult(shortcodeUuid, read, read - staged, staged, staged - distinct,
+                distinct - imported, imported, System.currentTimeMillis() - started);
+    }
+
+    /**
+     * One row of the staging table in COPY text format, or null when the entry is not a
+     * payment in that can be imported
+     */
+    public static String copyRow(StatementEntry entry) {
+        if (!entry.paidIn() || entry.charge() || entry.amount() == null || entry.amount().signum() <= 0
+                || entry.receiptNumber().length() > 50) {
+            return null;
+        }
+        String type = IncomingPaymentType.C2B.name();
+        String party = UNKNOWN_PARTY;
+        String name = null;
+        String account = null;
+        Matcher details = entry.details() != null ? DETAILS.matcher(entry.details().trim()) : null;
+        if (details != null && details.matches()) {
+            if (details.group(1).toLowerCase(Locale.ROOT).contains("online")) {
+                type = IncomingPaymentType.STK_PUSH.name();
+            }
+            party = details.group(2);
+            name = details.group(3);
+            account = details.group(4);
+        }
+        String[] names = name != null ? name.trim().split("\\s+") : new String[0];
+        String firstName = names.length > 0 ? names[0] : null;
+        String middleName = names.length > 2 ? names[1] : null;
+        String lastName = names.length > 1
+                ? String.join(" ", Arrays.copyOfRange(names, names.length > 2 ? 2 : 1, names.length))
+                : null;
+
+        StringBuilder row = new StringBuilder(160);
+        field(row, entry.receiptNumber(), 50);
+        field(row, type, 20);
+        field(row, party, 15);
+        field(row, entry.amount().toPlainString(), 20);
+        field(row, account, 100);
+        field(row, entry.details(), 255);
+        field(row, firstName, 100);
+        field(row, middleName, 100);
+        field(row, lastName, 100);
+        field(row, entry.completedAt() != null ? entry.completedAt().toString() : null, 30);
+        row.setCharAt(row.length() - 1, '\n');
+        return row.toString();
+    }
+
+    private static void field(StringBuilder row, String value, int maxLength) {
+        if (value == null || value.isBlank()) {
+            row.append("\\N\t");
+            return;
+        }
+        String trimmed = value.trim();
+        int end = Math.min(trimmed.length(), maxLength);
+        for (int i = 0; i < end; i++) {
+            char c = trimmed.charAt(i);
+            switch (c) {
+                case '\\' -> row.append("\\\\");
+                case '\t' -> row.append("\\t");
+                case '\n' -> row.append("\\n");
+                case '\r' -> row.append("\\r");
+                default -> row.append(c);
+            }
+        }
+        row.append('\t');
+    }
+}
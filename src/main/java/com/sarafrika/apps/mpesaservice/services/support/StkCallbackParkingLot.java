@@ -0,0 +1,28 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Holds STK Push callbacks that arrived before their PENDING row was committed, keyed by
+ * CheckoutRequestID. {@code initiateSTKPush} only persists the row after Daraja responds,
+ * so a fast customer can complete the prompt first.
+ */
+@Component
+public class StkCallbackParkingLot extends CallbackParkingLot {
+
+    public StkCallbackParkingLot(
+            @Value("${mpesa.stk.parking.max-entries:10000}") int maxEntries,
+            @Value("${mpesa.stk.parking.ttl:PT10M}") Duration ttl) {
+        super("STK", maxEntries, ttl);
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${mpesa.stk.parking.sweep-interval-ms:30000}")
+    public void sweep() {
+        super.sweep();
+    }
+}
@@ -0,0 +1,255 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.dtos.StkPushRequest;
+import com.sarafrika.apps.mpesaservice.dtos.StkPushResponse;
+import com.sarafrika.apps.mpesaservice.models.MpesaIdempotencyKey;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaIdempotencyKeyRepository;
+import com.sarafrika.apps.mpesaservice.utils.enums.IdempotencyKeyStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Makes {@code POST /api/v1/mpesa/stk-push} idempotent per client-supplied Idempotency-Key.
+ * <p>
+ * Completed responses are served from memory first and from {@code mpesa_idempotency_keys}
+ * otherwise, so a retry never reaches Daraja. Concurrent duplicates on this node wait on the
+ * first attempt's future; a duplicate racing an attempt on another node loses the unique-key
+ * claim and polls the table until that attempt settles. A failure that proves the prompt was
+ * never sent (bad request, refused token, rate limit, a phone already prompted) releases the
+ * key so the client can retry it. Any other failure, such as a timeout or a Daraja 5xx, may
+ * still have prompted the handset, so it is kept and replayed like a success.
+ * </p>
+ */
+@Component
+@Slf4j
+public class StkPushIdempotencyGuard {
+
+    private static final TypeReference<MpesaApiResponse<StkPushResponse>> RESPONSE_TYPE = new TypeReference<>() {};
+    private static final long REMOTE_POLL_INTERVAL_MS = 250;
+
+    /**
+     * Error codes that prove the STK Push never reached the handset
+     */
+    private static final Set<String> NOT_SENT = Set.of(
+            "AUTH_FAILED", "CLIENT_ERROR", "RATE_LIMITED", "INVALID_ARGUMENT", "INVALID_CONFIG", "NOT_SENT",
+            "STK_PUSH_IN_PROGRESS");
+
+    private final MpesaIdempotencyKeyRepository repository;
+    private final ObjectMapper objectMapper;
+    private final Duration retention;
+    private final Duration waitTimeout;
+
+    private final Map<String, Attempt> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Completed> completed = new ConcurrentHashMap<>();
+
+    public StkPushIdempotencyGuard(
+            MpesaIdempotencyKeyRepository repository,
+            ObjectMapper objectMapper,
+            @Value("${mpesa.idempotency.retention:PT24H}") Duration retention,
+            @Value("${mpesa.idempotency.wait-timeout:PT30S}") Duration waitTimeout) {
+        this.repository = repository;
+        this.objectMapper = objectMapper;
+        this.retention = retention;
+        this.waitTimeout = waitTimeout;
+    }
+
+    private record Attempt(String requestHash, CompletableFuture<MpesaApiResponse<StkPushResponse>> result) {}
+
+    private record Completed(String requestHash, MpesaApiResponse<StkPushResponse> response, Instant expiresAt) {}
+
+    /**
+     * Run {@code initiation} at most once per key and return its response to every duplicate.
+     */
+    public MpesaApiResponse<StkPushResponse> execute(String idempotencyKey, StkPushRequest request,
+                                                     Supplier<MpesaApiResponse<StkPushResponse>> initiation) {
+        String requestHash = hash(request);
+
+        Completed cached = completed.get(idempotencyKey);
+        if (cached != null && cached.expiresAt().isAfter(Instant.now())) {
+            return replay(idempotencyKey, requestHash, cached.requestHash(), cached.response());
+        }
+
+        Attempt mine = new Attempt(requestHash, new CompletableFuture<>());
+        Attempt first = inFlight.putIfAbsent(idempotencyKey, mine);
+        if (first != null) {
+            if (!first.requestHash().equals(requestHash)) {
+                return keyReused(idempotencyKey);
+            }
+            log.info("Waiting on in-flight STK Push for Idempotency-Key: {}", idempotencyKey);
+            return await(idempotencyKey, first.result());
+        }
+
+        try {
+            MpesaApiResponse<StkPushResponse> response = claimAndRun(idempotencyKey, requestHash, initiation);
+            mine.result().complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            mine.result().completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(idempotencyKey, mine);
+        }
+    }
+
+    private MpesaApiResponse<StkPushResponse> claimAndRun(String idempotencyKey, String requestHash,
+                                                          Supplier<MpesaApiResponse<StkPushResponse>> initiation) {
+        LocalDateTime now = LocalDateTime.now();
+        Optional<MpesaIdempotencyKey> claimed = repository.claim(idempotencyKey, requestHash,
+                now.plus(retention), now.minus(waitTimeout.multipliedBy(2)));
+        if (claimed.isEmpty()) {
+            return awaitRemote(idempotencyKey, requestHash);
+        }
+
+        MpesaApiResponse<StkPushResponse> response;
+        try {
+            response = initiation.get();
+        } catch (RuntimeException e) {
+            log.error("STK Push for Idempotency-Key: {} failed, outcome unknown: {}", idempotencyKey, e.getMessage(), e);
+            response = MpesaApiResponse.error("INTERNAL_ERROR", e.getMessage(),
+                    HttpStatus.INTERNAL_SERVER_ERROR.value());
+        }
+
+        if (!response.success() && response.error() != null && NOT_SENT.contains(response.error().errorCode())) {
+            repository.release(idempotencyKey);
+            return response;
+        }
+        repository.complete(idempotencyKey, response.httpStatus(), toJson(response));
+        completed.put(idempotencyKey, new Completed(requestHash, response, Instant.now().plus(retention)));
+        return response;
+    }
+
+    /**
+     * Another node holds the claim (or already finished). Poll the table until it settles.
+     */
+    private MpesaApiResponse<StkPushResponse> awaitRemote(String idempotencyKey, String requestHash) {
+        long deadline = System.nanoTime() + waitTimeout.toNanos();
+        while (true) {
+            Optional<MpesaIdempotencyKeyRepository.KeyState> row = repository.findStateByIdempotencyKey(idempotencyKey);
+            if (row.isEmpty()) {
+                // The other attempt failed and released the key; let the client retry it.
+                return MpesaApiResponse.error("IDEMPOTENT_REQUEST_FAILED",
+                        "The original request for this Idempotency-Key failed; retry it", HttpStatus.CONFLICT.value());
+            }
+            MpesaIdempotencyKeyRepository.KeyState key = row.get();
+            if (!key.getRequestHash().equals(requestHash)) {
+                return keyReused(idempotencyKey);
+            }
+            if (IdempotencyKeyStatus.COMPLETED.name().equals(key.getStatus())) {
+                MpesaApiResponse<StkPushResponse> response = fromJson(key.getResponseBody());
+                completed.put(idempotencyKey, new Completed(requestHash, response,
+                        key.getExpiresAt().atZone(ZoneId.systemDefault()).toInstant()));
+                log.info("Replaying stored STK Push response for Idempotency-Key: {}", idempotencyKey);
+                return response;
+            }
+            if (System.nanoTime() > deadline) {
+                return inProgress();
+            }
+            try {
+                Thread.sleep(REMOTE_POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return inProgress();
+            }
+        }
+    }
+
+    private MpesaApiResponse<StkPushResponse> await(String idempotencyKey,
+                                                    CompletableFuture<MpesaApiResponse<StkPushResponse>> first) {
+        try {
+            return first.get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return inProgress();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return inProgress();
+        } catch (ExecutionException e) {
+            log.warn("In-flight STK Push for Idempotency-Key: {} failed: {}", idempotencyKey, e.getCause().getMessage());
+            return MpesaApiResponse.error("IDEMPOTENT_REQUEST_FAILED",
+                    "The original request for this Idempotency-Key failed; retry it", HttpStatus.CONFLICT.value());
+        }
+    }
+
+    private MpesaApiResponse<StkPushResponse> replay(String idempotencyKey, String requestHash, String storedHash,
+                                                     MpesaApiResponse<StkPushResponse> response) {
+        if (!storedHash.equals(requestHash)) {
+            return keyReused(idempotencyKey);
+        }
+        log.info("Replaying cached STK Push response for Idempotency-Key: {}", idempotencyKey);
+        return response;
+    }
+
+    private MpesaApiResponse<StkPushResponse> keyReused(String idempotencyKey) {
+        log.warn("Idempotency-Key: {} reused with a different request body", idempotencyKey);
+        return MpesaApiResponse.error("IDEMPOTENCY_KEY_REUSED",
+                "Idempotency-Key was already used for a different request", HttpStatus.UNPROCESSABLE_ENTITY.value());
+    }
+
+    private MpesaApiResponse<StkPushResponse> inProgress() {
+        return MpesaApiResponse.error("IDEMPOTENT_REQUEST_IN_PROGRESS",
+                "A request with this Idempotency-Key is still being processed", HttpStatus.CONFLICT.value());
+    }
+
+    /**
+     * Drop expired keys from memory and from the table
+     */
+    @Scheduled(fixedDelayString = "${mpesa.idempotency.sweep-interval-ms:600000}")
+    public void sweep() {
+        Instant now = Instant.now();
+        completed.values().removeIf(entry -> entry.expiresAt().isBefore(now));
+        int purged = repository.deleteExpired();
+        if (purged > 0) {
+            log.info("Purged {} expired idempotency keys", purged);
+        }
+    }
+
+    private String hash(StkPushRequest request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = digest.digest(objectMapper.writeValueAsString(request).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(bytes);
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException("Unable to hash STK Push request", e);
+        }
+    }
+
+    private MpesaApiResponse<StkPushResponse> fromJson(String json) {
+        try {
+            return objectMapper.readValue(json, RESPONSE_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to read stored STK Push response", e);
+        }
+    }
+
+    private String toJson(MpesaApiResponse<StkPushResponse> response) {
+        try {
+            return objectMapper.writeValueAsString(response);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unable to serialize STK Push response", e);
+        }
+    }
+}
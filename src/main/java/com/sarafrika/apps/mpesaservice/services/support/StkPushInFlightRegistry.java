@@ -0,0 +1,135 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.sarafrika.apps.mpesaservice.dtos.StkPushInFlightStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks which phone numbers currently have an STK Push prompt open.
+ * <p>
+ * Safaricom rejects a second prompt to a handset that is still showing one, so sending it
+ * only burns a Daraja round trip and quota. A phone is held from the moment a request is
+ * admitted until its callback arrives, the initiation provably fails before prompting the
+ * handset, or the prompt lifetime passes.
+ * </p>
+ */
+@Component
+public class StkPushInFlightRegistry {
+
+    private final Duration promptLifetime;
+
+    private final Map<String, InFlight> byMsisdn = new ConcurrentHashMap<>();
+    private final Map<String, String> msisdnByCheckoutRequestId = new ConcurrentHashMap<>();
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    public StkPushInFlightRegistry(@Value("${mpesa.stk.in-flight.prompt-lifetime:PT60S}") Duration promptLifetime) {
+        this.promptLifetime = promptLifetime;
+    }
+
+    private record InFlight(String checkoutRequestId, Instant expiresAt) {
+        boolean isExpired(Instant now) {
+            return now.isAfter(expiresAt);
+        }
+    }
+
+    /**
+     * Claim the phone for a new prompt. Returns false if a live prompt is already open.
+     */
+    public boolean tryAcquire(String phoneNumber) {
+        String msisdn = normalize(phoneNumber);
+        Instant now = Instant.now();
+        boolean[] acquired = {false};
+        byMsisdn.compute(msisdn, (key, current) -> {
+            if (current != null && !current.isExpired(now)) {
+                return current;
+            }
+            if (current != null && current.checkoutRequestId() != null) {
+                msisdnByCheckoutRequestId.remove(current.checkoutRequestId(), key);
+            }
+            acquired[0] = true;
+            return new InFlight(null, now.plus(promptLifetime));
+        });
+        (acquired[0] ? admitted : rejected).incrementAndGet();
+        return acquired[0];
+    }
+
+    /**
+     * Bind the held phone to the CheckoutRequestID Daraja returned, restarting the prompt
+     * lifetime from now since that is when the handset is actually prompted.
+     */
+    public void attach(String phoneNumber, String checkoutRequestId) {
+        String msisdn = normalize(phoneNumber);
+        msisdnByCheckoutRequestId.put(checkoutRequestId, msisdn);
+        byMsisdn.put(msisdn, new InFlight(checkoutRequestId, Instant.now().plus(promptLifetime)));
+    }
+
+    /**
+     * Release a phone whose initiation never reached the handset.
+     */
+    public void release(String phoneNumber) {
+        if (byMsisdn.remove(normalize(phoneNumber)) != null) {
+            released.incrementAndGet();
+        }
+    }
+
+    /**
+     * Release the phone behind a prompt once its result is known. A stale CheckoutRequestID
+     * does not release a newer prompt to the same phone.
+     */
+    public void releaseByCheckoutRequestId(String checkoutRequestId) {
+        String msisdn = msisdnByCheckoutRequestId.remove(checkoutRequestId);
+        if (msisdn == null) {
+            return;
+        }
+        boolean[] removed = {false};
+        byMsisdn.computeIfPresent(msisdn, (key, current) -> {
+            removed[0] = checkoutRequestId.equals(current.checkoutRequestId());
+            return removed[0] ? null : current;
+        });
+        if (removed[0]) {
+            released.incrementAndGet();
+        }
+    }
+
+    public StkPushInFlightStats stats() {
+        return new StkPushInFlightStats(byMsisdn.size(), admitted.get(), rejected.get(), released.get(), expired.get());
+    }
+
+    /**
+     * Drop prompts whose lifetime passed without a callback so the map stays bounded.
+     */
+    @Scheduled(fixedDelayString = "${mpesa.stk.in-flight.sweep-interval-ms:15000}")
+    public void sweep() {
+        Instant now = Instant.now();
+        byMsisdn.forEach((msisdn, current) -> {
+            if (current.isExpired(now) && byMsisdn.remove(msisdn, current)) {
+                if (current.checkoutRequestId() != null) {
+                    msisdnByCheckoutRequestId.remove(current.checkoutRequestId(), msisdn);
+                }
+                expired.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Reduce the common Kenyan MSISDN spellings (07.., +2547.., 2547..) to one key.
+     */
+    static String normalize(String phoneNumber) {
+        String digits = phoneNumber == null ? "" : phoneNumber.replaceAll("\\D", "");
+        if (digits.startsWith("0")) {
+            return "254" + digits.substring(1);
+        }
+        return digits;
+    }
+}
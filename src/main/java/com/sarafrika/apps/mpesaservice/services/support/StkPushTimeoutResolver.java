@@ -0,0 +1,196 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.dtos.StkStatusResponse;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaIncomingPaymentRepository;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaIncomingPaymentRepository.OutstandingPayment;
+import com.sarafrika.apps.mpesaservice.services.MpesaDarajaService;
+import com.sarafrika.apps.mpesaservice.services.MpesaIncomingPaymentService;
+import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentStatus;
+import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentType;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Resolves STK Pushes whose callback never arrives.
+ * <p>
+ * Every persisted PENDING STK Push arms a timeout just past the prompt's expiry. If the row
+ * is still PENDING when it fires, Daraja's STK status query is asked for the result and it is
+ * applied through the same guarded update a callback would use. A query that fails (Daraja
+ * answers "still processing" with an error) is re-armed with backoff. On startup a keyset scan
+ * over outstanding rows re-arms timers lost with the previous process.
+ * </p>
+ */
+@Component
+@Slf4j
+public class StkPushTimeoutResolver {
+
+    private static final int RECOVERY_PAGE_SIZE = 500;
+
+    private final ObjectProvider<MpesaDarajaService> darajaService;
+    private final MpesaIncomingPaymentService incomingPaymentService;
+    private final MpesaIncomingPaymentRepository repository;
+    private final Duration resolveAfter;
+    private final Duration retryBackoff;
+    private final int maxAttempts;
+
+    private final ExecutorService resolverPool;
+    private final HashedWheelTimer timer;
+    private final Map<String, HashedWheelTimer.Timeout> armed = new ConcurrentHashMap<>();
+
+    public StkPushTimeoutResolver(
+            ObjectProvider<MpesaDarajaService> darajaService,
+            MpesaIncomingPaymentService incomingPaymentService,
+            MpesaIncomingPaymentRepository repository,
+            @Value("${mpesa.stk.timeout.resolve-after:PT75S}") Duration resolveAfter,
+            @Value("${mpesa.stk.timeout.retry-backoff:PT15S}") Duration retryBackoff,
+            @Value("${mpesa.stk.timeout.max-attempts:5}") int maxAttempts,
+            @Value("${mpesa.stk.timeout.resolver-threads:4}") int resolverThreads) {
+        this.darajaService = darajaService;
+        this.incomingPaymentService = incomingPaymentService;
+        this.repository = repository;
+        this.resolveAfter = resolveAfter;
+        this.retryBackoff = retryBackoff;
+        this.maxAttempts = maxAttempts;
+        this.resolverPool = Executors.newFixedThreadPool(resolverThreads, runnable -> {
+            Thread thread = new Thread(runnable, "stk-timeout-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer = new HashedWheelTimer("stk-timeout-wheel", Duration.ofSeconds(1), 512, resolverPool);
+    }
+
+    /**
+     * Arm the timeout for a freshly initiated STK Push
+     */
+    public void arm(UUID shortcodeUuid, String checkoutRequestId) {
+        arm(shortcodeUuid, checkoutRequestId, resolveAfter, 1);
+    }
+
+    public int armedCount() {
+        return armed.size();
+    }
+
+    private void arm(UUID shortcodeUuid, String checkoutRequestId, Duration delay, int attempt) {
+        armed.compute(checkoutRequestId, (id, existing) -> {
+            if (existing != null) {
+                existing.cancel();
+            }
+            return timer.schedule(() -> resolve(shortcodeUuid, checkoutRequestId, attempt), delay);
+        });
+    }
+
+    private void resolve(UUID shortcodeUuid, String checkoutRequestId, int attempt) {
+        armed.remove(checkoutRequestId);
+        try {
+            if (!repository.existsByCheckoutRequestIdAndStatus(checkoutRequestId,
+                    IncomingPaymentStatus.PENDING.name())) {
+                return;
+            }
+
+            MpesaApiResponse<StkStatusResponse> response =
+                    darajaService.getObject().queryStkPushStatus(shortcodeUuid, checkoutRequestId);
+            if (response.success() && response.data() != null && response.data().resultCode() != null) {
+                log.info("Resolving STK Push {} from status query with ResultCode: {}",
+                        checkoutRequestId, response.data().resultCode());
+                incomingPaymentService.processStkPushCallback(checkoutRequestId, toCallbackData(response.data()));
+                return;
+            }
+
+            if (attempt >= maxAttempts) {
+                log.warn("Giving up on STK Push {} after {} status queries; left PENDING until next recovery scan",
+                        checkoutRequestId, attempt);
+                return;
+            }
+            log.debug("STK Push {} not yet resolvable (attempt {}), re-arming", checkoutRequestId, attempt);
+            arm(shortcodeUuid, checkoutRequestId, retryBackoff.multipliedBy(1L << (attempt - 1)), attempt + 1);
+        } catch (Exception e) {
+            log.error("Failed to resolve timed-out STK Push {}: {}", checkoutRequestId, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Shape the status query result like an STK callback body so it is applied by the same path.
+     */
+    private Map<String, Object> toCallbackData(StkStatusResponse status) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("MerchantRequestID", status.merchantRequestId());
+        data.put("CheckoutRequestID", status.checkoutRequestId());
+        data.put("ResultCode", status.resultCode());
+        data.put("ResultDesc", status.resultDesc());
+        data.put("ResolvedBy", "STATUS_QUERY");
+
+        if (status.isSuccessful()) {
+            List<Map<String, Object>> items = new ArrayList<>();
+            addItem(items, "Amount", status.amount());
+            addItem(items, "MpesaReceiptNumber", status.mpesaReceiptNumber());
+            addItem(items, "TransactionDate", status.transactionDate());
+            addItem(items, "PhoneNumber", status.phoneNumber());
+            if (!items.isEmpty()) {
+                data.put("CallbackMetadata", Map.of("Item", items));
+            }
+        }
+        return data;
+    }
+
+    private void addItem(List<Map<String, Object>> items, String name, Object value) {
+        if (value != null) {
+            items.add(Map.of("Name", name, "Value", value));
+        }
+    }
+
+    /**
+     * Re-arm timers for every STK Push still PENDING from before this process started.
+     * Rows already past their deadline are spread over the next minute rather than all
+     * querying Daraja at once.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverOutstanding() {
+        long afterId = 0;
+        int recovered = 0;
+        LocalDateTime now = LocalDateTime.now();
+        List<OutstandingPayment> page;
+        do {
+            page = repository.findOutstandingAfter(IncomingPaymentType.STK_PUSH, IncomingPaymentStatus.PENDING,
+                    afterId, PageRequest.ofSize(RECOVERY_PAGE_SIZE));
+            for (OutstandingPayment row : page) {
+                Duration remaining = row.getCreatedAt() == null
+                        ? Duration.ZERO
+                        : Duration.between(now, row.getCreatedAt().plus(resolveAfter));
+                Duration delay = remaining.isNegative() || remaining.isZero()
+                        ? Duration.ofSeconds(1 + recovered % 60)
+                        : remaining;
+                arm(row.getShortcodeUuid(), row.getCheckoutRequestId(), delay, 1);
+                afterId = row.getId();
+                recovered++;
+            }
+        } while (page.size() == RECOVERY_PAGE_SIZE);
+
+        if (recovered > 0) {
+            log.info("Re-armed STK Push timeouts for {} outstanding payments", recovered);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.close();
+        resolverPool.shutdownNow();
+    }
+}
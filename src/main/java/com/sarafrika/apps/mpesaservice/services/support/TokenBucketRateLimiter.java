@@ -0,0 +1,66 @@
+package com.sarafrika.apps.mpesaservice.services.support;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket pacing calls to a rate-limited API.
+ * <p>
+ * Tokens refill continuously at {@code permitsPerSecond} up to {@code burst}. {@link #acquire()}
+ * reserves the next token and sleeps until it is due, so callers are spread evenly instead of
+ * bunching at the start of each second.
+ * </p>
+ */
+public class TokenBucketRateLimiter {
+
+    private final double permitsPerNano;
+    private final double burst;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucketRateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive and burst at least 1");
+        }
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Take a permit, blocking until one is available
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Take a permit only if one is available right now
+     */
+    public synchronized boolean tryAcquire() {
+        refill(System.nanoTime());
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reserve the next permit, letting the balance go negative, and return how long to wait for it
+     */
+    private synchronized long reserve() {
+        refill(System.nanoTime());
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / permitsPerNano);
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * permitsPerNano);
+        lastRefillNanos = now;
+    }
+}
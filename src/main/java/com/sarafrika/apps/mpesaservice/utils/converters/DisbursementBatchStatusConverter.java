@@ -0,0 +1,19 @@
+package com.sarafrika.apps.mpesaservice.utils.converters;
+
+import com.sarafrika.apps.mpesaservice.utils.enums.DisbursementBatchStatus;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+@Converter(autoApply = true)
+public class DisbursementBatchStatusConverter implements AttributeConverter<DisbursementBatchStatus, String> {
+
+    @Override
+    public String convertToDatabaseColumn(DisbursementBatchStatus status) {
+        return status != null ? status.name() : null;
+    }
+
+    @Override
+    public DisbursementBatchStatus convertToEntityAttribute(String dbData) {
+        return dbData != null ? DisbursementBatchStatus.valueOf(dbData) : null;
+    }
+}
@@ -0,0 +1,19 @@
+package com.sarafrika.apps.mpesaservice.utils.converters;
+
+import com.sarafrika.apps.mpesaservice.utils.enums.IdempotencyKeyStatus;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+@Converter(autoApply = true)
+public class IdempotencyKeyStatusConverter implements AttributeConverter<IdempotencyKeyStatus, String> {
+
+    @Override
+    public String convertToDatabaseColumn(IdempotencyKeyStatus status) {
+        return status != null ? status.name() : null;
+    }
+
+    @Override
+    public IdempotencyKeyStatus convertToEntityAttribute(String dbData) {
+        return dbData != null ? IdempotencyKeyStatus.valueOf(dbData) : null;
+    }
+}
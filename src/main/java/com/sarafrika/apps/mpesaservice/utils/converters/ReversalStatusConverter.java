@@ -0,0 +1,19 @@
+package com.sarafrika.apps.mpesaservice.utils.converters;
+
+import com.sarafrika.apps.mpesaservice.utils.enums.ReversalStatus;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+@Converter(autoApply = true)
+public class ReversalStatusConverter implements AttributeConverter<ReversalStatus, String> {
+
+    @Override
+    public String convertToDatabaseColumn(ReversalStatus status) {
+        return status != null ? status.name() : null;
+    }
+
+    @Override
+    public ReversalStatus convertToEntityAttribute(String dbData) {
+        return dbData != null ? ReversalStatus.valueOf(dbData) : null;
+    }
+}
@@ -0,0 +1,9 @@
+package com.sarafrika.apps.mpesaservice.utils.enums;
+
+/**
+ * Daraja APIs whose results carry a ResultCode. The same code can mean different things on
+ * different APIs, so result codes are always read against the API that produced them.
+ */
+public enum DarajaApi {
+    STK_PUSH, B2C, B2B, REVERSAL
+}
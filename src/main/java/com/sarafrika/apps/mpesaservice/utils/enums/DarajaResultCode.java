@@ -0,0 +1,184 @@
+package com.sarafrika.apps.mpesaservice.utils.enums;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.sarafrika.apps.mpesaservice.utils.enums.DarajaApi.B2B;
+import static com.sarafrika.apps.mpesaservice.utils.enums.DarajaApi.B2C;
+import static com.sarafrika.apps.mpesaservice.utils.enums.DarajaApi.REVERSAL;
+import static com.sarafrika.apps.mpesaservice.utils.enums.DarajaApi.STK_PUSH;
+import static com.sarafrika.apps.mpesaservice.utils.enums.ResultCodeCategory.RETRYABLE;
+import static com.sarafrika.apps.mpesaservice.utils.enums.ResultCodeCategory.SUCCESS;
+import static com.sarafrika.apps.mpesaservice.utils.enums.ResultCodeCategory.TERMINAL;
+import static com.sarafrika.apps.mpesaservice.utils.enums.ResultCodeCategory.USER_CAUSED;
+
+/**
+ * Registry of the Daraja result codes this service acts on, one row per API and code.
+ * <p>
+ * {@link #of(DarajaApi, Integer)} is a hash lookup, cheap enough for every callback. A code
+ * missing from the table reads as {@link #UNKNOWN}, which is TERMINAL: nothing is resent on
+ * the strength of a code nobody has classified.
+ * </p>
+ */
+public enum DarajaResultCode {
+
+    // ==================== STK PUSH ====================
+    STK_SUCCESS(STK_PUSH, 0, SUCCESS, "The service request is processed successfully"),
+    STK_INSUFFICIENT_BALANCE(STK_PUSH, 1, USER_CAUSED, "The balance is insufficient for the transaction"),
+    STK_RULE_LIMITED(STK_PUSH, 17, RETRYABLE, "Rule limited, too many similar requests"),
+    STK_SYSTEM_BUSY(STK_PUSH, 26, RETRYABLE, "System busy, traffic blocking condition in place"),
+    STK_SUBSCRIBER_LOCKED(STK_PUSH, 1001, RETRYABLE, "Another transaction is in process for the subscriber"),
+    STK_EXPIRED(STK_PUSH, 1019, USER_CAUSED, "The transaction expired before the user completed it"),
+    STK_PUSH_NOT_SENT(STK_PUSH, 1025, RETRYABLE, "An error occurred while sending the push request"),
+    STK_CANCELLED_BY_USER(STK_PUSH, 1032, USER_CAUSED, "The request was cancelled by the user"),
+    STK_USER_UNREACHABLE(STK_PUSH, 1037, USER_CAUSED, "The user's phone could not be reached"),
+    STK_WRONG_PIN(STK_PUSH, 2001, USER_CAUSED, "The initiator information is invalid, e.g. a wrong PIN"),
+    STK_NOT_PERMITTED(STK_PUSH, 2028, TERMINAL, "The request is not permitted according to product assignment"),
+    STK_CREDENTIAL_LOCKED(STK_PUSH, 8006, USER_CAUSED, "The user's security credential is locked"),
+    STK_PUSH_ERROR(STK_PUSH, 9999, RETRYABLE, "An error occurred while sending the push request"),
+
+    // ==================== B2C ====================
+    B2C_SUCCESS(B2C, 0, SUCCESS, "The service request is processed successfully"),
+    B2C_INSUFFICIENT_FUNDS(B2C, 1, RETRYABLE, "The shortcode's utility account cannot cover the payout"),
+    B2C_BELOW_MINIMUM(B2C, 2, TERMINAL, "Less than the minimum transaction value"),
+    B2C_ABOVE_MAXIMUM(B2C, 3, TERMINAL, "More than the maximum transaction value"),
+    B2C_DAILY_LIMIT(B2C, 4, TERMINAL, "Would exceed the daily transfer limit"),
+    B2C_MINIMUM_BALANCE(B2C, 5, RETRYABLE, "Would take the account below its minimum balance"),
+    B2C_UNRESOLVED_PRIMARY_PARTY(B2C, 6, TERMINAL, "Unresolved primary party"),
+    B2C_UNRESOLVED_RECEIVER(B2C, 7, TERMINAL, "Unresolved receiver party"),
+    B2C_RECEIVER_MAXIMUM_BALANCE(B2C, 8, USER_CAUSED, "Would exceed the recipient's maximum balance"),
+    B2C_DEBIT_ACCOUNT_INVALID(B2C, 11, TERMINAL, "The debit account is invalid"),
+    B2C_CREDIT_ACCOUNT_INVALID(B2C, 12, TERMINAL, "The credit account is invalid"),
+    B2C_UNRESOLVED_DEBIT_ACCOUNT(B2C, 13, TERMINAL, "Unresolved debit account"),
+    B2C_UNRESOLVED_CREDIT_ACCOUNT(B2C, 14, TERMINAL, "Unresolved credit account"),
+    B2C_DUPLICATE(B2C, 15, TERMINAL, "Duplicate detected"),
+    B2C_INTERNAL_FAILURE(B2C, 17, RETRYABLE, "Internal failure"),
+    B2C_UNRESOLVED_INITIATOR(B2C, 20, TERMINAL, "Unresolved initiator"),
+    B2C_SYSTEM_BUSY(B2C, 26, RETRYABLE, "Traffic blocking condition in place"),
+    B2C_INITIATOR_INVALID(B2C, 2001, TERMINAL, "The initiator information is invalid"),
+    B2C_NOT_PERMITTED(B2C, 2028, TERMINAL, "The request is not permitted according to product assignment"),
+    B2C_RECIPIENT_NOT_REGISTERED(B2C, 2040, USER_CAUSED, "The recipient is not a registered M-Pesa customer"),
+    B2C_CREDENTIAL_LOCKED(B2C, 8006, TERMINAL, "The initiator's security credential is locked"),
+
+    // ==================== B2B ====================
+    B2B_SUCCESS(B2B, 0, SUCCESS, "The service request is processed successfully"),
+    B2B_INSUFFICIENT_FUNDS(B2B, 1, RETRYABLE, "The debit account cannot cover the transfer"),
+    B2B_BELOW_MINIMUM(B2B, 2, TERMINAL, "Less than the minimum transaction value"),
+    B2B_ABOVE_MAXIMUM(B2B, 3, TERMINAL, "More than the maximum transaction value"),
+    B2B_DAILY_LIMIT(B2B, 4, TERMINAL, "Would exceed the daily transfer limit"),
+    B2B_MINIMUM_BALANCE(B2B, 5, RETRYABLE, "Would take the account below its minimum balance"),
+    B2B_UNRESOLVED_PRIMARY_PARTY(B2B, 6, TERMINAL, "Unresolved primary party"),
+    B2B_UNRESOLVED_RECEIVER(B2B, 7, TERMINAL, "Unresolved receiver party"),
+    B2B_RECEIVER_MAXIMUM_BALANCE(B2B, 8, TERMINAL, "Would exceed the receiving account's maximum balance"),
+    B2B_DEBIT_ACCOUNT_INVALID(B2B, 11, TERMINAL, "The debit account is invalid"),
+    B2B_CREDIT_ACCOUNT_INVALID(B2B, 12, TERMINAL, "The credit account is invalid"),
+    B2B_UNRESOLVED_DEBIT_ACCOUNT(B2B, 13, TERMINAL, "Unresolved debit account"),
+    B2B_UNRESOLVED_CREDIT_ACCOUNT(B2B, 14, TERMINAL, "Unresolved credit account"),
+    B2B_DUPLICATE(B2B, 15, TERMINAL, "Duplicate detected"),
+    B2B_INTERNAL_FAILURE(B2B, 17, RETRYABLE, "Internal failure"),
+    B2B_CREDENTIAL_CHECK_FAILED(B2B, 18, TERMINAL, "The initiator credential check failed"),
+    B2B_UNRESOLVED_INITIATOR(B2B, 20, TERMINAL, "Unresolved initiator"),
+    B2B_INITIATOR_NOT_ALLOWED(B2B, 21, TERMINAL, "The initiator is not allowed to initiate this request"),
+    B2B_SYSTEM_BUSY(B2B, 26, RETRYABLE, "Traffic blocking condition in place"),
+    B2B_INITIATOR_INVALID(B2B, 2001, TERMINAL, "The initiator information is invalid"),
+    B2B_NOT_PERMITTED(B2B, 2028, TERMINAL, "The request is not permitted according to product assignment"),
+    B2B_CREDENTIAL_LOCKED(B2B, 8006, TERMINAL, "The initiator's security credential is locked"),
+
+    // ==================== REVERSAL ====================
+    REVERSAL_SUCCESS(REVERSAL, 0, SUCCESS, "The service request is processed successfully"),
+    REVERSAL_TRANSACTION_NOT_FOUND(REVERSAL, 1, TERMINAL, "The original transaction was not found"),
+    REVERSAL_DEBIT_ACCOUNT_INVALID(REVERSAL, 11, TERMINAL, "The debit account is invalid"),
+    REVERSAL_DUPLICATE(REVERSAL, 15, TERMINAL, "Duplicate detected"),
+    REVERSAL_INTERNAL_FAILURE(REVERSAL, 17, RETRYABLE, "Internal failure"),
+    REVERSAL_INITIATOR_NOT_ALLOWED(REVERSAL, 21, TERMINAL, "The initiator is not allowed to initiate this request"),
+    REVERSAL_SYSTEM_BUSY(REVERSAL, 26, RETRYABLE, "Traffic blocking condition in place"),
+    REVERSAL_REJECTED(REVERSAL, 1037, TERMINAL, "The reversal was rejected"),
+    REVERSAL_INITIATOR_INVALID(REVERSAL, 2001, TERMINAL, "The initiator information is invalid"),
+    REVERSAL_CREDENTIAL_LOCKED(REVERSAL, 8006, TERMINAL, "The initiator's security credential is locked"),
+
+    /** Any code missing from this table */
+    UNKNOWN(null, null, TERMINAL, "Unclassified result code");
+
+    private static final Map<DarajaApi, Map<Integer, DarajaResultCode>> REGISTRY = new EnumMap<>(DarajaApi.class);
+
+    static {
+        for (DarajaApi api : DarajaApi.values()) {
+            REGISTRY.put(api, new HashMap<>());
+        }
+        for (DarajaResultCode entry : values()) {
+            if (entry.api != null && REGISTRY.get(entry.api).put(entry.code, entry) != null) {
+                throw new IllegalStateException("Result code " + entry.code + " registered twice for " + entry.api);
+            }
+        }
+    }
+
+    private final DarajaApi api;
+    private final Integer code;
+    private final ResultCodeCategory category;
+    private final String description;
+
+    DarajaResultCode(DarajaApi api, Integer code, ResultCodeCategory category, String description) {
+        this.api = api;
+        this.code = code;
+        this.category = category;
+        this.description = description;
+    }
+
+    /**
+     * Look up a result code of an API, {@link #UNKNOWN} when it is not registered or null
+     */
+    public static DarajaResultCode of(DarajaApi api, Integer code) {
+        if (api == null || code == null) {
+            return UNKNOWN;
+        }
+        return REGISTRY.get(api).getOrDefault(code, UNKNOWN);
+    }
+
+    /**
+     * Every registered code of an API in a category, e.g. for the guard of a retry query
+     */
+    public static List<Integer> codes(DarajaApi api, ResultCodeCategory category) {
+        return REGISTRY.get(api).values().stream()
+                .filter(entry -> entry.category == category)
+                .map(DarajaResultCode::code)
+                .sorted()
+                .toList();
+    }
+
+    public DarajaApi api() {
+        return api;
+    }
+
+    public Integer code() {
+        return code;
+    }
+
+    public ResultCodeCategory category() {
+        return category;
+    }
+
+    public String description() {
+        return description;
+    }
+
+    public boolean isSuccess() {
+        return category == SUCCESS;
+    }
+
+    public boolean isRetryable() {
+        return category.isRetryable();
+    }
+
+    /**
+     * Check whether the request is settled for good and must not be sent again as is
+     */
+    public boolean isTerminal() {
+        return category == TERMINAL;
+    }
+
+    public boolean isUserCaused() {
+        return category == USER_CAUSED;
+    }
+}
@@ -0,0 +1,46 @@
+package com.sarafrika.apps.mpesaservice.utils.enums;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lifecycle of a bulk disbursement batch. Rows are only dispatched while the batch is RUNNING.
+ */
+public enum DisbursementBatchStatus {
+    STAGING, RUNNING, PAUSED, COMPLETED, CANCELLED;
+
+    /**
+     * Statuses this status may legally move to
+     */
+    public Set<DisbursementBatchStatus> allowedTransitions() {
+        return switch (this) {
+            case STAGING -> EnumSet.of(RUNNING, CANCELLED);
+            case RUNNING -> EnumSet.of(PAUSED, COMPLETED, CANCELLED);
+            case PAUSED -> EnumSet.of(RUNNING, CANCELLED);
+            case COMPLETED, CANCELLED -> EnumSet.noneOf(DisbursementBatchStatus.class);
+        };
+    }
+
+    /**
+     * Check whether moving from this status to the target is a legal transition
+     */
+    public boolean canTransitionTo(DisbursementBatchStatus target) {
+        return allowedTransitions().contains(target);
+    }
+
+    /**
+     * Names of every status that may legally transition to the target, for use as the
+     * expected-status guard of a compare-and-set UPDATE
+     */
+    public static List<String> sourcesOf(DisbursementBatchStatus target) {
+        List<String> sources = new ArrayList<>();
+        for (DisbursementBatchStatus status : values()) {
+            if (status.canTransitionTo(target)) {
+                sources.add(status.name());
+            }
+        }
+        return sources;
+    }
+}
@@ -0,0 +1,5 @@
+package com.sarafrika.apps.mpesaservice.utils.enums;
+
+public enum IdempotencyKeyStatus {
+    IN_PROGRESS, COMPLETED
+}
@@ -1,5 +1,52 @@
 package com.sarafrika.apps.mpesaservice.utils.enums;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lifecycle of an incoming payment. Transitions are enforced in the database with
+ * conditional UPDATEs, so the edges below are the only ones that can ever be applied.
+ */
 public enum IncomingPaymentStatus {
-    PENDING, SUCCESS, FAILED, CANCELLED
-}
\ No newline at end of file
+    PENDING, SUCCESS, FAILED, CANCELLED;
+
+    /**
+     * Statuses this status may legally move to
+     */
+    public Set<IncomingPaymentStatus> allowedTransitions() {
+        return switch (this) {
+            case PENDING -> EnumSet.of(SUCCESS, FAILED, CANCELLED);
+            case SUCCESS, FAILED, CANCELLED -> EnumSet.noneOf(IncomingPaymentStatus.class);
+        };
+    }
+
+    /**
+     * Check whether moving from this status to the target is a legal transition
+     */
+    public boolean canTransitionTo(IncomingPaymentStatus target) {
+        return allowedTransitions().contains(target);
+    }
+
+    /**
+     * Check whether this status is final
+     */
+    public boolean isTerminal() {
+        return allowedTransitions().isEmpty();
+    }
+
+    /**
+     * Names of every status that may legally transition to the target, for use as the
+     * expected-status guard of a compare-and-set UPDATE
+     */
+    public static List<String> sourcesOf(IncomingPaymentStatus target) {
+        List<String> sources = new ArrayList<>();
+        for (IncomingPaymentStatus status : values()) {
+            if (status.canTransitionTo(target)) {
+                sources.add(status.name());
+            }
+        }
+        return sources;
+    }
+}
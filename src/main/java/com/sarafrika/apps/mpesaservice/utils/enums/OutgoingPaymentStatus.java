@@ -1,5 +1,60 @@
 package com.sarafrika.apps.mpesaservice.utils.enums;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lifecycle of an outgoing (B2C/B2B) payment. Transitions are enforced in the database with
+ * conditional UPDATEs, so the edges below are the only ones that can ever be applied.
+ * <p>
+ * Single payouts start at PENDING. Bulk disbursement rows are staged QUEUED, claimed as
+ * DISPATCHING just before the Daraja call and become PENDING once it is accepted. A result
+ * callback may settle a DISPATCHING row directly when it beats the acceptance update. Only the
+ * dispatcher may return a DISPATCHING row to QUEUED, and only when the request never left.
+ * </p>
+ */
 public enum OutgoingPaymentStatus {
-    PENDING, SUCCESS, FAILED, CANCELLED
-}
\ No newline at end of file
+    QUEUED, DISPATCHING, PENDING, SUCCESS, FAILED, CANCELLED;
+
+    /**
+     * Statuses this status may legally move to
+     */
+    public Set<OutgoingPaymentStatus> allowedTransitions() {
+        return switch (this) {
+            case QUEUED -> EnumSet.of(DISPATCHING, CANCELLED);
+            case DISPATCHING -> EnumSet.of(PENDING, SUCCESS, FAILED);
+            case PENDING -> EnumSet.of(SUCCESS, FAILED, CANCELLED);
+            case SUCCESS, FAILED, CANCELLED -> EnumSet.noneOf(OutgoingPaymentStatus.class);
+        };
+    }
+
+    /**
+     * Check whether moving from this status to the target is a legal transition
+     */
+    public boolean canTransitionTo(OutgoingPaymentStatus target) {
+        return allowedTransitions().contains(target);
+    }
+
+    /**
+     * Check whether this status is final
+     */
+    public boolean isTerminal() {
+        return allowedTransitions().isEmpty();
+    }
+
+    /**
+     * Names of every status that may legally transition to the target, for use as the
+     * expected-status guard of a compare-and-set UPDATE
+     */
+    public static List<String> sourcesOf(OutgoingPaymentStatus target) {
+        List<String> sources = new ArrayList<>();
+        for (OutgoingPaymentStatus status : values()) {
+            if (status.canTransitionTo(target)) {
+                sources.add(status.name());
+            }
+        }
+        return sources;
+    }
+}
@@ -0,0 +1,40 @@
+package com.sarafrika.apps.mpesaservice.utils.enums;
+
+/**
+ * Which way money moved, the payment table that records it and the side tables holding the
+ * payments' raw callbacks and unique identifiers
+ */
+public enum PaymentDirection {
+    INCOMING("mpesa_incoming_payments", "mpesa_incoming_payment_callbacks", "mpesa_incoming_payment_keys",
+            "phone_number"),
+    OUTGOING("mpesa_outgoing_payments", "mpesa_outgoing_payment_callbacks", "mpesa_outgoing_payment_keys",
+            "recipient_phone_number");
+
+    private final String table;
+    private final String callbackTable;
+    private final String keysTable;
+    private final String phoneColumn;
+
+    PaymentDirection(String table, String callbackTable, String keysTable, String phoneColumn) {
+        this.table = table;
+        this.callbackTable = callbackTable;
+        this.keysTable = keysTable;
+        this.phoneColumn = phoneColumn;
+    }
+
+    public String table() {
+        return table;
+    }
+
+    public String callbackTable() {
+        return callbackTable;
+    }
+
+    public String keysTable() {
+        return keysTable;
+    }
+
+    public String phoneColumn() {
+        return phoneColumn;
+    }
+}
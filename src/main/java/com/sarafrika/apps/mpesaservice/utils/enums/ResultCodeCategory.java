@@ -0,0 +1,22 @@
+package com.sarafrika.apps.mpesaservice.utils.enums;
+
+/**
+ * What a Daraja result code says about the request that produced it
+ */
+public enum ResultCodeCategory {
+    /** The request was processed */
+    SUCCESS,
+    /** The payer or recipient caused the failure, e.g. cancelled or lacked funds; a person has to act */
+    USER_CAUSED,
+    /** Daraja or M-Pesa was briefly unable to process it; the same request may succeed later */
+    RETRYABLE,
+    /** The request can never succeed as sent, e.g. a bad account, limit or credential */
+    TERMINAL;
+
+    /**
+     * Check whether resending the same request may succeed without anyone acting first
+     */
+    public boolean isRetryable() {
+        return this == RETRYABLE;
+    }
+}
@@ -0,0 +1,55 @@
+package com.sarafrika.apps.mpesaservice.utils.enums;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lifecycle of a transaction reversal. A reversal is REQUESTED while its Daraja call is in
+ * flight, PENDING once Daraja accepted it and settled by its result callback. While a reversal
+ * is REQUESTED, PENDING or SUCCESS no other reversal of the same receipt can be raised.
+ */
+public enum ReversalStatus {
+    REQUESTED, PENDING, SUCCESS, FAILED;
+
+    /**
+     * Statuses this status may legally move to. A result can beat the acceptance update, so a
+     * REQUESTED reversal may be settled directly.
+     */
+    public Set<ReversalStatus> allowedTransitions() {
+        return switch (this) {
+            case REQUESTED -> EnumSet.of(PENDING, SUCCESS, FAILED);
+            case PENDING -> EnumSet.of(SUCCESS, FAILED);
+            case SUCCESS, FAILED -> EnumSet.noneOf(ReversalStatus.class);
+        };
+    }
+
+    /**
+     * Check whether moving from this status to the target is a legal transition
+     */
+    public boolean canTransitionTo(ReversalStatus target) {
+        return allowedTransitions().contains(target);
+    }
+
+    /**
+     * Check whether this status is final
+     */
+    public boolean isTerminal() {
+        return allowedTransitions().isEmpty();
+    }
+
+    /**
+     * Names of every status that may legally transition to the target, for use as the
+     * expected-status guard of a compare-and-set UPDATE
+     */
+    public static List<String> sourcesOf(ReversalStatus target) {
+        List<String> sources = new ArrayList<>();
+        for (ReversalStatus status : values()) {
+            if (status.canTransitionTo(target)) {
+                sources.add(status.name());
+            }
+        }
+        return sources;
+    }
+}
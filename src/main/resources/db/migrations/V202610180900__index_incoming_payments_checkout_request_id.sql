@@ -0,0 +1,4 @@
+-- STK Push callbacks and status polling resolve payments by checkout_request_id; the
+-- compare-and-set completion UPDATE must hit an index rather than scan the table.
+CREATE INDEX IF NOT EXISTS idx_mpesa_incoming_payments_checkout_request_id
+    ON mpesa_incoming_payments (checkout_request_id);
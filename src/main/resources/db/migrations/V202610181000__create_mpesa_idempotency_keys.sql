@@ -0,0 +1,20 @@
+CREATE TABLE mpesa_idempotency_keys
+(
+    id              BIGSERIAL PRIMARY KEY,
+    uuid            UUID         NOT NULL UNIQUE DEFAULT gen_random_uuid(),
+
+    idempotency_key VARCHAR(255) NOT NULL UNIQUE,
+    request_hash    VARCHAR(64)  NOT NULL,
+    status          VARCHAR(20)  NOT NULL DEFAULT 'IN_PROGRESS' CHECK (status IN ('IN_PROGRESS', 'COMPLETED')),
+    http_status     INTEGER,
+    response_body   JSONB,
+    expires_at      TIMESTAMP    NOT NULL,
+
+    created_at      TIMESTAMP             DEFAULT CURRENT_TIMESTAMP,
+    updated_at      TIMESTAMP             DEFAULT CURRENT_TIMESTAMP,
+    created_by      VARCHAR(255),
+    updated_by      VARCHAR(255),
+    deleted_at      TIMESTAMP
+);
+
+CREATE INDEX idx_mpesa_idempotency_keys_expires_at ON mpesa_idempotency_keys (expires_at);
@@ -0,0 +1,43 @@
+CREATE TABLE mpesa_disbursement_batches
+(
+    id             BIGSERIAL PRIMARY KEY,
+    uuid           UUID          NOT NULL UNIQUE DEFAULT gen_random_uuid(),
+    shortcode_uuid UUID          NOT NULL REFERENCES mpesa_shortcodes (uuid),
+
+    command_id     VARCHAR(50)   NOT NULL,
+    reference      VARCHAR(100),
+    status         VARCHAR(20)   NOT NULL DEFAULT 'STAGING'
+        CHECK (status IN ('STAGING', 'RUNNING', 'PAUSED', 'COMPLETED', 'CANCELLED')),
+
+    total_count    INTEGER       NOT NULL DEFAULT 0,
+    total_amount   DECIMAL(15, 2) NOT NULL DEFAULT 0,
+    rejected_count INTEGER       NOT NULL DEFAULT 0,
+
+    started_at     TIMESTAMP,
+    completed_at   TIMESTAMP,
+    created_at     TIMESTAMP              DEFAULT CURRENT_TIMESTAMP,
+    updated_at     TIMESTAMP              DEFAULT CURRENT_TIMESTAMP,
+    created_by     VARCHAR(255),
+    updated_by     VARCHAR(255),
+    deleted_at     TIMESTAMP
+);
+
+CREATE INDEX idx_mpesa_disbursement_batches_status ON mpesa_disbursement_batches (status);
+
+-- Bulk rows are staged QUEUED, claimed as DISPATCHING and become PENDING once Daraja accepts them
+ALTER TABLE mpesa_outgoing_payments DROP CONSTRAINT mpesa_outgoing_payments_status_check;
+ALTER TABLE mpesa_outgoing_payments
+    ADD CONSTRAINT mpesa_outgoing_payments_status_check
+        CHECK (status IN ('QUEUED', 'DISPATCHING', 'PENDING', 'SUCCESS', 'FAILED', 'CANCELLED'));
+
+ALTER TABLE mpesa_outgoing_payments
+    ADD COLUMN batch_id   BIGINT REFERENCES mpesa_disbursement_batches (id),
+    ADD COLUMN batch_line INTEGER;
+
+-- Re-staging a line is a no-op, and the dispatcher claims the queue in line order
+CREATE UNIQUE INDEX uq_mpesa_outgoing_payments_batch_line
+    ON mpesa_outgoing_payments (batch_id, batch_line) WHERE batch_id IS NOT NULL;
+CREATE INDEX idx_mpesa_outgoing_payments_batch_queued
+    ON mpesa_outgoing_payments (batch_id, batch_line) WHERE status = 'QUEUED';
+CREATE INDEX idx_mpesa_outgoing_payments_batch_status
+    ON mpesa_outgoing_payments (batch_id, status) WHERE batch_id IS NOT NULL;
@@ -0,0 +1,13 @@
+-- Outgoing payments whose result never arrives are resolved with a transaction status query
+ALTER TABLE mpesa_outgoing_payments
+    ADD COLUMN status_query_attempts        INTEGER NOT NULL DEFAULT 0,
+    ADD COLUMN status_query_at              TIMESTAMP,
+    ADD COLUMN status_query_conversation_id VARCHAR(100);
+
+-- The status result names only the query's conversation, so it is matched back through this id
+CREATE INDEX idx_mpesa_outgoing_payments_status_query
+    ON mpesa_outgoing_payments (status_query_conversation_id) WHERE status_query_conversation_id IS NOT NULL;
+
+-- The straggler scan only ever looks at outstanding rows, oldest status change first
+CREATE INDEX idx_mpesa_outgoing_payments_outstanding
+    ON mpesa_outgoing_payments (updated_at) WHERE status IN ('PENDING', 'DISPATCHING');
@@ -0,0 +1,38 @@
+CREATE TABLE mpesa_reversals
+(
+    id                         BIGSERIAL PRIMARY KEY,
+    uuid                       UUID           NOT NULL UNIQUE DEFAULT gen_random_uuid(),
+    shortcode_uuid             UUID           NOT NULL REFERENCES mpesa_shortcodes (uuid),
+
+    original_transaction_id    VARCHAR(50)    NOT NULL,
+    amount                     DECIMAL(15, 2) NOT NULL CHECK (amount > 0),
+    remarks                    VARCHAR(100),
+    status                     VARCHAR(20)    NOT NULL DEFAULT 'REQUESTED'
+        CHECK (status IN ('REQUESTED', 'PENDING', 'SUCCESS', 'FAILED')),
+
+    -- The payment being reversed, when this service recorded it
+    incoming_payment_id        BIGINT REFERENCES mpesa_incoming_payments (id),
+    outgoing_payment_id        BIGINT REFERENCES mpesa_outgoing_payments (id),
+
+    conversation_id            VARCHAR(100),
+    originator_conversation_id VARCHAR(100),
+    reversal_transaction_id    VARCHAR(50),
+    result_code                INTEGER,
+    result_desc                TEXT,
+    raw_callback_data          JSONB,
+    coalesced_requests         INTEGER        NOT NULL DEFAULT 0,
+    completed_at               TIMESTAMP,
+
+    created_at                 TIMESTAMP               DEFAULT CURRENT_TIMESTAMP,
+    updated_at                 TIMESTAMP               DEFAULT CURRENT_TIMESTAMP,
+    created_by                 VARCHAR(255),
+    updated_by                 VARCHAR(255),
+    deleted_at                 TIMESTAMP
+);
+
+-- At most one reversal per receipt may be in flight or have succeeded; failed ones can be retried
+CREATE UNIQUE INDEX uq_mpesa_reversals_live_transaction
+    ON mpesa_reversals (original_transaction_id) WHERE status IN ('REQUESTED', 'PENDING', 'SUCCESS');
+CREATE INDEX idx_mpesa_reversals_original_transaction_id ON mpesa_reversals (original_transaction_id);
+CREATE INDEX idx_mpesa_reversals_conversation_id ON mpesa_reversals (conversation_id);
+CREATE INDEX idx_mpesa_reversals_originator_conversation_id ON mpesa_reversals (originator_conversation_id);
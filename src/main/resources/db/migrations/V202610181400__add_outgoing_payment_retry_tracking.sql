@@ -0,0 +1,10 @@
+-- Single payouts that failed with a retryable result code are resent automatically.
+-- retry_attempt counts the attempts made before this row in a retry chain; retried_at marks a
+-- FAILED row whose retry has been raised, so each failure is resent once, by one node.
+ALTER TABLE mpesa_outgoing_payments
+    ADD COLUMN retry_attempt INTEGER NOT NULL DEFAULT 0,
+    ADD COLUMN retried_at    TIMESTAMP;
+
+-- The retry scan only ever looks at single payouts that failed and were not retried yet
+CREATE INDEX idx_mpesa_outgoing_payments_retry_candidates
+    ON mpesa_outgoing_payments (updated_at) WHERE status = 'FAILED' AND retried_at IS NULL AND batch_id IS NULL;
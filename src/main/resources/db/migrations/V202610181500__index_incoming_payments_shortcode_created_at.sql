@@ -0,0 +1,4 @@
+-- Reconciliation exports read one shortcode's payments for a period in creation order;
+-- this index serves both the range and the order, so the cursor never sorts a day in memory.
+CREATE INDEX IF NOT EXISTS idx_mpesa_incoming_payments_shortcode_created_at
+    ON mpesa_incoming_payments (shortcode_uuid, created_at, id);
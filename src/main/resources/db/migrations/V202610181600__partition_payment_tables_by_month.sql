@@ -0,0 +1,187 @@
+-- Monthly range partitioning of mpesa_incoming_payments and mpesa_outgoing_payments on created_at.
+--
+-- The existing heaps are not copied. Each is renamed to <table>_legacy and attached as the
+-- partition holding every row created before the first of next month, so this migration only
+-- validates the bound and builds the new composite keys. Later months get their own partitions,
+-- created ahead of time by mpesa_ensure_monthly_partitions(), which PaymentPartitionMaintainer
+-- calls on start-up and daily. A DEFAULT partition catches rows for any month that is missing.
+--
+-- PostgreSQL requires every unique constraint on a partitioned table to include the partition
+-- key. The primary keys therefore become (id, created_at) and the incoming receipt is unique per
+-- (transaction_id, created_at); C2B confirmations and statement imports stamp created_at with
+-- the M-Pesa completion time, so a redelivered receipt still lands on the same key. uuid,
+-- originator_conversation_id and the outgoing transaction_id keep their indexes without the
+-- uniqueness guarantee, and the mpesa_reversals foreign keys to the payment ids are dropped.
+--
+-- Indexes duplicated by a unique key or too unselective to be used (payment_type, and the
+-- single-column shortcode_uuid now covered by (shortcode_uuid, created_at, id)) are not carried
+-- over, so each insert maintains fewer of them.
+
+CREATE OR REPLACE FUNCTION mpesa_ensure_monthly_partitions(parent TEXT, months_ahead INTEGER)
+    RETURNS INTEGER
+    LANGUAGE plpgsql
+AS
+$$
+DECLARE
+    month_start    TIMESTAMP := date_trunc('month', LOCALTIMESTAMP);
+    partition_name TEXT;
+    created        INTEGER   := 0;
+BEGIN
+    FOR i IN 0..months_ahead
+        LOOP
+            partition_name := parent || '_y' || to_char(month_start, 'YYYY') || 'm' || to_char(month_start, 'MM');
+            IF to_regclass(partition_name) IS NULL THEN
+                BEGIN
+                    EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                                   partition_name, parent, month_start, month_start + INTERVAL '1 month');
+                    created := created + 1;
+                EXCEPTION
+                    -- The month is still covered by the legacy partition
+                    WHEN invalid_object_definition THEN NULL;
+                END;
+            END IF;
+            month_start := month_start + INTERVAL '1 month';
+        END LOOP;
+    RETURN created;
+END;
+$$;
+
+ALTER TABLE mpesa_reversals DROP CONSTRAINT IF EXISTS mpesa_reversals_incoming_payment_id_fkey;
+ALTER TABLE mpesa_reversals DROP CONSTRAINT IF EXISTS mpesa_reversals_outgoing_payment_id_fkey;
+
+-- ==================== mpesa_incoming_payments ====================
+
+ALTER TABLE mpesa_incoming_payments RENAME TO mpesa_incoming_payments_legacy;
+ALTER TABLE mpesa_incoming_payments_legacy DROP CONSTRAINT mpesa_incoming_payments_pkey;
+ALTER TABLE mpesa_incoming_payments_legacy DROP CONSTRAINT mpesa_incoming_payments_uuid_key;
+ALTER TABLE mpesa_incoming_payments_legacy DROP CONSTRAINT mpesa_incoming_payments_transaction_id_key;
+DROP INDEX idx_mpesa_incoming_payments_payment_type;
+DROP INDEX idx_mpesa_incoming_payments_shortcode_uuid;
+DROP INDEX idx_mpesa_incoming_payments_transaction_id;
+ALTER INDEX idx_mpesa_incoming_payments_uuid RENAME TO idx_mpesa_incoming_payments_legacy_uuid;
+ALTER INDEX idx_mpesa_incoming_payments_shortcode_created_at RENAME TO idx_mpesa_incoming_payments_legacy_shortcode_created_at;
+ALTER INDEX idx_mpesa_incoming_payments_phone_number RENAME TO idx_mpesa_incoming_payments_legacy_phone_number;
+ALTER INDEX idx_mpesa_incoming_payments_checkout_request_id RENAME TO idx_mpesa_incoming_payments_legacy_checkout_request_id;
+ALTER INDEX idx_mpesa_incoming_payments_status RENAME TO idx_mpesa_incoming_payments_legacy_status;
+ALTER INDEX idx_mpesa_incoming_payments_transaction_date RENAME TO idx_mpesa_incoming_payments_legacy_transaction_date;
+ALTER INDEX idx_mpesa_incoming_payments_created_at RENAME TO idx_mpesa_incoming_payments_legacy_created_at;
+
+UPDATE mpesa_incoming_payments_legacy SET created_at = COALESCE(updated_at, LOCALTIMESTAMP) WHERE created_at IS NULL;
+
+CREATE TABLE mpesa_incoming_payments
+(
+    LIKE mpesa_incoming_payments_legacy INCLUDING DEFAULTS,
+    CONSTRAINT mpesa_incoming_payments_pkey PRIMARY KEY (id, created_at),
+    CONSTRAINT uq_mpesa_incoming_payments_transaction_id UNIQUE (transaction_id, created_at),
+    CONSTRAINT mpesa_incoming_payments_shortcode_uuid_fkey FOREIGN KEY (shortcode_uuid) REFERENCES mpesa_shortcodes (uuid),
+    CONSTRAINT mpesa_incoming_payments_payment_type_check CHECK (payment_type IN ('STK_PUSH', 'C2B')),
+    CONSTRAINT mpesa_incoming_payments_status_check CHECK (status IN ('PENDING', 'SUCCESS', 'FAILED', 'CANCELLED')),
+    CONSTRAINT chk_amount_positive CHECK (amount > 0)
+) PARTITION BY RANGE (created_at);
+
+ALTER SEQUENCE mpesa_incoming_payments_id_seq OWNED BY mpesa_incoming_payments.id;
+
+DO
+$$
+    DECLARE
+        bound TIMESTAMP := date_trunc('month', LOCALTIMESTAMP) + INTERVAL '1 month';
+    BEGIN
+        -- A validated bound lets SET NOT NULL and ATTACH skip their own scans of the heap
+        EXECUTE format('ALTER TABLE mpesa_incoming_payments_legacy ADD CONSTRAINT chk_mpesa_incoming_payments_legacy_bound'
+                           || ' CHECK (created_at IS NOT NULL AND created_at < %L)', bound);
+        ALTER TABLE mpesa_incoming_payments_legacy ALTER COLUMN created_at SET NOT NULL;
+        EXECUTE format('ALTER TABLE mpesa_incoming_payments ATTACH PARTITION mpesa_incoming_payments_legacy'
+                           || ' FOR VALUES FROM (MINVALUE) TO (%L)', bound);
+    END
+$$;
+
+CREATE TABLE mpesa_incoming_payments_default PARTITION OF mpesa_incoming_payments DEFAULT;
+
+-- Matching indexes already on the legacy partition are attached rather than rebuilt
+CREATE INDEX idx_mpesa_incoming_payments_uuid ON mpesa_incoming_payments (uuid);
+CREATE INDEX idx_mpesa_incoming_payments_shortcode_created_at ON mpesa_incoming_payments (shortcode_uuid, created_at, id);
+CREATE INDEX idx_mpesa_incoming_payments_phone_number ON mpesa_incoming_payments (phone_number);
+CREATE INDEX idx_mpesa_incoming_payments_checkout_request_id ON mpesa_incoming_payments (checkout_request_id);
+CREATE INDEX idx_mpesa_incoming_payments_status ON mpesa_incoming_payments (status);
+CREATE INDEX idx_mpesa_incoming_payments_transaction_date ON mpesa_incoming_payments (transaction_date);
+CREATE INDEX idx_mpesa_incoming_payments_created_at ON mpesa_incoming_payments (created_at);
+
+SELECT mpesa_ensure_monthly_partitions('mpesa_incoming_payments', 3);
+
+-- ==================== mpesa_outgoing_payments ====================
+
+ALTER TABLE mpesa_outgoing_payments RENAME TO mpesa_outgoing_payments_legacy;
+ALTER TABLE mpesa_outgoing_payments_legacy DROP CONSTRAINT mpesa_outgoing_payments_pkey;
+ALTER TABLE mpesa_outgoing_payments_legacy DROP CONSTRAINT mpesa_outgoing_payments_uuid_key;
+ALTER TABLE mpesa_outgoing_payments_legacy DROP CONSTRAINT mpesa_outgoing_payments_transaction_id_key;
+ALTER TABLE mpesa_outgoing_payments_legacy DROP CONSTRAINT mpesa_outgoing_payments_originator_conversation_id_key;
+DROP INDEX uq_mpesa_outgoing_payments_batch_line;
+DROP INDEX idx_mpesa_outgoing_payments_payment_type;
+DROP INDEX idx_mpesa_outgoing_payments_shortcode_uuid;
+ALTER INDEX idx_mpesa_outgoing_payments_uuid RENAME TO idx_mpesa_outgoing_payments_legacy_uuid;
+ALTER INDEX idx_mpesa_outgoing_payments_transaction_id RENAME TO idx_mpesa_outgoing_payments_legacy_transaction_id;
+ALTER INDEX idx_mpesa_outgoing_payments_originator_conversation_id RENAME TO idx_mpesa_outgoing_payments_legacy_originator_conversation_id;
+ALTER INDEX idx_mpesa_outgoing_payments_recipient_phone_number RENAME TO idx_mpesa_outgoing_payments_legacy_recipient_phone_number;
+ALTER INDEX idx_mpesa_outgoing_payments_status RENAME TO idx_mpesa_outgoing_payments_legacy_status;
+ALTER INDEX idx_mpesa_outgoing_payments_transaction_date RENAME TO idx_mpesa_outgoing_payments_legacy_transaction_date;
+ALTER INDEX idx_mpesa_outgoing_payments_created_at RENAME TO idx_mpesa_outgoing_payments_legacy_created_at;
+ALTER INDEX idx_mpesa_outgoing_payments_batch_queued RENAME TO idx_mpesa_outgoing_payments_legacy_batch_queued;
+ALTER INDEX idx_mpesa_outgoing_payments_batch_status RENAME TO idx_mpesa_outgoing_payments_legacy_batch_status;
+ALTER INDEX idx_mpesa_outgoing_payments_status_query RENAME TO idx_mpesa_outgoing_payments_legacy_status_query;
+ALTER INDEX idx_mpesa_outgoing_payments_outstanding RENAME TO idx_mpesa_outgoing_payments_legacy_outstanding;
+ALTER INDEX idx_mpesa_outgoing_payments_retry_candidates RENAME TO idx_mpesa_outgoing_payments_legacy_retry_candidates;
+
+UPDATE mpesa_outgoing_payments_legacy SET created_at = COALESCE(updated_at, LOCALTIMESTAMP) WHERE created_at IS NULL;
+
+CREATE TABLE mpesa_outgoing_payments
+(
+    LIKE mpesa_outgoing_payments_legacy INCLUDING DEFAULTS,
+    CONSTRAINT mpesa_outgoing_payments_pkey PRIMARY KEY (id, created_at),
+    CONSTRAINT mpesa_outgoing_payments_shortcode_uuid_fkey FOREIGN KEY (shortcode_uuid) REFERENCES mpesa_shortcodes (uuid),
+    CONSTRAINT mpesa_outgoing_payments_batch_id_fkey FOREIGN KEY (batch_id) REFERENCES mpesa_disbursement_batches (id),
+    CONSTRAINT mpesa_outgoing_payments_payment_type_check CHECK (payment_type IN ('B2C', 'B2B')),
+    CONSTRAINT mpesa_outgoing_payments_status_check
+        CHECK (status IN ('QUEUED', 'DISPATCHING', 'PENDING', 'SUCCESS', 'FAILED', 'CANCELLED')),
+    CONSTRAINT chk_amount_positive CHECK (amount > 0)
+) PARTITION BY RANGE (created_at);
+
+ALTER SEQUENCE mpesa_outgoing_payments_id_seq OWNED BY mpesa_outgoing_payments.id;
+
+DO
+$$
+    DECLARE
+        bound TIMESTAMP := date_trunc('month', LOCALTIMESTAMP) + INTERVAL '1 month';
+    BEGIN
+        EXECUTE format('ALTER TABLE mpesa_outgoing_payments_legacy ADD CONSTRAINT chk_mpesa_outgoing_payments_legacy_bound'
+                           || ' CHECK (created_at IS NOT NULL AND created_at < %L)', bound);
+        ALTER TABLE mpesa_outgoing_payments_legacy ALTER COLUMN created_at SET NOT NULL;
+        EXECUTE format('ALTER TABLE mpesa_outgoing_payments ATTACH PARTITION mpesa_outgoing_payments_legacy'
+                           || ' FOR VALUES FROM (MINVALUE) TO (%L)', bound);
+    END
+$$;
+
+CREATE TABLE mpesa_outgoing_payments_default PARTITION OF mpesa_outgoing_payments DEFAULT;
+
+-- A batch is staged in one transaction, so its lines share created_at and stay unique per line
+CREATE UNIQUE INDEX uq_mpesa_outgoing_payments_batch_line
+    ON mpesa_outgoing_payments (batch_id, batch_line, created_at) WHERE batch_id IS NOT NULL;
+CREATE INDEX idx_mpesa_outgoing_payments_uuid ON mpesa_outgoing_payments (uuid);
+CREATE INDEX idx_mpesa_outgoing_payments_transaction_id ON mpesa_outgoing_payments (transaction_id);
+CREATE INDEX idx_mpesa_outgoing_payments_originator_conversation_id ON mpesa_outgoing_payments (originator_conversation_id);
+CREATE INDEX idx_mpesa_outgoing_payments_shortcode_created_at ON mpesa_outgoing_payments (shortcode_uuid, created_at, id);
+CREATE INDEX idx_mpesa_outgoing_payments_recipient_phone_number ON mpesa_outgoing_payments (recipient_phone_number);
+CREATE INDEX idx_mpesa_outgoing_payments_status ON mpesa_outgoing_payments (status);
+CREATE INDEX idx_mpesa_outgoing_payments_transaction_date ON mpesa_outgoing_payments (transaction_date);
+CREATE INDEX idx_mpesa_outgoing_payments_created_at ON mpesa_outgoing_payments (created_at);
+CREATE INDEX idx_mpesa_outgoing_payments_batch_queued
+    ON mpesa_outgoing_payments (batch_id, batch_line) WHERE status = 'QUEUED';
+CREATE INDEX idx_mpesa_outgoing_payments_batch_status
+    ON mpesa_outgoing_payments (batch_id, status) WHERE batch_id IS NOT NULL;
+CREATE INDEX idx_mpesa_outgoing_payments_status_query
+    ON mpesa_outgoing_payments (status_query_conversation_id) WHERE status_query_conversation_id IS NOT NULL;
+CREATE INDEX idx_mpesa_outgoing_payments_outstanding
+    ON mpesa_outgoing_payments (updated_at) WHERE status IN ('PENDING', 'DISPATCHING');
+CREATE INDEX idx_mpesa_outgoing_payments_retry_candidates
+    ON mpesa_outgoing_payments (updated_at) WHERE status = 'FAILED' AND retried_at IS NULL AND batch_id IS NULL;
+
+SELECT mpesa_ensure_monthly_partitions('mpesa_outgoing_payments', 3);
@@ -0,0 +1,114 @@
+-- Per-shortcode daily totals and counts of payments by type and status, kept current by
+-- triggers in the same transaction as every insert, status transition, soft delete and delete,
+-- so aggregate reads touch one row per day/type/status instead of every payment.
+--
+-- Each (direction, shortcode, day, type, status) is spread over 8 slots picked by payment id:
+-- a busy paybill's concurrent callbacks then contend for 8 rollup rows rather than queueing on
+-- one row lock until each writer commits. Readers sum over the slots.
+--
+-- Soft-deleted payments are not counted, matching what the entities see. Hard deletes are
+-- subtracted, except when the deleting transaction sets mpesa.keep_rollups = 'on': the
+-- retention purge does so, because archived payments still happened.
+
+CREATE TABLE mpesa_payment_daily_rollups
+(
+    direction      VARCHAR(8)     NOT NULL,
+    shortcode_uuid UUID           NOT NULL,
+    day            DATE           NOT NULL,
+    payment_type   VARCHAR(20)    NOT NULL,
+    status         VARCHAR(20)    NOT NULL,
+    slot           SMALLINT       NOT NULL,
+    payment_count  BIGINT         NOT NULL DEFAULT 0,
+    total_amount   DECIMAL(18, 2) NOT NULL DEFAULT 0,
+    CONSTRAINT pk_mpesa_payment_daily_rollups
+        PRIMARY KEY (shortcode_uuid, day, direction, payment_type, status, slot),
+    CONSTRAINT chk_mpesa_payment_daily_rollups_direction CHECK (direction IN ('INCOMING', 'OUTGOING'))
+);
+
+-- Shortcode summaries read the primary key; totals by status across every shortcode read this
+CREATE INDEX idx_mpesa_payment_daily_rollups_direction_status
+    ON mpesa_payment_daily_rollups (direction, status);
+
+CREATE FUNCTION mpesa_roll_up_payment() RETURNS TRIGGER
+    LANGUAGE plpgsql AS
+$$
+DECLARE
+    payment_direction TEXT := TG_ARGV[0];
+BEGIN
+    IF TG_OP = 'DELETE' AND current_setting('mpesa.keep_rollups', TRUE) = 'on' THEN
+        RETURN NULL;
+    END IF;
+    IF TG_OP IN ('UPDATE', 'DELETE') AND OLD.deleted_at IS NULL THEN
+        INSERT INTO mpesa_payment_daily_rollups AS r (direction, shortcode_uuid, day, payment_type, status, slot,
+                                                      payment_count, total_amount)
+        VALUES (payment_direction, OLD.shortcode_uuid, OLD.created_at::DATE, OLD.payment_type, OLD.status, OLD.id % 8,
+                -1, -OLD.amount)
+        ON CONFLICT (shortcode_uuid, day, direction, payment_type, status, slot) DO UPDATE
+            SET payment_count = r.payment_count + EXCLUDED.payment_count,
+                total_amount  = r.total_amount + EXCLUDED.total_amount;
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') AND NEW.deleted_at IS NULL THEN
+        INSERT INTO mpesa_payment_daily_rollups AS r (direction, shortcode_uuid, day, payment_type, status, slot,
+                                                      payment_count, total_amount)
+        VALUES (payment_direction, NEW.shortcode_uuid, NEW.created_at::DATE, NEW.payment_type, NEW.status, NEW.id % 8,
+                1, NEW.amount)
+        ON CONFLICT (shortcode_uuid, day, direction, payment_type, status, slot) DO UPDATE
+            SET payment_count = r.payment_count + EXCLUDED.payment_count,
+                total_amount  = r.total_amount + EXCLUDED.total_amount;
+    END IF;
+    RETURN NULL;
+END
+$$;
+
+-- Updates that leave every rolled-up column alone (callback data, audit columns, retry
+-- bookkeeping) do not fire the trigger at all
+CREATE TRIGGER trg_mpesa_incoming_payments_roll_up_insert_delete
+    AFTER INSERT OR DELETE
+    ON mpesa_incoming_payments
+    FOR EACH ROW
+EXECUTE FUNCTION mpesa_roll_up_payment('INCOMING');
+
+CREATE TRIGGER trg_mpesa_incoming_payments_roll_up_update
+    AFTER UPDATE OF status, amount, payment_type, shortcode_uuid, created_at, deleted_at
+    ON mpesa_incoming_payments
+    FOR EACH ROW
+    WHEN (OLD.status IS DISTINCT FROM NEW.status
+        OR OLD.amount IS DISTINCT FROM NEW.amount
+        OR OLD.payment_type IS DISTINCT FROM NEW.payment_type
+        OR OLD.shortcode_uuid IS DISTINCT FROM NEW.shortcode_uuid
+        OR OLD.created_at IS DISTINCT FROM NEW.created_at
+        OR OLD.deleted_at IS DISTINCT FROM NEW.deleted_at)
+EXECUTE FUNCTION mpesa_roll_up_payment('INCOMING');
+
+CREATE TRIGGER trg_mpesa_outgoing_payments_roll_up_insert_delete
+    AFTER INSERT OR DELETE
+    ON mpesa_outgoing_payments
+    FOR EACH ROW
+EXECUTE FUNCTION mpesa_roll_up_payment('OUTGOING');
+
+CREATE TRIGGER trg_mpesa_outgoing_payments_roll_up_update
+    AFTER UPDATE OF status, amount, payment_type, shortcode_uuid, created_at, deleted_at
+    ON mpesa_outgoing_payments
+    FOR EACH ROW
+    WHEN (OLD.status IS DISTINCT FROM NEW.status
+        OR OLD.amount IS DISTINCT FROM NEW.amount
+        OR OLD.payment_type IS DISTINCT FROM NEW.payment_type
+        OR OLD.shortcode_uuid IS DISTINCT FROM NEW.shortcode_uuid
+        OR OLD.created_at IS DISTINCT FROM NEW.created_at
+        OR OLD.deleted_at IS DISTINCT FROM NEW.deleted_at)
+EXECUTE FUNCTION mpesa_roll_up_payment('OUTGOING');
+
+-- Backfill under the triggers' table locks, so no write lands between the two
+INSERT INTO mpesa_payment_daily_rollups (direction, shortcode_uuid, day, payment_type, status, slot, payment_count,
+                                         total_amount)
+SELECT 'INCOMING', shortcode_uuid, created_at::DATE, payment_type, status, id % 8, count(*), sum(amount)
+  FROM mpesa_incoming_payments
+ WHERE deleted_at IS NULL
+ GROUP BY 2, 3, 4, 5, 6;
+
+INSERT INTO mpesa_payment_daily_rollups (direction, shortcode_uuid, day, payment_type, status, slot, payment_count,
+                                         total_amount)
+SELECT 'OUTGOING', shortcode_uuid, created_at::DATE, payment_type, status, id % 8, count(*), sum(amount)
+  FROM mpesa_outgoing_payments
+ WHERE deleted_at IS NULL
+ GROUP BY 2, 3, 4, 5, 6;
@@ -0,0 +1,46 @@
+-- Entity ids are now generated by Hibernate's pooled optimizer: one nextval reserves the 50 ids
+-- below the value it returns, so the sequences must step by the same allocation size.
+-- Native inserts (C2B upserts, statement imports, disbursement staging) keep taking nextval
+-- through the column default; each such row simply uses the top id of its own block.
+
+ALTER SEQUENCE mpesa_shortcodes_id_seq INCREMENT BY 50;
+ALTER SEQUENCE mpesa_incoming_payments_id_seq INCREMENT BY 50;
+ALTER SEQUENCE mpesa_outgoing_payments_id_seq INCREMENT BY 50;
+ALTER SEQUENCE mpesa_idempotency_keys_id_seq INCREMENT BY 50;
+ALTER SEQUENCE mpesa_disbursement_batches_id_seq INCREMENT BY 50;
+ALTER SEQUENCE mpesa_reversals_id_seq INCREMENT BY 50;
+
+-- Natively inserted rows now get ids 50 apart, and id % 8 of those only ever lands on 4 of the
+-- rollup slots. Adding id / 50 spreads them over all 8 again while consecutive pooled ids still
+-- rotate through the slots. Readers sum over the slots, so rows rolled up under the old slot are
+-- subtracted from a different one without changing any total.
+CREATE OR REPLACE FUNCTION mpesa_roll_up_payment() RETURNS TRIGGER
+    LANGUAGE plpgsql AS
+$$
+DECLARE
+    payment_direction TEXT := TG_ARGV[0];
+BEGIN
+    IF TG_OP = 'DELETE' AND current_setting('mpesa.keep_rollups', TRUE) = 'on' THEN
+        RETURN NULL;
+    END IF;
+    IF TG_OP IN ('UPDATE', 'DELETE') AND OLD.deleted_at IS NULL THEN
+        INSERT INTO mpesa_payment_daily_rollups AS r (direction, shortcode_uuid, day, payment_type, status, slot,
+                                                      payment_count, total_amount)
+        VALUES (payment_direction, OLD.shortcode_uuid, OLD.created_at::DATE, OLD.payment_type, OLD.status,
+                (OLD.id + OLD.id / 50) % 8, -1, -OLD.amount)
+        ON CONFLICT (shortcode_uuid, day, direction, payment_type, status, slot) DO UPDATE
+            SET payment_count = r.payment_count + EXCLUDED.payment_count,
+                total_amount  = r.total_amount + EXCLUDED.total_amount;
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') AND NEW.deleted_at IS NULL THEN
+        INSERT INTO mpesa_payment_daily_rollups AS r (direction, shortcode_uuid, day, payment_type, status, slot,
+                                                      payment_count, total_amount)
+        VALUES (payment_direction, NEW.shortcode_uuid, NEW.created_at::DATE, NEW.payment_type, NEW.status,
+                (NEW.id + NEW.id / 50) % 8, 1, NEW.amount)
+        ON CONFLICT (shortcode_uuid, day, direction, payment_type, status, slot) DO UPDATE
+            SET payment_count = r.payment_count + EXCLUDED.payment_count,
+                total_amount  = r.total_amount + EXCLUDED.total_amount;
+    END IF;
+    RETURN NULL;
+END
+$$;
@@ -0,0 +1,45 @@
+-- Raw M-Pesa callback payloads move out of the payment rows into one side table per direction.
+--
+-- Nothing on the read path uses them: they are kept for support and audit, yet every entity
+-- lookup, list page and poll read and parsed the JSONB, and the payloads made up most of each
+-- row's width, so fewer payments fit per heap page. The callback writers now insert the payload
+-- in the same statement as the payment update. Rows are keyed by the payment's (id, created_at)
+-- and deleted with it; the retention purge joins them back into the archive before they go.
+--
+-- DROP COLUMN only hides the column. The space in existing rows is reclaimed as they are
+-- rewritten by later updates, or at once by a VACUUM FULL or pg_repack run out of hours.
+
+CREATE TABLE mpesa_incoming_payment_callbacks
+(
+    payment_id         BIGINT    NOT NULL,
+    payment_created_at TIMESTAMP NOT NULL,
+    raw_callback_data  JSONB     NOT NULL,
+    received_at        TIMESTAMP NOT NULL DEFAULT NOW(),
+    CONSTRAINT pk_mpesa_incoming_payment_callbacks PRIMARY KEY (payment_id, payment_created_at),
+    CONSTRAINT fk_mpesa_incoming_payment_callbacks_payment FOREIGN KEY (payment_id, payment_created_at)
+        REFERENCES mpesa_incoming_payments (id, created_at) ON DELETE CASCADE
+);
+
+CREATE TABLE mpesa_outgoing_payment_callbacks
+(
+    payment_id         BIGINT    NOT NULL,
+    payment_created_at TIMESTAMP NOT NULL,
+    raw_callback_data  JSONB     NOT NULL,
+    received_at        TIMESTAMP NOT NULL DEFAULT NOW(),
+    CONSTRAINT pk_mpesa_outgoing_payment_callbacks PRIMARY KEY (payment_id, payment_created_at),
+    CONSTRAINT fk_mpesa_outgoing_payment_callbacks_payment FOREIGN KEY (payment_id, payment_created_at)
+        REFERENCES mpesa_outgoing_payments (id, created_at) ON DELETE CASCADE
+);
+
+INSERT INTO mpesa_incoming_payment_callbacks (payment_id, payment_created_at, raw_callback_data, received_at)
+SELECT id, created_at, raw_callback_data, COALESCE(processed_at, updated_at, created_at)
+  FROM mpesa_incoming_payments
+ WHERE raw_callback_data IS NOT NULL;
+
+INSERT INTO mpesa_outgoing_payment_callbacks (payment_id, payment_created_at, raw_callback_data, received_at)
+SELECT id, created_at, raw_callback_data, COALESCE(processed_at, updated_at, created_at)
+  FROM mpesa_outgoing_payments
+ WHERE raw_callback_data IS NOT NULL;
+
+ALTER TABLE mpesa_incoming_payments DROP COLUMN raw_callback_data;
+ALTER TABLE mpesa_outgoing_payments DROP COLUMN raw_callback_data;
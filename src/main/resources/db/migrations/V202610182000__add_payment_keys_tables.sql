@@ -0,0 +1,189 @@
+-- Global uniqueness for the payment identifiers lost when the payment tables were partitioned.
+--
+-- A unique constraint on a partitioned table must include the partition key, so since
+-- V202610181600 uuid, the receipt (transaction_id), the STK CheckoutRequestID, the
+-- OriginatorConversationID and the bulk (batch_id, batch_line) were only unique per created_at,
+-- or not at all. Each payment table now has an unpartitioned keys table holding one row per
+-- payment with those identifiers under ordinary unique constraints, plus the payment's
+-- (id, created_at). Triggers write the row in the same statement that inserts the payment or
+-- changes one of its identifiers, so a duplicate fails that statement exactly as a unique
+-- constraint on the payment table would. The keys rows are deleted with their payment.
+--
+-- The keys table also locates a payment: a lookup by any identifier reads the (id, created_at)
+-- from it first, so only the one partition holding the payment is probed. Writers that must
+-- not fail on a duplicate (C2B redeliveries, statement imports, re-staged bulk lines) claim the
+-- key with INSERT ... ON CONFLICT on the keys table before inserting the payment.
+--
+-- The backfill keeps the earliest payment for each identifier. Later copies recorded while the
+-- identifiers were not unique (a C2B confirmation redelivered without a usable TransTime, a
+-- re-staged bulk line) are soft-deleted, which also takes them out of the daily rollups, and a
+-- copied bulk line that was still QUEUED is cancelled rather than paid twice.
+--
+-- The mpesa_reversals foreign keys dropped by V202610181600 are restored against the keys
+-- tables. A retention purge of a reversed payment clears the reference; the reversal keeps the
+-- receipt in original_transaction_id.
+
+-- ==================== mpesa_incoming_payment_keys ====================
+
+CREATE TABLE mpesa_incoming_payment_keys
+(
+    payment_id          BIGINT      NOT NULL,
+    payment_created_at  TIMESTAMP   NOT NULL,
+    uuid                UUID        NOT NULL,
+    transaction_id      VARCHAR(50) NOT NULL,
+    checkout_request_id VARCHAR(50),
+    CONSTRAINT pk_mpesa_incoming_payment_keys PRIMARY KEY (payment_id),
+    CONSTRAINT uq_mpesa_incoming_payment_keys_uuid UNIQUE (uuid),
+    CONSTRAINT uq_mpesa_incoming_payment_keys_transaction_id UNIQUE (transaction_id),
+    CONSTRAINT uq_mpesa_incoming_payment_keys_checkout_request_id UNIQUE (checkout_request_id),
+    CONSTRAINT fk_mpesa_incoming_payment_keys_payment FOREIGN KEY (payment_id, payment_created_at)
+        REFERENCES mpesa_incoming_payments (id, created_at) ON DELETE CASCADE
+);
+
+CREATE OR REPLACE FUNCTION mpesa_sync_incoming_payment_keys()
+    RETURNS TRIGGER
+    LANGUAGE plpgsql
+AS
+$$
+BEGIN
+    -- A row whose key was claimed earlier in the same statement is already in place
+    INSERT INTO mpesa_incoming_payment_keys AS k (payment_id, payment_created_at, uuid, transaction_id,
+                                                  checkout_request_id)
+    VALUES (NEW.id, NEW.created_at, NEW.uuid, NEW.transaction_id, NEW.checkout_request_id)
+    ON CONFLICT (payment_id) DO UPDATE
+        SET uuid                = EXCLUDED.uuid,
+            transaction_id      = EXCLUDED.transaction_id,
+            checkout_request_id = EXCLUDED.checkout_request_id
+      WHERE (k.uuid, k.transaction_id, k.checkout_request_id)
+                IS DISTINCT FROM (EXCLUDED.uuid, EXCLUDED.transaction_id, EXCLUDED.checkout_request_id);
+    RETURN NULL;
+END;
+$$;
+
+INSERT INTO mpesa_incoming_payment_keys (payment_id, payment_created_at, uuid, transaction_id, checkout_request_id)
+SELECT id, created_at, uuid, transaction_id, checkout_request_id
+  FROM mpesa_incoming_payments
+ ORDER BY created_at, id
+ON CONFLICT DO NOTHING;
+
+UPDATE mpesa_incoming_payments p
+   SET deleted_at = COALESCE(deleted_at, LOCALTIMESTAMP), updated_at = LOCALTIMESTAMP
+ WHERE NOT EXISTS (SELECT 1 FROM mpesa_incoming_payment_keys k WHERE k.payment_id = p.id);
+
+CREATE TRIGGER trg_mpesa_incoming_payment_keys_insert
+    AFTER INSERT
+    ON mpesa_incoming_payments
+    FOR EACH ROW
+EXECUTE FUNCTION mpesa_sync_incoming_payment_keys();
+
+CREATE TRIGGER trg_mpesa_incoming_payment_keys_update
+    AFTER UPDATE OF uuid, transaction_id, checkout_request_id
+    ON mpesa_incoming_payments
+    FOR EACH ROW
+    WHEN (OLD.uuid IS DISTINCT FROM NEW.uuid
+        OR OLD.transaction_id IS DISTINCT FROM NEW.transaction_id
+        OR OLD.checkout_request_id IS DISTINCT FROM NEW.checkout_request_id)
+EXECUTE FUNCTION mpesa_sync_incoming_payment_keys();
+
+-- The receipt is unique in the keys table, and every lookup by it goes through there
+ALTER TABLE mpesa_incoming_payments DROP CONSTRAINT uq_mpesa_incoming_payments_transaction_id;
+DROP INDEX idx_mpesa_incoming_payments_uuid;
+DROP INDEX idx_mpesa_incoming_payments_checkout_request_id;
+
+-- ==================== mpesa_outgoing_payment_keys ====================
+
+CREATE TABLE mpesa_outgoing_payment_keys
+(
+    payment_id                 BIGINT      NOT NULL,
+    payment_created_at         TIMESTAMP   NOT NULL,
+    uuid                       UUID        NOT NULL,
+    originator_conversation_id VARCHAR(50) NOT NULL,
+    transaction_id             VARCHAR(50),
+    batch_id                   BIGINT,
+    batch_line                 INTEGER,
+    CONSTRAINT pk_mpesa_outgoing_payment_keys PRIMARY KEY (payment_id),
+    CONSTRAINT uq_mpesa_outgoing_payment_keys_uuid UNIQUE (uuid),
+    CONSTRAINT uq_mpesa_outgoing_payment_keys_originator_conversation_id UNIQUE (originator_conversation_id),
+    CONSTRAINT uq_mpesa_outgoing_payment_keys_transaction_id UNIQUE (transaction_id),
+    CONSTRAINT uq_mpesa_outgoing_payment_keys_batch_line UNIQUE (batch_id, batch_line),
+    CONSTRAINT fk_mpesa_outgoing_payment_keys_payment FOREIGN KEY (payment_id, payment_created_at)
+        REFERENCES mpesa_outgoing_payments (id, created_at) ON DELETE CASCADE
+);
+
+CREATE OR REPLACE FUNCTION mpesa_sync_outgoing_payment_keys()
+    RETURNS TRIGGER
+    LANGUAGE plpgsql
+AS
+$$
+BEGIN
+    -- A row whose key was claimed earlier in the same statement is already in place
+    INSERT INTO mpesa_outgoing_payment_keys AS k (payment_id, payment_created_at, uuid, originator_conversation_id,
+                                                  transaction_id, batch_id, batch_line)
+    VALUES (NEW.id, NEW.created_at, NEW.uuid, NEW.originator_conversation_id, NEW.transaction_id, NEW.batch_id,
+            NEW.batch_line)
+    ON CONFLICT (payment_id) DO UPDATE
+        SET uuid                       = EXCLUDED.uuid,
+            originator_conversation_id = EXCLUDED.originator_conversation_id,
+            transaction_id             = EXCLUDED.transaction_id,
+            batch_id                   = EXCLUDED.batch_id,
+            batch_line                 = EXCLUDED.batch_line
+      WHERE (k.uuid, k.originator_conversation_id, k.transaction_id, k.batch_id, k.batch_line)
+                IS DISTINCT FROM (EXCLUDED.uuid, EXCLUDED.originator_conversation_id, EXCLUDED.transaction_id,
+                                  EXCLUDED.batch_id, EXCLUDED.batch_line);
+    RETURN NULL;
+END;
+$$;
+
+INSERT INTO mpesa_outgoing_payment_keys (payment_id, payment_created_at, uuid, originator_conversation_id,
+                                         transaction_id, batch_id, batch_line)
+SELECT id, created_at, uuid, originator_conversation_id, transaction_id, batch_id, batch_line
+  FROM mpesa_outgoing_payments
+ ORDER BY created_at, id
+ON CONFLICT DO NOTHING;
+
+UPDATE mpesa_outgoing_payments p
+   SET status     = CASE WHEN status = 'QUEUED' THEN 'CANCELLED' ELSE status END,
+       deleted_at = COALESCE(deleted_at, LOCALTIMESTAMP),
+       updated_at = LOCALTIMESTAMP
+ WHERE NOT EXISTS (SELECT 1 FROM mpesa_outgoing_payment_keys k WHERE k.payment_id = p.id);
+
+CREATE TRIGGER trg_mpesa_outgoing_payment_keys_insert
+    AFTER INSERT
+    ON mpesa_outgoing_payments
+    FOR EACH ROW
+EXECUTE FUNCTION mpesa_sync_outgoing_payment_keys();
+
+CREATE TRIGGER trg_mpesa_outgoing_payment_keys_update
+    AFTER UPDATE OF uuid, originator_conversation_id, transaction_id, batch_id, batch_line
+    ON mpesa_outgoing_payments
+    FOR EACH ROW
+    WHEN (OLD.uuid IS DISTINCT FROM NEW.uuid
+        OR OLD.originator_conversation_id IS DISTINCT FROM NEW.originator_conversation_id
+        OR OLD.transaction_id IS DISTINCT FROM NEW.transaction_id
+        OR OLD.batch_id IS DISTINCT FROM NEW.batch_id
+        OR OLD.batch_line IS DISTINCT FROM NEW.batch_line)
+EXECUTE FUNCTION mpesa_sync_outgoing_payment_keys();
+
+-- Every lookup by these identifiers goes through the keys table
+DROP INDEX uq_mpesa_outgoing_payments_batch_line;
+DROP INDEX idx_mpesa_outgoing_payments_uuid;
+DROP INDEX idx_mpesa_outgoing_payments_transaction_id;
+DROP INDEX idx_mpesa_outgoing_payments_originator_conversation_id;
+
+-- ==================== mpesa_reversals ====================
+
+UPDATE mpesa_reversals r
+   SET incoming_payment_id = NULL
+ WHERE incoming_payment_id IS NOT NULL
+   AND NOT EXISTS (SELECT 1 FROM mpesa_incoming_payment_keys k WHERE k.payment_id = r.incoming_payment_id);
+
+UPDATE mpesa_reversals r
+   SET outgoing_payment_id = NULL
+ WHERE outgoing_payment_id IS NOT NULL
+   AND NOT EXISTS (SELECT 1 FROM mpesa_outgoing_payment_keys k WHERE k.payment_id = r.outgoing_payment_id);
+
+ALTER TABLE mpesa_reversals
+    ADD CONSTRAINT mpesa_reversals_incoming_payment_id_fkey FOREIGN KEY (incoming_payment_id)
+        REFERENCES mpesa_incoming_payment_keys (payment_id) ON DELETE SET NULL,
+    ADD CONSTRAINT mpesa_reversals_outgoing_payment_id_fkey FOREIGN KEY (outgoing_payment_id)
+        REFERENCES mpesa_outgoing_payment_keys (payment_id) ON DELETE SET NULL;
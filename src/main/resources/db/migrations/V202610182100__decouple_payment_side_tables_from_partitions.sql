@@ -0,0 +1,63 @@
+-- The keys tables and the raw callback side tables no longer hold foreign keys into the
+-- partitioned payment tables.
+--
+-- A foreign key referencing a partitioned table makes PostgreSQL check every row of a partition
+-- being detached against the referencing table, under a lock on both, and a partition cannot be
+-- dropped while it is referenced at all. Four such keys stood between an old month and a cheap
+-- DETACH PARTITION followed by DROP TABLE. Their ON DELETE CASCADE was also the only thing that
+-- removed keys and callback rows, so a month dropped that way would have left them behind.
+--
+-- The keys tables stay global and unpartitioned. Scoping their uniqueness per partition would
+-- bring back the duplicate receipts, CheckoutRequestIDs and bulk lines they exist to prevent,
+-- and a keys table can only be partitioned on a column every one of its unique constraints
+-- includes, which no single identifier is. The price is one table per direction carrying a
+-- unique index per identifier, which grows with the hot retention window rather than with the
+-- whole history:
+--
+--   * the retention purge deletes each archived payment's keys and callback rows in the same
+--     statement as the payment, where the cascade used to;
+--   * after a month is detached and dropped by hand, mpesa_purge_payment_side_rows() deletes
+--     that month's keys and callback rows, found through the payment_created_at indexes below.
+--
+-- Without the foreign keys the database no longer guarantees that a keys or callback row has
+-- its payment. Every writer creates them in the same statement as the payment, and nothing but
+-- the purge hard-deletes payments, so an orphan can only come from a dropped partition whose
+-- side rows were not yet purged. Lookups go through the payment row and never see one.
+
+ALTER TABLE mpesa_incoming_payment_keys DROP CONSTRAINT fk_mpesa_incoming_payment_keys_payment;
+ALTER TABLE mpesa_outgoing_payment_keys DROP CONSTRAINT fk_mpesa_outgoing_payment_keys_payment;
+ALTER TABLE mpesa_incoming_payment_callbacks DROP CONSTRAINT fk_mpesa_incoming_payment_callbacks_payment;
+ALTER TABLE mpesa_outgoing_payment_callbacks DROP CONSTRAINT fk_mpesa_outgoing_payment_callbacks_payment;
+
+CREATE INDEX idx_mpesa_incoming_payment_keys_payment_created_at ON mpesa_incoming_payment_keys (payment_created_at);
+CREATE INDEX idx_mpesa_outgoing_payment_keys_payment_created_at ON mpesa_outgoing_payment_keys (payment_created_at);
+CREATE INDEX idx_mpesa_incoming_payment_callbacks_payment_created_at
+    ON mpesa_incoming_payment_callbacks (payment_created_at);
+CREATE INDEX idx_mpesa_outgoing_payment_callbacks_payment_created_at
+    ON mpesa_outgoing_payment_callbacks (payment_created_at);
+
+-- Delete the keys and raw callbacks of every payment of parent created in [from_ts, to_ts), for
+-- use once the partitions holding those payments have been detached and dropped. Payments still
+-- in the table are skipped, so an overlapping range is harmless. Returns the keys rows deleted.
+CREATE OR REPLACE FUNCTION mpesa_purge_payment_side_rows(parent TEXT, from_ts TIMESTAMP, to_ts TIMESTAMP)
+    RETURNS BIGINT
+    LANGUAGE plpgsql
+AS
+$$
+DECLARE
+    -- mpesa_incoming_payments -> mpesa_incoming_payment_keys, mpesa_incoming_payment_callbacks
+    side_prefix TEXT := left(parent, -1);
+    deleted     BIGINT;
+BEGIN
+    EXECUTE format('DELETE FROM %I s WHERE s.payment_created_at >= %L AND s.payment_created_at < %L'
+                       || ' AND NOT EXISTS (SELECT 1 FROM %I p WHERE p.id = s.payment_id'
+                       || ' AND p.created_at = s.payment_created_at)',
+                   side_prefix || '_callbacks', from_ts, to_ts, parent);
+    EXECUTE format('DELETE FROM %I s WHERE s.payment_created_at >= %L AND s.payment_created_at < %L'
+                       || ' AND NOT EXISTS (SELECT 1 FROM %I p WHERE p.id = s.payment_id'
+                       || ' AND p.created_at = s.payment_created_at)',
+                   side_prefix || '_keys', from_ts, to_ts, parent);
+    GET DIAGNOSTICS deleted = ROW_COUNT;
+    RETURN deleted;
+END;
+$$;
@@ -0,0 +1,71 @@
+-- mpesa_ensure_monthly_partitions() moves a month's rows out of the DEFAULT partition instead of
+-- giving up on that month and every month after it.
+--
+-- Rows land in the DEFAULT partition whenever their month has no partition yet: the maintainer
+-- was disabled or down for a while, or a statement import or C2B confirmation carried an old or
+-- far-future completion time. CREATE TABLE ... PARTITION OF then fails with check_violation,
+-- because the DEFAULT partition would hold rows outside its new bound, and since only
+-- invalid_object_definition was caught the whole call failed and no later month was created.
+--
+-- For such a month the partition is now built as a standalone table, the month's rows are moved
+-- into it from the DEFAULT partition and it is attached, all in the caller's transaction. The
+-- move keeps every (id, created_at), so the keys and callback rows still point at their payments,
+-- and it sets mpesa.keep_rollups so the daily rollups are not decremented for the deleted copies.
+-- ATTACH holds an ACCESS EXCLUSIVE lock on the DEFAULT partition while it checks it, which only
+-- blocks writers for that unpartitioned range. A month that still cannot be moved is reported
+-- with a WARNING and skipped, and later months are created as usual.
+
+CREATE OR REPLACE FUNCTION mpesa_ensure_monthly_partitions(parent TEXT, months_ahead INTEGER)
+    RETURNS INTEGER
+    LANGUAGE plpgsql
+AS
+$$
+DECLARE
+    month_start    TIMESTAMP := date_trunc('month', LOCALTIMESTAMP);
+    month_end      TIMESTAMP;
+    partition_name TEXT;
+    keep_rollups   TEXT;
+    moved          BIGINT;
+    created        INTEGER   := 0;
+BEGIN
+    FOR i IN 0..months_ahead
+        LOOP
+            month_end := month_start + INTERVAL '1 month';
+            partition_name := parent || '_y' || to_char(month_start, 'YYYY') || 'm' || to_char(month_start, 'MM');
+            IF to_regclass(partition_name) IS NULL THEN
+                BEGIN
+                    EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                                   partition_name, parent, month_start, month_end);
+                    created := created + 1;
+                EXCEPTION
+                    -- The month is still covered by the legacy partition
+                    WHEN invalid_object_definition THEN NULL;
+                    -- The DEFAULT partition already holds rows for the month
+                    WHEN check_violation THEN
+                        BEGIN
+                            keep_rollups := current_setting('mpesa.keep_rollups', TRUE);
+                            PERFORM set_config('mpesa.keep_rollups', 'on', TRUE);
+                            EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS INCLUDING CONSTRAINTS)',
+                                           partition_name, parent);
+                            EXECUTE format('WITH moved AS (DELETE FROM %I WHERE created_at >= %L AND created_at < %L'
+                                               || ' RETURNING *) INSERT INTO %I SELECT * FROM moved',
+                                           parent || '_default', month_start, month_end, partition_name);
+                            GET DIAGNOSTICS moved = ROW_COUNT;
+                            EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+                                           parent, partition_name, month_start, month_end);
+                            PERFORM set_config('mpesa.keep_rollups', COALESCE(keep_rollups, ''), TRUE);
+                            created := created + 1;
+                            RAISE NOTICE 'Moved % rows of % from the DEFAULT partition into %',
+                                moved, parent, partition_name;
+                        EXCEPTION
+                            WHEN OTHERS THEN
+                                RAISE WARNING 'Could not create partition % from the DEFAULT partition: %',
+                                    partition_name, SQLERRM;
+                        END;
+                END;
+            END IF;
+            month_start := month_end;
+        END LOOP;
+    RETURN created;
+END;
+$$;
@@ -0,0 +1,29 @@
+package com.sarafrika.apps.mpesaservice;
+
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Base for tests that need the real schema: partitioning, triggers and native statements the H2
+ * test database cannot run. One PostgreSQL container is started for the whole run and migrated
+ * by Flyway when the first context starts; the tests are skipped where Docker is unavailable.
+ */
+@SpringBootTest(properties = {
+        "spring.flyway.enabled=true",
+        "spring.flyway.locations=classpath:db/migrations",
+        "spring.jpa.hibernate.ddl-auto=validate",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.PostgreSQLDialect"
+})
+@Testcontainers(disabledWithoutDocker = true)
+public abstract class PostgresIntegrationTest {
+
+    @ServiceConnection
+    protected static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    static {
+        // Started once rather than per class, so every subclass can share one cached context
+        POSTGRES.start();
+    }
+}
@@ -2,28 +2,37 @@ package com.sarafrika.apps.mpesaservice.controllers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.dtos.PaymentSummary;
 import com.sarafrika.apps.mpesaservice.dtos.StkPushRequest;
 import com.sarafrika.apps.mpesaservice.dtos.StkPushResponse;
 import com.sarafrika.apps.mpesaservice.models.MpesaIncomingPayment;
 import com.sarafrika.apps.mpesaservice.services.MpesaDarajaService;
 import com.sarafrika.apps.mpesaservice.services.MpesaIncomingPaymentService;
+import com.sarafrika.apps.mpesaservice.services.support.AccountBalanceBook;
+import com.sarafrika.apps.mpesaservice.services.support.PaymentDailyRollups;
+import com.sarafrika.apps.mpesaservice.services.support.StkPushIdempotencyGuard;
 import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentStatus;
 import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentType;
+import com.sarafrika.apps.mpesaservice.utils.enums.PaymentDirection;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
-import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
@@ -40,12 +49,21 @@ class MpesaPaymentControllerTest {
     @Autowired
     private ObjectMapper objectMapper;
 
-    @MockBean
+    @MockitoBean
     private MpesaDarajaService mpesaDarajaService;
 
-    @MockBean
+    @MockitoBean
     private MpesaIncomingPaymentService incomingPaymentService;
 
+    @MockitoBean
+    private StkPushIdempotencyGuard idempotencyGuard;
+
+    @MockitoBean
+    private AccountBalanceBook balanceBook;
+
+    @MockitoBean
+    private PaymentDailyRollups rollups;
+
     @Test
     void initiateStkPush_returnsDarajaResponseWithCheckoutId() throws Exception {
         UUID shortcodeUuid = UUID.randomUUID();
@@ -71,6 +89,45 @@ class MpesaPaymentControllerTest {
                 .andExpect(jsonPath("$.data.CheckoutRequestID").value("ws_CO_04112017184930742"));
     }
 
+    @Test
+    void initiateStkPush_passesThroughInFlightRejection() throws Exception {
+        UUID shortcodeUuid = UUID.randomUUID();
+        when(mpesaDarajaService.initiateSTKPush(eq(shortcodeUuid), eq("254708374149"),
+                any(BigDecimal.class), any(), any()))
+                .thenReturn(MpesaApiResponse.error("STK_PUSH_IN_PROGRESS",
+                        "An STK Push prompt is already open for this phone number", HttpStatus.CONFLICT.value()));
+
+        StkPushRequest request = new StkPushRequest(
+                shortcodeUuid, "254708374149", new BigDecimal("100.00"), "INV-001", "Payment for order");
+
+        mockMvc.perform(post("/api/v1/mpesa/stk-push")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.error.errorCode").value("STK_PUSH_IN_PROGRESS"));
+    }
+
+    @Test
+    void initiateStkPush_withIdempotencyKey_routesThroughGuard() throws Exception {
+        UUID shortcodeUuid = UUID.randomUUID();
+        StkPushResponse stored = new StkPushResponse(
+                "21605-295434-4", "ws_CO_04112017184930742", "0", "Success. Request accepted for processing", null);
+        when(idempotencyGuard.execute(eq("order-001-attempt"), any(StkPushRequest.class), any()))
+                .thenReturn(MpesaApiResponse.success(stored, HttpStatus.OK.value()));
+
+        StkPushRequest request = new StkPushRequest(
+                shortcodeUuid, "254708374149", new BigDecimal("100.00"), "INV-001", "Payment for order");
+
+        mockMvc.perform(post("/api/v1/mpesa/stk-push")
+                        .header("Idempotency-Key", "order-001-attempt")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.CheckoutRequestID").value("ws_CO_04112017184930742"));
+
+        verify(mpesaDarajaService, never()).initiateSTKPush(any(), any(), any(), any(), any());
+    }
+
     @Test
     void getPaymentByCheckoutRequestId_returnsPaymentWhenPresent() throws Exception {
         String checkoutId = "ws_CO_04112017184930742";
@@ -97,4 +154,28 @@ class MpesaPaymentControllerTest {
         mockMvc.perform(get("/api/v1/mpesa/payments/by-checkout/{id}", "missing"))
                 .andExpect(status().isNotFound());
     }
+
+    @Test
+    void getPaymentSummary_returnsTheRolledUpLinesForTheRange() throws Exception {
+        UUID shortcodeUuid = UUID.randomUUID();
+        LocalDate from = LocalDate.of(2026, 10, 1);
+        LocalDate to = LocalDate.of(2026, 10, 18);
+        when(rollups.summarize(shortcodeUuid, from, to, false)).thenReturn(new PaymentSummary(shortcodeUuid, from, to,
+                List.of(new PaymentSummary.Line(null, PaymentDirection.INCOMING, "C2B", "SUCCESS", 1250,
+                        new BigDecimal("184000.00")))));
+
+        mockMvc.perform(get("/api/v1/mpesa/shortcodes/{uuid}/summary", shortcodeUuid)
+                        .param("from", "2026-10-01")
+                        .param("to", "2026-10-18"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.data.lines[0].direction").value("INCOMING"))
+                .andExpect(jsonPath("$.data.lines[0].payment_count").value(1250))
+                .andExpect(jsonPath("$.data.lines[0].total_amount").value(184000.00));
+
+        mockMvc.perform(get("/api/v1/mpesa/shortcodes/{uuid}/summary", shortcodeUuid)
+                        .param("from", "2026-10-18")
+                        .param("to", "2026-10-01"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error.errorCode").value("INVALID_ARGUMENT"));
+    }
 }
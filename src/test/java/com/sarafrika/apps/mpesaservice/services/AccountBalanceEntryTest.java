@@ -0,0 +1,39 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.sarafrika.apps.mpesaservice.dtos.AccountBalanceEntry;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AccountBalanceEntryTest {
+
+    @Test
+    void parse_splitsEveryAccountAndField() {
+        List<AccountBalanceEntry> accounts = AccountBalanceEntry.parse(
+                "Working Account|KES|700000.00|700000.00|0.00|0.00&Float Account|KES|0.00|0.00|0.00|0.00"
+                        + "&Utility Account|KES|228037.00|228037.00|0.00|0.00"
+                        + "&Charges Paid Account|KES|-1540.00|-1540.00|0.00|0.00");
+
+        assertThat(accounts).extracting(AccountBalanceEntry::accountName)
+                .containsExactly("Working Account", "Float Account", "Utility Account", "Charges Paid Account");
+        assertThat(accounts.get(2)).isEqualTo(new AccountBalanceEntry("Utility Account", "KES",
+                new BigDecimal("228037.00"), new BigDecimal("228037.00"), new BigDecimal("0.00"),
+                new BigDecimal("0.00")));
+        assertThat(accounts.get(3).availableBalance()).isEqualByComparingTo("-1540");
+    }
+
+    @Test
+    void parse_toleratesShortAndMalformedSegments() {
+        List<AccountBalanceEntry> accounts = AccountBalanceEntry.parse(
+                "Working Account|KES|abc&&|KES|1.00&Utility Account|KES|10.00|9.00");
+
+        assertThat(accounts).hasSize(2);
+        assertThat(accounts.get(0).currentBalance()).isNull();
+        assertThat(accounts.get(1).availableBalance()).isEqualByComparingTo("9.00");
+        assertThat(accounts.get(1).reservedAmount()).isNull();
+        assertThat(AccountBalanceEntry.parse(null)).isEmpty();
+    }
+}
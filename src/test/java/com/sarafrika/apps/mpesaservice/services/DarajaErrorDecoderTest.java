@@ -0,0 +1,84 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.sarafrika.apps.mpesaservice.clients.DarajaErrorDecoder;
+import com.sarafrika.apps.mpesaservice.exceptions.DarajaApiException;
+import com.sarafrika.apps.mpesaservice.exceptions.DarajaAuthenticationException;
+import com.sarafrika.apps.mpesaservice.exceptions.DarajaClientException;
+import com.sarafrika.apps.mpesaservice.exceptions.DarajaRateLimitException;
+import com.sarafrika.apps.mpesaservice.exceptions.DarajaServerException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DarajaErrorDecoderTest {
+
+    private final DarajaErrorDecoder decoder = new DarajaErrorDecoder(256);
+
+    @Test
+    void decode_readsDarajaFieldsAndClassifiesByStatusAndCode() throws Exception {
+        DarajaApiException invalid = decoder.decode(400, body("""
+                {"requestId": "11728-2929992-1", "errorCode": "400.002.02",
+                 "errorMessage": "Bad Request - Invalid Amount"}"""));
+
+        assertThat(invalid).isInstanceOf(DarajaClientException.class);
+        assertThat(invalid.getRequestId()).isEqualTo("11728-2929992-1");
+        assertThat(invalid.getErrorCode()).isEqualTo("400.002.02");
+        assertThat(invalid.getErrorMessage()).isEqualTo("Bad Request - Invalid Amount");
+        assertThat(invalid.getServiceErrorCode()).isEqualTo("CLIENT_ERROR");
+        assertThat(invalid.isRetryable()).isFalse();
+
+        DarajaApiException token = decoder.decode(400, body("""
+                {"requestId": "r-2", "errorCode": "400.002.01", "errorMessage": "Invalid Access Token"}"""));
+        assertThat(token).isInstanceOf(DarajaAuthenticationException.class);
+        assertThat(token.getServiceErrorCode()).isEqualTo("AUTH_FAILED");
+
+        DarajaApiException throttled = decoder.decode(429, body("""
+                {"fault": {"faultstring": "Spike arrest violation. Allowed rate : 5ps",
+                 "detail": {"errorcode": "policies.ratelimit.SpikeArrestViolation"}}}"""));
+        assertThat(throttled).isInstanceOf(DarajaRateLimitException.class);
+        assertThat(throttled.getErrorCode()).isEqualTo("policies.ratelimit.SpikeArrestViolation");
+        assertThat(throttled.getErrorMessage()).startsWith("Spike arrest violation");
+        assertThat(throttled.isRetryable()).isTrue();
+        assertThat(throttled.isOutcomeUnknown()).isFalse();
+
+        DarajaApiException failed = decoder.decode(503, body("<html>Service Unavailable</html>"));
+        assertThat(failed).isInstanceOf(DarajaServerException.class);
+        assertThat(failed.getErrorMessage()).isEqualTo("<html>Service Unavailable</html>");
+        assertThat(failed.isRetryable()).isTrue();
+        assertThat(failed.isOutcomeUnknown()).isTrue();
+    }
+
+    @Test
+    void decode_readsNoMoreThanTheLimitAndKeepsFieldsBeforeTheCut() throws Exception {
+        String padding = "x".repeat(10_000);
+        byte[] bytes = ("{\"requestId\": \"r-1\", \"errorCode\": \"500.001.1001\", \"errorMessage\": \"" + padding
+                + "\"}").getBytes(StandardCharsets.UTF_8);
+        ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
+
+        DarajaApiException error = decoder.decode(500, stream);
+
+        assertThat(stream.available()).isEqualTo(bytes.length - 256);
+        assertThat(error).isInstanceOf(DarajaServerException.class);
+        assertThat(error.getRequestId()).isEqualTo("r-1");
+        assertThat(error.getErrorCode()).isEqualTo("500.001.1001");
+        assertThat(error.getErrorMessage()).isNull();
+    }
+
+    @Test
+    void decode_emptyBodyStillCarriesTheStatus() throws Exception {
+        DarajaApiException error = decoder.decode(401, body(""));
+
+        assertThat(error).isInstanceOf(DarajaAuthenticationException.class);
+        assertThat(error.getHttpStatus()).isEqualTo(401);
+        assertThat(error.getErrorCode()).isNull();
+        assertThat(error.getMessage()).isEqualTo("Daraja 401");
+    }
+
+    private static InputStream body(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,34 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaApi;
+import com.sarafrika.apps.mpesaservice.utils.enums.DarajaResultCode;
+import com.sarafrika.apps.mpesaservice.utils.enums.ResultCodeCategory;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DarajaResultCodeTest {
+
+    @Test
+    void of_readsTheSameCodeAgainstTheApiThatProducedIt() {
+        assertThat(DarajaResultCode.of(DarajaApi.STK_PUSH, 1)).isEqualTo(DarajaResultCode.STK_INSUFFICIENT_BALANCE);
+        assertThat(DarajaResultCode.of(DarajaApi.STK_PUSH, 1).isUserCaused()).isTrue();
+        assertThat(DarajaResultCode.of(DarajaApi.B2C, 1).isRetryable()).isTrue();
+        assertThat(DarajaResultCode.of(DarajaApi.REVERSAL, 1)).isEqualTo(DarajaResultCode.REVERSAL_TRANSACTION_NOT_FOUND);
+        assertThat(DarajaResultCode.of(DarajaApi.B2B, 0).isSuccess()).isTrue();
+        assertThat(DarajaResultCode.of(DarajaApi.B2C, 15).isTerminal()).isTrue();
+    }
+
+    @Test
+    void of_unregisteredOrMissingCode_isUnknownAndNeverRetried() {
+        assertThat(DarajaResultCode.of(DarajaApi.B2C, 424242)).isEqualTo(DarajaResultCode.UNKNOWN);
+        assertThat(DarajaResultCode.of(DarajaApi.STK_PUSH, null)).isEqualTo(DarajaResultCode.UNKNOWN);
+        assertThat(DarajaResultCode.UNKNOWN.isRetryable()).isFalse();
+    }
+
+    @Test
+    void codes_listsOneApisCategory() {
+        assertThat(DarajaResultCode.codes(DarajaApi.B2C, ResultCodeCategory.RETRYABLE)).containsExactly(1, 5, 17, 26);
+        assertThat(DarajaResultCode.codes(DarajaApi.STK_PUSH, ResultCodeCategory.SUCCESS)).containsExactly(0);
+    }
+}
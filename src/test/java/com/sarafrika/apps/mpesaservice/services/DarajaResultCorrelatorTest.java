@@ -0,0 +1,104 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sarafrika.apps.mpesaservice.dtos.AccountBalanceResultData;
+import com.sarafrika.apps.mpesaservice.dtos.B2CTimeoutCallback;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.services.support.DarajaResultCorrelator;
+import com.sarafrika.apps.mpesaservice.services.support.PostgresNotificationChannel;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DarajaResultCorrelatorTest {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private AccountBalanceResultData balanceResult() {
+        return new AccountBalanceResultData(0, 0, "The service request is processed successfully.",
+                "16917-22577599-3", "AG_20200206_00005e091a8ec6b9eac5", null);
+    }
+
+    /**
+     * A channel that behaves like LISTEN/NOTIFY between the correlators sharing it
+     */
+    private PostgresNotificationChannel sharedChannel(List<Consumer<String>> listeners) {
+        PostgresNotificationChannel channel = mock(PostgresNotificationChannel.class);
+        doAnswer(invocation -> listeners.add(invocation.getArgument(1)))
+                .when(channel).subscribe(anyString(), any());
+        when(channel.publish(anyString(), anyString())).thenAnswer(invocation -> {
+            listeners.forEach(listener -> listener.accept(invocation.getArgument(1)));
+            return true;
+        });
+        return channel;
+    }
+
+    private DarajaResultCorrelator correlator(PostgresNotificationChannel channel) {
+        return new DarajaResultCorrelator(objectMapper, channel, Duration.ofSeconds(5), Duration.ofMinutes(2), 100);
+    }
+
+    @Test
+    void waiterOnOneNodeReceivesResultDeliveredToAnother() throws Exception {
+        List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+        PostgresNotificationChannel channel = sharedChannel(listeners);
+        DarajaResultCorrelator waitingNode = correlator(channel);
+        DarajaResultCorrelator callbackNode = correlator(channel);
+
+        CompletableFuture<MpesaApiResponse<AccountBalanceResultData>> waiting = CompletableFuture.supplyAsync(() ->
+                waitingNode.await("AG_20200206_00005e091a8ec6b9eac5", "16917-22577599-3",
+                        AccountBalanceResultData.class, Duration.ofSeconds(5)));
+        while (waitingNode.waitingCount() == 0) {
+            Thread.sleep(5);
+        }
+
+        AccountBalanceResultData result = balanceResult();
+        callbackNode.publish(result.conversationId(), result.originatorConversationId(), false, result);
+
+        MpesaApiResponse<AccountBalanceResultData> response = waiting.get();
+        assertThat(response.success()).isTrue();
+        assertThat(response.data().conversationId()).isEqualTo("AG_20200206_00005e091a8ec6b9eac5");
+        assertThat(waitingNode.waitingCount()).isZero();
+    }
+
+    @Test
+    void resultArrivingBeforeTheWaiterIsStillDelivered() {
+        DarajaResultCorrelator correlator = correlator(sharedChannel(new CopyOnWriteArrayList<>()));
+        AccountBalanceResultData result = balanceResult();
+        correlator.publish(result.conversationId(), result.originatorConversationId(), false, result);
+
+        MpesaApiResponse<AccountBalanceResultData> response = correlator.await(null,
+                "16917-22577599-3", AccountBalanceResultData.class, Duration.ofMillis(100));
+
+        assertThat(response.success()).isTrue();
+        assertThat(response.data().resultCode()).isZero();
+    }
+
+    @Test
+    void darajaTimeoutCallbackAndExpiredWaitAreReportedDistinctly() {
+        DarajaResultCorrelator correlator = correlator(sharedChannel(new CopyOnWriteArrayList<>()));
+        correlator.publish("AG_timeout", "orig-timeout", true,
+                new B2CTimeoutCallback(0, 1, "The request timed out", "orig-timeout", "AG_timeout"));
+
+        MpesaApiResponse<AccountBalanceResultData> timedOut = correlator.await("AG_timeout", null,
+                AccountBalanceResultData.class, Duration.ofMillis(100));
+        MpesaApiResponse<AccountBalanceResultData> pending = correlator.await("AG_never", null,
+                AccountBalanceResultData.class, Duration.ofMillis(50));
+
+        assertThat(timedOut.httpStatus()).isEqualTo(504);
+        assertThat(timedOut.error().errorCode()).isEqualTo("DARAJA_TIMEOUT");
+        assertThat(pending.httpStatus()).isEqualTo(202);
+        assertThat(pending.error().errorCode()).isEqualTo("RESULT_PENDING");
+    }
+}
@@ -0,0 +1,70 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sarafrika.apps.mpesaservice.dtos.DisbursementLine;
+import com.sarafrika.apps.mpesaservice.services.support.DisbursementFileParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DisbursementFileParserTest {
+
+    private final DisbursementFileParser parser = new DisbursementFileParser(new ObjectMapper());
+
+    private static InputStream body(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<DisbursementLine> drain(Iterator<DisbursementLine> lines) {
+        List<DisbursementLine> result = new ArrayList<>();
+        lines.forEachRemaining(result::add);
+        return result;
+    }
+
+    @Test
+    void parseCsv_skipsHeaderAndBlankLines_andHonoursQuotes() {
+        List<DisbursementLine> lines = drain(parser.parseCsv(body("""
+                phone_number,amount,remarks
+                254708374149,1500.00,"October salary, net"
+
+                0712345678,20,
+                """)));
+
+        assertThat(lines).containsExactly(
+                new DisbursementLine("254708374149", new BigDecimal("1500.00"), "October salary, net"),
+                new DisbursementLine("0712345678", new BigDecimal("20"), null));
+    }
+
+    @Test
+    void parseCsv_malformedAmount_isReturnedForRejection() {
+        List<DisbursementLine> lines = drain(parser.parseCsv(body("254708374149,1500\n254708374150,abc\n")));
+
+        assertThat(lines).hasSize(2);
+        assertThat(lines.get(1).amount()).isNull();
+    }
+
+    @Test
+    void parseJson_acceptsArrayAndNdjson() {
+        String array = """
+                [{"phone_number":"254708374149","amount":10},{"phone_number":"254708374150","amount":20.5}]
+                """;
+        String ndjson = """
+                {"phone_number":"254708374149","amount":10}
+                {"phone_number":"254708374150","amount":20.5}
+                """;
+
+        List<DisbursementLine> expected = List.of(
+                new DisbursementLine("254708374149", new BigDecimal("10"), null),
+                new DisbursementLine("254708374150", new BigDecimal("20.5"), null));
+        assertThat(drain(parser.parseJson(body(array)))).isEqualTo(expected);
+        assertThat(drain(parser.parseJson(body(ndjson)))).isEqualTo(expected);
+    }
+}
@@ -0,0 +1,56 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.sarafrika.apps.mpesaservice.services.support.HashedWheelTimer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HashedWheelTimerTest {
+
+    // 8 slots of 10ms: anything past 80ms needs more than one revolution
+    private final HashedWheelTimer timer = new HashedWheelTimer("test-wheel", Duration.ofMillis(10), 8, Runnable::run);
+
+    @AfterEach
+    void tearDown() {
+        timer.close();
+    }
+
+    @Test
+    void firesInDeadlineOrderAcrossRevolutionsAndNeverEarly() throws Exception {
+        List<String> fired = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        long start = System.nanoTime();
+        long[] firedAtMs = new long[1];
+
+        timer.schedule(() -> { fired.add("late"); firedAtMs[0] = (System.nanoTime() - start) / 1_000_000; done.countDown(); },
+                Duration.ofMillis(250));
+        timer.schedule(() -> { fired.add("early"); done.countDown(); }, Duration.ofMillis(20));
+        timer.schedule(() -> { fired.add("middle"); done.countDown(); }, Duration.ofMillis(120));
+
+        assertThat(done.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(fired).containsExactly("early", "middle", "late");
+        assertThat(firedAtMs[0]).isGreaterThanOrEqualTo(250);
+        assertThat(timer.pendingCount()).isZero();
+    }
+
+    @Test
+    void cancelledTimeoutNeverFires() throws Exception {
+        CountDownLatch cancelledRan = new CountDownLatch(1);
+        CountDownLatch sentinel = new CountDownLatch(1);
+
+        HashedWheelTimer.Timeout timeout = timer.schedule(cancelledRan::countDown, Duration.ofMillis(30));
+        timer.schedule(sentinel::countDown, Duration.ofMillis(60));
+        timeout.cancel();
+
+        assertThat(sentinel.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(cancelledRan.getCount()).isEqualTo(1);
+        assertThat(timer.pendingCount()).isZero();
+    }
+}
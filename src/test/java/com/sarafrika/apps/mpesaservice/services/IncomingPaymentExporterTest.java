@@ -0,0 +1,179 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sarafrika.apps.mpesaservice.services.support.IncomingPaymentExporter;
+import com.sarafrika.apps.mpesaservice.utils.enums.ExportFormat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IncomingPaymentExporterTest {
+
+    private static final UUID SHORTCODE_UUID = UUID.fromString("5d6a2f1e-3c4b-4f8e-9a7d-2b1c0e9f8a7b");
+    private static final LocalDateTime DAY = LocalDateTime.of(2026, 10, 18, 0, 0);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private IncomingPaymentExporter exporter;
+    private long nextId = 1;
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("""
+                CREATE TABLE mpesa_incoming_payments
+                (
+                    id                  BIGINT         NOT NULL PRIMARY KEY,
+                    uuid                UUID           NOT NULL,
+                    shortcode_uuid      UUID           NOT NULL,
+                    payment_type        VARCHAR(20)    NOT NULL,
+                    transaction_id      VARCHAR(50)    NOT NULL,
+                    checkout_request_id VARCHAR(50),
+                    merchant_request_id VARCHAR(50),
+                    phone_number        VARCHAR(15)    NOT NULL,
+                    amount              DECIMAL(15, 2) NOT NULL,
+                    account_reference   VARCHAR(100),
+                    transaction_desc    VARCHAR(255),
+                    result_code         INTEGER,
+                    result_desc         VARCHAR(255),
+                    status              VARCHAR(20)    NOT NULL,
+                    transaction_date    TIMESTAMP,
+                    processed_at        TIMESTAMP,
+                    created_at          TIMESTAMP      NOT NULL,
+                    deleted_at          TIMESTAMP
+                )
+                """);
+        // A fetch size of 2 makes every export below cross several fetch batches
+        exporter = new IncomingPaymentExporter(database, new DataSourceTransactionManager(database), objectMapper, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    private String insert(UUID shortcodeUuid, LocalDateTime createdAt, String accountReference, Integer resultCode,
+                          LocalDateTime deletedAt) {
+        String receipt = "QDR%06d".formatted(nextId);
+        jdbcTemplate.update("""
+                        INSERT INTO mpesa_incoming_payments (id, uuid, shortcode_uuid, payment_type, transaction_id,
+                               phone_number, amount, account_reference, result_code, status, transaction_date,
+                               created_at, deleted_at)
+                        VALUES (?, ?, ?, 'C2B', ?, '254708374149', ?, ?, ?, 'SUCCESS', ?, ?, ?)
+                        """,
+                nextId++, UUID.randomUUID(), shortcodeUuid, receipt, new BigDecimal("100.50"), accountReference,
+                resultCode, Timestamp.valueOf(createdAt), Timestamp.valueOf(createdAt),
+                deletedAt != null ? Timestamp.valueOf(deletedAt) : null);
+        return receipt;
+    }
+
+    private String insert(LocalDateTime createdAt) {
+        return insert(SHORTCODE_UUID, createdAt, "INV-001", 0, null);
+    }
+
+    private String export(ExportFormat format, LocalDateTime from, LocalDateTime to) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.export(SHORTCODE_UUID, from, to, format, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void export_streamsAllRowsInCreatedAtThenIdOrderAcrossFetchBatches() throws Exception {
+        List<String> expected = new ArrayList<>();
+        // Inserted out of order, with two pairs sharing a created_at so the id breaks the tie
+        String third = insert(DAY.plusHours(3));
+        String first = insert(DAY.plusHours(1));
+        String firstTie = insert(DAY.plusHours(1));
+        String second = insert(DAY.plusHours(2));
+        String fourth = insert(DAY.plusHours(4));
+        String fourthTie = insert(DAY.plusHours(4));
+        String fifth = insert(DAY.plusHours(5));
+        expected.addAll(List.of(first, firstTie, second, third, fourth, fourthTie, fifth));
+
+        String ndjson = export(ExportFormat.NDJSON, DAY, DAY.plusDays(1));
+
+        List<String> receipts = new ArrayList<>();
+        for (String line : ndjson.split("\n")) {
+            receipts.add(objectMapper.readTree(line).get("transaction_id").asText());
+        }
+        assertThat(receipts).containsExactlyElementsOf(expected);
+        assertThat(ndjson).endsWith("\n");
+    }
+
+    @Test
+    void export_keepsOnlyTheShortcodesLiveRowsInsideTheHalfOpenRange() throws Exception {
+        insert(DAY.minusNanos(1000));
+        String atStart = insert(DAY);
+        String inside = insert(DAY.plusHours(12));
+        insert(DAY.plusDays(1));
+        insert(UUID.randomUUID(), DAY.plusHours(6), "INV-001", 0, null);
+        insert(SHORTCODE_UUID, DAY.plusHours(7), "INV-001", 0, DAY.plusHours(8));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = exporter.export(SHORTCODE_UUID, DAY, DAY.plusDays(1), ExportFormat.NDJSON, out);
+
+        assertThat(written).isEqualTo(2);
+        assertThat(out.toString(StandardCharsets.UTF_8)).contains(atStart, inside);
+    }
+
+    @Test
+    void export_emptyRange_writesNothingButTheCsvHeader() throws Exception {
+        insert(DAY.plusHours(1));
+
+        assertThat(export(ExportFormat.NDJSON, DAY.plusDays(1), DAY.plusDays(2))).isEmpty();
+        assertThat(export(ExportFormat.CSV, DAY.plusDays(1), DAY.plusDays(2)))
+                .isEqualTo("uuid,shortcode_uuid,payment_type,transaction_id,checkout_request_id,"
+                        + "merchant_request_id,phone_number,amount,account_reference,transaction_desc,"
+                        + "result_code,result_desc,status,transaction_date,processed_at,created_at\r\n");
+    }
+
+    @Test
+    void ndjson_writesTypedValuesAndNullsUnderDtoFieldNames() throws Exception {
+        insert(SHORTCODE_UUID, DAY.plusHours(1), "INV \"7\"\nline", null, null);
+
+        JsonNode row = objectMapper.readTree(export(ExportFormat.NDJSON, DAY, DAY.plusDays(1)).trim());
+
+        assertThat(row.get("shortcode_uuid").asText()).isEqualTo(SHORTCODE_UUID.toString());
+        assertThat(row.get("amount").isNumber()).isTrue();
+        assertThat(row.get("amount").decimalValue()).isEqualByComparingTo("100.50");
+        assertThat(row.get("result_code").isNull()).isTrue();
+        assertThat(row.get("checkout_request_id").isNull()).isTrue();
+        assertThat(row.get("account_reference").asText()).isEqualTo("INV \"7\"\nline");
+        assertThat(row.get("created_at").asText()).isEqualTo("2026-10-18T01:00:00");
+    }
+
+    @Test
+    void csv_quotesOnlyFieldsThatNeedItAndLeavesNullsEmpty() throws Exception {
+        String receipt = insert(SHORTCODE_UUID, DAY.plusHours(1), "INV,\"7\"\r\nnext", 0, null);
+        String uuid = jdbcTemplate.queryForObject("SELECT uuid FROM mpesa_incoming_payments", String.class);
+
+        String csv = export(ExportFormat.CSV, DAY, DAY.plusDays(1));
+
+        assertThat(csv.substring(csv.indexOf("\r\n") + 2)).isEqualTo(uuid + "," + SHORTCODE_UUID + ",C2B," + receipt
+                + ",,,254708374149,100.50,\"INV,\"\"7\"\"\r\nnext\",,0,,SUCCESS,2026-10-18T01:00:00,,"
+                + "2026-10-18T01:00:00\r\n");
+    }
+}
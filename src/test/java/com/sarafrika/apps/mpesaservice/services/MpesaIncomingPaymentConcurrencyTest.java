@@ -0,0 +1,251 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.sarafrika.apps.mpesaservice.PostgresIntegrationTest;
+import com.sarafrika.apps.mpesaservice.models.MpesaIncomingPayment;
+import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentStatus;
+import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Races many writers against one payment row on PostgreSQL, where the status guards of the
+ * conditional UPDATEs are what keeps them apart
+ */
+class MpesaIncomingPaymentConcurrencyTest extends PostgresIntegrationTest {
+
+    private static final int WRITERS = 16;
+
+    @Autowired
+    private MpesaIncomingPaymentService service;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private ExecutorService executor;
+    private UUID shortcodeUuid;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(WRITERS * 3);
+        shortcodeUuid = jdbcTemplate.queryForObject("""
+                INSERT INTO mpesa_shortcodes (shortcode, shortcode_type, business_name, consumer_key, consumer_secret,
+                                              callback_url)
+                VALUES (?, 'PAYBILL', 'Concurrency test', 'key', 'secret', 'https://example.com/callback')
+                RETURNING uuid
+                """, UUID.class, String.valueOf(ThreadLocalRandom.current().nextInt(100_000, 1_000_000)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private MpesaIncomingPayment pendingStkPayment() {
+        String checkoutRequestId = "ws_CO_" + UUID.randomUUID().toString().replace("-", "").substring(0, 20);
+        MpesaIncomingPayment payment = new MpesaIncomingPayment();
+        payment.setShortcodeUuid(shortcodeUuid);
+        payment.setPaymentType(IncomingPaymentType.STK_PUSH);
+        payment.setCheckoutRequestId(checkoutRequestId);
+        payment.setTransactionId(checkoutRequestId); // placeholder seeded at initiation
+        payment.setPhoneNumber("254708374149");
+        payment.setAmount(new BigDecimal("100.00"));
+        payment.setStatus(IncomingPaymentStatus.PENDING);
+        return service.create(payment);
+    }
+
+    private static Map<String, Object> successCallback(String checkoutRequestId, String receipt) {
+        return Map.of(
+                "MerchantRequestID", "21605-295434-4",
+                "CheckoutRequestID", checkoutRequestId,
+                "ResultCode", 0,
+                "ResultDesc", "The service request is processed successfully.",
+                "CallbackMetadata", Map.of("Item", List.of(
+                        Map.of("Name", "Amount", "Value", 100.0),
+                        Map.of("Name", "MpesaReceiptNumber", "Value", receipt),
+                        Map.of("Name", "PhoneNumber", "Value", "254708374149"),
+                        Map.of("Name", "TransactionDate", "Value", "20230727104247")
+                ))
+        );
+    }
+
+    private static String receipt(int writer) {
+        return "QCR%07d".formatted(writer);
+    }
+
+    /**
+     * Release every task at once and wait for all of them; each outcome is the task's result or
+     * the exception it threw
+     */
+    private List<Object> race(List<Callable<?>> tasks) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (Callable<?> task : tasks) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        start.countDown();
+        List<Object> outcomes = new ArrayList<>();
+        for (Future<?> future : futures) {
+            try {
+                outcomes.add(future.get(60, TimeUnit.SECONDS));
+            } catch (ExecutionException e) {
+                outcomes.add(e.getCause());
+            }
+        }
+        return outcomes;
+    }
+
+    private Map<String, Object> row(MpesaIncomingPayment payment) {
+        return jdbcTemplate.queryForMap("""
+                SELECT p.status, p.transaction_id, p.result_code, p.processed_at, p.updated_at,
+                       k.transaction_id AS key_transaction_id,
+                       c.raw_callback_data -> 'CallbackMetadata' -> 'Item' -> 1 ->> 'Value' AS callback_receipt
+                  FROM mpesa_incoming_payments p
+                       JOIN mpesa_incoming_payment_keys k ON k.payment_id = p.id AND k.payment_created_at = p.created_at
+                       LEFT JOIN mpesa_incoming_payment_callbacks c
+                                 ON c.payment_id = p.id AND c.payment_created_at = p.created_at
+                 WHERE p.id = ?
+                """, payment.getId());
+    }
+
+    @Test
+    void racingStkCallbacks_firstResultWinsAndItsReceiptIsKept() throws Exception {
+        MpesaIncomingPayment payment = pendingStkPayment();
+        List<Callable<?>> callbacks = new ArrayList<>();
+        for (int writer = 0; writer < WRITERS; writer++) {
+            Map<String, Object> callback = successCallback(payment.getCheckoutRequestId(), receipt(writer));
+            callbacks.add(() -> service.processStkPushCallback(payment.getCheckoutRequestId(), callback));
+        }
+
+        List<Object> outcomes = race(callbacks);
+
+        assertThat(outcomes).allSatisfy(outcome -> assertThat(outcome).isInstanceOf(MpesaIncomingPayment.class));
+        List<String> winners = new ArrayList<>();
+        for (int writer = 0; writer < WRITERS; writer++) {
+            if (receipt(writer).equals(((MpesaIncomingPayment) outcomes.get(writer)).getTransactionId())) {
+                winners.add(receipt(writer));
+            }
+        }
+        assertThat(winners).hasSize(1);
+        String winner = winners.get(0);
+        // Every loser saw the winner's row rather than writing its own receipt over it
+        assertThat(outcomes).allSatisfy(outcome -> assertThat(((MpesaIncomingPayment) outcome).getTransactionId())
+                .isEqualTo(winner));
+
+        Map<String, Object> row = row(payment);
+        assertThat(row.get("status")).isEqualTo("SUCCESS");
+        assertThat(row.get("transaction_id")).isEqualTo(winner);
+        assertThat(row.get("key_transaction_id")).isEqualTo(winner);
+        assertThat(row.get("callback_receipt")).isEqualTo(winner);
+        assertThat(row.get("result_code")).isEqualTo(0);
+    }
+
+    @Test
+    void callbacksRacingStatusUpdatesAndProcessing_neverLoseTheWinnersReceiptOrStatus() throws Exception {
+        MpesaIncomingPayment payment = pendingStkPayment();
+        List<Callable<?>> tasks = new ArrayList<>();
+        for (int writer = 0; writer < WRITERS; writer++) {
+            Map<String, Object> callback = successCallback(payment.getCheckoutRequestId(), receipt(writer));
+            tasks.add(() -> service.processStkPushCallback(payment.getCheckoutRequestId(), callback));
+            tasks.add(() -> service.updateStatus(payment.getUuid(), IncomingPaymentStatus.CANCELLED));
+            tasks.add(() -> service.markAsProcessed(payment.getUuid()));
+        }
+
+        List<Object> outcomes = race(tasks);
+
+        // Tasks were queued as (callback, status update, processing) triples
+        List<Object> callbackOutcomes = new ArrayList<>();
+        List<Object> updateOutcomes = new ArrayList<>();
+        for (int i = 0; i < outcomes.size(); i += 3) {
+            callbackOutcomes.add(outcomes.get(i));
+            updateOutcomes.add(outcomes.get(i + 1));
+        }
+        assertThat(outcomes).noneMatch(outcome -> outcome instanceof Throwable
+                && !(outcome instanceof IllegalStateException));
+
+        Map<String, Object> row = row(payment);
+        assertThat(row.get("processed_at")).isNotNull();
+        assertThat(row.get("transaction_id")).isEqualTo(row.get("key_transaction_id"));
+        if ("SUCCESS".equals(row.get("status"))) {
+            // A callback won: its receipt is on the row and every status update was refused
+            String winner = (String) row.get("transaction_id");
+            assertThat(winner).startsWith("QCR");
+            assertThat(row.get("callback_receipt")).isEqualTo(winner);
+            assertThat(callbackOutcomes).filteredOn(outcome -> winner.equals(
+                    ((MpesaIncomingPayment) outcome).getTransactionId())).hasSize(WRITERS);
+            assertThat(updateOutcomes).allSatisfy(outcome -> assertThat(outcome)
+                    .isInstanceOf(IllegalStateException.class));
+        } else {
+            // A status update won: no callback wrote its receipt or result, and each one saw CANCELLED
+            assertThat(row.get("status")).isEqualTo("CANCELLED");
+            assertThat(row.get("transaction_id")).isEqualTo(payment.getCheckoutRequestId());
+            assertThat(row.get("callback_receipt")).isNull();
+            assertThat(row.get("result_code")).isNull();
+            assertThat(callbackOutcomes).allSatisfy(outcome -> assertThat(
+                    ((MpesaIncomingPayment) outcome).getStatus()).isEqualTo(IncomingPaymentStatus.CANCELLED));
+            assertThat(updateOutcomes).allSatisfy(outcome -> assertThat(
+                    ((MpesaIncomingPayment) outcome).getStatus()).isEqualTo(IncomingPaymentStatus.CANCELLED));
+        }
+    }
+
+    @Test
+    void racingStatusUpdates_applyTheTransitionOnce() throws Exception {
+        MpesaIncomingPayment payment = pendingStkPayment();
+        List<Callable<?>> updates = new ArrayList<>();
+        for (int writer = 0; writer < WRITERS * 2; writer++) {
+            updates.add(() -> service.updateStatus(payment.getUuid(), IncomingPaymentStatus.FAILED));
+        }
+
+        List<Object> outcomes = race(updates);
+
+        // Losers return the row as the winner left it, so a single updated_at means a single write
+        assertThat(outcomes).allSatisfy(outcome -> assertThat(((MpesaIncomingPayment) outcome).getStatus())
+                .isEqualTo(IncomingPaymentStatus.FAILED));
+        assertThat(outcomes.stream().map(outcome -> ((MpesaIncomingPayment) outcome).getUpdatedAt()).distinct())
+                .singleElement().isEqualTo(((Timestamp) row(payment).get("updated_at")).toLocalDateTime());
+    }
+
+    @Test
+    void racingMarkAsProcessed_stampsProcessedAtOnce() throws Exception {
+        MpesaIncomingPayment payment = pendingStkPayment();
+        List<Callable<?>> marks = new ArrayList<>();
+        for (int writer = 0; writer < WRITERS * 2; writer++) {
+            marks.add(() -> service.markAsProcessed(payment.getUuid()));
+        }
+
+        List<Object> outcomes = race(marks);
+
+        List<LocalDateTime> stamps = outcomes.stream()
+                .map(outcome -> ((MpesaIncomingPayment) outcome).getProcessedAt())
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        assertThat(outcomes).hasSize(WRITERS * 2);
+        assertThat(stamps).singleElement()
+                .isEqualTo(((Timestamp) row(payment).get("processed_at")).toLocalDateTime());
+    }
+}
@@ -2,34 +2,59 @@ package com.sarafrika.apps.mpesaservice.services;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sarafrika.apps.mpesaservice.models.MpesaIncomingPayment;
+import com.sarafrika.apps.mpesaservice.models.MpesaShortCode;
 import com.sarafrika.apps.mpesaservice.repositories.MpesaIncomingPaymentRepository;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaShortCodeRepository;
 import com.sarafrika.apps.mpesaservice.services.impl.MpesaIncomingPaymentServiceImpl;
+import com.sarafrika.apps.mpesaservice.services.support.PaymentDailyRollups;
+import com.sarafrika.apps.mpesaservice.services.support.StkCallbackParkingLot;
+import com.sarafrika.apps.mpesaservice.services.support.StkPushInFlightRegistry;
 import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentStatus;
 import com.sarafrika.apps.mpesaservice.utils.enums.IncomingPaymentType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
 
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class MpesaIncomingPaymentServiceImplTest {
 
     private MpesaIncomingPaymentRepository repository;
+    private MpesaShortCodeRepository shortCodeRepository;
     private MpesaIncomingPaymentServiceImpl service;
+    private StkCallbackParkingLot parkingLot;
+    private StkPushInFlightRegistry inFlightRegistry;
 
     private static final String CHECKOUT_ID = "ws_CO_04112017184930742";
+    private static final UUID SHORTCODE_UUID = UUID.fromString("5d6a2f1e-3c4b-4f8e-9a7d-2b1c0e9f8a7b");
 
     @BeforeEach
     void setUp() {
         repository = mock(MpesaIncomingPaymentRepository.class);
-        service = new MpesaIncomingPaymentServiceImpl(repository, new ObjectMapper());
+        shortCodeRepository = mock(MpesaShortCodeRepository.class);
+        parkingLot = new StkCallbackParkingLot(100, Duration.ofMinutes(10));
+        inFlightRegistry = new StkPushInFlightRegistry(Duration.ofSeconds(60));
+        service = new MpesaIncomingPaymentServiceImpl(repository, shortCodeRepository, new ObjectMapper(), parkingLot,
+                inFlightRegistry, mock(PaymentDailyRollups.class));
         // save returns the passed entity
         when(repository.save(any(MpesaIncomingPayment.class)))
                 .thenAnswer(invocation -> invocation.getArgument(0));
@@ -61,9 +86,40 @@ class MpesaIncomingPaymentServiceImplTest {
         );
     }
 
+    /**
+     * Emulates the conditional UPDATE behind completeStkPush against a single in-memory row:
+     * the result is applied only while the row is still PENDING.
+     */
+    private void stubCompleteStkPush(MpesaIncomingPayment row) {
+        when(repository.completeStkPush(eq(CHECKOUT_ID), anyString(), any(), any(), any(), any(), any(), any(), anyString()))
+                .thenAnswer(invocation -> {
+                    if (row.getStatus() != IncomingPaymentStatus.PENDING) {
+                        return Optional.empty();
+                    }
+                    row.setStatus(IncomingPaymentStatus.valueOf(invocation.getArgument(1)));
+                    row.setResultCode(invocation.getArgument(2));
+                    row.setResultDesc(invocation.getArgument(3));
+                    if (invocation.getArgument(4) != null) {
+                        row.setTransactionId(invocation.getArgument(4));
+                    }
+                    if (invocation.getArgument(5) != null) {
+                        row.setAmount(invocation.getArgument(5));
+                    }
+                    if (invocation.getArgument(6) != null) {
+                        row.setPhoneNumber(invocation.getArgument(6));
+                    }
+                    if (invocation.getArgument(7) != null) {
+                        row.setTransactionDate(invocation.getArgument(7));
+                    }
+                    row.setProcessedAt(LocalDateTime.now());
+                    return Optional.of(row);
+                });
+        when(repository.findByCheckoutRequestId(CHECKOUT_ID)).thenReturn(Optional.of(row));
+    }
+
     @Test
     void processStkPushCallback_success_transitionsToSuccessAndStoresReceipt() {
-        when(repository.findByCheckoutRequestId(CHECKOUT_ID)).thenReturn(Optional.of(pendingStkPayment()));
+        stubCompleteStkPush(pendingStkPayment());
 
         MpesaIncomingPayment result = service.processStkPushCallback(CHECKOUT_ID, successCallback());
 
@@ -71,13 +127,15 @@ class MpesaIncomingPaymentServiceImplTest {
         assertThat(result.getResultCode()).isZero();
         assertThat(result.getTransactionId()).isEqualTo("QDR123ABCD");
         assertThat(result.getProcessedAt()).isNotNull();
-        assertThat(result.getRawCallbackData()).isNotNull();
         assertThat(result.getTransactionDate()).isNotNull();
+        verify(repository).completeStkPush(eq(CHECKOUT_ID), anyString(), any(), any(), any(), any(), any(), any(),
+                argThat(raw -> raw.contains("QDR123ABCD")));
+        verify(repository, never()).save(any(MpesaIncomingPayment.class));
     }
 
     @Test
     void processStkPushCallback_userCancelled_transitionsToCancelled() {
-        when(repository.findByCheckoutRequestId(CHECKOUT_ID)).thenReturn(Optional.of(pendingStkPayment()));
+        stubCompleteStkPush(pendingStkPayment());
 
         Map<String, Object> cancelled = Map.of(
                 "CheckoutRequestID", CHECKOUT_ID,
@@ -94,7 +152,7 @@ class MpesaIncomingPaymentServiceImplTest {
 
     @Test
     void processStkPushCallback_failure_transitionsToFailed() {
-        when(repository.findByCheckoutRequestId(CHECKOUT_ID)).thenReturn(Optional.of(pendingStkPayment()));
+        stubCompleteStkPush(pendingStkPayment());
 
         Map<String, Object> failed = Map.of(
                 "CheckoutRequestID", CHECKOUT_ID,
@@ -108,14 +166,200 @@ class MpesaIncomingPaymentServiceImplTest {
     }
 
     @Test
-    void processStkPushCallback_unknownCheckoutId_throws() {
+    void processStkPushCallback_releasesPhoneForNextPrompt() {
+        stubCompleteStkPush(pendingStkPayment());
+        assertThat(inFlightRegistry.tryAcquire("0708374149")).isTrue();
+        inFlightRegistry.attach("0708374149", CHECKOUT_ID);
+        assertThat(inFlightRegistry.tryAcquire("+254708374149")).isFalse();
+
+        service.processStkPushCallback(CHECKOUT_ID, successCallback());
+
+        assertThat(inFlightRegistry.tryAcquire("254708374149")).isTrue();
+        assertThat(inFlightRegistry.stats().rejected()).isEqualTo(1);
+        assertThat(inFlightRegistry.stats().released()).isEqualTo(1);
+    }
+
+    @Test
+    void processStkPushCallback_duplicateResult_doesNotOverwriteTerminalStatus() {
+        stubCompleteStkPush(pendingStkPayment());
+        service.processStkPushCallback(CHECKOUT_ID, successCallback());
+
+        Map<String, Object> lateFailure = Map.of(
+                "CheckoutRequestID", CHECKOUT_ID,
+                "ResultCode", 1037,
+                "ResultDesc", "DS timeout user cannot be reached");
+
+        MpesaIncomingPayment result = service.processStkPushCallback(CHECKOUT_ID, lateFailure);
+
+        assertThat(result.getStatus()).isEqualTo(IncomingPaymentStatus.SUCCESS);
+        assertThat(result.getTransactionId()).isEqualTo("QDR123ABCD");
+    }
+
+    @Test
+    void processStkPushCallback_beforePendingRowExists_parksCallbackForLaterApply() {
+        when(repository.completeStkPush(any(), any(), any(), any(), any(), any(), any(), any(), any()))
+                .thenReturn(Optional.empty());
         when(repository.findByCheckoutRequestId(CHECKOUT_ID)).thenReturn(Optional.empty());
 
+        MpesaIncomingPayment result = service.processStkPushCallback(CHECKOUT_ID, successCallback());
+
+        assertThat(result).isNull();
+        assertThat(parkingLot.take(CHECKOUT_ID))
+                .hasValueSatisfying(parked -> assertThat(parked.callbackData()).isEqualTo(successCallback()));
+    }
+
+    @Test
+    void processStkPushCallback_beforePromptAttached_releasesPhoneOnceRowLands() {
+        MpesaIncomingPayment row = pendingStkPayment();
+        assertThat(inFlightRegistry.tryAcquire("0708374149")).isTrue();
+        when(repository.completeStkPush(eq(CHECKOUT_ID), anyString(), any(), any(), any(), any(), any(), any(), anyString()))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of(row));
+        // initiateSTKPush attaches and inserts the row while the callback is between its two attempts
+        when(repository.findByCheckoutRequestId(CHECKOUT_ID)).thenAnswer(invocation -> {
+            inFlightRegistry.attach("0708374149", CHECKOUT_ID);
+            return Optional.empty();
+        });
+
+        MpesaIncomingPayment result = service.processStkPushCallback(CHECKOUT_ID, successCallback());
+
+        assertThat(result).isSameAs(row);
+        assertThat(parkingLot.size()).isZero();
+        assertThat(inFlightRegistry.tryAcquire("254708374149")).isTrue();
+    }
+
+    @Test
+    void parkingLot_sweepExpiresOnlyStaleEntriesAndEvictsOldestWhenFull() {
+        StkCallbackParkingLot lot = new StkCallbackParkingLot(2, Duration.ZERO);
+        lot.park("a", "first");
+        lot.park("a", "redelivery");
+        lot.park("b", "second");
+        lot.park("c", "third");
+
+        assertThat(lot.size()).isEqualTo(2);
+        assertThat(lot.take("a")).isEmpty();
+        assertThat(lot.take("b")).hasValueSatisfying(p -> assertThat(p.callbackData()).isEqualTo("second"));
+
+        lot.sweep();
+        assertThat(lot.size()).isZero();
+    }
+
+    @Test
+    void updateStatus_illegalTransitionFromTerminal_throws() {
+        MpesaIncomingPayment settled = pendingStkPayment();
+        settled.setStatus(IncomingPaymentStatus.SUCCESS);
+        UUID uuid = UUID.randomUUID();
+        when(repository.transitionStatus(eq(uuid), any(), eq("FAILED"))).thenReturn(Optional.empty());
+        when(repository.findByUuid(uuid)).thenReturn(Optional.of(settled));
+
+        try {
+            service.updateStatus(uuid, IncomingPaymentStatus.FAILED);
+            assertThat(false).as("expected IllegalStateException").isTrue();
+        } catch (IllegalStateException expected) {
+            assertThat(expected.getMessage()).contains("SUCCESS -> FAILED");
+        }
+        verify(repository, never()).save(any(MpesaIncomingPayment.class));
+    }
+
+    @Test
+    void updateStatus_afterCallbackSettledRow_throwsAndKeepsReceipt() {
+        MpesaIncomingPayment row = pendingStkPayment();
+        UUID uuid = UUID.randomUUID();
+        stubCompleteStkPush(row);
+        when(repository.transitionStatus(eq(uuid), any(), eq("FAILED"))).thenReturn(Optional.empty());
+        when(repository.findByUuid(uuid)).thenReturn(Optional.of(row));
+
+        service.processStkPushCallback(CHECKOUT_ID, successCallback());
+
         try {
-            service.processStkPushCallback(CHECKOUT_ID, successCallback());
-            assertThat(false).as("expected IllegalArgumentException").isTrue();
-        } catch (IllegalArgumentException expected) {
-            assertThat(expected.getMessage()).contains(CHECKOUT_ID);
+            service.updateStatus(uuid, IncomingPaymentStatus.FAILED);
+            assertThat(false).as("expected IllegalStateException").isTrue();
+        } catch (IllegalStateException expected) {
+            assertThat(expected.getMessage()).contains("SUCCESS -> FAILED");
         }
+        assertThat(row.getStatus()).isEqualTo(IncomingPaymentStatus.SUCCESS);
+        assertThat(row.getTransactionId()).isEqualTo("QDR123ABCD");
+    }
+
+    @Test
+    void processStkPushCallback_afterStatusUpdateSettledRow_returnsItUnchanged() {
+        MpesaIncomingPayment row = pendingStkPayment();
+        row.setStatus(IncomingPaymentStatus.FAILED);
+        stubCompleteStkPush(row);
+
+        MpesaIncomingPayment result = service.processStkPushCallback(CHECKOUT_ID, successCallback());
+
+        assertThat(result.getStatus()).isEqualTo(IncomingPaymentStatus.FAILED);
+        assertThat(result.getTransactionId()).isEqualTo(CHECKOUT_ID);
+        assertThat(parkingLot.size()).isZero();
+        verify(repository, never()).save(any(MpesaIncomingPayment.class));
+    }
+
+    private Map<String, Object> c2bConfirmation() {
+        Map<String, Object> confirmation = new HashMap<>();
+        confirmation.put("TransID", "LHG31AA5TX");
+        confirmation.put("TransTime", "20230727104247");
+        confirmation.put("TransAmount", "100.00");
+        confirmation.put("BusinessShortCode", "600134");
+        confirmation.put("BillRefNumber", "account001");
+        confirmation.put("MSISDN", "254708374149");
+        confirmation.put("FirstName", "John");
+        confirmation.put("LastName", "Doe");
+        return confirmation;
+    }
+
+    @Test
+    void processC2BCallback_upsertsInSingleStatementWithExtractedFields() {
+        MpesaShortCode shortCode = new MpesaShortCode();
+        shortCode.setUuid(SHORTCODE_UUID);
+        when(shortCodeRepository.findByShortcode("600134")).thenReturn(Optional.of(shortCode));
+        MpesaIncomingPayment persisted = new MpesaIncomingPayment();
+        persisted.setTransactionId("LHG31AA5TX");
+        persisted.setStatus(IncomingPaymentStatus.SUCCESS);
+        when(repository.upsertC2BConfirmation(eq("LHG31AA5TX"), eq(SHORTCODE_UUID), eq("254708374149"),
+                any(BigDecimal.class), eq("account001"), eq("John"), any(), eq("Doe"),
+                any(LocalDateTime.class), anyString()))
+                .thenReturn(persisted);
+
+        MpesaIncomingPayment result = service.processC2BCallback("LHG31AA5TX", c2bConfirmation());
+
+        assertThat(result).isSameAs(persisted);
+        verify(repository, never()).findByTransactionId(any());
+        verify(repository, never()).save(any(MpesaIncomingPayment.class));
+    }
+
+    @Test
+    void processC2BCallback_unknownOrDeletedShortcode_isRejectedBeforeTheUpsert() {
+        // Soft-deleted shortcodes are filtered out by the entity's restriction, so both look absent
+        when(shortCodeRepository.findByShortcode("600134")).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> service.processC2BCallback("LHG31AA5TX", c2bConfirmation()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unknown BusinessShortCode 600134")
+                .hasMessageContaining("LHG31AA5TX");
+        verify(repository, never()).upsertC2BConfirmation(any(), any(), any(), any(), any(), any(), any(), any(),
+                any(), any());
+    }
+
+    @Test
+    void keysetPages_startAfterTheCursorAndCapThePageSize() {
+        SliceImpl<MpesaIncomingPayment> empty = new SliceImpl<>(List.of());
+        when(repository.findByStatusAndIdGreaterThanOrderByIdAsc(any(), any(), any())).thenReturn(empty);
+        when(repository.findCreatedBetweenAfter(any(), any(), any(), any(), any())).thenReturn(empty);
+        LocalDateTime start = LocalDateTime.of(2026, 10, 1, 0, 0);
+        LocalDateTime end = start.plusDays(1);
+        LocalDateTime lastCreatedAt = start.plusHours(3);
+
+        service.findPendingPayments(null, 50);
+        service.findByStatus(IncomingPaymentStatus.SUCCESS, 900L, 1_000_000);
+        service.findByDateRange(start, end, null, null, 20);
+        service.findByDateRange(start, end, lastCreatedAt, 77L, 20);
+
+        verify(repository).findByStatusAndIdGreaterThanOrderByIdAsc(IncomingPaymentStatus.PENDING, 0L,
+                PageRequest.ofSize(50));
+        verify(repository).findByStatusAndIdGreaterThanOrderByIdAsc(IncomingPaymentStatus.SUCCESS, 900L,
+                PageRequest.ofSize(MpesaIncomingPaymentService.MAX_PAGE_SIZE));
+        verify(repository).findCreatedBetweenAfter(start, end, start, 0L, PageRequest.ofSize(20));
+        verify(repository).findCreatedBetweenAfter(start, end, lastCreatedAt, 77L, PageRequest.ofSize(20));
     }
 }
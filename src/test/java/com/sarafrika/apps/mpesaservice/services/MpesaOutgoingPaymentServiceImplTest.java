@@ -0,0 +1,281 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sarafrika.apps.mpesaservice.dtos.B2CPaymentResponse;
+import com.sarafrika.apps.mpesaservice.dtos.B2CResult;
+import com.sarafrika.apps.mpesaservice.dtos.B2CResultParameter;
+import com.sarafrika.apps.mpesaservice.dtos.B2CResultParameters;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.dtos.TransactionStatusResultData;
+import com.sarafrika.apps.mpesaservice.dtos.TransactionStatusResultParameter;
+import com.sarafrika.apps.mpesaservice.dtos.TransactionStatusResultParameters;
+import com.sarafrika.apps.mpesaservice.exceptions.PayoutNotSentException;
+import com.sarafrika.apps.mpesaservice.models.MpesaOutgoingPayment;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaOutgoingPaymentRepository;
+import com.sarafrika.apps.mpesaservice.services.impl.MpesaOutgoingPaymentServiceImpl;
+import com.sarafrika.apps.mpesaservice.services.support.B2CFundsLedger;
+import com.sarafrika.apps.mpesaservice.services.support.OutgoingResultParkingLot;
+import com.sarafrika.apps.mpesaservice.services.support.PaymentDailyRollups;
+import com.sarafrika.apps.mpesaservice.utils.enums.OutgoingPaymentStatus;
+import com.sarafrika.apps.mpesaservice.utils.enums.OutgoingPaymentType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MpesaOutgoingPaymentServiceImplTest {
+
+    private MpesaOutgoingPaymentRepository repository;
+    private OutgoingResultParkingLot parkingLot;
+    private B2CFundsLedger fundsLedger;
+    private MpesaDarajaService darajaService;
+    private MpesaOutgoingPaymentServiceImpl service;
+
+    private static final String ORIGINATOR_ID = "16740-34861180-1";
+    private static final String STATUS_QUERY_ID = "29112-34801843-1";
+    private static final UUID SHORTCODE_UUID = UUID.fromString("5d6a2f1e-3c4b-4f8e-9a7d-2b1c0e9f8a7b");
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        repository = mock(MpesaOutgoingPaymentRepository.class);
+        parkingLot = new OutgoingResultParkingLot(100, Duration.ofMinutes(10));
+        fundsLedger = new B2CFundsLedger(Duration.ofMinutes(15), Duration.ofMinutes(30));
+        darajaService = mock(MpesaDarajaService.class);
+        ObjectProvider<MpesaDarajaService> darajaProvider = mock(ObjectProvider.class);
+        when(darajaProvider.getObject()).thenReturn(darajaService);
+        service = new MpesaOutgoingPaymentServiceImpl(repository, new ObjectMapper(), parkingLot, fundsLedger,
+                darajaProvider, mock(PaymentDailyRollups.class));
+    }
+
+    private B2CResult successResult() {
+        return new B2CResult(0, 0, "The service request is processed successfully.", ORIGINATOR_ID,
+                "AG_20191219_00005797af5d7d75f652", "NLJ41HAY6Q",
+                new B2CResultParameters(List.of(
+                        new B2CResultParameter("TransactionAmount", "10"),
+                        new B2CResultParameter("TransactionReceipt", "NLJ41HAY6Q"),
+                        new B2CResultParameter("ReceiverPartyPublicName", "254708374149 - John Doe"),
+                        new B2CResultParameter("TransactionCompletedDateTime", "19.12.2019 11:45:50"),
+                        new B2CResultParameter("B2CUtilityAccountAvailableFunds", "10116.00"),
+                        new B2CResultParameter("B2CWorkingAccountAvailableFunds", "900000.00"))));
+    }
+
+    @Test
+    void applyResult_success_resolvesWithOneConditionalUpdate() {
+        when(repository.completeByOriginatorConversationId(any(), any(), any(), any(), any(), any(), any(), any(),
+                any(), any(), any())).thenReturn(Optional.of(SHORTCODE_UUID));
+
+        assertThat(service.applyResult(ORIGINATOR_ID, successResult())).isTrue();
+
+        verify(repository).completeByOriginatorConversationId(eq(ORIGINATOR_ID), eq("SUCCESS"), eq(0),
+                eq("The service request is processed successfully."), eq("NLJ41HAY6Q"),
+                eq("AG_20191219_00005797af5d7d75f652"), eq("254708374149 - John Doe"),
+                eq(new BigDecimal("10116.00")), eq(new BigDecimal("900000.00")),
+                eq(LocalDateTime.of(2019, 12, 19, 11, 45, 50)), anyString());
+        verify(repository, never()).findByOriginatorConversationId(any());
+        verify(repository, never()).existsByOriginatorConversationId(any());
+    }
+
+    @Test
+    void applyResult_failure_neverClaimsTransactionId() {
+        when(repository.completeByOriginatorConversationId(any(), any(), any(), any(), any(), any(), any(), any(),
+                any(), any(), any())).thenReturn(Optional.of(SHORTCODE_UUID));
+        Map<String, Object> failure = Map.of(
+                "ResultType", 0,
+                "ResultCode", 2001,
+                "ResultDesc", "The initiator information is invalid.",
+                "OriginatorConversationID", ORIGINATOR_ID,
+                "ConversationID", "AG_20191219_00004e48cf7e3533f581",
+                "TransactionID", "NLJ41HAY6Q");
+
+        assertThat(service.applyResult(ORIGINATOR_ID, failure)).isTrue();
+
+        verify(repository).completeByOriginatorConversationId(eq(ORIGINATOR_ID), eq("FAILED"), eq(2001), any(),
+                isNull(), any(), isNull(), isNull(), isNull(), isNull(), anyString());
+    }
+
+    @Test
+    void applyResult_duplicateForSettledPayment_isNoOp() {
+        when(repository.completeByOriginatorConversationId(any(), any(), any(), any(), any(), any(), any(), any(),
+                any(), any(), any())).thenReturn(Optional.empty());
+        when(repository.existsByOriginatorConversationId(ORIGINATOR_ID)).thenReturn(true);
+
+        assertThat(service.applyResult(ORIGINATOR_ID, successResult())).isFalse();
+
+        assertThat(parkingLot.size()).isZero();
+        verify(repository, times(1)).completeByOriginatorConversationId(any(), any(), any(), any(), any(), any(),
+                any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void applyResult_beforePendingRowExists_parksResultForLaterApply() {
+        when(repository.completeByOriginatorConversationId(any(), any(), any(), any(), any(), any(), any(), any(),
+                any(), any(), any())).thenReturn(Optional.empty());
+        when(repository.existsByOriginatorConversationId(ORIGINATOR_ID)).thenReturn(false);
+
+        assertThat(service.applyResult(ORIGINATOR_ID, successResult())).isFalse();
+
+        assertThat(parkingLot.take(ORIGINATOR_ID))
+                .hasValueSatisfying(parked -> assertThat(parked.callbackData()).isEqualTo(successResult()));
+    }
+
+    @Test
+    void applyResult_success_releasesReservationAndRecordsReportedFunds() {
+        when(repository.completeByOriginatorConversationId(any(), any(), any(), any(), any(), any(), any(), any(),
+                any(), any(), any())).thenReturn(Optional.of(SHORTCODE_UUID));
+        fundsLedger.tryReserve(SHORTCODE_UUID, ORIGINATOR_ID, new BigDecimal("10"));
+
+        service.applyResult(ORIGINATOR_ID, successResult());
+
+        assertThat(fundsLedger.available(SHORTCODE_UUID)).contains(new BigDecimal("10116.00"));
+        assertThat(fundsLedger.tryReserve(SHORTCODE_UUID, "next", new BigDecimal("10116.01"))).isFalse();
+        assertThat(fundsLedger.tryReserve(SHORTCODE_UUID, "next", new BigDecimal("10116.00"))).isTrue();
+    }
+
+    private TransactionStatusResultData statusResult(String transactionStatus) {
+        return new TransactionStatusResultData(0, 0, "The service request has been accepted successfully.",
+                STATUS_QUERY_ID, "AG_20191219_0000725c3b9a0e2d8f1a", "NLJ71HAZ2R",
+                new TransactionStatusResultParameters(List.of(
+                        new TransactionStatusResultParameter("ReceiptNo", "NLJ41HAY6Q"),
+                        new TransactionStatusResultParameter("TransactionStatus", transactionStatus),
+                        new TransactionStatusResultParameter("CompletedTime", "20191219114550"))));
+    }
+
+    @Test
+    void applyStatusResult_completed_settlesQueriedPaymentWithReceipt() {
+        when(repository.findOriginatorConversationIdByStatusQuery(STATUS_QUERY_ID))
+                .thenReturn(Optional.of(ORIGINATOR_ID));
+        when(repository.completeByOriginatorConversationId(any(), any(), any(), any(), any(), any(), any(), any(),
+                any(), any(), any())).thenReturn(Optional.of(SHORTCODE_UUID));
+
+        assertThat(service.applyStatusResult(statusResult("Completed"))).isTrue();
+
+        verify(repository).completeByOriginatorConversationId(eq(ORIGINATOR_ID), eq("SUCCESS"), eq(0), any(),
+                eq("NLJ41HAY6Q"), isNull(), isNull(), isNull(), isNull(),
+                eq(LocalDateTime.of(2019, 12, 19, 11, 45, 50)), anyString());
+    }
+
+    @Test
+    void applyStatusResult_stillProcessing_leavesPaymentOutstanding() {
+        when(repository.findOriginatorConversationIdByStatusQuery(STATUS_QUERY_ID))
+                .thenReturn(Optional.of(ORIGINATOR_ID));
+
+        assertThat(service.applyStatusResult(statusResult("Pending"))).isFalse();
+
+        verify(repository, never()).completeByOriginatorConversationId(any(), any(), any(), any(), any(), any(),
+                any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void applyStatusResult_forUnknownQuery_isIgnored() {
+        when(repository.findOriginatorConversationIdByStatusQuery(STATUS_QUERY_ID)).thenReturn(Optional.empty());
+
+        assertThat(service.applyStatusResult(statusResult("Completed"))).isFalse();
+
+        verify(repository, never()).completeByOriginatorConversationId(any(), any(), any(), any(), any(), any(),
+                any(), any(), any(), any(), any());
+    }
+
+    private static MpesaOutgoingPayment failedPayout(Integer resultCode) {
+        MpesaOutgoingPayment payment = new MpesaOutgoingPayment();
+        payment.setId(11L);
+        payment.setUuid(UUID.randomUUID());
+        payment.setShortcodeUuid(SHORTCODE_UUID);
+        payment.setPaymentType(OutgoingPaymentType.B2C);
+        payment.setRecipientPhoneNumber("254708374149");
+        payment.setAmount(new BigDecimal("500"));
+        payment.setCommandId("BusinessPayment");
+        payment.setStatus(OutgoingPaymentStatus.FAILED);
+        payment.setResultCode(resultCode);
+        payment.setRetryAttempt(1);
+        return payment;
+    }
+
+    @Test
+    void retryPayment_permanentFailure_isRefusedWithoutResending() {
+        MpesaOutgoingPayment failed = failedPayout(15);
+        when(repository.findByUuid(failed.getUuid())).thenReturn(Optional.of(failed));
+
+        assertThatThrownBy(() -> service.retryPayment(failed.getUuid()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Duplicate detected");
+
+        verify(repository, never()).claimForRetry(any());
+        verify(darajaService, never()).sendB2CPayment(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void retryPayment_transientFailure_resendsOnceAndCountsTheAttempt() {
+        MpesaOutgoingPayment failed = failedPayout(26);
+        MpesaOutgoingPayment resent = failedPayout(null);
+        resent.setStatus(OutgoingPaymentStatus.PENDING);
+        resent.setOriginatorConversationId(ORIGINATOR_ID);
+        when(repository.findByUuid(failed.getUuid())).thenReturn(Optional.of(failed));
+        when(repository.claimForRetry(11L)).thenReturn(1, 0);
+        when(darajaService.sendB2CPayment(eq(SHORTCODE_UUID), eq("254708374149"), any(), eq("BusinessPayment"),
+                any(), isNull())).thenReturn(MpesaApiResponse.success(
+                new B2CPaymentResponse("AG_20191219_00005797af5d7d75f652", ORIGINATOR_ID, "Accepted"), 200));
+        when(repository.findByOriginatorConversationId(ORIGINATOR_ID)).thenReturn(Optional.of(resent));
+
+        assertThat(service.retryPayment(failed.getUuid()).getRetryAttempt()).isEqualTo(2);
+        assertThatThrownBy(() -> service.retryPayment(failed.getUuid()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("already been retried");
+
+        verify(repository).recordRetryAttempt(ORIGINATOR_ID, 2);
+        verify(darajaService, times(1)).sendB2CPayment(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void retryPayment_resendOutcomeUnknown_keepsClaimAndCountsTheAttempt() {
+        MpesaOutgoingPayment failed = failedPayout(26);
+        when(repository.findByUuid(failed.getUuid())).thenReturn(Optional.of(failed));
+        when(repository.claimForRetry(11L)).thenReturn(1);
+        when(darajaService.sendB2CPayment(any(), any(), any(), any(), any(), any()))
+                .thenReturn(MpesaApiResponse.error("SERVER_ERROR", "Daraja 503", 502))
+                .thenReturn(MpesaApiResponse.error("NETWORK_ERROR", "Read timed out", 504));
+
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> service.retryPayment(failed.getUuid()))
+                    .isInstanceOf(IllegalStateException.class)
+                    .isNotInstanceOf(PayoutNotSentException.class);
+        }
+
+        verify(repository, never()).releaseRetry(any());
+        verify(repository, times(2)).countRetryAttempt(11L);
+    }
+
+    @Test
+    void retryPayment_resendRefused_releasesClaimForTheBackoff() {
+        MpesaOutgoingPayment failed = failedPayout(26);
+        when(repository.findByUuid(failed.getUuid())).thenReturn(Optional.of(failed));
+        when(repository.claimForRetry(11L)).thenReturn(1);
+        when(darajaService.sendB2CPayment(any(), any(), any(), any(), any(), any()))
+                .thenReturn(MpesaApiResponse.error("NOT_SENT", "Connection refused", 500));
+
+        assertThatThrownBy(() -> service.retryPayment(failed.getUuid()))
+                .isInstanceOf(PayoutNotSentException.class);
+
+        verify(repository).releaseRetry(11L);
+        verify(repository, never()).countRetryAttempt(any());
+    }
+}
@@ -0,0 +1,152 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaReversalDto;
+import com.sarafrika.apps.mpesaservice.dtos.TransactionReversalResponse;
+import com.sarafrika.apps.mpesaservice.dtos.TransactionReversalResultData;
+import com.sarafrika.apps.mpesaservice.models.MpesaReversal;
+import com.sarafrika.apps.mpesaservice.models.MpesaShortCode;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaReversalRepository;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaShortCodeRepository;
+import com.sarafrika.apps.mpesaservice.services.impl.MpesaReversalServiceImpl;
+import com.sarafrika.apps.mpesaservice.services.support.ReversalResultParkingLot;
+import com.sarafrika.apps.mpesaservice.utils.enums.ReversalStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MpesaReversalServiceImplTest {
+
+    private static final UUID SHORTCODE_UUID = UUID.fromString("5d6a2f1e-3c4b-4f8e-9a7d-2b1c0e9f8a7b");
+    private static final String RECEIPT = "NLJ41HAY6Q";
+    private static final String CONVERSATION_ID = "AG_20191219_00006c6fddb15123addf";
+
+    private MpesaReversalRepository repository;
+    private MpesaDarajaService darajaService;
+    private ReversalResultParkingLot parkingLot;
+    private MpesaReversalServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(MpesaReversalRepository.class);
+        darajaService = mock(MpesaDarajaService.class);
+        MpesaShortCodeRepository shortCodeRepository = mock(MpesaShortCodeRepository.class);
+        when(shortCodeRepository.findByUuid(SHORTCODE_UUID)).thenReturn(Optional.of(new MpesaShortCode()));
+        parkingLot = new ReversalResultParkingLot(100, Duration.ofMinutes(10));
+        service = new MpesaReversalServiceImpl(repository, shortCodeRepository, darajaService, parkingLot,
+                new ObjectMapper(), Duration.ofMinutes(10));
+    }
+
+    private static MpesaReversal reversal(ReversalStatus status) {
+        MpesaReversal reversal = new MpesaReversal();
+        reversal.setId(7L);
+        reversal.setShortcodeUuid(SHORTCODE_UUID);
+        reversal.setOriginalTransactionId(RECEIPT);
+        reversal.setAmount(new BigDecimal("100"));
+        reversal.setStatus(status);
+        return reversal;
+    }
+
+    private static TransactionReversalResultData successResult() {
+        return new TransactionReversalResultData(0, 0, "The service request is processed successfully.",
+                "29115-34620561-1", CONVERSATION_ID, "NLJ11HAY8V", null);
+    }
+
+    @Test
+    void requestReversal_whenReceiptAlreadyReversing_joinsWithoutCallingDaraja() {
+        when(repository.claim(any(), any(), any(), any())).thenReturn(Optional.empty());
+        when(repository.takeOverStale(any(), any())).thenReturn(Optional.empty());
+        when(repository.joinLive(RECEIPT)).thenReturn(Optional.of(reversal(ReversalStatus.PENDING)));
+
+        MpesaReversalDto outcome = service.requestReversal(SHORTCODE_UUID, RECEIPT, new BigDecimal("100"), null);
+
+        assertThat(outcome.coalesced()).isTrue();
+        assertThat(outcome.status()).isEqualTo(ReversalStatus.PENDING);
+        verify(darajaService, never()).reverseTransaction(any(), any(), any(), any());
+    }
+
+    @Test
+    void requestReversal_concurrentDuplicatesOnOneNode_makeOneDarajaCall() throws Exception {
+        CountDownLatch inDaraja = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(repository.claim(any(), any(), any(), any())).thenReturn(Optional.of(reversal(ReversalStatus.REQUESTED)));
+        when(repository.findById(7L)).thenReturn(Optional.of(reversal(ReversalStatus.PENDING)));
+        when(darajaService.reverseTransaction(any(), any(), any(), any())).thenAnswer(invocation -> {
+            inDaraja.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return MpesaApiResponse.success(new TransactionReversalResponse(CONVERSATION_ID, "29115-34620561-1",
+                    "Accept the service request successfully."), 200);
+        });
+
+        ExecutorService callers = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<MpesaReversalDto>> outcomes = new ArrayList<>();
+            outcomes.add(callers.submit(() -> service.requestReversal(SHORTCODE_UUID, RECEIPT,
+                    new BigDecimal("100"), null)));
+            assertThat(inDaraja.await(5, TimeUnit.SECONDS)).isTrue();
+            for (int i = 0; i < 4; i++) {
+                outcomes.add(callers.submit(() -> service.requestReversal(SHORTCODE_UUID, RECEIPT,
+                        new BigDecimal("100"), null)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+
+            long coalesced = 0;
+            for (Future<MpesaReversalDto> outcome : outcomes) {
+                MpesaReversalDto reversal = outcome.get(5, TimeUnit.SECONDS);
+                assertThat(reversal.status()).isEqualTo(ReversalStatus.PENDING);
+                coalesced += reversal.coalesced() ? 1 : 0;
+            }
+            assertThat(coalesced).isEqualTo(4);
+        } finally {
+            callers.shutdownNow();
+        }
+        verify(darajaService, times(1)).reverseTransaction(any(), any(), any(), any());
+        verify(repository, times(1)).markAccepted(7L, CONVERSATION_ID, "29115-34620561-1");
+    }
+
+    @Test
+    void requestReversal_refusedByDaraja_freesTheReceipt() {
+        when(repository.claim(any(), any(), any(), any())).thenReturn(Optional.of(reversal(ReversalStatus.REQUESTED)));
+        when(repository.findById(7L)).thenReturn(Optional.of(reversal(ReversalStatus.FAILED)));
+        when(darajaService.reverseTransaction(any(), any(), any(), any())).thenReturn(
+                MpesaApiResponse.error("CLIENT_ERROR", "Client error: 400 Bad Request", 400));
+
+        MpesaReversalDto outcome = service.requestReversal(SHORTCODE_UUID, RECEIPT, new BigDecimal("100"), null);
+
+        assertThat(outcome.status()).isEqualTo(ReversalStatus.FAILED);
+        verify(repository).markRejected(eq(7L), anyString());
+    }
+
+    @Test
+    void applyResult_beforeAcceptanceRecorded_isParkedUntilIt() {
+        when(repository.complete(any(), any(), any(), any(), any(), any(), any())).thenReturn(Optional.empty());
+        when(repository.existsByConversation(any(), any())).thenReturn(false);
+
+        assertThat(service.applyResult(successResult())).isFalse();
+
+        assertThat(parkingLot.take(CONVERSATION_ID)).isPresent();
+    }
+}
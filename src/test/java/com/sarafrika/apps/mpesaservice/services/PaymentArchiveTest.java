@@ -0,0 +1,84 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.sarafrika.apps.mpesaservice.dtos.ArchivedPaymentLookup;
+import com.sarafrika.apps.mpesaservice.services.support.PaymentArchive;
+import com.sarafrika.apps.mpesaservice.utils.enums.PaymentDirection;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PaymentArchiveTest {
+
+    private static final UUID SHORTCODE = UUID.fromString("82e428e4-2e49-4b3b-8e00-cc32153916c3");
+    private static final String HEADER = "id,uuid,transaction_id,phone_number,amount,transaction_desc,deleted_at\n";
+
+    @TempDir
+    Path root;
+
+    @Test
+    void lookup_readsPostgresCsvAndKeepsTheFirstCopyOfEachPayment() throws IOException {
+        PaymentArchive archive = new PaymentArchive(root.toString());
+        write(archive, YearMonth.of(2025, 3), HEADER
+                + "1,00000000-0000-0000-0000-000000000001,QCE1,254700000001,100.00,\"Rent, March\",\n"
+                + "2,00000000-0000-0000-0000-000000000002,QCE2,254700000002,5.00,\"two\nlines \"\"quoted\"\"\",\n"
+                + "3,00000000-0000-0000-0000-000000000003,QCE3,254700000001,7.00,\"\",2025-03-09 10:00:00\n");
+        // A batch whose commit failed after its part was published leaves the rows archived twice
+        write(archive, YearMonth.of(2025, 3), HEADER
+                + "1,00000000-0000-0000-0000-000000000001,QCE1,254700000001,100.00,\"Rent, March\",\n");
+
+        ArchivedPaymentLookup byPhone = archive.lookup(PaymentDirection.INCOMING, SHORTCODE, null, null,
+                Map.of("phone_number", "254700000001"), 10);
+
+        assertThat(byPhone.filesRead()).isEqualTo(2);
+        assertThat(byPhone.rowsScanned()).isEqualTo(4);
+        assertThat(byPhone.truncated()).isFalse();
+        assertThat(byPhone.payments()).extracting(row -> row.get("transaction_id")).containsExactly("QCE1", "QCE3");
+        assertThat(byPhone.payments().get(0)).containsEntry("transaction_desc", "Rent, March")
+                .doesNotContainKey("deleted_at");
+        assertThat(byPhone.payments().get(1)).containsEntry("transaction_desc", "")
+                .containsEntry("deleted_at", "2025-03-09 10:00:00");
+
+        ArchivedPaymentLookup byReceipt = archive.lookup(PaymentDirection.INCOMING, SHORTCODE, null, null,
+                Map.of("transaction_id", "QCE2"), 10);
+        assertThat(byReceipt.payments()).singleElement()
+                .satisfies(row -> assertThat(row).containsEntry("transaction_desc", "two\nlines \"quoted\""));
+    }
+
+    @Test
+    void lookup_readsOnlyTheRequestedMonthsAndStopsAtTheLimit() throws IOException {
+        PaymentArchive archive = new PaymentArchive(root.toString());
+        write(archive, YearMonth.of(2025, 1), HEADER + "1,00000000-0000-0000-0000-000000000001,A,2547,1,,\n");
+        write(archive, YearMonth.of(2025, 2), HEADER + "2,00000000-0000-0000-0000-000000000002,B,2547,1,,\n"
+                + "3,00000000-0000-0000-0000-000000000003,C,2547,1,,\n");
+        write(archive, YearMonth.of(2025, 4), HEADER + "4,00000000-0000-0000-0000-000000000004,D,2547,1,,\n");
+        // An unpublished part is never read
+        archive.newPart(PaymentDirection.INCOMING, SHORTCODE, YearMonth.of(2025, 2)).out()
+                .write("junk".getBytes(StandardCharsets.UTF_8));
+
+        ArchivedPaymentLookup february = archive.lookup(PaymentDirection.INCOMING, SHORTCODE,
+                YearMonth.of(2025, 2), YearMonth.of(2025, 3), Map.of(), 1);
+
+        assertThat(february.filesRead()).isEqualTo(1);
+        assertThat(february.truncated()).isTrue();
+        assertThat(february.payments()).extracting(row -> row.get("transaction_id")).containsExactly("B");
+        assertThat(archive.lookup(PaymentDirection.OUTGOING, SHORTCODE, null, null, Map.of(), 10).payments())
+                .isEmpty();
+    }
+
+    private static void write(PaymentArchive archive, YearMonth month, String csv) throws IOException {
+        try (PaymentArchive.Part part = archive.newPart(PaymentDirection.INCOMING, SHORTCODE, month)) {
+            part.out().write(csv.getBytes(StandardCharsets.UTF_8));
+            part.publish();
+            assertThat(Files.exists(part.target())).isTrue();
+        }
+    }
+}
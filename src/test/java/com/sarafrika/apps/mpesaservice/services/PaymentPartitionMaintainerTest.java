@@ -0,0 +1,87 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.sarafrika.apps.mpesaservice.PostgresIntegrationTest;
+import com.sarafrika.apps.mpesaservice.services.support.PaymentPartitionMaintainer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PaymentPartitionMaintainerTest extends PostgresIntegrationTest {
+
+    private static final String TABLE = "mpesa_incoming_payments";
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("'_y'yyyy'm'MM");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private UUID shortcode() {
+        return jdbcTemplate.queryForObject("""
+                INSERT INTO mpesa_shortcodes (shortcode, shortcode_type, business_name, consumer_key, consumer_secret,
+                                              callback_url)
+                VALUES (?, 'PAYBILL', 'Partition test', 'key', 'secret', 'https://example.com/callback')
+                RETURNING uuid
+                """, UUID.class, String.valueOf(ThreadLocalRandom.current().nextInt(100_000, 1_000_000)));
+    }
+
+    private void insert(UUID shortcodeUuid, String receipt, LocalDateTime createdAt) {
+        jdbcTemplate.update("""
+                INSERT INTO mpesa_incoming_payments (uuid, shortcode_uuid, payment_type, transaction_id, phone_number,
+                                                     amount, status, created_at, updated_at)
+                VALUES (gen_random_uuid(), ?, 'C2B', ?, '254708374149', 100.00, 'SUCCESS', ?, ?)
+                """, shortcodeUuid, receipt, Timestamp.valueOf(createdAt), Timestamp.valueOf(createdAt));
+    }
+
+    private String partitionOf(String receipt) {
+        return jdbcTemplate.queryForObject("SELECT tableoid::regclass::text FROM mpesa_incoming_payments"
+                + " WHERE transaction_id = ?", String.class, receipt);
+    }
+
+    private long rollupCount(UUID shortcodeUuid) {
+        return jdbcTemplate.queryForObject("SELECT COALESCE(SUM(payment_count), 0) FROM mpesa_payment_daily_rollups"
+                + " WHERE shortcode_uuid = ?", Long.class, shortcodeUuid);
+    }
+
+    @Test
+    void ensurePartitions_movesRowsOutOfTheDefaultPartitionAndCreatesTheLaterMonths() {
+        // The migrations create partitions up to three months out; later months fall through to DEFAULT
+        LocalDate thisMonth = LocalDate.now().withDayOfMonth(1);
+        LocalDateTime sixMonthsOut = thisMonth.plusMonths(6).atStartOfDay();
+        LocalDateTime sevenMonthsOut = thisMonth.plusMonths(7).atStartOfDay();
+        UUID shortcodeUuid = shortcode();
+        insert(shortcodeUuid, "PTN6A", sixMonthsOut.plusDays(2));
+        insert(shortcodeUuid, "PTN6B", sixMonthsOut.plusDays(27).plusHours(23));
+        insert(shortcodeUuid, "PTN7A", sevenMonthsOut);
+        assertThat(partitionOf("PTN6A")).isEqualTo(TABLE + "_default");
+        long rolledUp = rollupCount(shortcodeUuid);
+
+        new PaymentPartitionMaintainer(jdbcTemplate, true, 8).ensurePartitions();
+
+        for (int months = 4; months <= 8; months++) {
+            String partition = TABLE + thisMonth.plusMonths(months).format(PARTITION_SUFFIX);
+            assertThat(jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, partition))
+                    .as(partition).isTrue();
+        }
+        assertThat(partitionOf("PTN6A")).isEqualTo(TABLE + sixMonthsOut.format(PARTITION_SUFFIX));
+        assertThat(partitionOf("PTN6B")).isEqualTo(TABLE + sixMonthsOut.format(PARTITION_SUFFIX));
+        assertThat(partitionOf("PTN7A")).isEqualTo(TABLE + sevenMonthsOut.format(PARTITION_SUFFIX));
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM mpesa_incoming_payments_default"
+                + " WHERE shortcode_uuid = ?", Long.class, shortcodeUuid)).isZero();
+        // The moved payments keep their (id, created_at), so the keys table still finds them
+        assertThat(jdbcTemplate.queryForObject("""
+                SELECT count(*)
+                  FROM mpesa_incoming_payment_keys k
+                       JOIN mpesa_incoming_payments p ON p.id = k.payment_id AND p.created_at = k.payment_created_at
+                 WHERE k.transaction_id IN ('PTN6A', 'PTN6B', 'PTN7A')
+                """, Long.class)).isEqualTo(3);
+        assertThat(rollupCount(shortcodeUuid)).isEqualTo(rolledUp).isEqualTo(3);
+    }
+}
@@ -0,0 +1,107 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.sarafrika.apps.mpesaservice.dtos.ReconciliationReport;
+import com.sarafrika.apps.mpesaservice.dtos.StatementEntry;
+import com.sarafrika.apps.mpesaservice.services.support.ReconciliationJoin;
+import com.sarafrika.apps.mpesaservice.services.support.StatementFileParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PaymentReconciliationTest {
+
+    private final StatementFileParser parser = new StatementFileParser();
+
+    @Test
+    void parseCsv_skipsThePreambleAndKeepsCompletedRowsWithCharges() {
+        List<StatementEntry> entries = parse("""
+                Organization Name:,Sarafrika Ltd
+                Time Period:,01-10-2026 - 31-10-2026
+
+                Receipt No.,Completion Time,Initiation Time,Details,Transaction Status,Paid In,Withdrawn,Balance,Reason Type
+                QDR1AAAAAA,2026-10-01 08:15:02,2026-10-01 08:15:00,"Pay Bill from 2547***1234 - JANE, DOE",Completed,"1,500.00",,"1,500.00",Pay Bill
+                QDR2BBBBBB,2026-10-01 09:00:00,2026-10-01 09:00:00,Business Payment to 2547***5678,Completed,,-250.00,1250.00,Business Payment
+                QDR2BBBBBB,2026-10-01 09:00:00,2026-10-01 09:00:00,Business Payment Charge,Completed,,-15.00,1235.00,Business Payment Charge
+                QDR3CCCCCC,2026-10-01 10:00:00,2026-10-01 10:00:00,Pay Bill from 2547***9999,Failed,100.00,,1235.00,Pay Bill
+                """);
+
+        assertThat(entries).containsExactly(
+                new StatementEntry("QDR1AAAAAA", LocalDateTime.of(2026, 10, 1, 8, 15, 2),
+                        new BigDecimal("1500.00"), true, false, "Pay Bill from 2547***1234 - JANE, DOE"),
+                new StatementEntry("QDR2BBBBBB", LocalDateTime.of(2026, 10, 1, 9, 0),
+                        new BigDecimal("250.00"), false, false, "Business Payment to 2547***5678"),
+                new StatementEntry("QDR2BBBBBB", LocalDateTime.of(2026, 10, 1, 9, 0),
+                        new BigDecimal("15.00"), false, true, "Business Payment Charge"));
+
+        assertThatThrownBy(() -> parse("Organization Name:,Sarafrika Ltd\n1,2,3\n"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void join_reportsEachCategoryAndRemovesClaimedReceipts() {
+        ReconciliationJoin join = new ReconciliationJoin(16, 10);
+        LocalDateTime at = LocalDateTime.of(2026, 10, 1, 8, 0);
+        join.build(new StatementEntry("MATCHED", at, new BigDecimal("100.00"), true, false, null));
+        join.build(new StatementEntry("MATCHED", at, new BigDecimal("15.00"), true, true, null));
+        join.build(new StatementEntry("MATCHED", at, new BigDecimal("100.00"), true, false, null));
+        join.build(new StatementEntry("PAYOUT", at, new BigDecimal("250"), false, false, null));
+        join.build(new StatementEntry("WRONG", at, new BigDecimal("99.00"), true, false, null));
+        join.build(new StatementEntry("ONLYTHERE", at, new BigDecimal("10.00"), true, false, null));
+
+        UUID local = UUID.randomUUID();
+        join.probe(true, UUID.randomUUID(), "MATCHED", new BigDecimal("100"), at);
+        join.probe(false, UUID.randomUUID(), "PAYOUT", new BigDecimal("250.00"), at);
+        join.probe(true, local, "WRONG", new BigDecimal("100.00"), at);
+        join.probe(true, UUID.randomUUID(), "ONLYHERE", new BigDecimal("5.00"), at);
+        // A second local row claiming an already matched receipt is not on the statement
+        join.probe(true, UUID.randomUUID(), "MATCHED", new BigDecimal("100"), at);
+
+        ReconciliationReport report = join.finish(UUID.randomUUID(), LocalDate.of(2026, 10, 1),
+                LocalDate.of(2026, 10, 31), 1);
+
+        assertThat(report.statementRows()).isEqualTo(4);
+        assertThat(report.duplicateStatementRows()).isEqualTo(1);
+        assertThat(report.chargesTotal()).isEqualByComparingTo("15");
+        assertThat(report.localRows()).isEqualTo(5);
+        assertThat(report.matchedCount()).isEqualTo(2);
+        assertThat(report.matchedAmount()).isEqualByComparingTo("350");
+        assertThat(report.amountMismatchCount()).isEqualTo(1);
+        assertThat(report.amountMismatches().get(0).localUuid()).isEqualTo(local);
+        assertThat(report.amountMismatches().get(0).statementAmount()).isEqualByComparingTo("99");
+        assertThat(report.missingAtSafaricomCount()).isEqualTo(2);
+        assertThat(report.missingAtSafaricom()).extracting(ReconciliationReport.Item::receiptNumber)
+                .containsExactly("ONLYHERE", "MATCHED");
+        assertThat(report.missingLocallyCount()).isEqualTo(1);
+        assertThat(report.missingLocally()).extracting(ReconciliationReport.Item::receiptNumber)
+                .containsExactly("ONLYTHERE");
+    }
+
+    @Test
+    void join_countsEveryRowButListsAtMostTheConfiguredItems() {
+        ReconciliationJoin join = new ReconciliationJoin(16, 2);
+        for (int i = 0; i < 5; i++) {
+            join.build(new StatementEntry("R" + i, null, BigDecimal.ONE, true, false, null));
+        }
+
+        ReconciliationReport report = join.finish(UUID.randomUUID(), LocalDate.now(), LocalDate.now(), 0);
+
+        assertThat(report.missingLocallyCount()).isEqualTo(5);
+        assertThat(report.missingLocally()).hasSize(2);
+    }
+
+    private List<StatementEntry> parse(String csv) {
+        List<StatementEntry> entries = new ArrayList<>();
+        parser.parseCsv(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8))).forEachRemaining(entries::add);
+        return entries;
+    }
+}
@@ -0,0 +1,86 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sarafrika.apps.mpesaservice.dtos.B2CResult;
+import com.sarafrika.apps.mpesaservice.dtos.B2CResultParameter;
+import com.sarafrika.apps.mpesaservice.dtos.ResultParameterIndex;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResultParameterIndexTest {
+
+    private static final String B2C_RESULT = """
+            {"ResultType": 0, "ResultCode": 0, "ResultDesc": "The service request is processed successfully.",
+             "OriginatorConversationID": "10571-7910404-1", "ConversationID": "AG_20191219_00004e48cf7e3533f581",
+             "TransactionID": "NLJ41HAY6Q",
+             "ResultParameters": {"ResultParameter": [
+                {"Key": "TransactionAmount", "Value": 10},
+                {"Key": "TransactionReceipt", "Value": "NLJ41HAY6Q"},
+                {"Key": "ReceiverPartyPublicName", "Value": "254708374149 - John Doe"},
+                {"Key": "TransactionCompletedDateTime", "Value": "19.12.2019 11:45:50"},
+                {"Key": "B2CUtilityAccountAvailableFunds", "Value": 10116.00}]}}
+            """;
+
+    @Test
+    void index_answersEveryKeyFirstOccurrenceWinning() {
+        List<B2CResultParameter> parameters = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            parameters.add(new B2CResultParameter("Key" + i, "value" + i));
+        }
+        parameters.add(new B2CResultParameter("Key7", "shadowed"));
+        parameters.add(new B2CResultParameter(null, "no key"));
+
+        ResultParameterIndex index = ResultParameterIndex.of(parameters, B2CResultParameter::key,
+                B2CResultParameter::value);
+
+        assertThat(index.size()).isEqualTo(41);
+        for (int i = 0; i < 40; i++) {
+            assertThat(index.get("Key" + i)).isEqualTo("value" + i);
+        }
+        assertThat(index.get("Missing")).isNull();
+        assertThat(index.get(null)).isNull();
+        assertThat(ResultParameterIndex.of(null, B2CResultParameter::key, B2CResultParameter::value).get("Key1"))
+                .isNull();
+    }
+
+    @Test
+    void typedAccessors_parseAmountsAndBothTimestampFormats() {
+        ResultParameterIndex index = ResultParameterIndex.of(List.of(
+                        new B2CResultParameter("Amount", " 1500.50 "),
+                        new B2CResultParameter("Broken", "n/a"),
+                        new B2CResultParameter("Dotted", "19.12.2019 11:45:50"),
+                        new B2CResultParameter("Compact", "20191219114550")),
+                B2CResultParameter::key, B2CResultParameter::value);
+
+        assertThat(index.getAmount("Amount")).isEqualByComparingTo("1500.50");
+        assertThat(index.getAmount("Broken")).isNull();
+        assertThat(index.getTimestamp("Dotted")).isEqualTo(LocalDateTime.of(2019, 12, 19, 11, 45, 50));
+        assertThat(index.getTimestamp("Compact")).isEqualTo(LocalDateTime.of(2019, 12, 19, 11, 45, 50));
+        assertThat(index.getTimestamp("Broken")).isNull();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void deserialisedResult_isIndexedAndSerialisesWithoutTheIndex() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        B2CResult result = objectMapper.readValue(B2C_RESULT, B2CResult.class);
+
+        assertThat(result.resultParameters().getTransactionAmount()).isEqualTo("10");
+        assertThat(result.resultParameters().getReceiverPartyPublicName()).isEqualTo("254708374149 - John Doe");
+        assertThat(result.resultParameters().getTransactionCompletedAt())
+                .isEqualTo(LocalDateTime.of(2019, 12, 19, 11, 45, 50));
+        assertThat(result.resultParameters().index().getAmount("B2CUtilityAccountAvailableFunds"))
+                .isEqualByComparingTo("10116");
+
+        Map<String, Object> parameters = (Map<String, Object>) objectMapper.convertValue(result, Map.class)
+                .get("ResultParameters");
+        assertThat(parameters).containsKey("ResultParameter").doesNotContainKeys("index", "transactionCompletedAt");
+    }
+}
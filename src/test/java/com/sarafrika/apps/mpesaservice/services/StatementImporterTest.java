@@ -0,0 +1,42 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.sarafrika.apps.mpesaservice.dtos.StatementEntry;
+import com.sarafrika.apps.mpesaservice.services.support.StatementImporter;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StatementImporterTest {
+
+    private static final LocalDateTime AT = LocalDateTime.of(2026, 3, 14, 9, 26, 53);
+
+    @Test
+    void copyRow_normalisesPayerNameAndAccountFromTheDetails() {
+        String row = StatementImporter.copyRow(new StatementEntry("QCE1ABCDEF", AT, new BigDecimal("1500.00"),
+                true, false, "Pay Bill from 254712345678 - JANE WANJIKU DOE Acc. INV-1"));
+
+        assertThat(row).isEqualTo("QCE1ABCDEF\tC2B\t254712345678\t1500.00\tINV-1\t"
+                + "Pay Bill from 254712345678 - JANE WANJIKU DOE Acc. INV-1\tJANE\tWANJIKU\tDOE\t2026-03-14T09:26:53\n");
+
+        String online = StatementImporter.copyRow(new StatementEntry("QCE2ABCDEF", null, BigDecimal.TEN,
+                true, false, "Pay Bill Online from 2547***678 - JOHN\\DOE"));
+        assertThat(online).isEqualTo("QCE2ABCDEF\tSTK_PUSH\t2547***678\t10\t\\N\t"
+                + "Pay Bill Online from 2547***678 - JOHN\\\\DOE\tJOHN\\\\DOE\t\\N\t\\N\t\\N\n");
+    }
+
+    @Test
+    void copyRow_skipsWithdrawalsChargesAndUnreadableRows() {
+        assertThat(StatementImporter.copyRow(new StatementEntry("R1", AT, BigDecimal.TEN, false, false,
+                "Business Payment to 254712345678"))).isNull();
+        assertThat(StatementImporter.copyRow(new StatementEntry("R2", AT, BigDecimal.ONE, true, true,
+                "Pay Bill Charge"))).isNull();
+        assertThat(StatementImporter.copyRow(new StatementEntry("R3", AT, null, true, false, null))).isNull();
+
+        String undescribed = StatementImporter.copyRow(new StatementEntry("R4", AT, BigDecimal.ONE, true, false,
+                "Funds\tmoved"));
+        assertThat(undescribed).isEqualTo("R4\tC2B\tUNKNOWN\t1\t\\N\tFunds\\tmoved\t\\N\t\\N\t\\N\t2026-03-14T09:26:53\n");
+    }
+}
@@ -0,0 +1,178 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sarafrika.apps.mpesaservice.dtos.MpesaApiResponse;
+import com.sarafrika.apps.mpesaservice.dtos.StkPushRequest;
+import com.sarafrika.apps.mpesaservice.dtos.StkPushResponse;
+import com.sarafrika.apps.mpesaservice.models.MpesaIdempotencyKey;
+import com.sarafrika.apps.mpesaservice.repositories.MpesaIdempotencyKeyRepository;
+import com.sarafrika.apps.mpesaservice.services.support.StkPushIdempotencyGuard;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.math.BigDecimal;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StkPushIdempotencyGuardTest {
+
+    private static final String KEY = "checkout-42-attempt";
+
+    private MpesaIdempotencyKeyRepository repository;
+    private StkPushIdempotencyGuard guard;
+
+    private final StkPushRequest request = new StkPushRequest(
+            UUID.randomUUID(), "254708374149", new BigDecimal("100.00"), "INV-001", "Payment for order");
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(MpesaIdempotencyKeyRepository.class);
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        guard = new StkPushIdempotencyGuard(repository, objectMapper, Duration.ofHours(24), Duration.ofSeconds(5));
+        when(repository.claim(eq(KEY), anyString(), any(), any())).thenReturn(Optional.of(new MpesaIdempotencyKey()));
+    }
+
+    private MpesaApiResponse<StkPushResponse> accepted() {
+        return MpesaApiResponse.success(new StkPushResponse("21605-295434-4", "ws_CO_04112017184930742", "0",
+                "Success. Request accepted for processing", "Check your phone"), HttpStatus.OK.value());
+    }
+
+    @Test
+    void concurrentDuplicates_waitOnFirstAttemptAndCallDarajaOnce() throws Exception {
+        AtomicInteger darajaCalls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int duplicates = 6;
+
+        ExecutorService pool = Executors.newFixedThreadPool(duplicates);
+        try {
+            List<Future<MpesaApiResponse<StkPushResponse>>> results = new ArrayList<>();
+            for (int i = 0; i < duplicates; i++) {
+                results.add(pool.submit(() -> guard.execute(KEY, request, () -> {
+                    darajaCalls.incrementAndGet();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return accepted();
+                })));
+            }
+            Thread.sleep(200);
+            release.countDown();
+
+            for (Future<MpesaApiResponse<StkPushResponse>> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS).data().checkoutRequestId())
+                        .isEqualTo("ws_CO_04112017184930742");
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(darajaCalls.get()).isEqualTo(1);
+        verify(repository, times(1)).complete(eq(KEY), eq(200), anyString());
+    }
+
+    @Test
+    void completedKey_replaysStoredResponseWithoutCallingDaraja() {
+        guard.execute(KEY, request, this::accepted);
+
+        MpesaApiResponse<StkPushResponse> replay = guard.execute(KEY, request, () -> {
+            throw new AssertionError("Daraja must not be called for a completed key");
+        });
+
+        assertThat(replay.success()).isTrue();
+        assertThat(replay.data().checkoutRequestId()).isEqualTo("ws_CO_04112017184930742");
+    }
+
+    @Test
+    void keyOwnedByAnotherNode_replaysResponseStoredInTable() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        String storedJson = objectMapper.writeValueAsString(accepted());
+        when(repository.claim(eq("other-node"), anyString(), any(), any())).thenReturn(Optional.empty());
+        when(repository.findStateByIdempotencyKey("other-node")).thenAnswer(invocation -> {
+            MpesaIdempotencyKeyRepository.KeyState state = mock(MpesaIdempotencyKeyRepository.KeyState.class);
+            when(state.getStatus()).thenReturn("COMPLETED");
+            when(state.getRequestHash()).thenReturn(hashOf(objectMapper));
+            when(state.getResponseBody()).thenReturn(storedJson);
+            when(state.getExpiresAt()).thenReturn(LocalDateTime.now().plusHours(1));
+            return Optional.of(state);
+        });
+
+        MpesaApiResponse<StkPushResponse> replay = guard.execute("other-node", request, () -> {
+            throw new AssertionError("Daraja must not be called for a key claimed elsewhere");
+        });
+
+        assertThat(replay.data().checkoutRequestId()).isEqualTo("ws_CO_04112017184930742");
+    }
+
+    @Test
+    void sameKeyDifferentBody_isRejected() {
+        guard.execute(KEY, request, this::accepted);
+
+        StkPushRequest other = new StkPushRequest(
+                request.shortcodeUuid(), "254708374149", new BigDecimal("250.00"), "INV-001", "Payment for order");
+        MpesaApiResponse<StkPushResponse> response = guard.execute(KEY, other, this::accepted);
+
+        assertThat(response.success()).isFalse();
+        assertThat(response.httpStatus()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY.value());
+        assertThat(response.error().errorCode()).isEqualTo("IDEMPOTENCY_KEY_REUSED");
+    }
+
+    @Test
+    void refusedAttempt_releasesKeySoRetryCanRun() {
+        MpesaApiResponse<StkPushResponse> failed = guard.execute(KEY, request, () ->
+                MpesaApiResponse.error("CLIENT_ERROR", "Daraja 400: Invalid PhoneNumber", 400));
+
+        assertThat(failed.success()).isFalse();
+        verify(repository).release(KEY);
+        verify(repository, times(0)).complete(anyString(), anyInt(), anyString());
+
+        MpesaApiResponse<StkPushResponse> retried = guard.execute(KEY, request, this::accepted);
+        assertThat(retried.success()).isTrue();
+    }
+
+    @Test
+    void outcomeUnknownAttempt_keepsKeyAndReplaysFailure() {
+        MpesaApiResponse<StkPushResponse> failed = guard.execute(KEY, request, () ->
+                MpesaApiResponse.error("NETWORK_ERROR", "Read timed out", HttpStatus.GATEWAY_TIMEOUT.value()));
+
+        assertThat(failed.success()).isFalse();
+        verify(repository, times(0)).release(anyString());
+        verify(repository).complete(eq(KEY), eq(HttpStatus.GATEWAY_TIMEOUT.value()), anyString());
+
+        MpesaApiResponse<StkPushResponse> replay = guard.execute(KEY, request, () -> {
+            throw new AssertionError("Daraja must not be called again after an outcome-unknown failure");
+        });
+        assertThat(replay.error().errorCode()).isEqualTo("NETWORK_ERROR");
+    }
+
+    private String hashOf(ObjectMapper objectMapper) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256")
+                .digest(objectMapper.writeValueAsBytes(request));
+        return HexFormat.of().formatHex(digest);
+    }
+}
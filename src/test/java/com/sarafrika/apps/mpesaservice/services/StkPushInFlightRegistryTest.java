@@ -0,0 +1,93 @@
+package com.sarafrika.apps.mpesaservice.services;
+
+import com.sarafrika.apps.mpesaservice.services.support.StkPushInFlightRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StkPushInFlightRegistryTest {
+
+    private static final String CHECKOUT_ID = "ws_CO_04112017184930742";
+
+    private final StkPushInFlightRegistry registry = new StkPushInFlightRegistry(Duration.ofSeconds(60));
+
+    @Test
+    void secondPromptToSamePhone_isRejectedAcrossMsisdnSpellings() {
+        assertThat(registry.tryAcquire("0708374149")).isTrue();
+
+        assertThat(registry.tryAcquire("254708374149")).isFalse();
+        assertThat(registry.tryAcquire("+254 708 374 149")).isFalse();
+        assertThat(registry.tryAcquire("0711000000")).isTrue();
+
+        assertThat(registry.stats().inFlight()).isEqualTo(2);
+        assertThat(registry.stats().admitted()).isEqualTo(2);
+        assertThat(registry.stats().rejected()).isEqualTo(2);
+    }
+
+    @Test
+    void failedInitiation_releasesPhone() {
+        assertThat(registry.tryAcquire("0708374149")).isTrue();
+
+        registry.release("+254708374149");
+
+        assertThat(registry.tryAcquire("0708374149")).isTrue();
+        assertThat(registry.stats().released()).isEqualTo(1);
+    }
+
+    @Test
+    void callback_releasesOnlyThePromptItBelongsTo() {
+        assertThat(registry.tryAcquire("0708374149")).isTrue();
+        registry.attach("0708374149", CHECKOUT_ID);
+        registry.releaseByCheckoutRequestId(CHECKOUT_ID);
+
+        assertThat(registry.tryAcquire("0708374149")).isTrue();
+        registry.attach("0708374149", "ws_CO_newer");
+
+        // A redelivered callback for the earlier prompt must not free the newer one
+        registry.releaseByCheckoutRequestId(CHECKOUT_ID);
+        assertThat(registry.tryAcquire("0708374149")).isFalse();
+        assertThat(registry.stats().released()).isEqualTo(1);
+    }
+
+    @Test
+    void callbackBeforeAttach_releasesPhoneWhenRetriedAfterAttach() {
+        assertThat(registry.tryAcquire("0708374149")).isTrue();
+
+        // The callback lands while initiateSTKPush still waits to attach its CheckoutRequestID
+        registry.releaseByCheckoutRequestId(CHECKOUT_ID);
+        assertThat(registry.tryAcquire("0708374149")).isFalse();
+
+        // The callback's second completion attempt succeeds after attach and releases again
+        registry.attach("0708374149", CHECKOUT_ID);
+        registry.releaseByCheckoutRequestId(CHECKOUT_ID);
+
+        assertThat(registry.tryAcquire("0708374149")).isTrue();
+    }
+
+    @Test
+    void sweep_expiresPromptsWithoutCallback() throws Exception {
+        StkPushInFlightRegistry shortLived = new StkPushInFlightRegistry(Duration.ofMillis(1));
+        assertThat(shortLived.tryAcquire("0708374149")).isTrue();
+        shortLived.attach("0708374149", CHECKOUT_ID);
+        Thread.sleep(10);
+
+        shortLived.sweep();
+
+        assertThat(shortLived.stats().inFlight()).isZero();
+        assertThat(shortLived.stats().expired()).isEqualTo(1);
+        // The expired prompt's callback finds nothing to release
+        shortLived.releaseByCheckoutRequestId(CHECKOUT_ID);
+        assertThat(shortLived.stats().released()).isZero();
+    }
+
+    @Test
+    void expiredPrompt_doesNotBlockNextPrompt() throws Exception {
+        StkPushInFlightRegistry shortLived = new StkPushInFlightRegistry(Duration.ofMillis(1));
+        assertThat(shortLived.tryAcquire("0708374149")).isTrue();
+        Thread.sleep(10);
+
+        assertThat(shortLived.tryAcquire("0708374149")).isTrue();
+    }
+}